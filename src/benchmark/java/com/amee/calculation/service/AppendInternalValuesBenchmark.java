@@ -0,0 +1,120 @@
+package com.amee.calculation.service;
+
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.data.DataItemNumberValue;
+import com.amee.domain.item.data.DataItemNumberValueHistory;
+import com.amee.platform.science.InternalValue;
+import com.amee.platform.science.StartEndDate;
+import com.amee.service.item.DataItemServiceDAO;
+import com.amee.service.item.DataItemServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmarks the collection of algorithm input values for a DataItem whose ItemDefinition has many
+ * ItemValueDefinitions, as done by CalculationService.getValues.
+ * <p/>
+ * The DataItemServiceDAO is stubbed to return generated values, a fifth of which are history series. Item values are
+ * Mockito stubs created once per trial, so absolute times include a small constant overhead per stubbed call.
+ * The 'cold' benchmark starts a new transaction for every invocation, the 'warm' benchmark re-uses the per-transaction
+ * caches as happens when several calculations share a DataItem.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class AppendInternalValuesBenchmark {
+
+    private static final int HISTORY_LENGTH = 20;
+
+    @Param({"10", "100"})
+    private int itemValueDefinitionCount;
+
+    private CalculationService calculationService;
+    private DataItemServiceImpl dataItemService;
+    private DataItem dataItem;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataItem = mock(DataItem.class);
+        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
+        for (int i = 0; i < itemValueDefinitionCount; i++) {
+            ItemValueDefinition itemValueDefinition = mock(ItemValueDefinition.class);
+            String path = "value" + i;
+            when(itemValueDefinition.getPath()).thenReturn(path);
+            when(itemValueDefinition.getCanonicalPath()).thenReturn(path);
+            if (i % 5 == 0) {
+                for (int j = 0; j < HISTORY_LENGTH; j++) {
+                    itemValues.add(historyValue(itemValueDefinition, path, j));
+                }
+            } else {
+                itemValues.add(value(itemValueDefinition, path));
+            }
+        }
+
+        DataItemServiceDAO dao = mock(DataItemServiceDAO.class);
+        when(dao.getAllItemValues(dataItem)).thenReturn(itemValues);
+        dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+        calculationService = new CalculationService();
+    }
+
+    @Benchmark
+    public Map<ItemValueDefinition, InternalValue> cold() {
+        dataItemService.clearItemValues();
+        return warm();
+    }
+
+    @Benchmark
+    public Map<ItemValueDefinition, InternalValue> warm() {
+        Map<ItemValueDefinition, InternalValue> values = new HashMap<ItemValueDefinition, InternalValue>();
+        calculationService.appendInternalValues(dataItem, dataItemService, values);
+        return values;
+    }
+
+    private BaseItemValue value(ItemValueDefinition itemValueDefinition, String path) {
+        DataItemNumberValue itemValue = mock(DataItemNumberValue.class);
+        stubValue(itemValue, itemValueDefinition, path, "1.5");
+        return itemValue;
+    }
+
+    private BaseItemValue historyValue(ItemValueDefinition itemValueDefinition, String path, int index) {
+        DataItemNumberValueHistory itemValue = mock(DataItemNumberValueHistory.class);
+        stubValue(itemValue, itemValueDefinition, path, String.valueOf(index));
+        when(itemValue.getStartDate()).thenReturn(new StartEndDate(new Date(1262304000000L + index * 86400000L)));
+        return itemValue;
+    }
+
+    private void stubValue(BaseItemValue itemValue, ItemValueDefinition itemValueDefinition, String path, String value) {
+        when(itemValue.getItemValueDefinition()).thenReturn(itemValueDefinition);
+        when(itemValue.getPath()).thenReturn(path);
+        when(itemValue.getDisplayPath()).thenReturn(path);
+        when(itemValue.getValueAsString()).thenReturn(value);
+        when(itemValue.isUsableValue()).thenReturn(true);
+    }
+}
@@ -0,0 +1,113 @@
+package com.amee.calculation.service;
+
+import com.amee.domain.AMEEStatistics;
+import com.amee.domain.algorithm.Algorithm;
+import com.amee.domain.data.ItemDefinition;
+import com.amee.platform.science.ReturnValues;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmarks {@link CalculationService#calculate(Algorithm, Map)} with algorithm scripts representative of those
+ * in the AMEE data categories.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CalculationBenchmark {
+
+    // A single factor, eg electricity.
+    private static final String SIMPLE =
+            "energyConsumption * kgCO2PerKWh";
+
+    // Branching on user choices, eg car journeys.
+    private static final String CONDITIONAL =
+            "var co2;\n" +
+            "if (distance != null) {\n" +
+            "  co2 = distance * kgCO2PerKm * (occupants > 0 ? 1 / occupants : 1);\n" +
+            "} else if (fuelConsumed != null) {\n" +
+            "  co2 = fuelConsumed * kgCO2PerLitre;\n" +
+            "} else {\n" +
+            "  co2 = 0;\n" +
+            "}\n" +
+            "co2;";
+
+    // Helper functions and a loop over several gases, eg fuel combustion.
+    private static final String FUNCTIONS =
+            "function gas(amount, factor, gwp) {\n" +
+            "  return amount * factor * gwp;\n" +
+            "}\n" +
+            "var total = 0;\n" +
+            "var factors = [kgCO2PerKWh, kgCH4PerKWh, kgN2OPerKWh];\n" +
+            "var gwps = [1, 25, 298];\n" +
+            "for (var i = 0; i < factors.length; i++) {\n" +
+            "  total += gas(energyConsumption, factors[i], gwps[i]);\n" +
+            "}\n" +
+            "total;";
+
+    @Param({"simple", "conditional", "functions"})
+    private String script;
+
+    private CalculationService calculationService;
+    private Algorithm algorithm;
+    private Map<String, Object> values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        calculationService = new CalculationService();
+        ReflectionTestUtils.setField(calculationService, "ameeStatistics", mock(AMEEStatistics.class));
+
+        ItemDefinition itemDefinition = mock(ItemDefinition.class);
+        when(itemDefinition.getName()).thenReturn("Benchmark");
+        algorithm = mock(Algorithm.class);
+        when(algorithm.getUid()).thenReturn("AL0000000001");
+        when(algorithm.getName()).thenReturn(Algorithm.DEFAULT);
+        when(algorithm.getModified()).thenReturn(new Date(0));
+        when(algorithm.getItemDefinition()).thenReturn(itemDefinition);
+        if (script.equals("simple")) {
+            when(algorithm.getContent()).thenReturn(SIMPLE);
+        } else if (script.equals("conditional")) {
+            when(algorithm.getContent()).thenReturn(CONDITIONAL);
+        } else {
+            when(algorithm.getContent()).thenReturn(FUNCTIONS);
+        }
+
+        values = new HashMap<String, Object>();
+        values.put("energyConsumption", 1234.5);
+        values.put("kgCO2PerKWh", 0.54);
+        values.put("kgCH4PerKWh", 0.0001);
+        values.put("kgN2OPerKWh", 0.00002);
+        values.put("distance", 100.0);
+        values.put("occupants", 2);
+        values.put("kgCO2PerKm", 0.17);
+        values.put("fuelConsumed", null);
+        values.put("kgCO2PerLitre", 2.3);
+    }
+
+    @Benchmark
+    public ReturnValues calculate() {
+        return calculationService.calculate(algorithm, values);
+    }
+}
@@ -0,0 +1,196 @@
+package com.amee.service.data;
+
+import com.amee.domain.ValueType;
+import com.amee.domain.sheet.Sheet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks cached DataSheets for a generated DataCategory with three drill downs, three number values and the
+ * standard DataItem columns.
+ * <p/>
+ * The trial set up reports the heap retained by one cached sheet in each form: the Sheet object graph, the Rows as
+ * Cell value objects and the whole {@link DataSheetTable} held by the cache, before and after its Sheet is read and
+ * with the changes of {@link DataSheetTable#MIN_CHANGES} updated DataItems. Each is measured as the graph reachable
+ * from the cached object, with the Rows it was created from no longer reachable. The benchmarks measure encoding the
+ * Rows, decoding a Sheet from them, which happens on the first read after each change, reading the held Sheet and
+ * updating the Row of one DataItem.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DataSheetBenchmark {
+
+    private static final String[] TYPES = {"petrol", "diesel", "hybrid", "electric", "lpg", "cng", "biodiesel", "e85"};
+    private static final String[] SIZES = {"small", "medium", "large", "average"};
+
+    @Param({"10000", "50000"})
+    private int itemCount;
+
+    private List<DataSheetTable.Column> columns;
+    private List<DataSheetTable.Row> rows;
+    private DataSheetTable table;
+    private int updates;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        columns = new ArrayList<DataSheetTable.Column>();
+        for (String path : new String[]{"type", "size", "year", "kgCO2PerKm", "kgCH4PerKm", "kgN2OPerKm"}) {
+            columns.add(new DataSheetTable.Column(path, path, false));
+        }
+        for (String path : new String[]{"label", "path", "uid", "created", "modified", "startDate", "endDate"}) {
+            columns.add(new DataSheetTable.Column(path, null,
+                    path.equals("uid") || path.equals("created") || path.equals("modified")));
+        }
+        rows = new ArrayList<DataSheetTable.Row>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            rows.add(createRow(i));
+        }
+
+        System.out.println();
+        System.out.println("Heap retained by one cached sheet of " + itemCount + " DataItems:");
+        System.out.println("  Sheet:       " + retained(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return createTable(createRows()).getSheet();
+            }
+        }) + " bytes");
+        System.out.println("  Cell values: " + retained(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return createRows();
+            }
+        }) + " bytes");
+        System.out.println("  Table:       " + retained(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return createTable(createRows());
+            }
+        }) + " bytes");
+        System.out.println("  Table read:  " + retained(new Callable<Object>() {
+            @Override
+            public Object call() {
+                DataSheetTable table = createTable(createRows());
+                table.getSheet();
+                return table;
+            }
+        }) + " bytes");
+        System.out.println("  Table with changes: " + retained(new Callable<Object>() {
+            @Override
+            public Object call() {
+                DataSheetTable table = createTable(createRows());
+                for (int i = 0; i < DataSheetTable.MIN_CHANGES / 2; i++) {
+                    table.update(uid(i, 0), createRow(i, i + 1));
+                }
+                return table;
+            }
+        }) + " bytes");
+        table = createTable(createRows());
+    }
+
+    @Benchmark
+    public CompactRows encode() {
+        return CompactRows.encode(rows, columns.size());
+    }
+
+    @Benchmark
+    public Sheet decodeSheet() {
+        return table.decodeSheet();
+    }
+
+    @Benchmark
+    public Sheet readSheet() {
+        return table.getSheet();
+    }
+
+    @Benchmark
+    public DataSheetTable update() {
+        // Replace the Row of a DataItem with the values of another, so the Row moves.
+        int i = updates++ % itemCount;
+        table.update(uid(i, 0), createRow(i, (i + 1) % itemCount));
+        return table;
+    }
+
+    private DataSheetTable createTable(List<DataSheetTable.Row> rows) {
+        return new DataSheetTable("DataSheet_DC", "DataSheets", "DC", "en_GB", null, "type,size,year",
+                columns, new int[]{0, 1, 2}, rows);
+    }
+
+    // New Rows with no Strings shared with the generated Rows, as when read from the database.
+    private List<DataSheetTable.Row> createRows() {
+        List<DataSheetTable.Row> copies = new ArrayList<DataSheetTable.Row>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            copies.add(createRow(i));
+        }
+        return copies;
+    }
+
+    private DataSheetTable.Row createRow(int i) {
+        String type = new String(TYPES[i % TYPES.length]);
+        String size = new String(SIZES[(i / TYPES.length) % SIZES.length]);
+        String year = String.valueOf(1990 + (i / (TYPES.length * SIZES.length)) % 20);
+        Timestamp created = new Timestamp(1262304000000L + 1000L * i);
+        return new DataSheetTable.Row(uid(i, 0), new DataSheetTable.Value[]{
+                new DataSheetTable.Value(type, uid(i, 1), ValueType.TEXT),
+                new DataSheetTable.Value(size, uid(i, 2), ValueType.TEXT),
+                new DataSheetTable.Value(year, uid(i, 3), ValueType.TEXT),
+                new DataSheetTable.Value(String.valueOf(0.1 + i * 0.0001), uid(i, 4), ValueType.DOUBLE),
+                new DataSheetTable.Value(String.valueOf(0.001 * (i % 100)), uid(i, 5), ValueType.DOUBLE),
+                new DataSheetTable.Value("0", uid(i, 6), ValueType.DOUBLE),
+                new DataSheetTable.Value(type + ", " + size + ", " + year, null, ValueType.TEXT),
+                new DataSheetTable.Value("", null, ValueType.TEXT),
+                new DataSheetTable.Value(uid(i, 0), null, ValueType.TEXT),
+                new DataSheetTable.Value(created, null, ValueType.DATE),
+                new DataSheetTable.Value(new Timestamp(created.getTime()), null, ValueType.DATE),
+                new DataSheetTable.Value(null, null, ValueType.DATE),
+                new DataSheetTable.Value(null, null, ValueType.DATE)});
+    }
+
+    // A Row for one DataItem with the values of another.
+    private DataSheetTable.Row createRow(int i, int values) {
+        return new DataSheetTable.Row(uid(i, 0), createRow(values).getValues());
+    }
+
+    private static String uid(int item, int value) {
+        return String.format("%04X%08X", value, item);
+    }
+
+    // Estimate the heap retained by the result of a Callable from used memory before and after.
+    private static long retained(Callable<Object> callable) throws Exception {
+        long before = usedMemory();
+        Object result = callable.call();
+        long after = usedMemory();
+        if (result == null) {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,125 @@
+package com.amee.service.data;
+
+import com.amee.domain.sheet.Choice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the drill down SQL used by DataFinder lookups, against an in-memory H2 {@link DrillDownDatabase}.
+ * <p/>
+ * DataFinder.getDataItemValue resolves a DataItem by walking the drill down choices of a DataCategory and then
+ * fetching the DataItem UIDs for the full selection. These are the queries measured here, along with the same
+ * lookups against a {@link DrillDownIndex} and a {@link DrillDownTree}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DrillDownBenchmark {
+
+    @Param({"1000", "10000"})
+    private int itemCount;
+
+    private DrillDownDatabase database;
+    private DrillDownDAO drillDownDao;
+    private DrillDownIndex drillDownIndex;
+    private DrillDownTree drillDownTree;
+    private int item;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new DrillDownDatabase("drillDownBenchmark", itemCount);
+        drillDownDao = database.getDrillDownDao();
+        drillDownIndex = drillDownDao.getDrillDownIndex(database.getDataCategory());
+        drillDownTree = DrillDownTree.build(drillDownIndex, DrillDownTree.DEFAULT_MAX_NODES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Benchmark
+    public List<Choice> topLevelChoices() {
+        return drillDownDao.getDataItemValueChoices(database.getDataCategory(), "type", new ArrayList<Choice>());
+    }
+
+    @Benchmark
+    public List<Choice> secondLevelChoices() {
+        return drillDownDao.getDataItemValueChoices(database.getDataCategory(), "size", nextSelections(1));
+    }
+
+    @Benchmark
+    public List<Choice> dataItemUids() {
+        return drillDownDao.getDataItemUIDChoices(database.getDataCategory(), nextSelections(3));
+    }
+
+    @Benchmark
+    public DrillDownIndex loadIndex() {
+        return drillDownDao.getDrillDownIndex(database.getDataCategory());
+    }
+
+    @Benchmark
+    public List<Choice> indexedTopLevelChoices() {
+        return drillDownIndex.getValueChoices("type", drillDownIndex.getRows(new ArrayList<Choice>()));
+    }
+
+    @Benchmark
+    public List<Choice> indexedSecondLevelChoices() {
+        return drillDownIndex.getValueChoices("size", drillDownIndex.getRows(nextSelections(1)));
+    }
+
+    @Benchmark
+    public List<Choice> indexedDataItemUids() {
+        BitSet rows = drillDownIndex.getRows(nextSelections(3));
+        return drillDownIndex.getUidChoices(rows);
+    }
+
+    @Benchmark
+    public DrillDownTree buildTree() {
+        return DrillDownTree.build(drillDownIndex, DrillDownTree.DEFAULT_MAX_NODES);
+    }
+
+    @Benchmark
+    public List<Choice> treeSecondLevelChoices() {
+        return drillDownTree.getDataItemChoices(nextSelections(1), drillDowns(1));
+    }
+
+    @Benchmark
+    public List<Choice> treeDataItemUids() {
+        return drillDownTree.getDataItemChoices(nextSelections(3), drillDowns(3));
+    }
+
+    // The drill downs remaining after the given number of selections.
+    private List<Choice> drillDowns(int depth) {
+        List<Choice> drillDowns = new ArrayList<Choice>();
+        for (int i = depth; i < DrillDownDatabase.DRILL_DOWNS.length; i++) {
+            drillDowns.add(new Choice(DrillDownDatabase.DRILL_DOWNS[i], DrillDownDatabase.DRILL_DOWNS[i]));
+        }
+        return drillDowns;
+    }
+
+    // Cycle through the generated DataItems so that each invocation has different selections.
+    private List<Choice> nextSelections(int depth) {
+        item = (item + 1) % itemCount;
+        return DrillDownDatabase.getSelections(item, depth);
+    }
+}
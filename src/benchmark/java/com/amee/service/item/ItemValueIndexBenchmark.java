@@ -0,0 +1,130 @@
+package com.amee.service.item;
+
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.data.DataItemNumberValue;
+import com.amee.domain.item.data.DataItemNumberValueHistory;
+import com.amee.platform.science.StartEndDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Benchmarks the item value lookups made for a DataItem with 50 ItemValueDefinitions during a request, where the
+ * calculation, labels, sheet and rendering each read the item value map, the active values and values by UID.
+ * <p/>
+ * Every tenth ItemValueDefinition has a long history. Run with '-prof gc' to report the bytes allocated per
+ * operation, which is the main cost of rebuilding the maps on every call. The 'request' benchmark starts a new
+ * transaction for every invocation, so includes building the {@link ItemValueIndex} once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ItemValueIndexBenchmark {
+
+    private static final int ITEM_VALUE_DEFINITION_COUNT = 50;
+
+    // The number of times a request reads the values of the DataItem.
+    private static final int READS_PER_REQUEST = 4;
+
+    @Param({"100", "1000"})
+    private int historyLength;
+
+    private DataItemServiceImpl dataItemService;
+    private DataItem dataItem;
+    private String[] uids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataItem = mock(DataItem.class);
+        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
+        for (int i = 0; i < ITEM_VALUE_DEFINITION_COUNT; i++) {
+            ItemValueDefinition itemValueDefinition = mock(ItemValueDefinition.class);
+            String path = "value" + i;
+            when(itemValueDefinition.getPath()).thenReturn(path);
+            if (i % 10 == 0) {
+                for (int j = 0; j < historyLength; j++) {
+                    itemValues.add(historyValue(itemValueDefinition, path, i, j));
+                }
+            } else {
+                itemValues.add(value(itemValueDefinition, path, i));
+            }
+        }
+        uids = new String[ITEM_VALUE_DEFINITION_COUNT];
+        for (int i = 0; i < ITEM_VALUE_DEFINITION_COUNT; i++) {
+            uids[i] = uid(i, 0);
+        }
+
+        DataItemServiceDAO dao = mock(DataItemServiceDAO.class);
+        when(dao.getAllItemValues(dataItem)).thenReturn(itemValues);
+        dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+    }
+
+    @Benchmark
+    public void request(Blackhole blackhole) {
+        dataItemService.clearItemValues();
+        for (int i = 0; i < READS_PER_REQUEST; i++) {
+            read(blackhole);
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        blackhole.consume(dataItemService.getItemValuesMap(dataItem));
+        for (BaseItemValue itemValue : dataItemService.getActiveItemValues(dataItem)) {
+            blackhole.consume(itemValue);
+        }
+        for (String uid : uids) {
+            blackhole.consume(dataItemService.getByUid(dataItem, uid));
+        }
+    }
+
+    private BaseItemValue value(ItemValueDefinition itemValueDefinition, String path, int index) {
+        DataItemNumberValue itemValue = mock(DataItemNumberValue.class);
+        stubValue(itemValue, itemValueDefinition, path, uid(index, 0));
+        return itemValue;
+    }
+
+    private BaseItemValue historyValue(ItemValueDefinition itemValueDefinition, String path, int index, int entry) {
+        DataItemNumberValueHistory itemValue = mock(DataItemNumberValueHistory.class);
+        stubValue(itemValue, itemValueDefinition, path, uid(index, entry));
+        when(itemValue.getStartDate()).thenReturn(new StartEndDate(new Date(1262304000000L + entry * 86400000L)));
+        return itemValue;
+    }
+
+    private void stubValue(BaseItemValue itemValue, ItemValueDefinition itemValueDefinition, String path, String uid) {
+        when(itemValue.getItemValueDefinition()).thenReturn(itemValueDefinition);
+        when(itemValue.getUid()).thenReturn(uid);
+        when(itemValue.getPath()).thenReturn(path);
+        when(itemValue.getDisplayPath()).thenReturn(path);
+        when(itemValue.getValueAsString()).thenReturn("1.5");
+    }
+
+    private static String uid(int index, int entry) {
+        return String.format("%04X%08X", entry, index);
+    }
+}
@@ -0,0 +1,90 @@
+package com.amee.service.item;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.measure.quantity.Duration;
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link ProrataEngine} used by ProfileItemServiceImpl.prorataProfileItems over large sets of
+ * ProfileItem intervals.
+ * <p/>
+ * The ProfileItems are generated as they would be passed to the engine: parallel arrays of start and end times, a
+ * share of unbounded items, one amount per item and a mix of perTime units.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProrataBenchmark {
+
+    private static final long YEAR = 365L * 24 * 60 * 60 * 1000;
+    private static final long REQUEST_START = 1262304000000L;
+
+    @SuppressWarnings("unchecked")
+    private static final Unit<Duration>[] PER_UNITS = new Unit[]{SI.SECOND, NonSI.HOUR, NonSI.DAY, NonSI.MONTH, NonSI.YEAR};
+
+    @Param({"10000", "100000"})
+    private int itemCount;
+
+    private long[] starts;
+    private long[] ends;
+    private double[] amounts;
+    private Unit<Duration>[] perUnits;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Random random = new Random(20121018L);
+        starts = new long[itemCount];
+        ends = new long[itemCount];
+        amounts = new double[itemCount];
+        perUnits = new Unit[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            // Items overlap the start of the requested year.
+            starts[i] = REQUEST_START - (long) (random.nextDouble() * YEAR);
+            ends[i] = (i % 4 == 0) ? ProrataEngine.UNBOUNDED : REQUEST_START + (long) (random.nextDouble() * YEAR);
+            amounts[i] = random.nextDouble() * 1000;
+            perUnits[i] = PER_UNITS[i % PER_UNITS.length];
+        }
+    }
+
+    @Benchmark
+    public void prorateAmounts(Blackhole blackhole) {
+        ProrataEngine engine = new ProrataEngine(REQUEST_START, REQUEST_START + YEAR);
+        long[] intersectDurations = engine.getIntersectDurations(starts, ends);
+        double[] ratios = engine.getIntersectRatios(intersectDurations, engine.getItemDurations(starts, ends));
+        for (int i = 0; i < itemCount; i++) {
+            if (!Double.isNaN(ratios[i])) {
+                blackhole.consume(amounts[i] * ratios[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public void proratePerTimeValues(Blackhole blackhole) {
+        ProrataEngine engine = new ProrataEngine(REQUEST_START, REQUEST_START + YEAR);
+        long[] intersectDurations = engine.getIntersectDurations(starts, ends);
+        for (int i = 0; i < itemCount; i++) {
+            blackhole.consume(engine.prorate(amounts[i], perUnits[i], intersectDurations[i]));
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.amee.calculation.service;
+
+import com.amee.domain.APIVersion;
+import com.amee.domain.DataItemService;
+import com.amee.domain.ObjectType;
+import com.amee.domain.algorithm.Algorithm;
+import com.amee.domain.algorithm.AlgorithmContext;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.sheet.Choice;
+import com.amee.domain.sheet.Choices;
+import com.amee.platform.science.Note;
+import com.amee.platform.science.ReturnValue;
+import com.amee.platform.science.ReturnValues;
+import com.amee.service.invalidation.InvalidationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in, bounded cache of {@link ReturnValues} for DataItem calculations.
+ * <p/>
+ * A DataItem calculation is a pure function of the Algorithm, the DataItem values in force and the user supplied
+ * choices. Results are keyed on a digest of all of these, including modification timestamps, and are evicted when
+ * the DataItem, its DataCategory, ItemDefinition or Algorithm are invalidated. Algorithms (or AlgorithmContexts) that
+ * use the ProfileFinder, DataFinder or ServiceFinder read state outside of these inputs and are never cached, nor are
+ * results with an error note.
+ * <p/>
+ * ReturnValues are copied when cached and when returned, so callers may modify them.
+ * <p/>
+ * The cache is disabled unless the 'amee.calculationCache' system property is true.
+ */
+@Service
+public class CalculationResultCache implements ApplicationListener<InvalidationMessage> {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final String[] UNCACHEABLE_ALGORITHM_TOKENS = {"profileFinder", "dataFinder", "serviceFinder"};
+
+    @Autowired
+    private DataItemService dataItemService;
+
+    private boolean enabled = false;
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Least recently used map of digest to cached result.
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxSize) {
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // Digests of the cached results related to each entity, keyed by entity type and UID. Guarded by entries.
+    private final Map<String, Set<String>> keysByEntity = new HashMap<String, Set<String>>();
+
+    // Events
+
+    @Override
+    public void onApplicationEvent(InvalidationMessage invalidationMessage) {
+        if (enabled && (invalidationMessage.isLocal() || invalidationMessage.isFromOtherInstance())) {
+            ObjectType objectType = invalidationMessage.getObjectType();
+            if (objectType.equals(ObjectType.DC) && invalidationMessage.hasOnlyOptionValues("dataItem")) {
+                log.trace("onApplicationEvent() Handling InvalidationMessage.");
+                for (String dataItemUid : invalidationMessage.getOptionValues("dataItem")) {
+                    remove(ObjectType.DI, dataItemUid);
+                }
+            } else if (objectType.equals(ObjectType.DI) ||
+                    objectType.equals(ObjectType.DC) ||
+                    objectType.equals(ObjectType.ID) ||
+                    objectType.equals(ObjectType.AL)) {
+                log.trace("onApplicationEvent() Handling InvalidationMessage.");
+                remove(objectType, invalidationMessage.getEntityUid());
+            }
+        }
+    }
+
+    /**
+     * Get the cache key for a DataItem calculation.
+     *
+     * @param dataItem         the DataItem for the calculation
+     * @param algorithm        the Algorithm to be used
+     * @param userValueChoices user supplied value choices, may be null
+     * @param version          the APIVersion
+     * @return the key, or null if the cache is disabled or the calculation cannot be cached
+     */
+    public String getKey(DataItem dataItem, Algorithm algorithm, Choices userValueChoices, APIVersion version) {
+        if (!enabled || !isCacheable(algorithm)) {
+            return null;
+        }
+
+        // The calculation inputs in a canonical form.
+        StringBuilder inputs = new StringBuilder();
+        appendEntity(inputs, algorithm.getUid(), algorithm.getModified());
+        AlgorithmContext algorithmContext = algorithm.getAlgorithmContext();
+        if (algorithmContext != null) {
+            appendEntity(inputs, algorithmContext.getUid(), algorithmContext.getModified());
+        }
+        appendEntity(inputs, dataItem.getItemDefinition().getUid(), dataItem.getItemDefinition().getModifiedDeep());
+        appendEntity(inputs, dataItem.getUid(), dataItem.getModified());
+        inputs.append(getTime(dataItem.getEffectiveStartDate())).append('|');
+        inputs.append(getTime(dataItem.getEffectiveEndDate())).append('|');
+        inputs.append(version != null ? version.getVersion() : "").append('|');
+
+        // DataItem values, ordered by UID.
+        List<String> itemValues = new ArrayList<String>();
+        for (BaseItemValue itemValue : dataItemService.getActiveItemValues(dataItem)) {
+            itemValues.add(itemValue.getUid() + ':' + getTime(itemValue.getModified()));
+        }
+        Collections.sort(itemValues);
+        for (String itemValue : itemValues) {
+            inputs.append(itemValue).append('|');
+        }
+
+        // User choices, ordered by name.
+        if (userValueChoices != null) {
+            List<String> choices = new ArrayList<String>();
+            for (Choice choice : userValueChoices.getChoices()) {
+                choices.add(choice.getName() + '=' + choice.getValue());
+            }
+            Collections.sort(choices);
+            for (String choice : choices) {
+                inputs.append(choice.length()).append(':').append(choice).append('|');
+            }
+        }
+
+        return digest(inputs.toString());
+    }
+
+    /**
+     * Get a cached result.
+     *
+     * @param key from {@link #getKey(DataItem, Algorithm, Choices, APIVersion)}
+     * @return the cached ReturnValues or null if not present
+     */
+    public ReturnValues get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            log.debug("get() - hit: {}", key);
+            return copy(entry.returnValues);
+        } else {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Cache a calculation result. Results with an error note are not cached.
+     *
+     * @param key          from {@link #getKey(DataItem, Algorithm, Choices, APIVersion)}
+     * @param dataItem     the DataItem used in the calculation
+     * @param algorithm    the Algorithm used in the calculation
+     * @param returnValues the calculation result
+     */
+    public void put(String key, DataItem dataItem, Algorithm algorithm, ReturnValues returnValues) {
+        if (isError(returnValues)) {
+            return;
+        }
+        Entry entry = new Entry(
+                dataItem.getUid(),
+                dataItem.getDataCategory().getUid(),
+                dataItem.getItemDefinition().getUid(),
+                algorithm.getUid(),
+                copy(returnValues));
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                unindex(key, previous);
+            }
+            index(key, entry);
+        }
+    }
+
+    /**
+     * Remove all cached results related to the identified entity.
+     *
+     * @param objectType the entity type, one of DI, DC, ID or AL
+     * @param uid        the entity UID
+     */
+    public void remove(ObjectType objectType, String uid) {
+        int removed = 0;
+        synchronized (entries) {
+            Set<String> keys = keysByEntity.remove(getEntityKey(objectType.getName(), uid));
+            if (keys != null) {
+                for (String key : keys) {
+                    Entry entry = entries.remove(key);
+                    if (entry != null) {
+                        unindex(key, entry);
+                        removed++;
+                    }
+                }
+            }
+        }
+        log.debug("remove() - removed {} results for {} {}", new Object[]{removed, objectType, uid});
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            keysByEntity.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Algorithms that use the finders depend on state other than the calculation inputs. The AlgorithmContext is
+     * evaluated with the Algorithm so it is checked too.
+     *
+     * @param algorithm to check
+     * @return true if results for the Algorithm may be cached
+     */
+    boolean isCacheable(Algorithm algorithm) {
+        String content = algorithm.getContent();
+        if (content == null) {
+            return false;
+        }
+        AlgorithmContext algorithmContext = algorithm.getAlgorithmContext();
+        return isCacheable(content) &&
+                ((algorithmContext == null) || (algorithmContext.getContent() == null) ||
+                        isCacheable(algorithmContext.getContent()));
+    }
+
+    private boolean isCacheable(String content) {
+        for (String token : UNCACHEABLE_ALGORITHM_TOKENS) {
+            if (content.contains(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isError(ReturnValues returnValues) {
+        for (Note note : returnValues.getNotes()) {
+            if ("error".equals(note.getType())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A copy of the ReturnValues, so that cached results are not shared with callers.
+    private ReturnValues copy(ReturnValues returnValues) {
+        ReturnValues copy = new ReturnValues();
+        for (ReturnValue returnValue : returnValues.getReturnValues().values()) {
+            copy.putValue(returnValue.getType(), returnValue.getUnit(), returnValue.getPerUnit(), returnValue.getValue());
+        }
+        copy.setDefaultType(returnValues.getDefaultType());
+        for (Note note : returnValues.getNotes()) {
+            copy.addNote(note.getType(), note.getValue());
+        }
+        return copy;
+    }
+
+    // Must be called while holding the entries lock.
+    private void index(String key, Entry entry) {
+        for (String entityKey : entry.getEntityKeys()) {
+            Set<String> keys = keysByEntity.get(entityKey);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysByEntity.put(entityKey, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    // Must be called while holding the entries lock.
+    private void unindex(String key, Entry entry) {
+        for (String entityKey : entry.getEntityKeys()) {
+            Set<String> keys = keysByEntity.get(entityKey);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByEntity.remove(entityKey);
+                }
+            }
+        }
+    }
+
+    private static String getEntityKey(String objectType, String uid) {
+        return objectType + ':' + uid;
+    }
+
+    private void appendEntity(StringBuilder inputs, String uid, Date modified) {
+        inputs.append(uid).append(':').append(getTime(modified)).append('|');
+    }
+
+    private long getTime(Date date) {
+        return date != null ? date.getTime() : -1;
+    }
+
+    private String digest(String inputs) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(inputs.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16));
+                key.append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Caught NoSuchAlgorithmException: " + e.getMessage(), e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Caught UnsupportedEncodingException: " + e.getMessage(), e);
+        }
+    }
+
+    @Value("#{ systemProperties['amee.calculationCache'] }")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = (enabled != null) && enabled;
+    }
+
+    @Value("#{ systemProperties['amee.calculationCacheSize'] }")
+    public void setMaxSize(Integer maxSize) {
+        this.maxSize = (maxSize != null) && (maxSize > 0) ? maxSize : DEFAULT_MAX_SIZE;
+    }
+
+    private static class Entry {
+
+        private final String dataItemUid;
+        private final String dataCategoryUid;
+        private final String itemDefinitionUid;
+        private final String algorithmUid;
+        private final ReturnValues returnValues;
+
+        private Entry(String dataItemUid, String dataCategoryUid, String itemDefinitionUid, String algorithmUid, ReturnValues returnValues) {
+            this.dataItemUid = dataItemUid;
+            this.dataCategoryUid = dataCategoryUid;
+            this.itemDefinitionUid = itemDefinitionUid;
+            this.algorithmUid = algorithmUid;
+            this.returnValues = returnValues;
+        }
+
+        private String[] getEntityKeys() {
+            return new String[]{
+                    getEntityKey(ObjectType.DI.getName(), dataItemUid),
+                    getEntityKey(ObjectType.DC.getName(), dataCategoryUid),
+                    getEntityKey(ObjectType.ID.getName(), itemDefinitionUid),
+                    getEntityKey(ObjectType.AL.getName(), algorithmUid)};
+        }
+    }
+}
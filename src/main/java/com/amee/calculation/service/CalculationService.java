@@ -7,7 +7,6 @@ import com.amee.domain.data.ItemValueDefinition;
 import com.amee.domain.data.ItemValueMap;
 import com.amee.domain.item.BaseItem;
 import com.amee.domain.item.BaseItemValue;
-import com.amee.domain.item.UsableValuePredicate;
 import com.amee.domain.item.data.DataItem;
 import com.amee.domain.item.profile.BaseProfileItemValue;
 import com.amee.domain.item.profile.ProfileItem;
@@ -19,7 +18,10 @@ import com.amee.platform.science.AlgorithmRunner;
 import com.amee.platform.science.ExternalGenericValue;
 import com.amee.platform.science.InternalValue;
 import com.amee.platform.science.ReturnValues;
-import org.apache.commons.collections.CollectionUtils;
+import com.amee.service.item.IndexedDataItemService;
+import com.amee.service.item.IndexedItemService;
+import com.amee.service.item.IndexedProfileItemService;
+import com.amee.service.item.ItemValueSeries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
@@ -44,10 +46,13 @@ public class CalculationService implements CO2CalculationService, BeanFactoryAwa
     private AMEEStatistics ameeStatistics;
 
     @Autowired
-    private DataItemService dataItemService;
+    private IndexedDataItemService dataItemService;
 
     @Autowired
-    private ProfileItemService profileItemService;
+    private IndexedProfileItemService profileItemService;
+
+    @Autowired
+    private CalculationResultCache calculationResultCache;
 
     private AlgorithmRunner algorithmRunner = new AlgorithmRunner();
 
@@ -85,8 +90,22 @@ public class CalculationService implements CO2CalculationService, BeanFactoryAwa
     public ReturnValues calculate(DataItem dataItem, Choices userValueChoices, APIVersion version) {
         Algorithm algorithm = dataItem.getItemDefinition().getAlgorithm(Algorithm.DEFAULT);
         if (algorithm != null) {
+
+            // Use a previous result for identical inputs if we can.
+            String key = calculationResultCache.getKey(dataItem, algorithm, userValueChoices, version);
+            if (key != null) {
+                ReturnValues returnValues = calculationResultCache.get(key);
+                if (returnValues != null) {
+                    return returnValues;
+                }
+            }
+
             Map<String, Object> values = getValues(dataItem, userValueChoices, version);
-            return calculate(algorithm, values);
+            ReturnValues returnValues = calculate(algorithm, values);
+            if (key != null) {
+                calculationResultCache.put(key, dataItem, algorithm, returnValues);
+            }
+            return returnValues;
         }
         return new ReturnValues();
     }
@@ -205,31 +224,58 @@ public class CalculationService implements CO2CalculationService, BeanFactoryAwa
      * @param item
      * @param values - the {@link com.amee.platform.science.InternalValue} collection
      */
-    @SuppressWarnings("unchecked")
-    public void appendInternalValues(BaseItem item, ItemService itemService, Map<ItemValueDefinition, InternalValue> values) {
+    public void appendInternalValues(BaseItem item, IndexedItemService itemService, Map<ItemValueDefinition, InternalValue> values) {
         ItemValueMap itemValueMap = itemService.getItemValuesMap(item);
         for (Object path : itemValueMap.keySet()) {
-            // Get all ItemValues with this ItemValueDefinition path.
-            List<BaseItemValue> itemValues = itemService.getAllItemValues(item, (String) path);
-            if (itemValues.size() > 1) {
-                appendTimeSeriesItemValue(item, values, itemValues);
-            } else if (itemValues.size() == 1) {
-                appendSingleValuedItemValue(values, itemValues.get(0));
-            }
+            // Get the shared series of ItemValues with this ItemValueDefinition path.
+            appendItemValues(item, values, itemService.getItemValueSeries(item, (String) path));
         }
     }
 
-    // Add a BaseItemValue timeseries to the InternalValue collection.
+    /**
+     * Add the Item's {@link com.amee.domain.item.BaseItemValue} collection to the passed {@link com.amee.platform.science.InternalValue} collection.
+     * <p/>
+     * The ItemValueSeries are shared within the transaction if the ItemService is an {@link IndexedItemService},
+     * otherwise they are created for this call.
+     *
+     * @param item
+     * @param values - the {@link com.amee.platform.science.InternalValue} collection
+     */
+    public void appendInternalValues(BaseItem item, ItemService itemService, Map<ItemValueDefinition, InternalValue> values) {
+        if (itemService instanceof IndexedItemService) {
+            appendInternalValues(item, (IndexedItemService) itemService, values);
+        } else {
+            ItemValueMap itemValueMap = itemService.getItemValuesMap(item);
+            for (Object path : itemValueMap.keySet()) {
+                appendItemValues(item, values, ItemValueSeries.create(itemService.getAllItemValues(item, (String) path)));
+            }
+        }
+    }
 
-    @SuppressWarnings("unchecked")
-    private void appendTimeSeriesItemValue(BaseItem item, Map<ItemValueDefinition, InternalValue> values, List<BaseItemValue> itemValues) {
-        ItemValueDefinition ivd = itemValues.get(0).getItemValueDefinition();
+    private void appendItemValues(BaseItem item, Map<ItemValueDefinition, InternalValue> values, ItemValueSeries series) {
+        if (series.size() > 1) {
+            appendTimeSeriesItemValue(item, values, series);
+        } else if (series.size() == 1) {
+            appendSingleValuedItemValue(values, series.getItemValue(0));
+        }
+    }
 
-        // Add all BaseItemValues with usable values
-        List<ExternalGenericValue> usableSet = (List<ExternalGenericValue>) CollectionUtils.select(itemValues, new UsableValuePredicate());
+    // Add a BaseItemValue timeseries to the InternalValue collection, using the usable values within the effective
+    // date window of the item.
 
-        if (!usableSet.isEmpty()) {
-            values.put(ivd, new InternalValue(usableSet, item.getEffectiveStartDate(), item.getEffectiveEndDate()));
+    @SuppressWarnings("unchecked")
+    private void appendTimeSeriesItemValue(BaseItem item, Map<ItemValueDefinition, InternalValue> values, ItemValueSeries series) {
+        ItemValueSeries usable = series.getUsable();
+        if (!usable.isEmpty()) {
+            ItemValueDefinition ivd = usable.getItemValue(0).getItemValueDefinition();
+
+            // InternalValue only uses the value in force at the start date and those starting before the end date, so
+            // it is given the index range covering them. The range is a view of the shared series, which InternalValue
+            // may sort without changing the series.
+            int from = usable.getWindowStart(item.getEffectiveStartDate());
+            int to = usable.getWindowEnd(item.getEffectiveEndDate());
+            List usableSet = usable.getItemValues(from, to);
+            values.put(ivd, new InternalValue((List<ExternalGenericValue>) usableSet, item.getEffectiveStartDate(), item.getEffectiveEndDate()));
             log.debug("appendTimeSeriesItemValue() - added timeseries value {}", ivd.getPath());
         }
     }
@@ -0,0 +1,64 @@
+package com.amee.calculation.service;
+
+/**
+ * A simple circuit breaker guarding calls to a remote service.
+ * <p/>
+ * The breaker opens after a number of consecutive failures. Whilst open, calls are rejected immediately
+ * rather than waiting on a service that is known to be failing. Once the open period has elapsed a single
+ * trial call is allowed through; success closes the breaker and failure re-opens it.
+ */
+class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openPeriod;
+
+    private int failures = 0;
+    private long openedAt = -1;
+    private boolean trialInProgress = false;
+
+    CircuitBreaker(int failureThreshold, long openPeriod) {
+        this.failureThreshold = failureThreshold;
+        this.openPeriod = openPeriod;
+    }
+
+    /**
+     * Should a call to the remote service be attempted?
+     *
+     * @return true if the breaker is closed, or if the open period has elapsed and no other trial call is
+     *         in progress
+     */
+    synchronized boolean allowRequest() {
+        if (openedAt < 0) {
+            return true;
+        }
+        if (!trialInProgress && (System.currentTimeMillis() - openedAt >= openPeriod)) {
+            trialInProgress = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a successful call, closing the breaker.
+     */
+    synchronized void recordSuccess() {
+        failures = 0;
+        openedAt = -1;
+        trialInProgress = false;
+    }
+
+    /**
+     * Record a failed call, opening the breaker if the failure threshold has been reached or a trial call failed.
+     */
+    synchronized void recordFailure() {
+        failures++;
+        if (trialInProgress || (failures >= failureThreshold)) {
+            openedAt = System.currentTimeMillis();
+        }
+        trialInProgress = false;
+    }
+
+    synchronized boolean isOpen() {
+        return openedAt >= 0;
+    }
+}
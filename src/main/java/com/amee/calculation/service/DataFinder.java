@@ -1,6 +1,5 @@
 package com.amee.calculation.service;
 
-import com.amee.domain.DataItemService;
 import com.amee.domain.IDataCategoryReference;
 import com.amee.domain.item.BaseItemValue;
 import com.amee.domain.item.data.DataItem;
@@ -9,9 +8,12 @@ import com.amee.domain.sheet.Choices;
 import com.amee.platform.science.Amount;
 import com.amee.platform.science.DataPoint;
 import com.amee.platform.science.DataSeries;
-import com.amee.platform.science.ExternalHistoryValue;
 import com.amee.service.data.DataService;
 import com.amee.service.data.DrillDownService;
+import com.amee.service.item.DataItemValuesCache;
+import com.amee.service.item.DataItemValuesSnapshot;
+import com.amee.service.item.IndexedDataItemService;
+import com.amee.service.item.ItemValueSeries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.joda.time.DateTime;
@@ -20,7 +22,6 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import java.util.Date;
-import java.util.List;
 
 /**
  * This class provides methods to be used by javascript algorithms for Data Item access.
@@ -36,11 +37,14 @@ public class DataFinder {
     private DataService dataService;
 
     @Autowired
-    private DataItemService dataItemService;
+    private IndexedDataItemService dataItemService;
 
     @Autowired
     private DrillDownService drillDownService;
 
+    @Autowired
+    private DataItemValuesCache dataItemValuesCache;
+
     private Date startDate = new Date();
     private Date endDate;
 
@@ -61,14 +65,31 @@ public class DataFinder {
         series.setSeriesStartDate(new DateTime(startDate));
         series.setSeriesEndDate(new DateTime(endDate));
         DataItem dataItem = getDataItem(path, drillDown);
-        if (dataItem != null) {
-            // Get all the values
-            List<BaseItemValue> itemValues = dataItemService.getAllItemValues(dataItem, name);
-            for (BaseItemValue value : itemValues) {
-                if (ExternalHistoryValue.class.isAssignableFrom(value.getClass())) {
-                    series.addDataPoint(new DataPoint(((ExternalHistoryValue) value).getStartDate().toDateTime(), new Amount(value.getValueAsString())));
+        DataItemValuesSnapshot snapshot = (dataItem != null) ? dataItemValuesCache.get(dataItem) : null;
+        if (snapshot != null) {
+            // Get all the values from the shared snapshot
+            DataItemValuesSnapshot.Series itemValues = snapshot.getSeries(name);
+            for (int i = 0; i < itemValues.size(); i++) {
+                double value = itemValues.getValue(i);
+                Amount amount = Double.isNaN(value) ?
+                        new Amount(itemValues.getValueAsString(i)) : new Amount(value);
+                if (itemValues.isHistory(i)) {
+                    series.addDataPoint(new DataPoint(new DateTime(itemValues.getStartTime(i)), amount));
+                } else {
+                    series.addDataPoint(new DataPoint(amount));
+                }
+            }
+        } else if (dataItem != null) {
+            // Get all the values from the shared series
+            ItemValueSeries itemValues = dataItemService.getItemValueSeries(dataItem, name);
+            for (int i = 0; i < itemValues.size(); i++) {
+                double value = itemValues.getValue(i);
+                Amount amount = Double.isNaN(value) ?
+                        new Amount(itemValues.getItemValue(i).getValueAsString()) : new Amount(value);
+                if (itemValues.isHistory(i)) {
+                    series.addDataPoint(new DataPoint(new DateTime(itemValues.getStartTime(i)), amount));
                 } else {
-                    series.addDataPoint(new DataPoint(new Amount(value.getValueAsString())));
+                    series.addDataPoint(new DataPoint(amount));
                 }
             }
         }
@@ -88,7 +109,10 @@ public class DataFinder {
         String value = null;
         BaseItemValue itemValue;
         DataItem dataItem = getDataItem(path, drillDown);
-        if (dataItem != null) {
+        DataItemValuesSnapshot snapshot = (dataItem != null) ? dataItemValuesCache.get(dataItem) : null;
+        if ((snapshot != null) && !snapshot.getSeries(name).isEmpty()) {
+            value = snapshot.getSeries(name).getValueAsStringAt(dataItem.getEffectiveStartDate());
+        } else if (dataItem != null) {
             itemValue = dataItemService.getItemValue(dataItem, name);
             if (itemValue != null) {
                 value = itemValue.getValueAsString();
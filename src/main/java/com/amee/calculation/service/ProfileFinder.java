@@ -2,9 +2,9 @@ package com.amee.calculation.service;
 
 import com.amee.domain.AMEEStatistics;
 import com.amee.domain.IDataCategoryReference;
-import com.amee.domain.ProfileItemService;
 import com.amee.domain.item.BaseItemValue;
 import com.amee.domain.item.profile.ProfileItem;
+import com.amee.service.item.IndexedProfileItemService;
 import com.amee.service.profile.ProfileService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +22,7 @@ public class ProfileFinder {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     @Autowired
-    private ProfileItemService profileItemService;
+    private IndexedProfileItemService profileItemService;
 
     @Autowired
     private AMEEStatistics ameeStatistics;
@@ -57,6 +57,7 @@ public class ProfileFinder {
             iv = profileItemService.getItemValue(pi, name);
             if (iv != null) {
                 iv.setValue(value);
+                profileItemService.clearItemValueIndex(pi);
                 ameeStatistics.updateProfileItemValue();
             }
         }
@@ -68,6 +69,7 @@ public class ProfileFinder {
             iv = profileItemService.getItemValue(profileItem, name);
             if (iv != null) {
                 iv.setValue(value);
+                profileItemService.clearItemValueIndex(profileItem);
                 ameeStatistics.updateProfileItemValue();
             }
         }
@@ -0,0 +1,106 @@
+package com.amee.calculation.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, time-limited cache of route distances keyed on the origin and destination stations.
+ * <p/>
+ * Invalid routes are cached as well as valid ones so that repeated requests for a route the upstream API
+ * cannot resolve do not result in repeated remote calls. Entries are evicted in least-recently-used order
+ * once the cache is full and are ignored once older than the configured time-to-live.
+ */
+class RouteDistanceCache {
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final Map<String, Entry> entries;
+
+    RouteDistanceCache(final int maxSize, long timeToLive) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > RouteDistanceCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cached result for a route.
+     *
+     * @param origin      the origin station
+     * @param destination the destination station
+     * @return the cached Entry, or null if the route is not cached or the cached result has expired
+     */
+    synchronized Entry get(String origin, String destination) {
+        String key = getKey(origin, destination);
+        Entry entry = entries.get(key);
+        if ((entry != null) && entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key);
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache the distance for a valid route.
+     *
+     * @param origin      the origin station
+     * @param destination the destination station
+     * @param distance    the distance in metres
+     */
+    synchronized void putDistance(String origin, String destination, String distance) {
+        entries.put(getKey(origin, destination), new Entry(distance, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Cache the fact that no valid route exists between two stations.
+     *
+     * @param origin      the origin station
+     * @param destination the destination station
+     */
+    synchronized void putInvalid(String origin, String destination) {
+        entries.put(getKey(origin, destination), new Entry(null, System.currentTimeMillis() + timeToLive));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    private String getKey(String origin, String destination) {
+        // Station names cannot contain a newline so it is safe to use as a separator.
+        return origin + "\n" + destination;
+    }
+
+    /**
+     * A cached route result. A null distance represents an invalid route.
+     */
+    static class Entry {
+
+        private final String distance;
+        private final long expires;
+
+        private Entry(String distance, long expires) {
+            this.distance = distance;
+            this.expires = expires;
+        }
+
+        boolean isValid() {
+            return distance != null;
+        }
+
+        String getDistance() {
+            return distance;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+}
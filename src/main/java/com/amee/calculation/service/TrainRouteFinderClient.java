@@ -0,0 +1,118 @@
+package com.amee.calculation.service;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+
+/**
+ * The pooled HttpClient, route cache and circuit breaker used to call the Train Route-finder API.
+ * <p/>
+ * {@link TrainRouteFinderService} instances are created per use, so these are held once per application rather
+ * than per service instance. Use {@link #getShared()}, or declare it as a Spring bean with
+ * {@code factory-method="getShared"} so the connection pool is shut down with the application context.
+ */
+public class TrainRouteFinderClient implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(TrainRouteFinderClient.class);
+
+    // Retry and timeout parameters. Calls to the train service API exceeding these tolerances will
+    // result in exceptions being thrown out to the calling code.
+    private static final int API_TIMEOUT = 5000;
+    private static final int API_CONNECT_TIMEOUT = 2000;
+    private static final int API_RETRIES = 2;
+    private static final int API_MAX_CONNECTIONS = 20;
+
+    // Route cache parameters. Both valid and invalid routes are cached.
+    private static final int ROUTE_CACHE_SIZE = 10000;
+    private static final long ROUTE_CACHE_TTL = 24 * 60 * 60 * 1000L;
+
+    // Circuit breaker parameters. After this many consecutive failures calls to the API are rejected
+    // immediately until the open period has elapsed.
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_OPEN_PERIOD = 30 * 1000L;
+
+    private static TrainRouteFinderClient shared;
+
+    // Custom retry handler configured with the defined tolerances.
+    private static final HttpRequestRetryHandler retryHandler = new HttpRequestRetryHandler() {
+        public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+            log.warn("retryRequest - " + exception.getMessage() + ", executionCount: " + executionCount);
+            // Do not retry if over max retry count
+            return executionCount < API_RETRIES;
+        }
+    };
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final HttpClient httpClient;
+    private final RouteDistanceCache routeCache;
+    private final CircuitBreaker circuitBreaker;
+
+    TrainRouteFinderClient(RouteDistanceCache routeCache, CircuitBreaker circuitBreaker) {
+        this.routeCache = routeCache;
+        this.circuitBreaker = circuitBreaker;
+        HttpParams httpParams = new BasicHttpParams();
+        httpParams.setParameter(CoreConnectionPNames.SO_TIMEOUT, API_TIMEOUT);
+        httpParams.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, API_CONNECT_TIMEOUT);
+        connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(API_MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(API_MAX_CONNECTIONS);
+        DefaultHttpClient defaultHttpClient = new DefaultHttpClient(connectionManager, httpParams);
+        defaultHttpClient.setHttpRequestRetryHandler(retryHandler);
+        httpClient = defaultHttpClient;
+    }
+
+    /**
+     * Get the TrainRouteFinderClient shared by all {@link TrainRouteFinderService} instances, creating it on
+     * first use.
+     *
+     * @return the shared TrainRouteFinderClient
+     */
+    public static synchronized TrainRouteFinderClient getShared() {
+        if (shared == null) {
+            shared = new TrainRouteFinderClient(
+                    new RouteDistanceCache(ROUTE_CACHE_SIZE, ROUTE_CACHE_TTL),
+                    new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_PERIOD));
+        }
+        return shared;
+    }
+
+    HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    RouteDistanceCache getRouteCache() {
+        return routeCache;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Close the pooled connections. If this is the shared instance a new one will be created on next use.
+     */
+    public void shutdown() {
+        synchronized (TrainRouteFinderClient.class) {
+            if (shared == this) {
+                shared = null;
+            }
+        }
+        connectionManager.shutdown();
+    }
+
+    @Override
+    public void destroy() {
+        log.info("destroy()");
+        shutdown();
+    }
+}
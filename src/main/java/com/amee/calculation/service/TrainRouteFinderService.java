@@ -6,18 +6,16 @@ import org.slf4j.LoggerFactory;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.ParseException;
-import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.CoreConnectionPNames;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.Map;
 
@@ -28,37 +26,22 @@ class TrainRouteFinderService implements Service {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    // Retry and timeout parameters. Calls to the train service API exceeding these tolerances will
-    // result in exceptions being thrown out to the calling code.
-    private static final int API_TIMEOUT = 5000;
-    private static final int API_RETRIES = 5;
-    private static final HttpParams httpParams = new BasicHttpParams();
-
-    static {
-        httpParams.setParameter(CoreConnectionPNames.SO_TIMEOUT, API_TIMEOUT);
-    }
-
     private String serviceEndPoint;
+    private HttpClient httpClient;
+    private RouteDistanceCache routeCache;
+    private CircuitBreaker circuitBreaker;
     private ProfileFinder profileFinder;
     private Map<String, Object> values;
 
-    // Custom retry handler configured with the defined tolerances.
-    private static HttpRequestRetryHandler retryHandler = new HttpRequestRetryHandler() {
-        private final Logger log = LoggerFactory.getLogger(getClass());
-
-        public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
-            log.warn("retryRequest - " + exception.getMessage() + ", executionCount: " + executionCount);
-            if (executionCount >= API_RETRIES) {
-                // Do not retry if over max retry count
-                return false;
-            } else {
-                return true;
-            }
-        }
-    };
-
     public TrainRouteFinderService(String serviceEndPoint) {
+        this(serviceEndPoint, TrainRouteFinderClient.getShared());
+    }
+
+    TrainRouteFinderService(String serviceEndPoint, TrainRouteFinderClient client) {
         this.serviceEndPoint = serviceEndPoint;
+        this.httpClient = client.getHttpClient();
+        this.routeCache = client.getRouteCache();
+        this.circuitBreaker = client.getCircuitBreaker();
     }
 
     /**
@@ -89,49 +72,107 @@ class TrainRouteFinderService implements Service {
             return "0.0";
         }
 
-        try {
-            // TODO: Move the hard-coded parameters below to wrapper.conf.
-            // Generate the query string
-            StringBuilder url = new StringBuilder(serviceEndPoint);
-            url.append("?q=");
-            StringBuilder q = new StringBuilder();
-            q.append(station1);
-            q.append(" to ");
-            q.append(station2);
-            url.append(URLEncoder.encode(q.toString(), "UTF-8"));
-            url.append("&s=JSON&gp=0&gs=0&gd=1");
+        // Use a cached result if we have one.
+        RouteDistanceCache.Entry cached = routeCache.get(station1, station2);
+        if (cached != null) {
+            if (cached.isValid()) {
+                log.debug("invoke() - cached distance(m) {} from {} to {}", new Object[]{cached.getDistance(), station1, station2});
+                return cached.getDistance();
+            } else {
+                throw new IllegalArgumentException(
+                        "Unable to generate a valid route for station1=" + station1 + " and station2=" + station2);
+            }
+        }
+
+        // A request that can not be built is a local error, not an API failure or an invalid route.
+        URI uri = getUri(station1, station2);
+
+        // Fail fast if the API is known to be failing.
+        if (!circuitBreaker.allowRequest()) {
+            log.warn("invoke() - Train Route API circuit is open, not calling API.");
+            throw new CalculationException("Train Route API is currently unavailable.");
+        }
 
+        HttpGet httpget = null;
+        boolean recorded = false;
+        try {
             // Make the request
-            DefaultHttpClient httpclient = new DefaultHttpClient();
-            httpclient.setHttpRequestRetryHandler(retryHandler);
-            httpclient.setParams(httpParams);
-            HttpGet httpget = new HttpGet(url.toString());
-            HttpResponse response = httpclient.execute(httpget);
+            httpget = new HttpGet(uri);
+            HttpResponse response = httpClient.execute(httpget);
             HttpEntity entity = response.getEntity();
 
             // Parse the response
             String jsonString = EntityUtils.toString(entity);
             int start = jsonString.indexOf("{");
             int end = jsonString.lastIndexOf("}");
+            if ((start < 0) || (end < start)) {
+                throw new ParseException("Response did not contain a JSON object.");
+            }
             jsonString = jsonString.substring(start, end + 1);
             String totalDistance = parseResponse(jsonString);
             log.debug("invoke() - calculated distance(m) {} from {} to {}", new Object[] {totalDistance, station1, station2});
+            circuitBreaker.recordSuccess();
+            recorded = true;
+            routeCache.putDistance(station1, station2, totalDistance);
             return totalDistance;
-        } catch (IllegalArgumentException e) {
+        } catch (InvalidRouteException e) {
+            // The API responded, it just could not find a route.
+            circuitBreaker.recordSuccess();
+            recorded = true;
+            routeCache.putInvalid(station1, station2);
             throw new IllegalArgumentException(
                     "Unable to generate a valid route for station1=" + station1 + " and station2=" + station2);
         } catch (IOException e) {
             handleInvokeException(e);
+            recorded = true;
             throw new CalculationException(e.getMessage());
         } catch (ParseException e) {
             handleInvokeException(e);
+            recorded = true;
             throw new CalculationException(e.getMessage());
         } catch (JSONException e) {
             handleInvokeException(e);
+            recorded = true;
             throw new CalculationException(e.getMessage());
         } catch (CalculationException e) {
             handleInvokeException(e);
+            recorded = true;
             throw new CalculationException(e.getMessage());
+        } finally {
+            // Any other exception is a failure too, so that a trial call can never leave the breaker open.
+            if (!recorded) {
+                log.warn("invoke() - Unexpected exception calling Train Route API.");
+                circuitBreaker.recordFailure();
+            }
+            // Always return the connection to the pool.
+            if (httpget != null) {
+                httpget.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * Build the request URI for a route.
+     *
+     * @param station1 the origin station
+     * @param station2 the destination station
+     * @return the URI
+     * @throws CalculationException if the URI is not valid
+     */
+    private URI getUri(String station1, String station2) throws CalculationException {
+        // TODO: Move the hard-coded parameters below to wrapper.conf.
+        // Generate the query string
+        StringBuilder url = new StringBuilder(serviceEndPoint);
+        try {
+            url.append("?q=");
+            url.append(URLEncoder.encode(station1 + " to " + station2, "UTF-8"));
+            url.append("&s=JSON&gp=0&gs=0&gd=1");
+            return new URI(url.toString());
+        } catch (UnsupportedEncodingException e) {
+            throw new CalculationException("Could not encode Train Route API request: " + e.getMessage());
+        } catch (URISyntaxException e) {
+            log.warn("getUri() - Invalid Train Route API URL: " + url);
+            throw new CalculationException("Invalid Train Route API URL: " + e.getMessage());
         }
     }
 
@@ -142,6 +183,7 @@ class TrainRouteFinderService implements Service {
      */
     private void handleInvokeException(Exception e) {
         log.warn("invoke()", e);
+        circuitBreaker.recordFailure();
         // Removed reset of setLegDetail - as a performance tuning we are
         // not returning leg details from train route api for the moment - SM (10/2009)
         // setLegDetail(null);
@@ -149,7 +191,7 @@ class TrainRouteFinderService implements Service {
 
     // Parse the JSON string response returned from the API call
     private String parseResponse(String jsonString) throws JSONException,
-            IllegalArgumentException, CalculationException {
+            InvalidRouteException, CalculationException {
 
         JSONObject json = new JSONObject(jsonString);
         int errorCode = json.getInt("error");
@@ -158,7 +200,7 @@ class TrainRouteFinderService implements Service {
             // These are Google Maps API error codes. Assuming that root cause is invalid parameters.
             if (errorCode > 600) {
                 log.warn("parseResponse() - Error status returned by Train Route API: " + errorString);
-                throw new IllegalArgumentException();
+                throw new InvalidRouteException();
             } else {
                 throw new CalculationException(errorString, errorCode);
             }
@@ -195,4 +237,10 @@ class TrainRouteFinderService implements Service {
     public void setProfileFinder(ProfileFinder profileFinder) {
         this.profileFinder = profileFinder;
     }
+
+    /**
+     * Thrown when the API reports that there is no valid route between the stations.
+     */
+    private static class InvalidRouteException extends Exception {
+    }
 }
@@ -8,6 +8,7 @@ import com.amee.domain.item.data.DataItem;
 import com.amee.platform.science.Amount;
 import com.amee.service.data.DataService;
 import com.amee.service.invalidation.InvalidationService;
+import com.amee.service.item.DataItemLabels;
 import com.amee.service.tag.TagService;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -289,13 +290,14 @@ public class SearchIndexerImpl implements SearchIndexer {
             localeService.loadLocaleNamesForItemValueDefinitions(dataCategory.getItemDefinition().getItemValueDefinitions());
             List<DataItem> dataItems = getDataItems();
             metadataService.loadMetadatasForDataItems(dataItems);
+            Map<String, String> labels = DataItemLabels.getLabels(dataItemService, dataItems);
             // Iterate over all Data Items and create Documents.
             searchIndexerContext.dataItemDocs = new ArrayList<Document>();
             Slf4JStopWatch stopWatch2 = new Slf4JStopWatch("handleDataItems:dataItemsLoop");
             for (DataItem dataItem : dataItems) {
                 searchIndexerContext.dataItem = dataItem;
                 // Create new Data Item Document.
-                searchIndexerContext.dataItemDoc = getDocumentForDataItem(dataItem);
+                searchIndexerContext.dataItemDoc = getDocumentForDataItem(dataItem, labels.get(dataItem.getUid()));
                 searchIndexerContext.dataItemDocs.add(searchIndexerContext.dataItemDoc);
                 // Handle the Data Item Values.
                 handleDataItemValues(searchIndexerContext);
@@ -356,9 +358,10 @@ public class SearchIndexerImpl implements SearchIndexer {
      * Get the Lucene Document for a DataItem.
      *
      * @param dataItem DataItem to create Document for
+     * @param label    the label of the DataItem
      * @return the Document
      */
-    private Document getDocumentForDataItem(DataItem dataItem) {
+    private Document getDocumentForDataItem(DataItem dataItem, String label) {
         Slf4JStopWatch stopWatch = new Slf4JStopWatch("getDocumentForDataItem");
         Document doc = getDocumentForAMEEEntity(dataItem);
         doc.add(new Field("name", dataItem.getName().toLowerCase(), Field.Store.NO, Field.Index.ANALYZED));
@@ -389,8 +392,8 @@ public class SearchIndexerImpl implements SearchIndexer {
                 }
             }
         }
-        doc.add(new Field("label", dataItemService.getLabel(dataItem).toLowerCase(), Field.Store.NO, Field.Index.ANALYZED));
-        doc.add(new Field("byLabel", dataItemService.getLabel(dataItem).toLowerCase(), Field.Store.NO, Field.Index.NOT_ANALYZED));
+        doc.add(new Field("label", label.toLowerCase(), Field.Store.NO, Field.Index.ANALYZED));
+        doc.add(new Field("byLabel", label.toLowerCase(), Field.Store.NO, Field.Index.NOT_ANALYZED));
         doc.add(new Field("tags", new SearchService.TagTokenizer(new StringReader(tagService.getTagsCSV(dataItem.getDataCategory()).toLowerCase()))));
         stopWatch.stop();
         return doc;
@@ -82,7 +82,8 @@ public class SearchManagerImpl implements SearchManager, ApplicationContextAware
         if (masterIndex &&
                 !invalidationMessage.isLocal() &&
                 invalidationMessage.getObjectType().equals(ObjectType.DC) &&
-                !invalidationMessage.hasOption("dataCategoryIndexed")) {
+                !invalidationMessage.hasOption("dataCategoryIndexed") &&
+                !invalidationMessage.hasOnlyOptionValues("dataItem")) {
             log.trace("onApplicationEvent() Handling InvalidationMessage.");
             DataCategory dataCategory = dataService.getDataCategoryByUid(invalidationMessage.getEntityUid(), null);
             if (dataCategory != null) {
@@ -107,15 +108,15 @@ public class SearchManagerImpl implements SearchManager, ApplicationContextAware
     }
 
     /**
-     * Update all Data Categories in the search index which have been modified in
-     * the last one hour segment.
+     * Update all Data Categories in the search index which have been modified since
+     * the start of the last one hour segment. There is no end to the range, as with the
+     * modification watermark only the latest modification of a Data Category is known.
      */
     private void updateCategories() {
         log.debug("updateCategories()");
         DateTime anHourAgoRoundedUp = DateTime.now().minusHours(1).withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
         List<DataCategory> dataCategories = dataService.getDataCategoriesModifiedWithin(
-                anHourAgoRoundedUp.toDate(),
-                anHourAgoRoundedUp.plusHours(1).toDate());
+                anHourAgoRoundedUp.toDate(), null);
         for (DataCategory dataCategory : dataCategories) {
             SearchIndexerContext context = new SearchIndexerContext();
             context.dataCategoryUid = dataCategory.getUid();
@@ -126,14 +127,15 @@ public class SearchManagerImpl implements SearchManager, ApplicationContextAware
 
     /**
      * Update all Data Categories & Data Items in the search index where the
-     * Data Items have been modified in the last one hour segment.
+     * Data Items have been modified since the start of the last one hour segment.
+     * There is no end to the range, as with the modification watermark only the
+     * latest modification of the Data Items of a Data Category is known.
      */
     private void updateDataItems() {
         log.debug("updateDataItems()");
         DateTime anHourAgoRoundedUp = DateTime.now().minusHours(1).withMinuteOfHour(0).withSecondOfMinute(0).withMillisOfSecond(0);
         List<DataCategory> dataCategories = dataService.getDataCategoriesForDataItemsModifiedWithin(
-                anHourAgoRoundedUp.toDate(),
-                anHourAgoRoundedUp.plusHours(1).toDate());
+                anHourAgoRoundedUp.toDate(), null);
         for (DataCategory dataCategory : dataCategories) {
             SearchIndexerContext context = new SearchIndexerContext();
             context.dataCategoryUid = dataCategory.getUid();
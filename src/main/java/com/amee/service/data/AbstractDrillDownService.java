@@ -75,6 +75,11 @@ public abstract class AbstractDrillDownService implements DrillDownService {
         cacheHelper.clearCache("DrillDownChoices");
     }
 
+    @Override
+    public void clearDrillDownCache(IDataCategoryReference dataCategory) {
+        cacheHelper.clearCache("DrillDownChoices", DrillDownFactory.getKeyPrefix(dataCategory));
+    }
+
     private void matchSelectionOrderToDrillDownChoices(List<Choice> drillDownChoices, List<Choice> selections) {
         for (Choice c : drillDownChoices) {
             int selectionIndex = selections.indexOf(c);
@@ -0,0 +1,332 @@
+package com.amee.service.data;
+
+import com.amee.domain.ValueType;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, immutable encoding of the Rows of a {@link DataSheetTable}.
+ * <p/>
+ * Values are held column by column rather than as an object per Cell:
+ * <ul>
+ * <li>Text is held as codes into a dictionary of the distinct values of the column, in a byte, short or int array
+ * depending on the size of the dictionary.</li>
+ * <li>UIDs are packed into a long each.</li>
+ * <li>Dates and Timestamps are held as long timestamps.</li>
+ * <li>ValueTypes are held as a byte per Cell.</li>
+ * </ul>
+ * Values that do not fit these forms are held as they are. Decoding returns equal values of the same classes.
+ */
+class CompactRows implements Serializable {
+
+    private static final byte EMPTY = -1;
+
+    private final int size;
+    private final Encoded uids;
+    private final ValueColumn[] columns;
+
+    private CompactRows(int size, Encoded uids, ValueColumn[] columns) {
+        this.size = size;
+        this.uids = uids;
+        this.columns = columns;
+    }
+
+    /**
+     * Encode Rows.
+     *
+     * @param rows        the Rows
+     * @param columnCount the number of Columns in each Row
+     * @return the encoded Rows
+     */
+    static CompactRows encode(List<DataSheetTable.Row> rows, int columnCount) {
+        String[] uids = new String[rows.size()];
+        for (int row = 0; row < rows.size(); row++) {
+            uids[row] = rows.get(row).getUid();
+        }
+        ValueColumn[] columns = new ValueColumn[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            columns[column] = ValueColumn.encode(rows, column);
+        }
+        return new CompactRows(rows.size(), encodeText(uids), columns);
+    }
+
+    /**
+     * @return the number of Rows
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param row the Row index
+     * @return the decoded Row
+     */
+    DataSheetTable.Row getRow(int row) {
+        DataSheetTable.Value[] values = new DataSheetTable.Value[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            values[column] = columns[column].get(row);
+        }
+        return new DataSheetTable.Row((String) uids.get(row), values);
+    }
+
+    /**
+     * @return all Rows, decoded
+     */
+    List<DataSheetTable.Row> decode() {
+        List<DataSheetTable.Row> rows = new ArrayList<DataSheetTable.Row>(size);
+        for (int row = 0; row < size; row++) {
+            rows.add(getRow(row));
+        }
+        return rows;
+    }
+
+    /**
+     * Encode text as packed UIDs if every value is a UID, otherwise as dictionary codes.
+     */
+    private static Encoded encodeText(String[] values) {
+        boolean uids = true;
+        for (String value : values) {
+            if ((value != null) && !isUid(value)) {
+                uids = false;
+                break;
+            }
+        }
+        return uids ? new PackedUids(values) : new Dictionary(values);
+    }
+
+    /**
+     * @return true if the value is twelve upper case hexadecimal digits, the form of UIDs created by UidGen
+     */
+    private static boolean isUid(String value) {
+        if (value.length() != 12) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            char c = value.charAt(i);
+            if (!(((c >= '0') && (c <= '9')) || ((c >= 'A') && (c <= 'F')))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface Encoded extends Serializable {
+
+        Object get(int row);
+    }
+
+    /**
+     * The values of one Column: the ValueType, value and value UID of each Cell.
+     */
+    private static class ValueColumn implements Serializable {
+
+        private static final ValueType[] VALUE_TYPES = ValueType.values();
+
+        private final byte[] valueTypes;
+        private final Encoded values;
+        private final Encoded uids;
+
+        private ValueColumn(byte[] valueTypes, Encoded values, Encoded uids) {
+            this.valueTypes = valueTypes;
+            this.values = values;
+            this.uids = uids;
+        }
+
+        private static ValueColumn encode(List<DataSheetTable.Row> rows, int column) {
+            byte[] valueTypes = new byte[rows.size()];
+            Object[] values = new Object[rows.size()];
+            String[] uids = new String[rows.size()];
+            for (int row = 0; row < rows.size(); row++) {
+                DataSheetTable.Value value = rows.get(row).getValues()[column];
+                valueTypes[row] = value.getValueType() != null ? (byte) value.getValueType().ordinal() : EMPTY;
+                values[row] = value.getValue();
+                uids[row] = value.getUid();
+            }
+            return new ValueColumn(valueTypes, encodeValues(values), encodeText(uids));
+        }
+
+        private static Encoded encodeValues(Object[] values) {
+            Class<?> valueClass = null;
+            for (Object value : values) {
+                if (value != null) {
+                    if (valueClass == null) {
+                        valueClass = value.getClass();
+                    } else if (!valueClass.equals(value.getClass())) {
+                        return new Plain(values);
+                    }
+                }
+            }
+            if ((valueClass == null) || valueClass.equals(String.class)) {
+                String[] text = new String[values.length];
+                System.arraycopy(values, 0, text, 0, values.length);
+                return encodeText(text);
+            } else if (valueClass.equals(Date.class) || Timestamps.isExact(valueClass, values)) {
+                return new Timestamps(values, valueClass.equals(Timestamp.class));
+            } else {
+                return new Plain(values);
+            }
+        }
+
+        private DataSheetTable.Value get(int row) {
+            if (valueTypes[row] == EMPTY) {
+                return DataSheetTable.Value.EMPTY;
+            }
+            return new DataSheetTable.Value(values.get(row), (String) uids.get(row), VALUE_TYPES[valueTypes[row]]);
+        }
+    }
+
+    /**
+     * Text as codes into a dictionary of distinct values. Code zero is null.
+     */
+    private static class Dictionary implements Encoded {
+
+        private final String[] dictionary;
+        private final byte[] byteCodes;
+        private final short[] shortCodes;
+        private final int[] intCodes;
+
+        private Dictionary(String[] values) {
+            Map<String, Integer> codes = new HashMap<String, Integer>();
+            List<String> distinct = new ArrayList<String>();
+            distinct.add(null);
+            int[] encoded = new int[values.length];
+            for (int row = 0; row < values.length; row++) {
+                if (values[row] != null) {
+                    Integer code = codes.get(values[row]);
+                    if (code == null) {
+                        code = distinct.size();
+                        codes.put(values[row], code);
+                        distinct.add(values[row]);
+                    }
+                    encoded[row] = code;
+                }
+            }
+            dictionary = distinct.toArray(new String[distinct.size()]);
+            if (dictionary.length <= 256) {
+                byteCodes = new byte[values.length];
+                for (int row = 0; row < values.length; row++) {
+                    byteCodes[row] = (byte) encoded[row];
+                }
+                shortCodes = null;
+                intCodes = null;
+            } else if (dictionary.length <= 65536) {
+                byteCodes = null;
+                shortCodes = new short[values.length];
+                for (int row = 0; row < values.length; row++) {
+                    shortCodes[row] = (short) encoded[row];
+                }
+                intCodes = null;
+            } else {
+                byteCodes = null;
+                shortCodes = null;
+                intCodes = encoded;
+            }
+        }
+
+        @Override
+        public Object get(int row) {
+            if (byteCodes != null) {
+                return dictionary[byteCodes[row] & 0xFF];
+            } else if (shortCodes != null) {
+                return dictionary[shortCodes[row] & 0xFFFF];
+            } else {
+                return dictionary[intCodes[row]];
+            }
+        }
+    }
+
+    /**
+     * UIDs of twelve hexadecimal digits packed into a long each. Minus one is null.
+     */
+    private static class PackedUids implements Encoded {
+
+        private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+
+        private final long[] uids;
+
+        private PackedUids(String[] values) {
+            uids = new long[values.length];
+            for (int row = 0; row < values.length; row++) {
+                uids[row] = values[row] != null ? Long.parseLong(values[row], 16) : -1L;
+            }
+        }
+
+        @Override
+        public Object get(int row) {
+            long uid = uids[row];
+            if (uid < 0) {
+                return null;
+            }
+            char[] chars = new char[12];
+            for (int i = 11; i >= 0; i--) {
+                chars[i] = DIGITS[(int) (uid & 0xF)];
+                uid >>>= 4;
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * Dates or Timestamps as long timestamps. Long.MIN_VALUE is null.
+     */
+    private static class Timestamps implements Encoded {
+
+        private final long[] times;
+        private final boolean timestamp;
+
+        private Timestamps(Object[] values, boolean timestamp) {
+            this.timestamp = timestamp;
+            times = new long[values.length];
+            for (int row = 0; row < values.length; row++) {
+                times[row] = values[row] != null ? ((Date) values[row]).getTime() : Long.MIN_VALUE;
+            }
+        }
+
+        /**
+         * @return true if the values are Timestamps with no more than millisecond precision
+         */
+        private static boolean isExact(Class<?> valueClass, Object[] values) {
+            if (!valueClass.equals(Timestamp.class)) {
+                return false;
+            }
+            for (Object value : values) {
+                if ((value != null) && ((((Timestamp) value).getNanos() % 1000000) != 0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Object get(int row) {
+            long time = times[row];
+            if (time == Long.MIN_VALUE) {
+                return null;
+            }
+            return timestamp ? new Timestamp(time) : new Date(time);
+        }
+    }
+
+    /**
+     * Values held as they are.
+     */
+    private static class Plain implements Encoded {
+
+        private final Object[] values;
+
+        private Plain(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+    }
+}
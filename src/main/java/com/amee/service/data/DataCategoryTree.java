@@ -0,0 +1,470 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable snapshot of all active DataCategories and the links between them.
+ * <p/>
+ * Each node holds the DataCategory ID, UID, path, parent ID, child references and its own and deep
+ * modified timestamps. The deep modified timestamp is the latest modified timestamp of the DataCategory and its
+ * descendants. Child references are keyed by path ignoring case, as for the DataCategoryChildren maps.
+ * <p/>
+ * Updates return a new snapshot, sharing unchanged nodes with this one, so a snapshot can be read without locks
+ * while another is prepared. Nodes are held in a {@link SegmentedMap}, so an update only copies the segments holding
+ * the changed DataCategory and its ancestors rather than every node. The children of removed DataCategories are
+ * remembered so they can be linked again if the DataCategory is restored. An update that would move a DataCategory, by changing its path or parent, is rejected
+ * as the references held for the DataCategory and its descendants would have out of date full paths. The caller
+ * should then build a new snapshot.
+ */
+class DataCategoryTree {
+
+    private final long rootId;
+    private final SegmentedMap<Long, Node> nodes;
+    private final SegmentedMap<String, Long> ids;
+
+    // IDs of DataCategories whose parent is not in the snapshot, by parent ID.
+    private final SegmentedMap<Long, List<Long>> orphanIds;
+
+    private DataCategoryTree(long rootId, SegmentedMap<Long, Node> nodes, SegmentedMap<String, Long> ids,
+                             SegmentedMap<Long, List<Long>> orphanIds) {
+        this.rootId = rootId;
+        this.nodes = nodes;
+        this.ids = ids;
+        this.orphanIds = orphanIds;
+    }
+
+    /**
+     * Get the DataCategory for the path segments below the root DataCategory.
+     *
+     * @param segments path segments
+     * @return the DataCategory, or null if not found
+     */
+    IDataCategoryReference getDataCategory(List<String> segments) {
+        Node node = nodes.get(rootId);
+        IDataCategoryReference dataCategory = null;
+        for (String segment : segments) {
+            dataCategory = node.children.get(segment);
+            if (dataCategory == null) {
+                return null;
+            }
+            node = nodes.get(dataCategory.getEntityId());
+        }
+        return dataCategory;
+    }
+
+    /**
+     * Get the active children of a DataCategory.
+     *
+     * @param dataCategoryId the DataCategory ID
+     * @return an unmodifiable map of child references by path ignoring case, or null if the DataCategory is unknown
+     */
+    Map<String, IDataCategoryReference> getChildren(long dataCategoryId) {
+        Node node = nodes.get(dataCategoryId);
+        return node != null ? node.children : null;
+    }
+
+    /**
+     * Get the IDs of the parents, grandparents and so on of active DataCategories.
+     *
+     * @param dataCategoryIds the DataCategory IDs
+     * @param unknownIds      populated with any of the IDs not in the snapshot
+     * @return the ancestor IDs
+     */
+    Set<Long> getAncestorIds(Collection<Long> dataCategoryIds, Set<Long> unknownIds) {
+        Set<Long> ancestorIds = new HashSet<Long>();
+        for (Long dataCategoryId : dataCategoryIds) {
+            Node node = nodes.get(dataCategoryId);
+            if (node == null) {
+                unknownIds.add(dataCategoryId);
+            }
+            // A trashed parent is included but has no node, so stops the walk.
+            while ((node != null) && (node.parentId != null) && ancestorIds.add(node.parentId)) {
+                node = nodes.get(node.parentId);
+            }
+        }
+        return ancestorIds;
+    }
+
+    /**
+     * @param uid the DataCategory UID
+     * @return the parent DataCategory, or null if the DataCategory or its parent is not in the snapshot
+     */
+    IDataCategoryReference getParent(String uid) {
+        Long id = ids.get(uid);
+        Node node = id != null ? nodes.get(id) : null;
+        Node parent = (node != null) && (node.parentId != null) ? nodes.get(node.parentId) : null;
+        return parent != null ? parent.dataCategory : null;
+    }
+
+    /**
+     * @param dataCategoryId the DataCategory ID
+     * @return the latest modified timestamp of the DataCategory and its descendants, or null if unknown
+     */
+    Date getModifiedDeep(long dataCategoryId) {
+        Node node = nodes.get(dataCategoryId);
+        return node != null ? node.modifiedDeep : null;
+    }
+
+    /**
+     * @return the number of DataCategories in the snapshot
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Get a snapshot with a DataCategory added or updated.
+     *
+     * @param id           the DataCategory ID
+     * @param uid          the DataCategory UID
+     * @param parentId     the parent DataCategory ID, null for the root
+     * @param path         the DataCategory path
+     * @param modified     the DataCategory modified timestamp
+     * @param dataCategory the DataCategory reference
+     * @return the new snapshot, or null if the DataCategory has moved
+     */
+    DataCategoryTree put(long id, String uid, Long parentId, String path, Date modified,
+                         IDataCategoryReference dataCategory) {
+        Node existing = nodes.get(id);
+        if ((existing != null) && (!equal(existing.parentId, parentId) || !existing.path.equals(path))) {
+            return null;
+        }
+        SegmentedMap.Editor<Long, Node> newNodes = nodes.edit();
+        SegmentedMap.Editor<String, Long> newIds = ids.edit();
+        SegmentedMap.Editor<Long, List<Long>> newOrphanIds = orphanIds.edit();
+        List<Long> childIds = existing != null ? existing.childIds : newOrphanIds.remove(id);
+        Node node = new Node(id, parentId, path, modified, dataCategory,
+                childIds != null ? childIds : Collections.<Long>emptyList());
+        newNodes.put(id, node.withChildren(newNodes));
+        newIds.put(uid, id);
+        if (parentId != null) {
+            Node parent = newNodes.get(parentId);
+            if (parent != null) {
+                if (!parent.childIds.contains(id)) {
+                    newNodes.put(parentId, parent.withChildIds(add(parent.childIds, id)));
+                }
+            } else {
+                // Link the DataCategory if its parent is restored.
+                List<Long> siblingIds = newOrphanIds.get(parentId);
+                if (siblingIds == null) {
+                    newOrphanIds.put(parentId, Collections.singletonList(id));
+                } else if (!siblingIds.contains(id)) {
+                    newOrphanIds.put(parentId, add(siblingIds, id));
+                }
+            }
+        }
+        copyAncestors(parentId, newNodes);
+        return new DataCategoryTree(rootId, newNodes.build(), newIds.build(), newOrphanIds.build());
+    }
+
+    /**
+     * Get a snapshot without a DataCategory. Its active children remain, but can not be reached from the root until
+     * the DataCategory is put back.
+     *
+     * @param uid the DataCategory UID
+     * @return the new snapshot
+     */
+    DataCategoryTree remove(String uid) {
+        Long id = ids.get(uid);
+        if ((id == null) || (id == rootId)) {
+            return this;
+        }
+        SegmentedMap.Editor<Long, Node> newNodes = nodes.edit();
+        SegmentedMap.Editor<String, Long> newIds = ids.edit();
+        SegmentedMap<Long, List<Long>> newOrphanIds = orphanIds;
+        Node removed = newNodes.remove(id);
+        newIds.remove(uid);
+        if (!removed.childIds.isEmpty()) {
+            SegmentedMap.Editor<Long, List<Long>> editor = orphanIds.edit();
+            editor.put(id, removed.childIds);
+            newOrphanIds = editor.build();
+        }
+        copyAncestors(removed.parentId, newNodes);
+        return new DataCategoryTree(rootId, newNodes.build(), newIds.build(), newOrphanIds);
+    }
+
+    private static List<Long> add(List<Long> ids, Long id) {
+        List<Long> newIds = new ArrayList<Long>(ids.size() + 1);
+        newIds.addAll(ids);
+        newIds.add(id);
+        return Collections.unmodifiableList(newIds);
+    }
+
+    // Replace the ancestors from the given ID up with nodes whose children and deep modified timestamps are current.
+    private static void copyAncestors(Long id, SegmentedMap.Editor<Long, Node> newNodes) {
+        Set<Long> seen = new HashSet<Long>();
+        while ((id != null) && seen.add(id)) {
+            Node node = newNodes.get(id);
+            if (node == null) {
+                return;
+            }
+            newNodes.put(id, node.withChildren(newNodes));
+            id = node.parentId;
+        }
+    }
+
+    private static boolean equal(Long a, Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static class Node {
+
+        private final long id;
+        private final Long parentId;
+        private final String path;
+        private final Date modified;
+        private final Date modifiedDeep;
+        private final IDataCategoryReference dataCategory;
+        private final List<Long> childIds;
+        private final SortedMap<String, IDataCategoryReference> children;
+
+        private Node(long id, Long parentId, String path, Date modified,
+                     IDataCategoryReference dataCategory, List<Long> childIds) {
+            this(id, parentId, path, modified, modified, dataCategory, childIds,
+                    Collections.unmodifiableSortedMap(new TreeMap<String, IDataCategoryReference>(String.CASE_INSENSITIVE_ORDER)));
+        }
+
+        private Node(long id, Long parentId, String path, Date modified, Date modifiedDeep,
+                     IDataCategoryReference dataCategory, List<Long> childIds,
+                     SortedMap<String, IDataCategoryReference> children) {
+            this.id = id;
+            this.parentId = parentId;
+            this.path = path;
+            this.modified = modified;
+            this.modifiedDeep = modifiedDeep;
+            this.dataCategory = dataCategory;
+            this.childIds = childIds;
+            this.children = children;
+        }
+
+        /**
+         * Get a copy of this node with children and deep modified timestamp from the current child nodes. Children
+         * are those nodes with this node as parent, found from the existing child IDs plus any new nodes.
+         */
+        private Node withChildren(SegmentedMap.Editor<Long, Node> nodes) {
+            List<Node> childNodes = new ArrayList<Node>();
+            for (Long childId : childIds) {
+                Node child = nodes.get(childId);
+                if ((child != null) && (child.parentId != null) && (child.parentId == id)) {
+                    childNodes.add(child);
+                }
+            }
+            return withChildren(childNodes);
+        }
+
+        private Node withChildren(List<Node> childNodes) {
+            List<Long> newChildIds = new ArrayList<Long>(childNodes.size());
+            SortedMap<String, IDataCategoryReference> newChildren =
+                    new TreeMap<String, IDataCategoryReference>(String.CASE_INSENSITIVE_ORDER);
+            Date newModifiedDeep = modified;
+            for (Node child : childNodes) {
+                newChildIds.add(child.id);
+                newChildren.put(child.path, child.dataCategory);
+                if ((newModifiedDeep == null) ||
+                        ((child.modifiedDeep != null) && child.modifiedDeep.after(newModifiedDeep))) {
+                    newModifiedDeep = child.modifiedDeep;
+                }
+            }
+            return new Node(id, parentId, path, modified, newModifiedDeep, dataCategory,
+                    Collections.unmodifiableList(newChildIds), Collections.unmodifiableSortedMap(newChildren));
+        }
+
+        private Node withChildIds(List<Long> newChildIds) {
+            return new Node(id, parentId, path, modified, modifiedDeep, dataCategory, newChildIds, children);
+        }
+    }
+
+    /**
+     * Builds a {@link DataCategoryTree} from all active DataCategories.
+     */
+    static class Builder {
+
+        private final Map<Long, Node> nodes = new HashMap<Long, Node>();
+        private final Map<String, Long> ids = new HashMap<String, Long>();
+        private Long rootId;
+
+        /**
+         * Add a DataCategory. The root DataCategory is the one with no parent and an empty path.
+         */
+        Builder add(long id, String uid, Long parentId, String path, Date modified,
+                    IDataCategoryReference dataCategory) {
+            nodes.put(id, new Node(id, parentId, path, modified, dataCategory,
+                    Collections.<Long>emptyList()));
+            ids.put(uid, id);
+            if ((parentId == null) && "".equals(path) && (rootId == null)) {
+                rootId = id;
+            }
+            return this;
+        }
+
+        DataCategoryTree build() {
+            if (rootId == null) {
+                throw new IllegalStateException("Root Data Category not found.");
+            }
+
+            // Link children to parents.
+            Map<Long, List<Long>> childIds = new HashMap<Long, List<Long>>();
+            for (Node node : nodes.values()) {
+                if ((node.parentId != null) && nodes.containsKey(node.parentId)) {
+                    List<Long> siblings = childIds.get(node.parentId);
+                    if (siblings == null) {
+                        siblings = new ArrayList<Long>();
+                        childIds.put(node.parentId, siblings);
+                    }
+                    siblings.add(node.id);
+                }
+            }
+            for (Map.Entry<Long, List<Long>> entry : childIds.entrySet()) {
+                nodes.put(entry.getKey(), nodes.get(entry.getKey()).withChildIds(entry.getValue()));
+            }
+
+            // Remember children whose parent is not active.
+            Map<Long, List<Long>> orphanIds = new HashMap<Long, List<Long>>();
+            for (Node node : nodes.values()) {
+                if ((node.parentId != null) && !nodes.containsKey(node.parentId)) {
+                    List<Long> siblings = orphanIds.get(node.parentId);
+                    if (siblings == null) {
+                        siblings = new ArrayList<Long>();
+                        orphanIds.put(node.parentId, siblings);
+                    }
+                    siblings.add(node.id);
+                }
+            }
+
+            // Set children and deep modified timestamps, leaves first.
+            Map<Long, Node> built = new HashMap<Long, Node>();
+            for (Long id : nodes.keySet()) {
+                build(id, built, new HashSet<Long>());
+            }
+            return new DataCategoryTree(rootId, new SegmentedMap<Long, Node>(built),
+                    new SegmentedMap<String, Long>(ids), new SegmentedMap<Long, List<Long>>(orphanIds));
+        }
+
+        private Node build(Long id, Map<Long, Node> built, Set<Long> visiting) {
+            Node node = built.get(id);
+            if (node == null) {
+                node = nodes.get(id);
+                List<Node> childNodes = new ArrayList<Node>();
+                visiting.add(id);
+                for (Long childId : node.childIds) {
+                    // Guard against cycles in bad data.
+                    if (!visiting.contains(childId)) {
+                        childNodes.add(build(childId, built, visiting));
+                    }
+                }
+                visiting.remove(id);
+                node = node.withChildren(childNodes);
+                built.put(id, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * An immutable map split into segments by key hash. Edits copy only the segments they change and share the
+     * others with the map they were made from.
+     */
+    static class SegmentedMap<K, V> {
+
+        private static final int SEGMENTS = 64;
+
+        private final Map<K, V>[] segments;
+        private final int size;
+
+        @SuppressWarnings("unchecked")
+        SegmentedMap(Map<K, V> map) {
+            segments = new Map[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                segments[i] = new HashMap<K, V>();
+            }
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                segments[index(entry.getKey())].put(entry.getKey(), entry.getValue());
+            }
+            size = map.size();
+        }
+
+        private SegmentedMap(Map<K, V>[] segments, int size) {
+            this.segments = segments;
+            this.size = size;
+        }
+
+        V get(K key) {
+            return segments[index(key)].get(key);
+        }
+
+        int size() {
+            return size;
+        }
+
+        Editor<K, V> edit() {
+            return new Editor<K, V>(this);
+        }
+
+        private static int index(Object key) {
+            int h = key.hashCode();
+            h ^= (h >>> 16);
+            return (h & 0x7fffffff) % SEGMENTS;
+        }
+
+        /**
+         * Prepares a new map from a SegmentedMap, copying each segment the first time it is changed.
+         */
+        static class Editor<K, V> {
+
+            private final Map<K, V>[] segments;
+            private final boolean[] copied = new boolean[SEGMENTS];
+            private int size;
+
+            private Editor(SegmentedMap<K, V> map) {
+                segments = map.segments.clone();
+                size = map.size;
+            }
+
+            V get(K key) {
+                return segments[index(key)].get(key);
+            }
+
+            void put(K key, V value) {
+                if (getWritableSegment(key).put(key, value) == null) {
+                    size++;
+                }
+            }
+
+            V remove(K key) {
+                if (!segments[index(key)].containsKey(key)) {
+                    return null;
+                }
+                size--;
+                return getWritableSegment(key).remove(key);
+            }
+
+            SegmentedMap<K, V> build() {
+                // Later edits must copy again, as the built map shares the copied segments.
+                Arrays.fill(copied, false);
+                return new SegmentedMap<K, V>(segments.clone(), size);
+            }
+
+            private Map<K, V> getWritableSegment(K key) {
+                int index = index(key);
+                if (!copied[index]) {
+                    segments[index] = new HashMap<K, V>(segments[index]);
+                    copied[index] = true;
+                }
+                return segments[index];
+            }
+        }
+    }
+}
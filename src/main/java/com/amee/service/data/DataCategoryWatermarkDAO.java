@@ -0,0 +1,93 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Date;
+import java.util.List;
+
+import static org.hibernate.type.StandardBasicTypes.LONG;
+import static org.hibernate.type.StandardBasicTypes.TIMESTAMP;
+
+/**
+ * Reads the DATA_CATEGORY_WATERMARK table, which holds the latest modification of each DataCategory and of its
+ * DataItems and their values. The table is maintained by the triggers in src/main/sql/data_category_watermark.sql,
+ * so change-since queries are range scans of an index instead of scans of the DataCategory, DataItem and value tables.
+ * <p/>
+ * Only the latest modification is held, so a DataCategory modified within a range and again after it is not found
+ * in that range. Callers that must see every change should ask for modifications since a time, with no end.
+ * <p/>
+ * Unlike DATA_ITEM.MODIFIED, ITEMS_MODIFIED also moves when only a value of a DataItem is added, changed or removed.
+ * <p/>
+ * The watermark is only used when the 'amee.dataCategoryWatermark' system property is true, once the table and
+ * triggers are in place. Callers use their original queries otherwise.
+ */
+@Repository
+class DataCategoryWatermarkDAO {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private boolean enabled = false;
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param modifiedSince inclusive start of the range
+     * @param modifiedUntil exclusive end of the range, or null for no end
+     * @return the IDs of DataCategories last modified within the range
+     */
+    List<Long> getDataCategoryIdsModifiedWithin(Date modifiedSince, Date modifiedUntil) {
+        return getDataCategoryIds("CATEGORY_MODIFIED", modifiedSince, modifiedUntil);
+    }
+
+    /**
+     * @param modifiedSince inclusive start of the range
+     * @param modifiedUntil exclusive end of the range, or null for no end
+     * @return the IDs of DataCategories with DataItems or values last modified within the range
+     */
+    List<Long> getDataCategoryIdsForDataItemsModifiedWithin(Date modifiedSince, Date modifiedUntil) {
+        return getDataCategoryIds("ITEMS_MODIFIED", modifiedSince, modifiedUntil);
+    }
+
+    /**
+     * @param dataCategory the DataCategory
+     * @return the latest modification of the DataItems and values in the DataCategory, or null if not known
+     */
+    Date getDataItemsModified(IDataCategoryReference dataCategory) {
+        Session session = (Session) entityManager.getDelegate();
+        SQLQuery query = session.createSQLQuery(
+                "SELECT ITEMS_MODIFIED FROM DATA_CATEGORY_WATERMARK WHERE DATA_CATEGORY_ID = :dataCategoryId");
+        query.addScalar("ITEMS_MODIFIED", TIMESTAMP);
+        query.setLong("dataCategoryId", dataCategory.getEntityId());
+        return (Date) query.uniqueResult();
+    }
+
+    @SuppressWarnings(value = "unchecked")
+    private List<Long> getDataCategoryIds(String column, Date modifiedSince, Date modifiedUntil) {
+        Session session = (Session) entityManager.getDelegate();
+        SQLQuery query = session.createSQLQuery(
+                "SELECT DATA_CATEGORY_ID FROM DATA_CATEGORY_WATERMARK " +
+                        "WHERE " + column + " >= :modifiedSince " +
+                        (modifiedUntil != null ? "AND " + column + " < :modifiedUntil " : "") +
+                        "ORDER BY " + column);
+        query.addScalar("DATA_CATEGORY_ID", LONG);
+        query.setTimestamp("modifiedSince", modifiedSince);
+        if (modifiedUntil != null) {
+            query.setTimestamp("modifiedUntil", modifiedUntil);
+        }
+        return (List<Long>) query.list();
+    }
+
+    @Value("#{ systemProperties['amee.dataCategoryWatermark'] }")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = (enabled != null) && enabled;
+    }
+}
@@ -14,6 +14,7 @@ import org.hibernate.Session;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.*;
@@ -29,6 +30,9 @@ public class DataServiceDAOImpl implements DataServiceDAO {
     @PersistenceContext
     private EntityManager entityManager;
 
+    @Autowired
+    private DataCategoryWatermarkDAO watermarkDao;
+
     // DataCategories
 
     @Override
@@ -264,32 +268,83 @@ public class DataServiceDAOImpl implements DataServiceDAO {
                 .getResultList();
     }
 
+    /**
+     * Returns the DataCategories modified within a range. With the watermark enabled only the latest modification of
+     * each DataCategory is known, see {@link DataCategoryWatermarkDAO}.
+     *
+     * @param modifiedSince inclusive start of the range
+     * @param modifiedUntil exclusive end of the range, or null for no end
+     * @return the DataCategories
+     */
     @Override
     @SuppressWarnings(value = "unchecked")
     public List<DataCategory> getDataCategoriesModifiedWithin(
             Date modifiedSince,
             Date modifiedUntil) {
-        return (List<DataCategory>) entityManager.createQuery(
+        if (watermarkDao.isEnabled()) {
+            return getDataCategoriesWithAnyStatus(
+                    watermarkDao.getDataCategoryIdsModifiedWithin(modifiedSince, modifiedUntil));
+        }
+        Query query = entityManager.createQuery(
                 "FROM DataCategory " +
-                        "WHERE modified >= :modifiedSince " +
-                        "AND modified < :modifiedUntil")
-                .setParameter("modifiedSince", modifiedSince)
-                .setParameter("modifiedUntil", modifiedUntil)
-                .getResultList();
+                        "WHERE modified >= :modifiedSince" +
+                        (modifiedUntil != null ? " AND modified < :modifiedUntil" : ""))
+                .setParameter("modifiedSince", modifiedSince);
+        if (modifiedUntil != null) {
+            query.setParameter("modifiedUntil", modifiedUntil);
+        }
+        return (List<DataCategory>) query.getResultList();
     }
 
+    /**
+     * Returns the DataCategories with DataItems modified within a range. With the watermark enabled only the latest
+     * modification of each DataCategory is known, and modifications of values are included, see
+     * {@link DataCategoryWatermarkDAO}.
+     *
+     * @param modifiedSince inclusive start of the range
+     * @param modifiedUntil exclusive end of the range, or null for no end
+     * @return the DataCategories
+     */
     @Override
     @SuppressWarnings(value = "unchecked")
     public List<DataCategory> getDataCategoriesForDataItemsModifiedWithin(
             Date modifiedSince,
             Date modifiedUntil) {
-        return (List<DataCategory>) entityManager.createQuery(
+        if (watermarkDao.isEnabled()) {
+            return getDataCategoriesWithAnyStatus(
+                    watermarkDao.getDataCategoryIdsForDataItemsModifiedWithin(modifiedSince, modifiedUntil));
+        }
+        Query query = entityManager.createQuery(
                 "SELECT DISTINCT di.dataCategory " +
                         "FROM DataItem di " +
-                        "WHERE di.modified >= :modifiedSince " +
-                        "AND di.modified < :modifiedUntil")
-                .setParameter("modifiedSince", modifiedSince)
-                .setParameter("modifiedUntil", modifiedUntil)
+                        "WHERE di.modified >= :modifiedSince" +
+                        (modifiedUntil != null ? " AND di.modified < :modifiedUntil" : ""))
+                .setParameter("modifiedSince", modifiedSince);
+        if (modifiedUntil != null) {
+            query.setParameter("modifiedUntil", modifiedUntil);
+        }
+        return (List<DataCategory>) query.getResultList();
+    }
+
+    /**
+     * Returns the most recent modification of the DataItems and values in a DataCategory from the watermark table.
+     *
+     * @param dataCategory the DataCategory
+     * @return the modified timestamp, or null if the watermark is not enabled or has no entry for the DataCategory
+     */
+    public Date getDataItemsWatermark(IDataCategoryReference dataCategory) {
+        return watermarkDao.isEnabled() ? watermarkDao.getDataItemsModified(dataCategory) : null;
+    }
+
+    @SuppressWarnings(value = "unchecked")
+    private List<DataCategory> getDataCategoriesWithAnyStatus(List<Long> dataCategoryIds) {
+        if (dataCategoryIds.isEmpty()) {
+            return new ArrayList<DataCategory>();
+        }
+        return (List<DataCategory>) entityManager.createQuery(
+                "FROM DataCategory " +
+                        "WHERE id IN (:dataCategoryIds)")
+                .setParameter("dataCategoryIds", dataCategoryIds)
                 .getResultList();
     }
 
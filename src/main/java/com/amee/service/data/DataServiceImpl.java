@@ -13,6 +13,7 @@ import com.amee.domain.LocaleService;
 import com.amee.domain.ObjectType;
 import com.amee.domain.cache.CacheHelper;
 import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.DataCategoryReference;
 import com.amee.domain.data.ItemDefinition;
 import com.amee.service.invalidation.InvalidationMessage;
 
@@ -20,9 +21,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -54,16 +57,25 @@ public class DataServiceImpl implements DataService, IDataService {
 
     private CacheHelper cacheHelper = CacheHelper.getInstance();
 
+    // A snapshot of the DataCategory tree, built on first use and replaced copy-on-write by clearCaches.
+    private final AtomicReference<DataCategoryTree> tree = new AtomicReference<DataCategoryTree>();
+    private final Object treeLock = new Object();
+
     @Override
     @AMEETransaction
     @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
     public void onApplicationEvent(InvalidationMessage invalidationMessage) {
+        // Messages naming only changed DataItems do not change the DataCategory.
         if ((invalidationMessage.isLocal() || invalidationMessage.isFromOtherInstance()) &&
-                invalidationMessage.getObjectType().equals(ObjectType.DC)) {
+                invalidationMessage.getObjectType().equals(ObjectType.DC) &&
+                !invalidationMessage.hasOnlyOptionValues("dataItem")) {
             log.trace("onApplicationEvent() Handling InvalidationMessage.");
             DataCategory dataCategory = getDataCategoryByUid(invalidationMessage.getEntityUid(), null);
             if (dataCategory != null) {
                 clearCaches(dataCategory);
+            } else {
+                clearDataCategoryChildren(invalidationMessage.getEntityUid(), null);
+                removeFromTree(invalidationMessage.getEntityUid());
             }
         }
     }
@@ -139,6 +151,11 @@ public class DataServiceImpl implements DataService, IDataService {
     public IDataCategoryReference getDataCategoryByFullPath(List<String> segments) {
         IDataCategoryReference dataCategory = null;
         if ((segments != null) && !segments.isEmpty()) {
+            // Try the tree first, falling back to the database if the path is not found.
+            dataCategory = getTree().getDataCategory(segments);
+            if (dataCategory != null) {
+                return dataCategory;
+            }
             // Start with the root DataCategory.
             dataCategory = getRootDataCategory();
             // Loop over all path segments and handle each.
@@ -215,8 +232,11 @@ public class DataServiceImpl implements DataService, IDataService {
     @SuppressWarnings(value = "unchecked")
     public Map<String, IDataCategoryReference> getDataCategories(IDataCategoryReference dataCategoryReference) {
         log.debug("getDataCategories() {}", dataCategoryReference.getFullPath());
-        Map<String, IDataCategoryReference> dataCategories =
-                (Map<String, IDataCategoryReference>) cacheHelper.getCacheable(new DataCategoryChildrenFactory(dataCategoryReference, dao));
+        Map<String, IDataCategoryReference> dataCategories = getTree().getChildren(dataCategoryReference.getEntityId());
+        if (dataCategories == null) {
+            dataCategories = (Map<String, IDataCategoryReference>) cacheHelper.getCacheable(
+                    new DataCategoryChildrenFactory(dataCategoryReference, dao));
+        }
         localeService.loadLocaleNamesForDataCategoryReferences(dataCategories.values());
         return dataCategories;
     }
@@ -229,9 +249,19 @@ public class DataServiceImpl implements DataService, IDataService {
      */
     @Override
     public Set<Long> getParentDataCategoryIds(Set<Long> dataCategoryIds) {
+        // Walk up the tree, only querying for DataCategories not in the tree.
+        Set<Long> unknownIds = new HashSet<Long>();
+        Set<Long> parentDataCategoryIds = getTree().getAncestorIds(dataCategoryIds, unknownIds);
+        if (!unknownIds.isEmpty()) {
+            parentDataCategoryIds.addAll(getParentDataCategoryIdsFromDatabase(unknownIds));
+        }
+        return parentDataCategoryIds;
+    }
+
+    private Set<Long> getParentDataCategoryIdsFromDatabase(Set<Long> dataCategoryIds) {
         Set<Long> parentDataCategoryIds = dao.getParentDataCategoryIds(dataCategoryIds);
         if (!parentDataCategoryIds.isEmpty()) {
-            parentDataCategoryIds.addAll(getParentDataCategoryIds(parentDataCategoryIds));
+            parentDataCategoryIds.addAll(getParentDataCategoryIdsFromDatabase(parentDataCategoryIds));
         }
         return parentDataCategoryIds;
     }
@@ -292,8 +322,11 @@ public class DataServiceImpl implements DataService, IDataService {
      */
     @Override
     public Date getDataItemsModifiedDeep(DataCategory dataCategory) {
-        // Get the modified dates for all related entities.
-        Date dataItemsModified = dataItemService.getDataItemsModified(dataCategory);
+        // Get the modified dates for all related entities, from the watermark if available.
+        Date dataItemsModified = dao.getDataItemsWatermark(dataCategory);
+        if (dataItemsModified == null) {
+            dataItemsModified = dataItemService.getDataItemsModified(dataCategory);
+        }
         Date definitionsModified =
                 dataCategory.isItemDefinitionPresent() ? dataCategory.getItemDefinition().getModifiedDeep() : DataItemService.EPOCH;
         // Work out which date is the latest.
@@ -322,14 +355,111 @@ public class DataServiceImpl implements DataService, IDataService {
     @Override
     public void clearCaches(DataCategory dataCategory) {
         log.info("clearCaches() dataCategory: " + dataCategory.getUid());
-        drillDownService.clearDrillDownCache();
+        drillDownService.clearDrillDownCache(dataCategory);
         dao.invalidate(dataCategory);
-        cacheHelper.clearCache("DataCategoryChildren");
+        clearDataCategoryChildren(dataCategory.getUid(), getParentUid(dataCategory));
+        updateTree(dataCategory);
         // TODO: Metadata?
         // TODO: Locales?
         // TODO: What else?
     }
 
+    /**
+     * Evict the DataCategoryChildren entries that may hold a changed DataCategory: its own entry, the entry of its
+     * current parent and the entry of its parent in the DataCategory tree snapshot, which differs if it has moved.
+     * The whole cache is cleared if the snapshot has not been built, as the previous parent is then not known.
+     *
+     * @param uid       the DataCategory UID
+     * @param parentUid the current parent DataCategory UID, or null if none or not known
+     */
+    private void clearDataCategoryChildren(String uid, String parentUid) {
+        DataCategoryTree snapshot = tree.get();
+        if (snapshot == null) {
+            cacheHelper.clearCache("DataCategoryChildren");
+            return;
+        }
+        cacheHelper.clearCache("DataCategoryChildren", uid);
+        if (parentUid != null) {
+            cacheHelper.clearCache("DataCategoryChildren", parentUid);
+        }
+        IDataCategoryReference previousParent = snapshot.getParent(uid);
+        if ((previousParent != null) && !previousParent.getEntityUid().equals(parentUid)) {
+            cacheHelper.clearCache("DataCategoryChildren", previousParent.getEntityUid());
+        }
+    }
+
+    /**
+     * Get the snapshot of the DataCategory tree, building it with a single query if not present.
+     *
+     * @return the snapshot
+     */
+    DataCategoryTree getTree() {
+        DataCategoryTree snapshot = tree.get();
+        if (snapshot == null) {
+            synchronized (treeLock) {
+                snapshot = tree.get();
+                if (snapshot == null) {
+                    DataCategoryTree.Builder builder = new DataCategoryTree.Builder();
+                    for (DataCategory dataCategory : dao.getDataCategories(0, 0).getResults()) {
+                        builder.add(
+                                dataCategory.getId(),
+                                dataCategory.getUid(),
+                                getParentId(dataCategory),
+                                dataCategory.getPath(),
+                                dataCategory.getModified(),
+                                new DataCategoryReference(dataCategory));
+                    }
+                    snapshot = builder.build();
+                    log.debug("getTree() DataCategories: {}", snapshot.size());
+                    tree.set(snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Publish a new snapshot of the DataCategory tree for a changed DataCategory. The snapshot is dropped, to be
+     * rebuilt on next use, if the DataCategory has moved.
+     *
+     * @param dataCategory the changed DataCategory
+     */
+    private void updateTree(DataCategory dataCategory) {
+        synchronized (treeLock) {
+            DataCategoryTree snapshot = tree.get();
+            if (snapshot != null) {
+                if (dataCategory.isTrash()) {
+                    tree.set(snapshot.remove(dataCategory.getUid()));
+                } else {
+                    tree.set(snapshot.put(
+                            dataCategory.getId(),
+                            dataCategory.getUid(),
+                            getParentId(dataCategory),
+                            dataCategory.getPath(),
+                            dataCategory.getModified(),
+                            new DataCategoryReference(dataCategory)));
+                }
+            }
+        }
+    }
+
+    private void removeFromTree(String uid) {
+        synchronized (treeLock) {
+            DataCategoryTree snapshot = tree.get();
+            if (snapshot != null) {
+                tree.set(snapshot.remove(uid));
+            }
+        }
+    }
+
+    private static Long getParentId(DataCategory dataCategory) {
+        return dataCategory.getDataCategory() != null ? dataCategory.getDataCategory().getId() : null;
+    }
+
+    private static String getParentUid(DataCategory dataCategory) {
+        return dataCategory.getDataCategory() != null ? dataCategory.getDataCategory().getUid() : null;
+    }
+
     // API Versions
 
     @Override
@@ -7,17 +7,20 @@ import com.amee.domain.cache.CacheableFactory;
 import com.amee.domain.data.DataCategory;
 import com.amee.domain.data.ItemDefinition;
 import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.data.ItemValueMap;
 import com.amee.domain.item.BaseItemValue;
 import com.amee.domain.item.data.DataItem;
-import com.amee.domain.sheet.Cell;
-import com.amee.domain.sheet.Column;
-import com.amee.domain.sheet.Row;
-import com.amee.domain.sheet.Sheet;
+import com.amee.domain.sheet.Choice;
 import com.amee.platform.science.StartEndDate;
+import com.amee.service.item.DataItemLabels;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 public class DataSheetFactory implements CacheableFactory {
 
@@ -38,14 +41,17 @@ public class DataSheetFactory implements CacheableFactory {
         this.cacheName = cacheName;
     }
 
+    /**
+     * Create the {@link DataSheetTable} for the DataCategory. The Sheet itself is created from the table on first
+     * use.
+     *
+     * @return the DataSheetTable, or null if the DataCategory has no ItemDefinition
+     */
     public Object create() {
 
         log.debug("create()");
 
-        List<Column> columns;
-        Row row;
-        BaseItemValue itemValue;
-        Sheet sheet = null;
+        DataSheetTable table = null;
         ItemDefinition itemDefinition;
         DataCategory dataCategory = dataBrowser.getDataCategory();
 
@@ -53,70 +59,155 @@ public class DataSheetFactory implements CacheableFactory {
         itemDefinition = dataCategory.getItemDefinition();
         if (itemDefinition != null) {
 
-            log.debug("create() - Create Sheet and Columns.");
+            log.debug("create() - Create Columns.");
 
-            // create sheet and columns
-            sheet = new Sheet();
-            sheet.setKey(getKey());
-            sheet.setLabel("DataItems");
+            // create columns
+            List<DataSheetTable.Column> columns = new ArrayList<DataSheetTable.Column>();
             for (ItemValueDefinition itemValueDefinition : itemDefinition.getItemValueDefinitions()) {
                 if (itemValueDefinition.isFromData()) {
-                    new Column(sheet, itemValueDefinition.getPath(), itemValueDefinition.getName());
+                    columns.add(new DataSheetTable.Column(itemValueDefinition.getPath(), itemValueDefinition.getName(), false));
                 }
             }
-            new Column(sheet, "label");
-            new Column(sheet, "path");
-            new Column(sheet, "uid", true);
-            new Column(sheet, "created", true);
-            new Column(sheet, "modified", true);
-            new Column(sheet, "startDate");
-            new Column(sheet, "endDate");
-
-            log.debug("create() - Create Rows and Cells.");
-
-            // create rows and cells
-            columns = sheet.getColumns();
+            columns.add(new DataSheetTable.Column("label", null, false));
+            columns.add(new DataSheetTable.Column("path", null, false));
+            columns.add(new DataSheetTable.Column("uid", null, true));
+            columns.add(new DataSheetTable.Column("created", null, true));
+            columns.add(new DataSheetTable.Column("modified", null, true));
+            columns.add(new DataSheetTable.Column("startDate", null, false));
+            columns.add(new DataSheetTable.Column("endDate", null, false));
+
+            log.debug("create() - Load values.");
+
+            // Values for all DataItems are loaded in bulk by getDataItems. Each DataItem's ItemValueMap is built once
+            // and the values are held row by row so that a single row can be replaced later.
+            List<DataItem> dataItems = dataItemService.getDataItems(dataCategory);
+            Map<String, String> labels = DataItemLabels.getLabels(dataItemService, dataItems);
             StartEndDate startDate = dataBrowser.getQueryStartDate();
-            for (DataItem dataItem : dataItemService.getDataItems(dataCategory)) {
-                row = new Row(sheet, dataItem.getUid());
-                row.setLabel("DataItem");
-                for (Column column : columns) {
-                    itemValue = dataItemService.getItemValue(dataItem, column.getName(), startDate);
-                    if (itemValue != null) {
-                        new Cell(column, row, itemValue.getValueAsString(), itemValue.getUid(), itemValue.getItemValueDefinition().getValueDefinition().getValueType());
-                    } else if ("label".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItemService.getLabel(dataItem), ValueType.TEXT);
-                    } else if ("path".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItem.getDisplayPath(), ValueType.TEXT);
-                    } else if ("uid".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItem.getUid(), ValueType.TEXT);
-                    } else if ("created".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItem.getCreated(), ValueType.DATE);
-                    } else if ("modified".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItem.getModified(), ValueType.DATE);
-                    } else if ("startDate".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItemService.getStartDate(dataItem), ValueType.DATE);
-                    } else if ("endDate".equalsIgnoreCase(column.getName())) {
-                        new Cell(column, row, dataItemService.getEndDate(dataItem), ValueType.DATE);
-                    } else {
-                        // add empty cell
-                        new Cell(column, row);
-                    }
-                }
+            DataSheetTable.Value[][] values = new DataSheetTable.Value[dataItems.size()][];
+            for (int row = 0; row < dataItems.size(); row++) {
+                DataItem dataItem = dataItems.get(row);
+                values[row] = getValues(dataItemService, columns, dataItem, labels.get(dataItem.getUid()), startDate);
             }
 
-            log.debug("create() - Do sorts.");
+            log.debug("create() - Create Rows.");
 
-            // sort columns and rows in sheet
-            sheet.setDisplayBy(itemDefinition.getDrillDown());
-            sheet.sortColumns();
-            sheet.setSortBy(itemDefinition.getDrillDown());
-            sheet.sortRows();
+            // create rows in drill down order
+            int[] sortBy = getSortBy(itemDefinition, columns);
+            Integer[] order = getRowOrder(sortBy, values);
+            List<DataSheetTable.Row> rows = new ArrayList<DataSheetTable.Row>(order.length);
+            for (Integer row : order) {
+                rows.add(new DataSheetTable.Row(dataItems.get(row).getUid(), values[row]));
+            }
+            table = new DataSheetTable(getKey(), cacheName, dataCategory.getUid(), LocaleHolder.getLocale(), startDate,
+                    itemDefinition.getDrillDown(), columns, sortBy, rows);
         }
 
         log.debug("create() - Done.");
 
-        return sheet;
+        return table;
+    }
+
+    /**
+     * Create the Row for a DataItem.
+     *
+     * @param dataItemService the DataItemService
+     * @param table           the DataSheetTable the Row is for
+     * @param dataItem        the DataItem
+     * @return the Row
+     */
+    static DataSheetTable.Row createRow(DataItemService dataItemService, DataSheetTable table, DataItem dataItem) {
+        String label = dataItemService.getLabel(dataItem);
+        return new DataSheetTable.Row(
+                dataItem.getUid(), getValues(dataItemService, table.getColumns(), dataItem, label, table.getStartDate()));
+    }
+
+    /**
+     * Get the Cell values for a DataItem, building its ItemValueMap once.
+     *
+     * @param dataItemService the DataItemService
+     * @param columns         the Columns
+     * @param dataItem        the DataItem
+     * @param label           the label of the DataItem
+     * @param startDate       the query start date
+     * @return the values, one for each Column
+     */
+    private static DataSheetTable.Value[] getValues(DataItemService dataItemService, List<DataSheetTable.Column> columns,
+                                                    DataItem dataItem, String label, StartEndDate startDate) {
+        ItemValueMap itemValues = dataItemService.getItemValuesMap(dataItem);
+        DataSheetTable.Value[] values = new DataSheetTable.Value[columns.size()];
+        for (int column = 0; column < columns.size(); column++) {
+            String name = columns.get(column).getName();
+            BaseItemValue itemValue = itemValues.get(name, startDate);
+            if (itemValue != null) {
+                values[column] = new DataSheetTable.Value(itemValue.getValueAsString(), itemValue.getUid(), itemValue.getItemValueDefinition().getValueDefinition().getValueType());
+            } else if ("label".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(label, null, ValueType.TEXT);
+            } else if ("path".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(dataItem.getDisplayPath(), null, ValueType.TEXT);
+            } else if ("uid".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(dataItem.getUid(), null, ValueType.TEXT);
+            } else if ("created".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(dataItem.getCreated(), null, ValueType.DATE);
+            } else if ("modified".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(dataItem.getModified(), null, ValueType.DATE);
+            } else if ("startDate".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(dataItemService.getStartDate(dataItem), null, ValueType.DATE);
+            } else if ("endDate".equalsIgnoreCase(name)) {
+                values[column] = new DataSheetTable.Value(dataItemService.getEndDate(dataItem), null, ValueType.DATE);
+            } else {
+                // add empty cell
+                values[column] = DataSheetTable.Value.EMPTY;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the indexes of the drill down Columns, in drill down order
+     */
+    private int[] getSortBy(ItemDefinition itemDefinition, List<DataSheetTable.Column> columns) {
+        List<Integer> sortBy = new ArrayList<Integer>();
+        for (Choice choice : itemDefinition.getDrillDownChoices()) {
+            for (int column = 0; column < columns.size(); column++) {
+                if (columns.get(column).getName().equalsIgnoreCase(choice.getName())) {
+                    sortBy.add(column);
+                    break;
+                }
+            }
+        }
+        int[] indexes = new int[sortBy.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = sortBy.get(i);
+        }
+        return indexes;
+    }
+
+    /**
+     * Get the order of the rows, sorted by the drill down values ignoring case. Rows with equal drill down values keep
+     * the order of the DataItems.
+     *
+     * @param sortBy the indexes of the drill down Columns
+     * @param values the Cell values, indexed by DataItem then Column
+     * @return the index of the DataItem for each row
+     */
+    private Integer[] getRowOrder(final int[] sortBy, final DataSheetTable.Value[][] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                for (int column : sortBy) {
+                    int result = values[a][column].compareTo(values[b][column]);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+            }
+        });
+        return order;
     }
 
     public String getKey() {
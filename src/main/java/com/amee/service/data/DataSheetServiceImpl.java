@@ -3,6 +3,7 @@ package com.amee.service.data;
 import com.amee.base.transaction.AMEETransaction;
 import com.amee.domain.APIVersion;
 import com.amee.domain.DataItemService;
+import com.amee.domain.LocaleHolder;
 import com.amee.domain.ObjectType;
 import com.amee.domain.cache.CacheHelper;
 import com.amee.domain.data.DataCategory;
@@ -16,12 +17,25 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * A Service for managing data Sheets. This is a Spring bean configured in /conf/applicationContext.xml. See the
  * config file for the list of eternalPaths.
+ * <p/>
+ * Sheets are cached as {@link DataSheetTable}s. A DataCategory invalidation with 'dataItem:UID' options, as sent by
+ * {@link com.amee.service.item.DataItemServiceImpl} for changed DataItems, only replaces the Rows for the named
+ * DataItems in the cached tables. The invalidation is handled after the change has been committed, so the Rows are
+ * created from the DataItems as loaded from the database in a new transaction. Any other DataCategory invalidation,
+ * including those for changes to the ItemDefinition, removes the cached tables so they are created again.
  */
 public class DataSheetServiceImpl implements DataSheetService {
 
@@ -36,6 +50,10 @@ public class DataSheetServiceImpl implements DataSheetService {
     private CacheHelper cacheHelper = CacheHelper.getInstance();
     private Set<String> eternalPaths = new HashSet<String>();
 
+    // Cached tables by DataCategory UID, held weakly so that tables removed from the cache are not kept. Empty Sets
+    // are removed when found.
+    private final Map<String, Set<DataSheetTable>> tables = new HashMap<String, Set<DataSheetTable>>();
+
     // Events
 
     @Override
@@ -45,9 +63,14 @@ public class DataSheetServiceImpl implements DataSheetService {
         if ((invalidationMessage.isLocal() || invalidationMessage.isFromOtherInstance()) &&
                 invalidationMessage.getObjectType().equals(ObjectType.DC)) {
             log.trace("onApplicationEvent() Handling InvalidationMessage.");
-            DataCategory dataCategory = dataService.getDataCategoryByUid(invalidationMessage.getEntityUid(), null);
-            if (dataCategory != null) {
-                clearCaches(dataCategory);
+            List<String> dataItemUids = invalidationMessage.getOptionValues("dataItem");
+            if (!dataItemUids.isEmpty()) {
+                updateSheets(invalidationMessage.getEntityUid(), dataItemUids);
+            } else {
+                DataCategory dataCategory = dataService.getDataCategoryByUid(invalidationMessage.getEntityUid(), null);
+                if (dataCategory != null) {
+                    clearCaches(dataCategory);
+                }
             }
         }
     }
@@ -69,15 +92,97 @@ public class DataSheetServiceImpl implements DataSheetService {
     public Sheet getSheet(DataBrowser browser, String fullPath) {
         DataSheetFactory dataSheetFactory = new DataSheetFactory(
             dataItemService, browser, getEternalPaths().contains(fullPath) ? "DataSheetsEternal" : "DataSheets");
-        return (Sheet) cacheHelper.getCacheable(dataSheetFactory);
+        DataSheetTable table = (DataSheetTable) cacheHelper.getCacheable(dataSheetFactory);
+        if (table == null) {
+            return null;
+        }
+        synchronized (tables) {
+            Set<DataSheetTable> categoryTables = tables.get(table.getDataCategoryUid());
+            if (categoryTables == null) {
+                // Remove the Sets of tables no longer cached before adding another.
+                removeEmptyTables();
+                categoryTables = Collections.newSetFromMap(new WeakHashMap<DataSheetTable, Boolean>());
+                tables.put(table.getDataCategoryUid(), categoryTables);
+            }
+            categoryTables.add(table);
+        }
+        return table.getSheet();
     }
 
     @Override
     public void removeSheet(DataCategory dataCategory) {
+        synchronized (tables) {
+            tables.remove(dataCategory.getUid());
+        }
         cacheHelper.clearCache("DataSheets", "DataSheet_" + dataCategory.getUid());
         cacheHelper.clearCache("DataSheetsEternal", "DataSheet_" + dataCategory.getUid());
     }
 
+    /**
+     * Replace the Rows for changed DataItems in the cached tables for a DataCategory. DataItems no longer in the
+     * DataCategory are removed. Tables for another locale are removed from the cache, as the Rows would be created
+     * in the current locale.
+     *
+     * @param dataCategoryUid the DataCategory UID
+     * @param dataItemUids    the UIDs of the changed DataItems
+     */
+    void updateSheets(String dataCategoryUid, List<String> dataItemUids) {
+        List<DataSheetTable> categoryTables;
+        synchronized (tables) {
+            Set<DataSheetTable> current = tables.get(dataCategoryUid);
+            if (current == null) {
+                return;
+            }
+            categoryTables = new ArrayList<DataSheetTable>(current);
+            if (categoryTables.isEmpty()) {
+                tables.remove(dataCategoryUid);
+                return;
+            }
+        }
+        log.debug("updateSheets() dataCategory: {} dataItems: {}", dataCategoryUid, dataItemUids);
+
+        // Load the DataItems once for all tables.
+        Map<String, DataItem> dataItems = new HashMap<String, DataItem>();
+        for (String uid : dataItemUids) {
+            DataItem dataItem = dataItemService.getItemByUid(uid);
+            if ((dataItem != null) && dataItem.getDataCategory().getUid().equals(dataCategoryUid)) {
+                dataItems.put(uid, dataItem);
+            }
+        }
+
+        for (DataSheetTable table : categoryTables) {
+            if (table.getLocale().equals(LocaleHolder.getLocale())) {
+                for (String uid : dataItemUids) {
+                    DataItem dataItem = dataItems.get(uid);
+                    table.update(uid, dataItem != null ? DataSheetFactory.createRow(dataItemService, table, dataItem) : null);
+                }
+            } else {
+                synchronized (tables) {
+                    Set<DataSheetTable> current = tables.get(dataCategoryUid);
+                    if (current != null) {
+                        current.remove(table);
+                        if (current.isEmpty()) {
+                            tables.remove(dataCategoryUid);
+                        }
+                    }
+                }
+                cacheHelper.clearCache(table.getCacheName(), table.getKey());
+            }
+        }
+    }
+
+    /**
+     * Remove the Sets of tables for DataCategories whose tables have all been removed from the cache. Must be called
+     * whilst holding the tables lock.
+     */
+    private void removeEmptyTables() {
+        for (Iterator<Set<DataSheetTable>> i = tables.values().iterator(); i.hasNext(); ) {
+            if (i.next().isEmpty()) {
+                i.remove();
+            }
+        }
+    }
+
     @Override
     public Set<String> getEternalPaths() {
         return eternalPaths;
@@ -0,0 +1,384 @@
+package com.amee.service.data;
+
+import com.amee.domain.ValueType;
+import com.amee.domain.sheet.Cell;
+import com.amee.domain.sheet.Sheet;
+import com.amee.platform.science.StartEndDate;
+
+import java.io.Serializable;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The cached form of a DataCategory {@link Sheet}, built by {@link DataSheetFactory}.
+ * <p/>
+ * The table holds the Columns and, for each DataItem, a Row of Cell values kept in drill down order. The Rows are
+ * held as {@link CompactRows} so that large and eternal sheets take little heap. The Sheet decoded from these is held
+ * softly with the current Rows, so reads share it until the Rows change and it can be reclaimed under memory pressure.
+ * Reads take no lock, so concurrent reads of a new version may each decode a Sheet.
+ * <p/>
+ * A changed DataItem can be applied with {@link #update(String, Row)}, which publishes new Rows and leaves Sheets
+ * already created unchanged. Changed Rows are held decoded beside the encoded Rows and merged in drill down order when
+ * read. Once there are more changes than MIN_CHANGES or an eighth of the encoded Rows the Rows are encoded again, so
+ * an update does not encode the whole table. The next Sheet is created from the new Rows without loading the
+ * DataCategory again.
+ * <p/>
+ * Tables are Serializable so that they may be held by any cache store. The Sheet is not serialized.
+ */
+class DataSheetTable implements Serializable {
+
+    // The fewest changes held before the Rows are encoded again.
+    static final int MIN_CHANGES = 64;
+
+    private final String key;
+    private final String cacheName;
+    private final String dataCategoryUid;
+    private final String locale;
+    private final StartEndDate startDate;
+    private final String drillDown;
+    private final List<Column> columns;
+    private final Comparator<Row> order;
+
+    // The current Rows, replaced on each update.
+    private volatile State state;
+
+    /**
+     * @param key             the cache key
+     * @param cacheName       the cache name
+     * @param dataCategoryUid the DataCategory UID
+     * @param locale          the locale the table was created for
+     * @param startDate       the query start date used for values
+     * @param drillDown       the ItemDefinition drill down, used to order Columns and Rows
+     * @param columns         the Columns
+     * @param sortBy          the indexes of the drill down Columns
+     * @param rows            the Rows in drill down order
+     */
+    DataSheetTable(String key, String cacheName, String dataCategoryUid, String locale, StartEndDate startDate,
+                   String drillDown, List<Column> columns, int[] sortBy, List<Row> rows) {
+        this.key = key;
+        this.cacheName = cacheName;
+        this.dataCategoryUid = dataCategoryUid;
+        this.locale = locale;
+        this.startDate = startDate;
+        this.drillDown = drillDown;
+        this.columns = Collections.unmodifiableList(new ArrayList<Column>(columns));
+        this.order = new RowOrder(sortBy);
+        this.state = new State(CompactRows.encode(rows, columns.size()), new HashSet<String>(), new ArrayList<Row>());
+    }
+
+    /**
+     * Get the Sheet for the current Rows, decoding it if not held.
+     *
+     * @return the Sheet
+     */
+    Sheet getSheet() {
+        State current = state;
+        SoftReference<Sheet> reference = current.sheet;
+        Sheet sheet = reference != null ? reference.get() : null;
+        if (sheet == null) {
+            sheet = createSheet(current.merge(order));
+            current.sheet = new SoftReference<Sheet>(sheet);
+        }
+        return sheet;
+    }
+
+    /**
+     * Decode a new Sheet for the current Rows.
+     *
+     * @return the Sheet
+     */
+    Sheet decodeSheet() {
+        return createSheet(state.merge(order));
+    }
+
+    /**
+     * Replace, add or remove the Row for a DataItem. Rows are kept in drill down order and a Row added after others
+     * with the same drill down values.
+     *
+     * @param uid the DataItem UID
+     * @param row the new Row, or null to remove the Row
+     */
+    synchronized void update(String uid, Row row) {
+        State current = state;
+        Set<String> replaced = new HashSet<String>(current.replaced);
+        replaced.add(uid);
+        List<Row> changes = new ArrayList<Row>(current.changes.size() + 1);
+        for (Row change : current.changes) {
+            if (!change.uid.equals(uid)) {
+                changes.add(change);
+            }
+        }
+        if (row != null) {
+            changes.add(getInsertionIndex(changes, row), row);
+        }
+        State next = new State(current.rows, replaced, changes);
+        if ((replaced.size() + changes.size()) > Math.max(MIN_CHANGES, current.rows.size() / 8)) {
+            next = new State(CompactRows.encode(next.merge(order), columns.size()),
+                    new HashSet<String>(), new ArrayList<Row>());
+        }
+        state = next;
+    }
+
+    /**
+     * @return the index after the Rows ordered before or with the Row
+     */
+    private int getInsertionIndex(List<Row> rows, Row row) {
+        int low = 0;
+        int high = rows.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order.compare(rows.get(middle), row) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the current Rows in drill down order, decoded
+     */
+    List<Row> getRows() {
+        return Collections.unmodifiableList(state.merge(order));
+    }
+
+    private Sheet createSheet(List<Row> rows) {
+        Sheet sheet = new Sheet();
+        sheet.setKey(key);
+        sheet.setLabel("DataItems");
+        List<com.amee.domain.sheet.Column> sheetColumns = new ArrayList<com.amee.domain.sheet.Column>();
+        for (Column column : columns) {
+            sheetColumns.add(column.copy(sheet));
+        }
+        List<com.amee.domain.sheet.Row> sheetRows = new ArrayList<com.amee.domain.sheet.Row>();
+        for (Row row : rows) {
+            com.amee.domain.sheet.Row sheetRow = new com.amee.domain.sheet.Row(sheet, row.uid);
+            sheetRow.setLabel("DataItem");
+            sheetRows.add(sheetRow);
+        }
+
+        // Cells are added column by column.
+        for (int column = 0; column < sheetColumns.size(); column++) {
+            for (int row = 0; row < sheetRows.size(); row++) {
+                rows.get(row).cells[column].addTo(sheetColumns.get(column), sheetRows.get(row));
+            }
+        }
+
+        // Sort columns and rows. Cells compare by their ValueType, so numeric drill down values may be ordered
+        // differently from the text order the Rows are held in, but the sort is short as most Rows are in place.
+        sheet.setDisplayBy(drillDown);
+        sheet.sortColumns();
+        sheet.setSortBy(drillDown);
+        sheet.sortRows();
+        return sheet;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    String getCacheName() {
+        return cacheName;
+    }
+
+    String getDataCategoryUid() {
+        return dataCategoryUid;
+    }
+
+    String getLocale() {
+        return locale;
+    }
+
+    StartEndDate getStartDate() {
+        return startDate;
+    }
+
+    List<Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * The encoded Rows and the changes made since they were encoded. Never modified once published.
+     */
+    private static class State implements Serializable {
+
+        private final CompactRows rows;
+
+        // UIDs of the DataItems changed since the Rows were encoded, whose encoded Rows are not current.
+        private final Set<String> replaced;
+
+        // The current Rows of changed DataItems, in drill down order.
+        private final List<Row> changes;
+
+        // The Sheet decoded for these Rows, if read. Not serialized.
+        private transient volatile SoftReference<Sheet> sheet;
+
+        private State(CompactRows rows, Set<String> replaced, List<Row> changes) {
+            this.rows = rows;
+            this.replaced = replaced;
+            this.changes = changes;
+        }
+
+        /**
+         * Merge the changes into the encoded Rows. A changed Row comes after encoded Rows with the same drill down
+         * values, as it was applied after them.
+         *
+         * @param order the drill down order
+         * @return the current Rows in drill down order
+         */
+        private List<Row> merge(Comparator<Row> order) {
+            List<Row> merged = new ArrayList<Row>(rows.size() + changes.size());
+            int next = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                Row row = rows.getRow(i);
+                if (!replaced.contains(row.uid)) {
+                    while ((next < changes.size()) && (order.compare(changes.get(next), row) < 0)) {
+                        merged.add(changes.get(next++));
+                    }
+                    merged.add(row);
+                }
+            }
+            while (next < changes.size()) {
+                merged.add(changes.get(next++));
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Orders Rows by the values of the drill down Columns.
+     */
+    private static class RowOrder implements Comparator<Row>, Serializable {
+
+        private final int[] sortBy;
+
+        private RowOrder(int[] sortBy) {
+            this.sortBy = sortBy.clone();
+        }
+
+        @Override
+        public int compare(Row a, Row b) {
+            for (int column : sortBy) {
+                int result = a.cells[column].compareTo(b.cells[column]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * A Column, created in each Sheet.
+     */
+    static class Column implements Serializable {
+
+        private final String name;
+        private final String label;
+        private final boolean hidden;
+
+        Column(String name, String label, boolean hidden) {
+            this.name = name;
+            this.label = label;
+            this.hidden = hidden;
+        }
+
+        private com.amee.domain.sheet.Column copy(Sheet sheet) {
+            if (label != null) {
+                return new com.amee.domain.sheet.Column(sheet, name, label);
+            } else if (hidden) {
+                return new com.amee.domain.sheet.Column(sheet, name, true);
+            } else {
+                return new com.amee.domain.sheet.Column(sheet, name);
+            }
+        }
+
+        String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * The Cell values for a DataItem, one for each Column.
+     */
+    static class Row implements Serializable {
+
+        private final String uid;
+        private final Value[] cells;
+
+        Row(String uid, Value[] cells) {
+            this.uid = uid;
+            this.cells = cells;
+        }
+
+        String getUid() {
+            return uid;
+        }
+
+        Value[] getValues() {
+            return cells;
+        }
+    }
+
+    /**
+     * A Cell value. A value with no ValueType is an empty Cell.
+     */
+    static class Value implements Comparable<Value>, Serializable {
+
+        static final Value EMPTY = new Value(null, null, null);
+
+        private final Object value;
+        private final String uid;
+        private final ValueType valueType;
+
+        Value(Object value, String uid, ValueType valueType) {
+            this.value = value;
+            this.uid = uid;
+            this.valueType = valueType;
+        }
+
+        private void addTo(com.amee.domain.sheet.Column column, com.amee.domain.sheet.Row row) {
+            if (valueType == null) {
+                new Cell(column, row);
+            } else if (uid != null) {
+                new Cell(column, row, (String) value, uid, valueType);
+            } else {
+                new Cell(column, row, value, valueType);
+            }
+        }
+
+        /**
+         * Compare the values as text ignoring case, where empty Cells have an empty value.
+         */
+        @Override
+        public int compareTo(Value other) {
+            return getSortValue().compareToIgnoreCase(other.getSortValue());
+        }
+
+        Object getValue() {
+            return value;
+        }
+
+        String getUid() {
+            return uid;
+        }
+
+        ValueType getValueType() {
+            return valueType;
+        }
+
+        private String getSortValue() {
+            return (valueType != null) && (value != null) ? value.toString() : "";
+        }
+
+        private Object readResolve() {
+            return valueType == null ? EMPTY : this;
+        }
+    }
+}
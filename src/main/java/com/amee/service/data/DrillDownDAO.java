@@ -1,14 +1,15 @@
 package com.amee.service.data;
 
+import static org.hibernate.type.StandardBasicTypes.DOUBLE;
 import static org.hibernate.type.StandardBasicTypes.LONG;
 import static org.hibernate.type.StandardBasicTypes.STRING;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -34,6 +35,9 @@ import com.amee.domain.sheet.Choice;
  * <p/>
  * See {@link com.amee.service.data.DrillDownService} for a description of drill downs.
  * <p/>
+ * Selections are applied as EXISTS conditions on the DATA_ITEM rows of the category, so each drill down is a single
+ * statement in the default locale whatever the size of the category, rather than binding lists of Data Item IDs.
+ * <p/>
  *
  * TODO: Rewrite using JPA JPQL instead of Hibernate Session.
  */
@@ -47,7 +51,6 @@ class DrillDownDAO {
 
     @Autowired
     private DataServiceDAO dataServiceDao;
-
     /**
      * Retrieves a {@link java.util.List} of {@link com.amee.domain.sheet.Choice}s containing values for a user to select. The value choices
      * are appropriate for the current level within the 'drill down' given the supplied {@link com.amee.domain.data.DataCategory},
@@ -64,8 +67,6 @@ class DrillDownDAO {
         String path,
         List<Choice> selections) {
 
-        Collection<Long> dataItemIds;
-
         // check arguments
         if ((dc == null) || (!dc.isItemDefinitionPresent()) || (selections == null) || (path == null)) {
             throw new IllegalArgumentException("A required argument is missing.");
@@ -79,19 +80,8 @@ class DrillDownDAO {
         ItemDefinition itemDefinition = dataCategory.getItemDefinition();
         ItemValueDefinition itemValueDefinition = itemDefinition.getItemValueDefinition(path);
         if (itemValueDefinition != null) {
-            // Get Data Item IDs.
-            if (!selections.isEmpty()) {
-                // Get Data Item IDs based on selections.
-                dataItemIds = getDataItemIds(dataCategory, selections);
-            } else {
-                // Get Data Item IDs for top level (no selections).
-                dataItemIds = getDataItemIds(dataCategory.getEntityId(), itemDefinition.getId());
-            }
-            // Get choices.
-            if (!dataItemIds.isEmpty()) {
-                for (String value : getDataItemValues(itemValueDefinition.getId(), dataItemIds)) {
-                    choices.add(new Choice(value));
-                }
+            for (String value : getDataItemValues(dataCategory, itemValueDefinition.getId(), getSelections(dataCategory, selections))) {
+                choices.add(new Choice(value));
             }
         } else {
             throw new IllegalArgumentException("ItemValueDefinition not found: " + path);
@@ -122,159 +112,186 @@ class DrillDownDAO {
 
         // get choices
         List<Choice> choices = new ArrayList<Choice>();
-        ItemDefinition itemDefinition = dataCategory.getItemDefinition();
-        Collection<Long> dataItemIds;
-        if (!selections.isEmpty()) {
-            // get choices based on selections
-            dataItemIds = getDataItemIds(dataCategory, selections);
-            if (!dataItemIds.isEmpty()) {
-                for (String value : this.getDataItemUIDs(dataItemIds)) {
-                    choices.add(new Choice(value));
-                }
-            }
-        } else {
-            // get choices for top level (no selections)
-            for (String value : getDataItemUIDs(dataCategory.getEntityId(), itemDefinition.getId())) {
-                choices.add(new Choice(value));
-            }
+        for (String value : getDataItemUIDs(dataCategory, getSelections(dataCategory, selections))) {
+            choices.add(new Choice(value));
         }
 
         return choices;
     }
 
+    /**
+     * Loads a {@link DrillDownIndex} of the drill down values of the active {@link com.amee.domain.item.data.DataItem}s
+     * in a {@link com.amee.domain.data.DataCategory}. Three queries are used, one for the Data Items and one each for
+     * the number and text values of the drill down {@link com.amee.domain.data.ItemValueDefinition}s.
+     *
+     * @param dc the {@link com.amee.domain.data.DataCategory} to index (required)
+     * @return the index
+     */
     @SuppressWarnings(value = "unchecked")
-    private Collection<String> getDataItemUIDs(Collection<Long> dataItemIds) {
-
-        StringBuilder sql;
-        SQLQuery query;
+    public DrillDownIndex getDrillDownIndex(IDataCategoryReference dc) {
 
         // check arguments
-        if (dataItemIds == null) {
+        if ((dc == null) || (!dc.isItemDefinitionPresent())) {
             throw new IllegalArgumentException("A required argument is missing.");
         }
-        dataItemIds.add(0L);
-
-        // create SQL
-        sql = new StringBuilder();
-        sql.append("SELECT UID ");
-        sql.append("FROM DATA_ITEM ");
-        sql.append("WHERE ID IN (:dataItemIds) ");
-        sql.append("AND STATUS != :trash");
-
-        // create query
-        Session session = (Session) entityManager.getDelegate();
-        query = session.createSQLQuery(sql.toString());
-        query.addScalar("UID", STRING);
 
-        // set parameters
-        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
-        query.setParameterList("dataItemIds", dataItemIds, LONG);
-
-        // execute SQL
-        try {
-            List<String> results = query.list();
-            log.debug("getDataItemUIDs() results: {}", results.size());
-            return results;
-        } catch (HibernateException e) {
-            log.error("getDataItemUIDs() Caught HibernateException: " + e.getMessage(), e);
-            throw new RuntimeException(e);
-        }
-    }
-
-    @SuppressWarnings(value = "unchecked")
-    private Collection<String> getDataItemUIDs(Long dataCategoryId, Long itemDefinitionId) {
+        // Get the Data Category.
+        DataCategory dataCategory = dataServiceDao.getDataCategory(dc);
+        ItemDefinition itemDefinition = dataCategory.getItemDefinition();
 
-        // check arguments
-        if ((dataCategoryId == null) || (itemDefinitionId == null)) {
-            throw new IllegalArgumentException("A required argument is missing.");
+        // Index columns for the drill down Item Value Definitions.
+        DrillDownIndex.Builder builder = new DrillDownIndex.Builder();
+        Map<Long, String> paths = new HashMap<Long, String>();
+        for (Choice choice : itemDefinition.getDrillDownChoices()) {
+            ItemValueDefinition itemValueDefinition = itemDefinition.getItemValueDefinition(choice.getName());
+            if (itemValueDefinition != null) {
+                paths.put(itemValueDefinition.getId(), choice.getName());
+                builder.addColumn(choice.getName());
+            }
         }
 
-        // create SQL
+        // Index rows for the Data Items.
+        Session session = (Session) entityManager.getDelegate();
         StringBuilder sql = new StringBuilder();
-        sql.append("SELECT UID ");
+        sql.append("SELECT ID, UID ");
         sql.append("FROM DATA_ITEM ");
         sql.append("WHERE STATUS != :trash ");
         sql.append("AND DATA_CATEGORY_ID = :dataCategoryId ");
         sql.append("AND ITEM_DEFINITION_ID = :itemDefinitionId");
-
-        // create query
-        Session session = (Session) entityManager.getDelegate();
         SQLQuery query = session.createSQLQuery(sql.toString());
+        query.addScalar("ID", LONG);
         query.addScalar("UID", STRING);
-
-        // set parameters
         query.setInteger("trash", AMEEStatus.TRASH.ordinal());
-        query.setLong("dataCategoryId", dataCategoryId);
-        query.setLong("itemDefinitionId", itemDefinitionId);
+        query.setLong("dataCategoryId", dataCategory.getEntityId());
+        query.setLong("itemDefinitionId", itemDefinition.getId());
+        for (Object[] row : (List<Object[]>) query.list()) {
+            builder.addDataItem((Long) row[0], (String) row[1]);
+        }
 
-        // execute SQL
-        List<String> dataItemUids = query.list();
-        log.debug("getDataItemUIDs() results: {}", dataItemUids.size());
-        return new HashSet<String>(dataItemUids);
+        if (!paths.isEmpty()) {
+
+            // Index number values.
+            query = session.createSQLQuery(getDrillDownIndexValuesSql(
+                    "DATA_ITEM_NUMBER_VALUE", "v.VALUE NUMBER_VALUE, CAST(v.VALUE AS CHAR) VALUE"));
+            query.addScalar("DATA_ITEM_ID", LONG);
+            query.addScalar("ITEM_VALUE_DEFINITION_ID", LONG);
+            query.addScalar("NUMBER_VALUE", DOUBLE);
+            query.addScalar("VALUE", STRING);
+            setDrillDownIndexValuesParameters(query, dataCategory, itemDefinition, paths.keySet());
+            for (Object[] row : (List<Object[]>) query.list()) {
+                if (row[2] != null) {
+                    builder.addNumberValue((Long) row[0], paths.get(row[1]), (Double) row[2], (String) row[3]);
+                }
+            }
+
+            // Index text values.
+            query = session.createSQLQuery(getDrillDownIndexValuesSql("DATA_ITEM_TEXT_VALUE", "v.VALUE VALUE"));
+            query.addScalar("DATA_ITEM_ID", LONG);
+            query.addScalar("ITEM_VALUE_DEFINITION_ID", LONG);
+            query.addScalar("VALUE", STRING);
+            setDrillDownIndexValuesParameters(query, dataCategory, itemDefinition, paths.keySet());
+            for (Object[] row : (List<Object[]>) query.list()) {
+                builder.addTextValue((Long) row[0], paths.get(row[1]), (String) row[2]);
+            }
+        }
+
+        DrillDownIndex index = builder.build();
+        log.debug("getDrillDownIndex() results: {}", index.size());
+        return index;
     }
 
-    @SuppressWarnings(value = "unchecked")
-    private Collection<Long> getDataItemIds(Long dataCategoryId, Long itemDefinitionId) {
+    private String getDrillDownIndexValuesSql(String table, String values) {
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT v.DATA_ITEM_ID DATA_ITEM_ID, v.ITEM_VALUE_DEFINITION_ID ITEM_VALUE_DEFINITION_ID, ");
+        sql.append(values).append(" ");
+        sql.append("FROM ").append(table).append(" v, DATA_ITEM di ");
+        sql.append("WHERE v.DATA_ITEM_ID = di.ID ");
+        sql.append("AND di.STATUS != :trash ");
+        sql.append("AND di.DATA_CATEGORY_ID = :dataCategoryId ");
+        sql.append("AND di.ITEM_DEFINITION_ID = :itemDefinitionId ");
+        sql.append("AND v.STATUS != :trash ");
+        sql.append("AND v.ITEM_VALUE_DEFINITION_ID IN (:itemValueDefinitionIds)");
+        return sql.toString();
+    }
 
-        // check arguments
-        if ((dataCategoryId == null) || (itemDefinitionId == null)) {
-            throw new IllegalArgumentException("A required argument is missing.");
-        }
+    private void setDrillDownIndexValuesParameters(
+            SQLQuery query, DataCategory dataCategory, ItemDefinition itemDefinition, Collection<Long> itemValueDefinitionIds) {
+        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
+        query.setLong("dataCategoryId", dataCategory.getEntityId());
+        query.setLong("itemDefinitionId", itemDefinition.getId());
+        query.setParameterList("itemValueDefinitionIds", itemValueDefinitionIds, LONG);
+    }
+
+    /**
+     * Get the UIDs of the Data Items in a category that match the drill down selections.
+     *
+     * @param dataCategory the DataCategory
+     * @param selections   resolved selections
+     * @return the Data Item UIDs
+     */
+    @SuppressWarnings(value = "unchecked")
+    private Collection<String> getDataItemUIDs(DataCategory dataCategory, List<Selection> selections) {
 
         // create SQL
         StringBuilder sql = new StringBuilder();
-        sql.append("SELECT ID ");
-        sql.append("FROM DATA_ITEM ");
-        sql.append("WHERE STATUS != :trash ");
-        sql.append("AND DATA_CATEGORY_ID = :dataCategoryId ");
-        sql.append("AND ITEM_DEFINITION_ID = :itemDefinitionId");
+        sql.append("SELECT di.UID UID ");
+        sql.append("FROM DATA_ITEM di ");
+        sql.append("WHERE ");
+        appendDataItemConditions(sql, selections);
 
         // create query
         Session session = (Session) entityManager.getDelegate();
         SQLQuery query = session.createSQLQuery(sql.toString());
-        query.addScalar("ID", LONG);
+        query.addScalar("UID", STRING);
 
         // set parameters
-        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
-        query.setLong("dataCategoryId", dataCategoryId);
-        query.setLong("itemDefinitionId", itemDefinitionId);
+        setDataItemParameters(query, dataCategory, selections);
 
         // execute SQL
-        List<Long> dataItemIds = query.list();
-        log.debug("getDataItemIds() results: {}", dataItemIds.size());
-        return new HashSet<Long>(dataItemIds);
+        try {
+            List<String> results = query.list();
+            log.debug("getDataItemUIDs() results: {}", results.size());
+            return results;
+        } catch (HibernateException e) {
+            log.error("getDataItemUIDs() Caught HibernateException: " + e.getMessage(), e);
+            throw new RuntimeException(e);
+        }
     }
 
     /**
-     * Get a list of distinct values for a given item value definition ID and collection of data item IDs.
+     * Get a list of distinct values for a given item value definition ID over the Data Items in a category that match
+     * the drill down selections.
      *
-     * @param itemValueDefinitionId
-     * @param dataItemIds
+     * @param dataCategory          the DataCategory
+     * @param itemValueDefinitionId the Item Value Definition of the values
+     * @param selections            resolved selections
      * @return a case-insensitive sorted List of values.
      */
     @SuppressWarnings(value = "unchecked")
-    private List<String> getDataItemValues(Long itemValueDefinitionId, Collection<Long> dataItemIds) {
+    private List<String> getDataItemValues(DataCategory dataCategory, Long itemValueDefinitionId, List<Selection> selections) {
 
         // Check arguments.
-        if ((itemValueDefinitionId == null) || (dataItemIds == null)) {
+        if (itemValueDefinitionId == null) {
             throw new IllegalArgumentException("A required argument is missing.");
         }
-        dataItemIds.add(0L);
 
         // create SQL
-        // TODO: Could it be faster to perform two queries and combine the results?
         StringBuilder sql = new StringBuilder();
-        sql.append("(SELECT DISTINCT CAST(VALUE AS CHAR) VALUE ");
-        sql.append("FROM DATA_ITEM_NUMBER_VALUE ");
-        sql.append("WHERE ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
-        sql.append("AND STATUS != :trash ");
-        sql.append("AND DATA_ITEM_ID IN (:dataItemIds)) ");
+        sql.append("(SELECT DISTINCT CAST(v.VALUE AS CHAR) VALUE ");
+        sql.append("FROM DATA_ITEM_NUMBER_VALUE v, DATA_ITEM di ");
+        sql.append("WHERE v.ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
+        sql.append("AND v.STATUS != :trash ");
+        sql.append("AND v.DATA_ITEM_ID = di.ID AND ");
+        appendDataItemConditions(sql, selections);
+        sql.append(") ");
         sql.append("UNION ");
-        sql.append("(SELECT DISTINCT VALUE ");
-        sql.append("FROM DATA_ITEM_TEXT_VALUE ");
-        sql.append("WHERE ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
-        sql.append("AND STATUS != :trash ");
-        sql.append("AND DATA_ITEM_ID IN (:dataItemIds)) ");
+        sql.append("(SELECT DISTINCT v.VALUE VALUE ");
+        sql.append("FROM DATA_ITEM_TEXT_VALUE v, DATA_ITEM di ");
+        sql.append("WHERE v.ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
+        sql.append("AND v.STATUS != :trash ");
+        sql.append("AND v.DATA_ITEM_ID = di.ID AND ");
+        appendDataItemConditions(sql, selections);
+        sql.append(") ");
 
         // hsqldb and h2 don't like using LCASE here. Of course MySQL doesn't care.
         //sql.append("ORDER BY LCASE(VALUE) ASC");
@@ -285,9 +302,8 @@ class DrillDownDAO {
         query.addScalar("VALUE", STRING);
 
         // set parameters
-        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
+        setDataItemParameters(query, dataCategory, selections);
         query.setLong("itemValueDefinitionId", itemValueDefinitionId);
-        query.setParameterList("dataItemIds", dataItemIds, LONG);
 
         // execute SQL
         try {
@@ -304,189 +320,161 @@ class DrillDownDAO {
     }
 
     /**
-     * Gets the Data Item IDs for a category that are valid for the given drill down selections.
+     * Resolve drill down selections to their Item Value Definitions.
+     * <p/>
+     * In the default locale a selection matches Data Items with a number or text value equal to the selection value.
+     * Otherwise a selection matches Data Items with a locale specific name equal to the selection value, falling
+     * back to the default value if there are no locale specific matches in the category. Working out which applies
+     * takes one query per selection.
      *
-     * @param dc the DataCategory.
-     * @param selections the drill down selections.
-     *
-     * @return all Data Item IDs that match the drill down selections.
+     * @param dataCategory the DataCategory
+     * @param selections   the drill down selections
+     * @return the resolved selections
      */
-    private Collection<Long> getDataItemIds(IDataCategoryReference dc, List<Choice> selections) {
+    private List<Selection> getSelections(DataCategory dataCategory, List<Choice> selections) {
 
         // Check arguments.
-        if ((dc == null) || (!dc.isItemDefinitionPresent()) || (selections == null)) {
+        if (selections == null) {
             throw new IllegalArgumentException("A required argument is missing.");
         }
 
-        // Get the Data Category.
-        DataCategory dataCategory = dataServiceDao.getDataCategory(dc);
-
-        // Get all IDs for Data Items in the current Data Category.
-        Collection<Long> allCategoryDataItemIds = getDataItemIds(dataCategory.getId(), dataCategory.getItemDefinition().getId());
-
-        // Iterate over selections and fetch DataItem IDs for the selections.
-        Set<Long> refinedToSelectionDataItemIds = new HashSet<Long>();
-        Collection<Collection<Long>> allPerValueDataItemIds = new ArrayList<Collection<Long>>();
-        for (Choice selection : selections) {
-            ItemValueDefinition itemValueDefinition = dataCategory.getItemDefinition().getItemValueDefinition(selection.getName());
+        List<Selection> resolved = new ArrayList<Selection>();
+        for (Choice choice : selections) {
+            ItemValueDefinition itemValueDefinition = dataCategory.getItemDefinition().getItemValueDefinition(choice.getName());
             if (itemValueDefinition != null) {
-                Collection<Long> perValueDataItemIds = getDataItemIds(itemValueDefinition.getId(), allCategoryDataItemIds, selection.getValue());
-                allPerValueDataItemIds.add(perValueDataItemIds);
-                refinedToSelectionDataItemIds.addAll(perValueDataItemIds);
+                Selection selection = new Selection(resolved.size(), itemValueDefinition.getId(), choice.getValue(), false);
+                if (!LocaleHolder.isDefaultLocale()) {
+                    Selection localeSelection = new Selection(selection.index, selection.itemValueDefinitionId, selection.value, true);
+                    if (hasMatches(dataCategory, localeSelection)) {
+                        selection = localeSelection;
+                    }
+                }
+                resolved.add(selection);
             } else {
-                throw new IllegalArgumentException("Could not locate ItemValueDefinition: " + selection.getName());
+                throw new IllegalArgumentException("Could not locate ItemValueDefinition: " + choice.getName());
             }
         }
-
-        // Reduce all to intersection.
-        for (Collection<Long> c : allPerValueDataItemIds) {
-            refinedToSelectionDataItemIds.retainAll(c);
-        }
-
-        return refinedToSelectionDataItemIds;
+        return resolved;
     }
 
     /**
-     * Gets a list of IDs of Data Items with a given Item Value Definition and Value for a given list of Data Item IDs.
+     * Checks if any Data Items in the category match a selection.
      *
-     * @param itemValueDefinitionId the ID of the Item Value Definition to find.
-     * @param categoryDataItemIds a Collection of Data Item IDs to restrict results to (all Data Items in a category).
-     * @param value the Data Item value to restrict results to.
-     *
-     * @return a list of Data Item IDs.
+     * @param dataCategory the DataCategory
+     * @param selection    the selection to check
+     * @return true if there are matches
      */
-    private Collection<Long> getDataItemIds(Long itemValueDefinitionId, Collection<Long> categoryDataItemIds, String value) {
+    private boolean hasMatches(DataCategory dataCategory, Selection selection) {
 
-        Set<Long> dataItemIds;
-        if (LocaleHolder.isDefaultLocale()) {
-            dataItemIds = getDataItemIdsUsingValue(itemValueDefinitionId, categoryDataItemIds, value);
-        } else {
-            dataItemIds = getDataItemIdsUsingLocaleNames(itemValueDefinitionId, categoryDataItemIds, value);
-        }
+        // create SQL
+        List<Selection> selections = Collections.singletonList(selection);
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT di.ID ID ");
+        sql.append("FROM DATA_ITEM di ");
+        sql.append("WHERE ");
+        appendDataItemConditions(sql, selections);
 
-        log.debug("getDataItemIds() results: {}", dataItemIds.size());
+        // create query
+        Session session = (Session) entityManager.getDelegate();
+        SQLQuery query = session.createSQLQuery(sql.toString());
+        query.addScalar("ID", LONG);
+        query.setMaxResults(1);
+
+        // set parameters
+        setDataItemParameters(query, dataCategory, selections);
 
-        return dataItemIds;
+        // execute SQL
+        return !query.list().isEmpty();
     }
 
     /**
-     * Queries the database for Data Item Values matching the specified <code>itemValueDefinitionId</code>,
-     * <code>categoryDataItemIds</code> and <code>value</code>.  Note that two queries are performed to the
-     * <code>DATA_ITEM_NUMBER_VALUE</code> and <code>DATA_ITEM_TEXT_VALUE</code> tables in order to support
-     * integration testing using HSQLDB, which is not tolerant of having a string submitted as a condition
-     * for a column of type <code>DOUBLE</code>.
+     * Appends the conditions for active Data Items (aliased as 'di') in the category matching all selections.
+     * <p/>
+     * Number values are only compared for selection values that are numbers, as HSQLDB and H2 are not tolerant of
+     * having a string submitted as a condition for a column of type <code>DOUBLE</code>.
+     *
+     * @param sql        to append to
+     * @param selections resolved selections
      */
-    @SuppressWarnings("unchecked")
-    private Set<Long> getDataItemIdsUsingValue(Long itemValueDefinitionId, Collection<Long> categoryDataItemIds, String value) {
-
-        // Check arguments.
-        if ((itemValueDefinitionId == null) || (categoryDataItemIds == null)) {
-            throw new IllegalArgumentException("A required argument is missing.");
-        }
-        categoryDataItemIds.add(0L);
-
-        Session session = (Session) entityManager.getDelegate();
-        List<Long> result = new ArrayList<Long>();
-        SQLQuery query;
-        StringBuilder sql;
-        
-        // Get results from DATA_ITEM_NUMBER_VALUE
-        try {    
-            // create SQL
-            sql = new StringBuilder();
-            sql.append("(SELECT DATA_ITEM_ID ID ");
-            sql.append("FROM DATA_ITEM_NUMBER_VALUE ");
-            sql.append("WHERE DATA_ITEM_ID IN (:dataItemIds) ");
-            sql.append("AND STATUS != :trash ");
-            sql.append("AND ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
-            sql.append("AND VALUE = :value) ");
-            
-            // create query
-            query = session.createSQLQuery(sql.toString());
-            query.addScalar("ID", LONG);
-    
-            // set parameters
-            query.setInteger("trash", AMEEStatus.TRASH.ordinal());
-            query.setParameterList("dataItemIds", categoryDataItemIds, LONG);
-            query.setLong("itemValueDefinitionId", itemValueDefinitionId);
-            query.setDouble("value", Double.valueOf(value));
-            
-            // execute query
-            result.addAll(query.list());
-            
-        } catch (NumberFormatException e) {
-            log.debug("Value was not a number: {}", value);
+    private void appendDataItemConditions(StringBuilder sql, List<Selection> selections) {
+        sql.append("di.STATUS != :trash ");
+        sql.append("AND di.DATA_CATEGORY_ID = :dataCategoryId ");
+        sql.append("AND di.ITEM_DEFINITION_ID = :itemDefinitionId ");
+        for (Selection selection : selections) {
+            String n = "n" + selection.index;
+            String t = "t" + selection.index;
+            sql.append("AND (EXISTS (SELECT 1 FROM DATA_ITEM_TEXT_VALUE ").append(t);
+            if (selection.localeNames) {
+                sql.append(", LOCALE_NAME ln").append(selection.index);
+            }
+            sql.append(" WHERE ").append(t).append(".DATA_ITEM_ID = di.ID ");
+            sql.append("AND ").append(t).append(".STATUS != :trash ");
+            sql.append("AND ").append(t).append(".ITEM_VALUE_DEFINITION_ID = :ivd").append(selection.index).append(" ");
+            if (selection.localeNames) {
+                String ln = "ln" + selection.index;
+                sql.append("AND ").append(ln).append(".ENTITY_TYPE = 'DITV' ");
+                sql.append("AND ").append(ln).append(".ENTITY_ID = ").append(t).append(".ID ");
+                sql.append("AND ").append(ln).append(".LOCALE = :locale ");
+                sql.append("AND ").append(ln).append(".NAME = :value").append(selection.index).append(") ");
+            } else {
+                sql.append("AND ").append(t).append(".VALUE = :value").append(selection.index).append(") ");
+            }
+            if (selection.localeNames || (selection.number != null)) {
+                // Any number value matches a locale name selection, as number values have no locale specific names.
+                sql.append("OR EXISTS (SELECT 1 FROM DATA_ITEM_NUMBER_VALUE ").append(n);
+                sql.append(" WHERE ").append(n).append(".DATA_ITEM_ID = di.ID ");
+                sql.append("AND ").append(n).append(".STATUS != :trash ");
+                sql.append("AND ").append(n).append(".ITEM_VALUE_DEFINITION_ID = :ivd").append(selection.index);
+                if (!selection.localeNames) {
+                    sql.append(" AND ").append(n).append(".VALUE = :number").append(selection.index);
+                }
+                sql.append(")");
+            }
+            sql.append(") ");
         }
-        
-        // Get results from DATA_ITEM_TEXT_VALUE     
-        // create SQL
-        sql = new StringBuilder();
-        sql.append("(SELECT DATA_ITEM_ID ID ");
-        sql.append("FROM DATA_ITEM_TEXT_VALUE ");
-        sql.append("WHERE DATA_ITEM_ID IN (:dataItemIds) ");
-        sql.append("AND STATUS != :trash ");
-        sql.append("AND ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
-        sql.append("AND VALUE = :value) ");
-        
-        // create query
-        query = session.createSQLQuery(sql.toString());
-        query.addScalar("ID", LONG);
-        
-        // set parameters
-        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
-        query.setParameterList("dataItemIds", categoryDataItemIds, LONG);
-        query.setLong("itemValueDefinitionId", itemValueDefinitionId);
-        query.setString("value", value);
-        
-        // execute query
-        result.addAll(query.list());  
-        
-        return new HashSet<Long>(result);
     }
 
-    @SuppressWarnings("unchecked")
-    private Set<Long> getDataItemIdsUsingLocaleNames(Long itemValueDefinitionId, Collection<Long> categoryDataItemIds, String value) {
-
-        // Check arguments.
-        if ((itemValueDefinitionId == null) || (categoryDataItemIds == null)) {
-            throw new IllegalArgumentException("A required argument is missing.");
+    private void setDataItemParameters(SQLQuery query, DataCategory dataCategory, List<Selection> selections) {
+        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
+        query.setLong("dataCategoryId", dataCategory.getEntityId());
+        query.setLong("itemDefinitionId", dataCategory.getItemDefinition().getId());
+        boolean localeNames = false;
+        for (Selection selection : selections) {
+            query.setLong("ivd" + selection.index, selection.itemValueDefinitionId);
+            query.setString("value" + selection.index, selection.value);
+            if (!selection.localeNames && (selection.number != null)) {
+                query.setDouble("number" + selection.index, selection.number);
+            }
+            localeNames |= selection.localeNames;
         }
-        categoryDataItemIds.add(0L);
-
-        // Create SQL.
-        // Note: HSQL and H2 don't like the fact that we submit a string value for DATA_ITEM_NUMBER_VALUE.VALUE.
-        StringBuilder sql = new StringBuilder();
-        sql.append("(SELECT dinv.DATA_ITEM_ID ID ");
-        sql.append("FROM DATA_ITEM_NUMBER_VALUE dinv, LOCALE_NAME ln ");
-        sql.append("WHERE dinv.DATA_ITEM_ID IN (:dataItemIds) ");
-        sql.append("AND dinv.STATUS != :trash ");
-        sql.append("AND dinv.ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId) ");
-        sql.append("UNION ");
-        sql.append("(SELECT ditv.DATA_ITEM_ID ID ");
-        sql.append("FROM DATA_ITEM_TEXT_VALUE ditv, LOCALE_NAME ln ");
-        sql.append("WHERE ditv.DATA_ITEM_ID IN (:dataItemIds) ");
-        sql.append("AND ditv.STATUS != :trash ");
-        sql.append("AND ditv.ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId ");
-        sql.append("AND ln.ENTITY_TYPE='DITV' AND ln.ENTITY_ID = ditv.ID AND LOCALE = :locale AND ln.NAME = :value)");
-
-        // Create query.
-        Session session = (Session) entityManager.getDelegate();
-        SQLQuery query = session.createSQLQuery(sql.toString());
-        query.addScalar("ID", LONG);
+        if (localeNames) {
+            query.setString("locale", LocaleHolder.getLocale());
+        }
+    }
 
-        // Set parameters.
-        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
-        query.setParameterList("dataItemIds", categoryDataItemIds, LONG);
-        query.setLong("itemValueDefinitionId", itemValueDefinitionId);
-        query.setString("value", value);
-        query.setString("locale", LocaleHolder.getLocale());
-
-        // Execute SQL.
-        List<Long> dataItemIds = query.list();
-        if (dataItemIds.isEmpty()) {
-            // There are no locale specific values for this locale, so get by default value instead.
-            return getDataItemIdsUsingValue(itemValueDefinitionId, categoryDataItemIds, value);
+    /**
+     * A drill down selection resolved to its Item Value Definition.
+     */
+    private static class Selection {
+
+        private final int index;
+        private final Long itemValueDefinitionId;
+        private final String value;
+        private final Double number;
+        private final boolean localeNames;
+
+        private Selection(int index, Long itemValueDefinitionId, String value, boolean localeNames) {
+            this.index = index;
+            this.itemValueDefinitionId = itemValueDefinitionId;
+            this.value = value;
+            this.localeNames = localeNames;
+            Double number;
+            try {
+                number = Double.valueOf(value);
+            } catch (NumberFormatException e) {
+                number = null;
+            }
+            this.number = number;
         }
-        return new HashSet<Long>(dataItemIds);
     }
 }
@@ -71,6 +71,17 @@ public class DrillDownFactory implements CacheableFactory {
         return key;
     }
 
+    /**
+     * Get the prefix shared by the keys of all cached choices for a DataCategory. Keys continue with either
+     * '_SL_' or '__L__' so the trailing underscore stops the prefix matching other UIDs.
+     *
+     * @param dataCategory the DataCategory
+     * @return the key prefix
+     */
+    public static String getKeyPrefix(IDataCategoryReference dataCategory) {
+        return "DrillDown_" + dataCategory.getEntityUid() + "_";
+    }
+
     public String getCacheName() {
         return "DrillDownChoices";
     }
@@ -0,0 +1,395 @@
+package com.amee.service.data;
+
+import com.amee.domain.sheet.Choice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable in-memory index of the drill down values of the active DataItems in a single DataCategory.
+ * <p/>
+ * Each active DataItem is a row. Each drill down ItemValueDefinition is a column holding a dictionary of its
+ * distinct values, where each value has the set of rows with that value. Selections are resolved by OR-ing the rows
+ * for the matching values of each selection into a bitmap and AND-ing the bitmaps for all selections. Choices are the
+ * distinct values with at least one row in the resulting bitmap.
+ * <p/>
+ * Row sets for common values are held as bitmaps. Row sets for rare values are held as sorted row arrays, so that
+ * columns with many distinct values do not need a full bitmap for each value.
+ * <p/>
+ * Matching follows the SQL in {@link DrillDownDAO} against MySQL: text values match ignoring case and trailing
+ * spaces and number values match if the selection parses to the same double.
+ */
+class DrillDownIndex {
+
+    private final String[] uids;
+    private final String[] paths;
+    private final Map<String, Column> columns;
+
+    private DrillDownIndex(String[] uids, String[] paths, Map<String, Column> columns) {
+        this.uids = uids;
+        this.paths = paths;
+        this.columns = columns;
+    }
+
+    /**
+     * @return the column ItemValueDefinition paths in the order they were added
+     */
+    List<String> getPaths() {
+        return Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+    /**
+     * @param path an ItemValueDefinition path
+     * @return true if the index has a column for the path
+     */
+    boolean hasColumn(String path) {
+        return columns.containsKey(path);
+    }
+
+    /**
+     * Get the rows for DataItems matching all of the selections.
+     *
+     * @param selections drill down selections, each of which must have a column
+     * @return a new bitmap of matching rows, all rows if there are no selections
+     */
+    BitSet getRows(List<Choice> selections) {
+        BitSet rows = new BitSet(uids.length);
+        rows.set(0, uids.length);
+        for (Choice selection : selections) {
+            Column column = getColumn(selection.getName());
+            rows.and(column.getRows(selection.getValue(), uids.length));
+            if (rows.isEmpty()) {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Get the rows for DataItems matching a single selection.
+     *
+     * @param path  the column ItemValueDefinition path
+     * @param value the selected value
+     * @return a new bitmap of matching rows
+     */
+    BitSet getRows(String path, String value) {
+        return getColumn(path).getRows(value, uids.length);
+    }
+
+    /**
+     * Get the distinct values of a column over the given rows.
+     *
+     * @param path the column ItemValueDefinition path
+     * @param rows from {@link #getRows(List)}
+     * @return value Choices sorted case-insensitively
+     */
+    List<Choice> getValueChoices(String path, BitSet rows) {
+        List<String> values = getValues(path, rows);
+        List<Choice> choices = new ArrayList<Choice>(values.size());
+        for (String value : values) {
+            choices.add(new Choice(value));
+        }
+        return choices;
+    }
+
+    /**
+     * Get the distinct values of a column over the given rows.
+     *
+     * @param path the column ItemValueDefinition path
+     * @param rows from {@link #getRows(List)}
+     * @return values sorted case-insensitively
+     */
+    List<String> getValues(String path, BitSet rows) {
+        List<String> values = getColumn(path).getValues(rows);
+        Collections.sort(values, String.CASE_INSENSITIVE_ORDER);
+        return values;
+    }
+
+    /**
+     * Get the DataItem UIDs for the given rows.
+     *
+     * @param rows from {@link #getRows(List)}
+     * @return UID Choices
+     */
+    List<Choice> getUidChoices(BitSet rows) {
+        List<Choice> choices = new ArrayList<Choice>(rows.cardinality());
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            choices.add(new Choice(uids[row]));
+        }
+        return choices;
+    }
+
+    /**
+     * @param row a row of the index
+     * @return the DataItem UID for the row
+     */
+    String getUid(int row) {
+        return uids[row];
+    }
+
+    /**
+     * @return the number of DataItems in the index
+     */
+    int size() {
+        return uids.length;
+    }
+
+    private Column getColumn(String path) {
+        Column column = columns.get(path);
+        if (column == null) {
+            throw new IllegalArgumentException("Could not locate ItemValueDefinition: " + path);
+        }
+        return column;
+    }
+
+    /**
+     * Normalise a text value for matching, as MySQL compares with a case-insensitive collation and ignores
+     * trailing spaces.
+     *
+     * @param value to normalise
+     * @return the normalised value
+     */
+    static String normalise(String value) {
+        int end = value.length();
+        while ((end > 0) && (value.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return value.substring(0, end).toLowerCase();
+    }
+
+    /**
+     * The distinct values of a single drill down ItemValueDefinition.
+     */
+    private static class Column {
+
+        // Values by code, as displayed in choices.
+        private final String[] values;
+
+        // Rows by code. One of these is present for each code.
+        private final BitSet[] bitmaps;
+        private final int[][] postings;
+
+        // Codes for text values by normalised value and for number values by value.
+        private final Map<String, Integer> textCodes;
+        private final Map<Double, Integer> numberCodes;
+
+        private Column(String[] values, BitSet[] bitmaps, int[][] postings,
+                       Map<String, Integer> textCodes, Map<Double, Integer> numberCodes) {
+            this.values = values;
+            this.bitmaps = bitmaps;
+            this.postings = postings;
+            this.textCodes = textCodes;
+            this.numberCodes = numberCodes;
+        }
+
+        private BitSet getRows(String value, int rowCount) {
+            BitSet rows = new BitSet(rowCount);
+            Integer code = textCodes.get(normalise(value));
+            if (code != null) {
+                or(code, rows);
+            }
+            try {
+                code = numberCodes.get(getNumberKey(Double.valueOf(value)));
+                if (code != null) {
+                    or(code, rows);
+                }
+            } catch (NumberFormatException e) {
+                // Not a number so only text values can match.
+            }
+            return rows;
+        }
+
+        private List<String> getValues(BitSet rows) {
+            // Values are distinct ignoring case, as for a SQL UNION.
+            Set<String> seen = new HashSet<String>();
+            List<String> distinct = new ArrayList<String>();
+            for (int code = 0; code < values.length; code++) {
+                if (intersects(code, rows) && seen.add(normalise(values[code]))) {
+                    distinct.add(values[code]);
+                }
+            }
+            return distinct;
+        }
+
+        private void or(int code, BitSet rows) {
+            if (bitmaps[code] != null) {
+                rows.or(bitmaps[code]);
+            } else {
+                for (int row : postings[code]) {
+                    rows.set(row);
+                }
+            }
+        }
+
+        private boolean intersects(int code, BitSet rows) {
+            if (bitmaps[code] != null) {
+                return bitmaps[code].intersects(rows);
+            } else {
+                for (int row : postings[code]) {
+                    if (rows.get(row)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    // SQL treats 0.0 and -0.0 as equal and NaN as equal to nothing.
+    private static Double getNumberKey(double value) {
+        if (Double.isNaN(value)) {
+            return null;
+        }
+        return value == 0.0 ? 0.0 : value;
+    }
+
+    /**
+     * Builds a {@link DrillDownIndex}. DataItems must be added before their values. Values for unknown DataItems,
+     * such as trashed DataItems, are ignored.
+     */
+    static class Builder {
+
+        private final Map<Long, Integer> rows = new HashMap<Long, Integer>();
+        private final List<String> uids = new ArrayList<String>();
+        private final Map<String, ColumnBuilder> columns = new LinkedHashMap<String, ColumnBuilder>();
+
+        Builder addColumn(String path) {
+            if (!columns.containsKey(path)) {
+                columns.put(path, new ColumnBuilder());
+            }
+            return this;
+        }
+
+        Builder addDataItem(long dataItemId, String uid) {
+            if (!rows.containsKey(dataItemId)) {
+                rows.put(dataItemId, uids.size());
+                uids.add(uid);
+            }
+            return this;
+        }
+
+        Builder addTextValue(long dataItemId, String path, String value) {
+            Integer row = rows.get(dataItemId);
+            if ((row != null) && (value != null)) {
+                getColumnBuilder(path).addTextValue(row, value);
+            }
+            return this;
+        }
+
+        Builder addNumberValue(long dataItemId, String path, double value, String displayValue) {
+            Integer row = rows.get(dataItemId);
+            if ((row != null) && (displayValue != null)) {
+                getColumnBuilder(path).addNumberValue(row, value, displayValue);
+            }
+            return this;
+        }
+
+        DrillDownIndex build() {
+            Map<String, Column> built = new HashMap<String, Column>();
+            for (Map.Entry<String, ColumnBuilder> entry : columns.entrySet()) {
+                built.put(entry.getKey(), entry.getValue().build(uids.size()));
+            }
+            return new DrillDownIndex(uids.toArray(new String[uids.size()]),
+                    columns.keySet().toArray(new String[columns.size()]), built);
+        }
+
+        private ColumnBuilder getColumnBuilder(String path) {
+            ColumnBuilder column = columns.get(path);
+            if (column == null) {
+                throw new IllegalArgumentException("Unknown column: " + path);
+            }
+            return column;
+        }
+    }
+
+    private static class ColumnBuilder {
+
+        private final List<String> values = new ArrayList<String>();
+        private final List<IntList> rows = new ArrayList<IntList>();
+        private final Map<String, Integer> textCodes = new HashMap<String, Integer>();
+        private final Map<Double, Integer> numberCodes = new HashMap<Double, Integer>();
+
+        private void addTextValue(int row, String value) {
+            String key = normalise(value);
+            Integer code = textCodes.get(key);
+            if (code == null) {
+                code = addCode(value);
+                textCodes.put(key, code);
+            }
+            rows.get(code).add(row);
+        }
+
+        private void addNumberValue(int row, double value, String displayValue) {
+            Double key = getNumberKey(value);
+            if (key == null) {
+                return;
+            }
+            Integer code = numberCodes.get(key);
+            if (code == null) {
+                code = addCode(displayValue);
+                numberCodes.put(key, code);
+            }
+            rows.get(code).add(row);
+        }
+
+        private int addCode(String value) {
+            values.add(value);
+            rows.add(new IntList());
+            return values.size() - 1;
+        }
+
+        private Column build(int rowCount) {
+            int size = values.size();
+            BitSet[] bitmaps = new BitSet[size];
+            int[][] postings = new int[size][];
+            for (int code = 0; code < size; code++) {
+                int[] codeRows = rows.get(code).toSortedDistinctArray();
+                // A bitmap costs one bit per row, a posting array 32 bits per entry.
+                if (codeRows.length * 32L >= rowCount) {
+                    bitmaps[code] = new BitSet(rowCount);
+                    for (int row : codeRows) {
+                        bitmaps[code].set(row);
+                    }
+                } else {
+                    postings[code] = codeRows;
+                }
+            }
+            return new Column(values.toArray(new String[size]), bitmaps, postings,
+                    new HashMap<String, Integer>(textCodes), new HashMap<Double, Integer>(numberCodes));
+        }
+    }
+
+    // A growable list of primitive ints.
+    private static class IntList {
+
+        private int[] values = new int[4];
+        private int size = 0;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int[] toSortedDistinctArray() {
+            int[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if ((i == 0) || (sorted[i] != sorted[i - 1])) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, distinct);
+        }
+    }
+}
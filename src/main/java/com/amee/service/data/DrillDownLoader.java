@@ -0,0 +1,70 @@
+package com.amee.service.data;
+
+import com.amee.base.transaction.AMEETransaction;
+import com.amee.domain.cache.CacheHelper;
+import com.amee.domain.data.DataCategory;
+import com.amee.domain.sheet.Choice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Loads drill down data within its own transaction, for use by background threads.
+ */
+@Service
+class DrillDownLoader {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private DataServiceDAO dataServiceDao;
+
+    @Autowired
+    private DrillDownDAO drillDownDao;
+
+    private CacheHelper cacheHelper = CacheHelper.getInstance();
+
+    /**
+     * Load the drill down tree for a DataCategory.
+     *
+     * @param dataCategoryUid the DataCategory UID
+     * @param maxNodes        the maximum number of nodes to build
+     * @return the tree, or null if the DataCategory is not found or has no ItemDefinition
+     */
+    @AMEETransaction
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    public DrillDownTree loadDrillDownTree(String dataCategoryUid, int maxNodes) {
+        DataCategory dataCategory = dataServiceDao.getDataCategoryByUidWithActiveStatus(dataCategoryUid);
+        if ((dataCategory == null) || !dataCategory.isItemDefinitionPresent()) {
+            return null;
+        }
+        DrillDownTree tree = DrillDownTree.build(drillDownDao.getDrillDownIndex(dataCategory), maxNodes);
+        log.debug("loadDrillDownTree() Loaded tree for {} with {} nodes.", dataCategoryUid, tree.getNodeCount());
+        return tree;
+    }
+
+    /**
+     * Load drill down Choices for a DataCategory through the DrillDownChoices cache, as SqlDrillDownService would.
+     *
+     * @param dataCategoryUid  the DataCategory UID
+     * @param selections       Choices that have already been made for the drill down
+     * @param drillDownChoices Choices that remain to be chosen within the drill down
+     * @return the Choices, or null if the DataCategory is not found
+     */
+    @AMEETransaction
+    @Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+    @SuppressWarnings("unchecked")
+    public List<Choice> loadDataItemChoices(String dataCategoryUid, List<Choice> selections, List<Choice> drillDownChoices) {
+        DataCategory dataCategory = dataServiceDao.getDataCategoryByUidWithActiveStatus(dataCategoryUid);
+        if (dataCategory == null) {
+            return null;
+        }
+        return (List<Choice>) cacheHelper.getCacheable(
+                new DrillDownFactory(drillDownDao, dataCategory, selections, drillDownChoices));
+    }
+}
@@ -17,5 +17,15 @@ public interface DrillDownService {
      */
     Choices getChoices(IDataCategoryReference dc, List<Choice> selections);
 
+    /**
+     * Clears all cached drill down choices.
+     */
     void clearDrillDownCache();
+
+    /**
+     * Clears the cached drill down choices for a single DataCategory.
+     *
+     * @param dataCategory the DataCategory to clear drill down choices for.
+     */
+    void clearDrillDownCache(IDataCategoryReference dataCategory);
 }
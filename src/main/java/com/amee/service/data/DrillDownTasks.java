@@ -0,0 +1,101 @@
+package com.amee.service.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the background drill down work of {@link IndexedDrillDownService} (building trees) and
+ * {@link DrillDownWarmer} (warming hot Choices) on a single low priority thread, unless a 'drillDownTaskExecutor'
+ * is configured.
+ * <p/>
+ * Tasks are keyed. A task is not scheduled whilst another with the same key is waiting to run, so repeated
+ * invalidations queue only one task. Once a task has started, a new task with its key may be scheduled.
+ */
+@Service
+class DrillDownTasks implements DisposableBean {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private TaskExecutor taskExecutor;
+    private ExecutorService executorService;
+
+    // Keys of the tasks waiting to run, guarded by itself.
+    private final Set<String> pending = new HashSet<String>();
+
+    /**
+     * Run a task in the background, unless a task with the same key is waiting to run.
+     *
+     * @param key  identifies the work done by the task
+     * @param task the task
+     * @return true if the task, or another with the same key, will run; false if the task could not be scheduled
+     */
+    boolean execute(final String key, final Runnable task) {
+        synchronized (pending) {
+            if (!pending.add(key)) {
+                return true;
+            }
+        }
+        try {
+            getTaskExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Later requests need another run.
+                    synchronized (pending) {
+                        pending.remove(key);
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.warn("execute() Task " + key + " failed: " + e.getMessage(), e);
+                    }
+                }
+            });
+            return true;
+        } catch (TaskRejectedException e) {
+            log.warn("execute() Could not schedule {}.", key);
+            synchronized (pending) {
+                pending.remove(key);
+            }
+            return false;
+        }
+    }
+
+    private synchronized TaskExecutor getTaskExecutor() {
+        if (taskExecutor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("drillDown-");
+            threadFactory.setDaemon(true);
+            threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+            executorService = Executors.newSingleThreadExecutor(threadFactory);
+            taskExecutor = new ConcurrentTaskExecutor(executorService);
+        }
+        return taskExecutor;
+    }
+
+    @Autowired(required = false)
+    @Qualifier("drillDownTaskExecutor")
+    public synchronized void setTaskExecutor(TaskExecutor taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+            taskExecutor = null;
+        }
+    }
+}
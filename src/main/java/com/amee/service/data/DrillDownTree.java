@@ -0,0 +1,239 @@
+package com.amee.service.data;
+
+import com.amee.domain.sheet.Choice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, precomputed drill down tree for a single DataCategory.
+ * <p/>
+ * The tree is a prefix trie over the drill down ItemValueDefinitions in drill down order. Each node is a selection
+ * prefix and holds its child values. Nodes at the full depth hold the matching DataItem UIDs. A drill down step is then
+ * a walk down the trie rather than a query.
+ * <p/>
+ * The tree is built from a {@link DrillDownIndex} without further database access. Keys are interned within the tree
+ * and display values and UIDs are shared with the index.
+ * <p/>
+ * Lookups only cover selections made in drill down order. Other lookups, and numeric selections not present exactly
+ * in the tree (such as '2010.0' for 2010), return null so that the caller can fall back to another implementation.
+ * Trees with more than a maximum number of nodes are not precomputed and return null for all lookups.
+ */
+class DrillDownTree {
+
+    public static final int DEFAULT_MAX_NODES = 100000;
+
+    private final String[] paths;
+    private final Node root;
+    private final int nodeCount;
+
+    private DrillDownTree(String[] paths, Node root, int nodeCount) {
+        this.paths = paths;
+        this.root = root;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Build a tree over all drill downs of an index.
+     *
+     * @param index    the index
+     * @param maxNodes the maximum number of nodes to build
+     * @return the tree, which will not be precomputed if maxNodes would be exceeded
+     */
+    static DrillDownTree build(DrillDownIndex index, int maxNodes) {
+        String[] paths = index.getPaths().toArray(new String[0]);
+        Builder builder = new Builder(index, paths, maxNodes);
+        BitSet rows = new BitSet(index.size());
+        rows.set(0, index.size());
+        Node root = builder.build(0, rows);
+        if (root == null) {
+            return new DrillDownTree(paths, null, 0);
+        }
+        return new DrillDownTree(paths, root, builder.nodeCount);
+    }
+
+    /**
+     * Get the next drill down Choices for the selections.
+     *
+     * @param selections       drill down selections in drill down order
+     * @param drillDownChoices drill downs that remain to be chosen, the first of which is next
+     * @return value Choices for the next drill down or UID Choices if there are none left, or null if the tree
+     *         cannot answer
+     */
+    List<Choice> getDataItemChoices(List<Choice> selections, List<Choice> drillDownChoices) {
+
+        // The tree only covers in order selections of all drill downs.
+        if ((root == null) || (selections.size() > paths.length)) {
+            return null;
+        }
+        for (int i = 0; i < selections.size(); i++) {
+            if (!selections.get(i).getName().equals(paths[i])) {
+                return null;
+            }
+        }
+        if (drillDownChoices.isEmpty() ?
+                (selections.size() != paths.length) :
+                ((selections.size() == paths.length) || !drillDownChoices.get(0).getName().equals(paths[selections.size()]))) {
+            return null;
+        }
+
+        // Walk the tree.
+        Node node = root;
+        for (Choice selection : selections) {
+            node = node.getChild(selection.getValue());
+            if (node == null) {
+                if (isNumber(selection.getValue())) {
+                    // The selection may match a number formatted differently.
+                    return null;
+                }
+                // Nothing matches the selection.
+                return new ArrayList<Choice>();
+            }
+        }
+        return node.getChoices();
+    }
+
+    /**
+     * @return true if the tree was precomputed
+     */
+    boolean isPrecomputed() {
+        return root != null;
+    }
+
+    /**
+     * @return the number of nodes in the tree
+     */
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.valueOf(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A selection prefix. Inner nodes have child values and nodes, sorted by normalised value. Leaf nodes have UIDs.
+     */
+    private static class Node {
+
+        private final String[] keys;
+        private final String[] values;
+        private final Node[] children;
+        private final String[] uids;
+
+        private Node(String[] keys, String[] values, Node[] children, String[] uids) {
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+            this.uids = uids;
+        }
+
+        private Node getChild(String value) {
+            int i = Arrays.binarySearch(keys, DrillDownIndex.normalise(value));
+            return i >= 0 ? children[i] : null;
+        }
+
+        private List<Choice> getChoices() {
+            String[] choiceValues = uids != null ? uids : values;
+            List<Choice> choices = new ArrayList<Choice>(choiceValues.length);
+            for (String value : choiceValues) {
+                choices.add(new Choice(value));
+            }
+            return choices;
+        }
+    }
+
+    private static class Builder {
+
+        private static final String[] EMPTY = new String[0];
+
+        private final DrillDownIndex index;
+        private final String[] paths;
+        private final int maxNodes;
+        private final Map<String, String> keys = new HashMap<String, String>();
+        private int nodeCount = 0;
+
+        private Builder(DrillDownIndex index, String[] paths, int maxNodes) {
+            this.index = index;
+            this.paths = paths;
+            this.maxNodes = maxNodes;
+        }
+
+        // Returns null if the maximum number of nodes is exceeded.
+        private Node build(int level, BitSet rows) {
+            if (++nodeCount > maxNodes) {
+                return null;
+            }
+
+            // Leaf nodes hold the UIDs.
+            if (level == paths.length) {
+                String[] uids = new String[rows.cardinality()];
+                int i = 0;
+                for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                    uids[i++] = index.getUid(row);
+                }
+                return new Node(EMPTY, EMPTY, null, uids);
+            }
+
+            // Inner nodes hold a child for each value, sorted by key for lookups.
+            List<String> values = index.getValues(paths[level], rows);
+            List<Entry> entries = new ArrayList<Entry>(values.size());
+            for (String value : values) {
+                BitSet childRows = index.getRows(paths[level], value);
+                childRows.and(rows);
+                Node child = build(level + 1, childRows);
+                if (child == null) {
+                    return null;
+                }
+                entries.add(new Entry(intern(DrillDownIndex.normalise(value)), value, child));
+            }
+            Collections.sort(entries);
+            String[] nodeKeys = new String[entries.size()];
+            String[] nodeValues = new String[entries.size()];
+            Node[] children = new Node[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                nodeKeys[i] = entries.get(i).key;
+                nodeValues[i] = entries.get(i).value;
+                children[i] = entries.get(i).child;
+            }
+            return new Node(nodeKeys, nodeValues, children, null);
+        }
+
+        private String intern(String key) {
+            String interned = keys.get(key);
+            if (interned == null) {
+                keys.put(key, key);
+                interned = key;
+            }
+            return interned;
+        }
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        private final String key;
+        private final String value;
+        private final Node child;
+
+        private Entry(String key, String value, Node child) {
+            this.key = key;
+            this.value = value;
+            this.child = child;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return key.compareTo(other.key);
+        }
+    }
+}
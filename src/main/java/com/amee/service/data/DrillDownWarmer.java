@@ -0,0 +1,633 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import com.amee.domain.LocaleHolder;
+import com.amee.domain.cache.CacheHelper;
+import com.amee.domain.sheet.Choice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the most frequently requested drill downs warm for {@link SqlDrillDownService}.
+ * <p/>
+ * Each drill down request is counted against its DrillDownChoices cache key. Choices are held in the DrillDownChoices
+ * cache as before. When a DataCategory is invalidated, the hottest keys for the DataCategory keep serving their old
+ * Choices while new Choices are loaded into the cache by {@link DrillDownTasks}. Other keys for the DataCategory are
+ * simply cleared from the cache. Concurrent requests for a key that is not cached wait for a single load. Keys are
+ * indexed by DataCategory and the hot keys are only ranked every {@link #HOT_REFRESH_PERIOD} milliseconds, so an
+ * invalidation only visits the keys of its DataCategory.
+ * <p/>
+ * If the 'amee.drillDownWarmFile' system property is set, the hottest keys are saved to that file on shutdown and
+ * warmed in the background on startup.
+ * <p/>
+ * Warming is enabled by the 'amee.drillDownWarming' system property. The number of hot keys is set by the
+ * 'amee.drillDownWarmKeys' system property. Background threads run in the default locale, so only keys for the
+ * default locale are warmed.
+ */
+@Service
+public class DrillDownWarmer implements SmartLifecycle {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_MAX_KEYS = 500;
+
+    // Keys are tracked up to this multiple of the number of hot keys before the coldest are dropped.
+    private static final int TRACKED_KEYS_FACTOR = 4;
+
+    // How often the hot keys are ranked.
+    static final long HOT_REFRESH_PERIOD = 60 * 1000L;
+
+    private static final String CACHE_NAME = "DrillDownChoices";
+
+    private static final String ENCODING = "UTF-8";
+
+    @Autowired
+    private DrillDownDAO drillDownDao;
+
+    @Autowired
+    private DrillDownLoader drillDownLoader;
+
+    @Autowired
+    private DrillDownTasks drillDownTasks;
+
+    private CacheHelper cacheHelper = CacheHelper.getInstance();
+
+    private boolean enabled = false;
+    private int maxKeys = DEFAULT_MAX_KEYS;
+    private String file;
+    private boolean running = false;
+
+    // Tracked entries by DrillDownChoices cache key.
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // Tracked entries by DataCategory UID, guarded by itself.
+    private final Map<String, Set<Entry>> entriesByCategory = new HashMap<String, Set<Entry>>();
+
+    // Entries with at least this many hits are hot, as of the last ranking.
+    private volatile int hotHits = 0;
+    private volatile long hotRanked = 0;
+
+    /**
+     * Get drill down Choices, from a warm entry if there is one.
+     *
+     * @param dataCategory     the DataCategory to perform drill down within
+     * @param selections       Choices that have already been made for the drill down
+     * @param drillDownChoices Choices that remain to be chosen within the drill down
+     * @return a list of Choices for the next level of drill down available
+     */
+    @SuppressWarnings("unchecked")
+    public List<Choice> getDataItemChoices(
+            IDataCategoryReference dataCategory, List<Choice> selections, List<Choice> drillDownChoices) {
+        DrillDownFactory factory = new DrillDownFactory(drillDownDao, dataCategory, selections, drillDownChoices);
+        if (!enabled) {
+            return (List<Choice>) cacheHelper.getCacheable(factory);
+        }
+
+        // Count the request.
+        Entry entry = getEntry(factory.getKey(), dataCategory, selections, drillDownChoices);
+        entry.hits.incrementAndGet();
+
+        // Serve the old Choices whilst new Choices are being warmed.
+        List<Choice> choices = entry.stale;
+        if (choices == null) {
+            choices = load(entry, factory);
+        }
+        return new ArrayList<Choice>(choices);
+    }
+
+    /**
+     * Get the Choices of an entry through the cache. Concurrent requests for the entry share one call to the cache,
+     * so that a key which is not cached is only computed once.
+     *
+     * @param entry   the entry
+     * @param factory the DrillDownFactory for the entry
+     * @return the Choices
+     */
+    private List<Choice> load(Entry entry, final DrillDownFactory factory) {
+        FutureTask<List<Choice>> load;
+        int loadGeneration = 0;
+        boolean loader = false;
+        synchronized (entry) {
+            load = entry.load;
+            if (load == null) {
+                load = new FutureTask<List<Choice>>(new Callable<List<Choice>>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public List<Choice> call() {
+                        return (List<Choice>) cacheHelper.getCacheable(factory);
+                    }
+                });
+                entry.load = load;
+                loadGeneration = entry.generation;
+                loader = true;
+            }
+        }
+
+        if (loader) {
+            // Load outside of the lock, only remembering the Choices if not invalidated meanwhile.
+            load.run();
+            synchronized (entry) {
+                if (entry.load == load) {
+                    entry.load = null;
+                }
+                if (entry.generation == loadGeneration) {
+                    entry.setLast(getLoaded(load));
+                }
+            }
+        }
+        return getChoices(factory, load);
+    }
+
+    /**
+     * @return the Choices of a completed load, or null if the load failed
+     */
+    private static List<Choice> getLoaded(FutureTask<List<Choice>> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait for a load of Choices. Failures of the load are thrown to each waiting thread. A thread interrupted
+     * whilst waiting calls the cache itself.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Choice> getChoices(DrillDownFactory factory, FutureTask<List<Choice>> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (List<Choice>) cacheHelper.getCacheable(factory);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Clear the cached Choices of a DataCategory. If warming is enabled the hot keys of the DataCategory are warmed
+     * in the background, serving their old Choices until then.
+     *
+     * @param dataCategory the DataCategory
+     */
+    public void invalidate(IDataCategoryReference dataCategory) {
+        List<Entry> hot = new ArrayList<Entry>();
+        if (enabled) {
+            Set<Entry> categoryEntries;
+            synchronized (entriesByCategory) {
+                categoryEntries = entriesByCategory.get(dataCategory.getEntityUid());
+                categoryEntries = categoryEntries != null ? new HashSet<Entry>(categoryEntries) : null;
+            }
+            if (categoryEntries != null) {
+                int minHits = getHotHits();
+                for (Entry entry : categoryEntries) {
+                    if (invalidate(entry, entry.hits.get() >= minHits)) {
+                        hot.add(entry);
+                    }
+                }
+            }
+        }
+        cacheHelper.clearCache(CACHE_NAME, DrillDownFactory.getKeyPrefix(dataCategory));
+        warm(hot);
+    }
+
+    /**
+     * Clear all cached Choices. If warming is enabled all hot keys are warmed in the background.
+     */
+    public void invalidateAll() {
+        List<Entry> hot = new ArrayList<Entry>();
+        if (enabled) {
+            Set<Entry> hotEntries = new HashSet<Entry>(getHotEntries());
+            for (Entry entry : entries.values()) {
+                if (invalidate(entry, hotEntries.contains(entry))) {
+                    hot.add(entry);
+                }
+            }
+        }
+        cacheHelper.clearCache(CACHE_NAME);
+        warm(hot);
+    }
+
+    /**
+     * Prepare an entry for its Choices being cleared from the cache. Must be called before the cache is cleared.
+     *
+     * @param entry the entry
+     * @param hot   true if the entry is hot
+     * @return true if the entry should be warmed
+     */
+    private boolean invalidate(Entry entry, boolean hot) {
+        synchronized (entry) {
+            // Warms and loads already running must not publish, and later requests must not wait for those loads.
+            entry.generation++;
+            entry.load = null;
+            if (hot && entry.defaultLocale) {
+                if (entry.stale == null) {
+                    entry.stale = entry.getLast();
+                }
+                return true;
+            } else {
+                entry.stale = null;
+                entry.last = null;
+                return false;
+            }
+        }
+    }
+
+    private void warm(List<Entry> hot) {
+        for (Entry entry : hot) {
+            warm(entry);
+        }
+    }
+
+    /**
+     * Load new Choices for an entry into the cache in the background, unless this is already pending. The old
+     * Choices are served until the load is published, or until the load fails or cannot be scheduled, after which
+     * requests go to the cache.
+     *
+     * @param entry to load
+     */
+    private void warm(final Entry entry) {
+        boolean scheduled = drillDownTasks.execute(entry.key, new Runnable() {
+            @Override
+            public void run() {
+                int generation;
+                synchronized (entry) {
+                    generation = entry.generation;
+                }
+                List<Choice> choices = null;
+                try {
+                    // Load outside of the lock.
+                    choices = drillDownLoader.loadDataItemChoices(
+                            entry.dataCategoryUid,
+                            new ArrayList<Choice>(entry.selections),
+                            new ArrayList<Choice>(entry.drillDownChoices));
+                } finally {
+                    // Publish unless invalidated meanwhile, in which case another warm is pending.
+                    synchronized (entry) {
+                        if (entry.generation == generation) {
+                            entry.stale = null;
+                            entry.setLast(choices);
+                        }
+                    }
+                }
+                if (choices == null) {
+                    // The DataCategory has gone.
+                    remove(entry);
+                }
+            }
+        });
+        if (!scheduled) {
+            // Nothing will replace the old Choices.
+            synchronized (entry) {
+                entry.stale = null;
+            }
+        }
+    }
+
+    private Entry getEntry(String key, IDataCategoryReference dataCategory, List<Choice> selections, List<Choice> drillDownChoices) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry newEntry = new Entry(key, dataCategory.getEntityUid(), LocaleHolder.isDefaultLocale(),
+                    copy(selections), copy(drillDownChoices));
+            entry = add(newEntry);
+            if (entry == newEntry && entries.size() > maxKeys * TRACKED_KEYS_FACTOR) {
+                trim();
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Track an entry, unless one is already tracked for its key.
+     *
+     * @param entry the entry
+     * @return the tracked entry
+     */
+    private Entry add(Entry entry) {
+        synchronized (entriesByCategory) {
+            Entry existing = entries.putIfAbsent(entry.key, entry);
+            if (existing != null) {
+                return existing;
+            }
+            Set<Entry> categoryEntries = entriesByCategory.get(entry.dataCategoryUid);
+            if (categoryEntries == null) {
+                categoryEntries = new HashSet<Entry>();
+                entriesByCategory.put(entry.dataCategoryUid, categoryEntries);
+            }
+            categoryEntries.add(entry);
+            return entry;
+        }
+    }
+
+    private void remove(Entry entry) {
+        synchronized (entriesByCategory) {
+            entries.remove(entry.key, entry);
+            Set<Entry> categoryEntries = entriesByCategory.get(entry.dataCategoryUid);
+            if (categoryEntries != null) {
+                categoryEntries.remove(entry);
+                if (categoryEntries.isEmpty()) {
+                    entriesByCategory.remove(entry.dataCategoryUid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rank the entries, also updating the hit count hot entries must reach.
+     *
+     * @return the most frequently requested entries, hottest first
+     */
+    List<Entry> getHotEntries() {
+        List<Entry> hot = new ArrayList<Entry>(entries.values());
+        Collections.sort(hot, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                int h1 = e1.hits.get();
+                int h2 = e2.hits.get();
+                return h1 > h2 ? -1 : (h1 == h2 ? 0 : 1);
+            }
+        });
+        if (hot.size() > maxKeys) {
+            hot = hot.subList(0, maxKeys);
+            hotHits = hot.get(maxKeys - 1).hits.get();
+        } else {
+            hotHits = 0;
+        }
+        hotRanked = System.currentTimeMillis();
+        return hot;
+    }
+
+    /**
+     * @return the hit count hot entries must reach, ranking the entries if not done recently
+     */
+    private int getHotHits() {
+        if (System.currentTimeMillis() - hotRanked > HOT_REFRESH_PERIOD) {
+            getHotEntries();
+        }
+        return hotHits;
+    }
+
+    // Drop all but the hottest entries and age the rest, so that keys which have cooled off can be replaced.
+    private synchronized void trim() {
+        if (entries.size() <= maxKeys * TRACKED_KEYS_FACTOR) {
+            return;
+        }
+        Set<Entry> hot = new HashSet<Entry>(getHotEntries());
+        for (Entry entry : entries.values()) {
+            if (hot.contains(entry)) {
+                entry.hits.set(entry.hits.get() / 2);
+            } else {
+                remove(entry);
+            }
+        }
+        getHotEntries();
+        log.debug("trim() Kept {} keys.", entries.size());
+    }
+
+    private static List<Choice> copy(List<Choice> choices) {
+        List<Choice> copy = new ArrayList<Choice>(choices.size());
+        for (Choice choice : choices) {
+            copy.add(new Choice(choice.getName(), choice.getValue()));
+        }
+        return copy;
+    }
+
+    // Lifecycle
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        // Start as late as possible.
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized void start() {
+        running = true;
+        if (enabled && (file != null)) {
+            log.info("start() Warming drill downs from {}", file);
+            load();
+            for (Entry entry : getHotEntries()) {
+                warm(entry);
+            }
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (enabled && (file != null)) {
+            save();
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Load hot keys saved by {@link #save()}. Each line holds the key, hits, DataCategory UID, selections and
+     * drill down choices, separated by tabs, with each field URL encoded.
+     */
+    void load() {
+        File warmFile = new File(file);
+        if (!warmFile.exists()) {
+            return;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(warmFile), ENCODING));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 5) {
+                        Entry entry = new Entry(decode(fields[0]), decode(fields[2]), true,
+                                decodeChoices(fields[3]), decodeChoices(fields[4]));
+                        entry.hits.set(Integer.parseInt(fields[1]));
+                        add(entry);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.warn("load() Could not load " + file + ": " + e.getMessage());
+        } catch (NumberFormatException e) {
+            log.warn("load() Could not load " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Save the hot keys for the default locale.
+     */
+    void save() {
+        try {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), ENCODING));
+            try {
+                for (Entry entry : getHotEntries()) {
+                    if (entry.defaultLocale) {
+                        writer.write(encode(entry.key) + "\t" + entry.hits.get() + "\t" + encode(entry.dataCategoryUid) +
+                                "\t" + encodeChoices(entry.selections) + "\t" + encodeChoices(entry.drillDownChoices));
+                        writer.newLine();
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            log.warn("save() Could not save " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static String encodeChoices(List<Choice> choices) throws UnsupportedEncodingException {
+        StringBuilder encoded = new StringBuilder();
+        for (Choice choice : choices) {
+            if (encoded.length() > 0) {
+                encoded.append('&');
+            }
+            encoded.append(encode(choice.getName())).append('=').append(encode(choice.getValue()));
+        }
+        return encoded.toString();
+    }
+
+    private static List<Choice> decodeChoices(String encoded) throws UnsupportedEncodingException {
+        List<Choice> choices = new ArrayList<Choice>();
+        if (encoded.length() > 0) {
+            for (String pair : encoded.split("&")) {
+                String[] nameAndValue = pair.split("=", -1);
+                choices.add(new Choice(decode(nameAndValue[0]), decode(nameAndValue[1])));
+            }
+        }
+        return choices;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value != null ? value : "", ENCODING);
+    }
+
+    private static String decode(String value) throws UnsupportedEncodingException {
+        return URLDecoder.decode(value, ENCODING);
+    }
+
+    @Value("#{ systemProperties['amee.drillDownWarming'] }")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = (enabled != null) && enabled;
+    }
+
+    @Value("#{ systemProperties['amee.drillDownWarmKeys'] }")
+    public void setMaxKeys(Integer maxKeys) {
+        this.maxKeys = (maxKeys != null) && (maxKeys > 0) ? maxKeys : DEFAULT_MAX_KEYS;
+    }
+
+    @Value("#{ systemProperties['amee.drillDownWarmFile'] }")
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * A tracked drill down request.
+     */
+    static class Entry {
+
+        private final String key;
+        private final String dataCategoryUid;
+        private final boolean defaultLocale;
+        private final List<Choice> selections;
+        private final List<Choice> drillDownChoices;
+        private final AtomicInteger hits = new AtomicInteger();
+
+        // Incremented by each invalidation, guarded by the entry.
+        private int generation = 0;
+
+        // The old Choices served whilst warming, or null.
+        private volatile List<Choice> stale;
+
+        // The load shared by concurrent requests, or null. Guarded by the entry.
+        private FutureTask<List<Choice>> load;
+
+        // The Choices last served from the cache. Weakly held so that the cache alone decides how long they are kept.
+        private volatile WeakReference<List<Choice>> last;
+
+        private Entry(String key, String dataCategoryUid, boolean defaultLocale,
+                      List<Choice> selections, List<Choice> drillDownChoices) {
+            this.key = key;
+            this.dataCategoryUid = dataCategoryUid;
+            this.defaultLocale = defaultLocale;
+            this.selections = selections;
+            this.drillDownChoices = drillDownChoices;
+        }
+
+        private List<Choice> getLast() {
+            WeakReference<List<Choice>> reference = last;
+            return reference != null ? reference.get() : null;
+        }
+
+        private void setLast(List<Choice> choices) {
+            if (choices == null) {
+                last = null;
+            } else if (getLast() != choices) {
+                last = new WeakReference<List<Choice>>(choices);
+            }
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        int getHits() {
+            return hits.get();
+        }
+    }
+}
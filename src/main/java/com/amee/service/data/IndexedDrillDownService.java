@@ -0,0 +1,304 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import com.amee.domain.LocaleHolder;
+import com.amee.domain.ObjectType;
+import com.amee.domain.sheet.Choice;
+import com.amee.service.invalidation.InvalidationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A sub-class of DrillDownService which overrides the getDataItemChoices method with an implementation that uses
+ * an in-memory {@link DrillDownIndex} per DataCategory instead of the original SQL based implementation.
+ * <p/>
+ * Indexes are loaded on first use and dropped when the DataCategory is invalidated. Concurrent requests for an index
+ * being loaded wait for that load rather than loading the index again. Drill downs in a non-default locale match
+ * against locale specific names and use the SQL based implementation.
+ * <p/>
+ * The number of DataCategories indexed at once is bounded by the 'amee.drillDownIndexSize' system property.
+ * <p/>
+ * If the 'amee.drillDownTrees' system property is true, a precomputed {@link DrillDownTree} is used per DataCategory
+ * instead of an index. Trees are built by {@link DrillDownTasks} when first requested and rebuilt when a
+ * DataCategory with a tree is invalidated. Drill downs the tree cannot answer, including those made while the tree is
+ * being built, use the SQL based implementation. The size of each tree is bounded by the 'amee.drillDownTreeMaxNodes'
+ * system property.
+ */
+public class IndexedDrillDownService extends AbstractDrillDownService implements ApplicationListener<InvalidationMessage> {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    @Autowired
+    private DrillDownDAO drillDownDao;
+
+    @Autowired
+    private DrillDownLoader drillDownLoader;
+
+    @Autowired
+    private DrillDownTasks drillDownTasks;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private boolean treesEnabled = false;
+    private int maxTreeNodes = DrillDownTree.DEFAULT_MAX_NODES;
+
+    // Incremented whenever indexes or trees are dropped so that those loaded concurrently are not kept.
+    private long generation = 0;
+
+    // Least recently used map of DataCategory UID to index.
+    private final Map<String, DrillDownIndex> indexes = new LinkedHashMap<String, DrillDownIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DrillDownIndex> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    // Loads of indexes in progress by DataCategory UID, guarded by the indexes lock.
+    private final Map<String, FutureTask<DrillDownIndex>> loads = new HashMap<String, FutureTask<DrillDownIndex>>();
+
+    // Least recently used map of DataCategory UID to tree, guarded by the indexes lock.
+    private final Map<String, DrillDownTree> trees = new LinkedHashMap<String, DrillDownTree>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DrillDownTree> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    // Events
+
+    @Override
+    public void onApplicationEvent(InvalidationMessage invalidationMessage) {
+        // Messages naming only changed DataItems do not clear drill downs.
+        if ((invalidationMessage.isLocal() || invalidationMessage.isFromOtherInstance()) &&
+                invalidationMessage.getObjectType().equals(ObjectType.DC) &&
+                !invalidationMessage.hasOnlyOptionValues("dataItem")) {
+            log.trace("onApplicationEvent() Handling InvalidationMessage.");
+            String uid = invalidationMessage.getEntityUid();
+            boolean hadTree;
+            synchronized (indexes) {
+                hadTree = trees.containsKey(uid);
+            }
+            remove(uid);
+            if (hadTree) {
+                // Rebuild straight away as the DataCategory is in use.
+                buildTree(uid);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<Choice> getDataItemChoices(
+        IDataCategoryReference dataCategory, List<Choice> selections, List<Choice> drillDownChoices) {
+
+        List<Choice> choices = null;
+        if (LocaleHolder.isDefaultLocale()) {
+            if (treesEnabled) {
+                DrillDownTree tree = getTree(dataCategory);
+                if (tree != null) {
+                    choices = tree.getDataItemChoices(selections, drillDownChoices);
+                }
+            } else {
+                DrillDownIndex index = getIndex(dataCategory);
+                BitSet rows = index.getRows(selections);
+                if (drillDownChoices.size() > 0) {
+                    choices = index.getValueChoices(drillDownChoices.get(0).getName(), rows);
+                } else {
+                    choices = index.getUidChoices(rows);
+                }
+            }
+        }
+        if (choices == null) {
+            choices = (List<Choice>) cacheHelper.getCacheable(
+                    new DrillDownFactory(drillDownDao, dataCategory, selections, drillDownChoices));
+        }
+
+        // Sort Choices.
+        Collections.sort(choices);
+        return choices;
+    }
+
+    @Override
+    public void clearDrillDownCache() {
+        super.clearDrillDownCache();
+        synchronized (indexes) {
+            generation++;
+            indexes.clear();
+            loads.clear();
+            trees.clear();
+        }
+    }
+
+    @Override
+    public void clearDrillDownCache(IDataCategoryReference dataCategory) {
+        super.clearDrillDownCache(dataCategory);
+        remove(dataCategory.getEntityUid());
+    }
+
+    /**
+     * Get the index for a DataCategory, loading it if not present.
+     *
+     * @param dataCategory the DataCategory
+     * @return the index
+     */
+    DrillDownIndex getIndex(final IDataCategoryReference dataCategory) {
+        String uid = dataCategory.getEntityUid();
+        FutureTask<DrillDownIndex> load;
+        long loadGeneration = 0;
+        boolean loader = false;
+        synchronized (indexes) {
+            DrillDownIndex index = indexes.get(uid);
+            if (index != null) {
+                return index;
+            }
+            load = loads.get(uid);
+            if (load == null) {
+                load = new FutureTask<DrillDownIndex>(new Callable<DrillDownIndex>() {
+                    @Override
+                    public DrillDownIndex call() {
+                        return drillDownDao.getDrillDownIndex(dataCategory);
+                    }
+                });
+                loads.put(uid, load);
+                loadGeneration = generation;
+                loader = true;
+            }
+        }
+
+        if (loader) {
+            // Load outside of the lock, only keeping the index if nothing was dropped meanwhile.
+            load.run();
+            synchronized (indexes) {
+                if (loads.get(uid) == load) {
+                    loads.remove(uid);
+                }
+                DrillDownIndex index = getLoadedIndex(load);
+                if ((index != null) && (loadGeneration == generation)) {
+                    indexes.put(uid, index);
+                }
+            }
+            log.debug("getIndex() Loaded index for {}.", uid);
+        }
+        return getIndex(dataCategory, load);
+    }
+
+    /**
+     * @return the index of a completed load, or null if the load failed
+     */
+    private DrillDownIndex getLoadedIndex(FutureTask<DrillDownIndex> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the load of an index. Failures of the load are thrown to each waiting thread. A thread interrupted
+     * whilst waiting loads the index itself.
+     */
+    private DrillDownIndex getIndex(IDataCategoryReference dataCategory, FutureTask<DrillDownIndex> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return drillDownDao.getDrillDownIndex(dataCategory);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Get the tree for a DataCategory. If not present the tree is built in the background.
+     *
+     * @param dataCategory the DataCategory
+     * @return the tree or null if it is not ready
+     */
+    DrillDownTree getTree(IDataCategoryReference dataCategory) {
+        String uid = dataCategory.getEntityUid();
+        synchronized (indexes) {
+            DrillDownTree tree = trees.get(uid);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        buildTree(uid);
+        return null;
+    }
+
+    /**
+     * Build the tree for a DataCategory in the background, unless a build is already waiting to run.
+     *
+     * @param uid the DataCategory UID
+     */
+    void buildTree(final String uid) {
+        drillDownTasks.execute("DrillDownTree_" + uid, new Runnable() {
+            @Override
+            public void run() {
+                long loadGeneration;
+                synchronized (indexes) {
+                    loadGeneration = generation;
+                }
+                DrillDownTree tree = drillDownLoader.loadDrillDownTree(uid, maxTreeNodes);
+                synchronized (indexes) {
+                    // Only keep the tree if nothing was dropped meanwhile.
+                    if ((tree != null) && (loadGeneration == generation)) {
+                        trees.put(uid, tree);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the index and tree for a DataCategory.
+     *
+     * @param uid the DataCategory UID
+     */
+    void remove(String uid) {
+        synchronized (indexes) {
+            generation++;
+            indexes.remove(uid);
+            loads.remove(uid);
+            trees.remove(uid);
+        }
+    }
+
+    @Value("#{ systemProperties['amee.drillDownIndexSize'] }")
+    public void setMaxSize(Integer maxSize) {
+        this.maxSize = (maxSize != null) && (maxSize > 0) ? maxSize : DEFAULT_MAX_SIZE;
+    }
+
+    @Value("#{ systemProperties['amee.drillDownTrees'] }")
+    public void setTreesEnabled(Boolean treesEnabled) {
+        this.treesEnabled = (treesEnabled != null) && treesEnabled;
+    }
+
+    @Value("#{ systemProperties['amee.drillDownTreeMaxNodes'] }")
+    public void setMaxTreeNodes(Integer maxTreeNodes) {
+        this.maxTreeNodes = (maxTreeNodes != null) && (maxTreeNodes > 0) ? maxTreeNodes : DrillDownTree.DEFAULT_MAX_NODES;
+    }
+}
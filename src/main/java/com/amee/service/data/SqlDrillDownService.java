@@ -1,7 +1,6 @@
 package com.amee.service.data;
 
 import com.amee.domain.IDataCategoryReference;
-import com.amee.domain.cache.CacheHelper;
 import com.amee.domain.sheet.Choice;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -13,17 +12,27 @@ import java.util.List;
 public class SqlDrillDownService extends AbstractDrillDownService {
 
     @Autowired
-    private DrillDownDAO drillDownDao;
+    private DrillDownWarmer drillDownWarmer;
 
     @Override
-    @SuppressWarnings("unchecked")
     protected List<Choice> getDataItemChoices(
         IDataCategoryReference dataCategory, List<Choice> selections, List<Choice> drillDownChoices) {
 
         // Get Choices and sort.
-        List<Choice> choices = ((List<Choice>) cacheHelper.getCacheable(
-                new DrillDownFactory(drillDownDao, dataCategory, selections, drillDownChoices)));
+        List<Choice> choices = drillDownWarmer.getDataItemChoices(dataCategory, selections, drillDownChoices);
         Collections.sort(choices);
         return choices;
     }
-}
\ No newline at end of file
+
+    // The warmer clears the DrillDownChoices cache itself, after holding the Choices of hot keys.
+
+    @Override
+    public void clearDrillDownCache() {
+        drillDownWarmer.invalidateAll();
+    }
+
+    @Override
+    public void clearDrillDownCache(IDataCategoryReference dataCategory) {
+        drillDownWarmer.invalidate(dataCategory);
+    }
+}
@@ -10,6 +10,9 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  *
  */
@@ -145,6 +148,35 @@ public class InvalidationMessage extends Message implements IAMEEEntityReference
         return !getOptions().isEmpty() && ArrayUtils.contains(getOptions().split(","), option);
     }
 
+    /**
+     * @param name the option name
+     * @return true if the message has options and all are values for the name, as sent for the changed DataItems of a
+     *         DataCategory with the name 'dataItem'
+     */
+    public boolean hasOnlyOptionValues(String name) {
+        return !getOptions().isEmpty() && (getOptionValues(name).size() == getOptions().split(",").length);
+    }
+
+    /**
+     * Get the values of options in the form name:value. For example, the options "dataItem:A,dataItem:B" have the
+     * values A and B for the name dataItem.
+     *
+     * @param name the option name
+     * @return the values, in the order given
+     */
+    public List<String> getOptionValues(String name) {
+        List<String> values = new ArrayList<String>();
+        if (!getOptions().isEmpty()) {
+            String prefix = name + ":";
+            for (String option : getOptions().split(",")) {
+                if (option.startsWith(prefix) && (option.length() > prefix.length())) {
+                    values.add(option.substring(prefix.length()));
+                }
+            }
+        }
+        return values;
+    }
+
     public String getServerName() {
         return serverName;
     }
@@ -17,6 +17,7 @@ import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 @Service
@@ -24,6 +25,9 @@ public class InvalidationService implements ApplicationContextAware, Application
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    // The most option values sent in one message by addOptionValue.
+    static final int MAX_OPTION_VALUES = 100;
+
     @Autowired
     @Qualifier("invalidationTaskExecutor")
     private TaskExecutor taskExecutor;
@@ -78,25 +82,109 @@ public class InvalidationService implements ApplicationContextAware, Application
 
     /**
      * Adds an InvalidationMessage to the entities Set for the supplied entity. This will later be sent out
-     * on the invalidation topic.
+     * on the invalidation topic. Messages of option values for the entity are dropped, as listeners handle the
+     * entity as a whole.
      *
      * @param entity to invalidate caches for
      */
     public synchronized void add(IAMEEEntityReference entity) {
         log.trace("add()");
+        removeOptionValues(entity);
         invalidationMessages.get().add(new InvalidationMessage(this, entity));
     }
 
     /**
      * Adds an InvalidationMessage to the entities Set for the supplied entity. This will later be sent out
-     * on the invalidation topic.
+     * on the invalidation topic. Unless the options are themselves option values, messages of option values for the
+     * entity are dropped, as listeners handle the entity as a whole.
      *
      * @param entity  to invalidate caches for
      * @param options invalidation options
      */
     public synchronized void add(IAMEEEntityReference entity, String options) {
         log.trace("add()");
-        invalidationMessages.get().add(new InvalidationMessage(this, entity, options));
+        InvalidationMessage message = new InvalidationMessage(this, entity, options);
+        if (!isOptionValues(message)) {
+            removeOptionValues(entity);
+        }
+        invalidationMessages.get().add(message);
+    }
+
+    /**
+     * Adds an option in the form name:value to the InvalidationMessage for the supplied entity, so that several
+     * changes within an entity are sent as one message. For example, the changed DataItems of a DataCategory are
+     * sent as 'dataItem:UID' options.
+     * <p/>
+     * Nothing is added if a message for the entity without option values will already be sent, as listeners handle
+     * the entity as a whole. A message with more than MAX_OPTION_VALUES values is sent without options instead.
+     * <p/>
+     * Listeners for the entity should handle a message with only these option values by updating what depends on the
+     * values, and not the whole entity.
+     *
+     * @param entity to invalidate caches for
+     * @param name   the option name
+     * @param value  the option value
+     */
+    public synchronized void addOptionValue(IAMEEEntityReference entity, String name, String value) {
+        log.trace("addOptionValue()");
+        Set<InvalidationMessage> messages = invalidationMessages.get();
+        for (InvalidationMessage message : messages) {
+            if (isFor(message, entity) && !isOptionValues(message)) {
+                return;
+            }
+        }
+        String option = name + ":" + value;
+        for (Iterator<InvalidationMessage> i = messages.iterator(); i.hasNext(); ) {
+            InvalidationMessage message = i.next();
+            if (isFor(message, entity) && message.hasOnlyOptionValues(name)) {
+                if (message.hasOption(option)) {
+                    return;
+                }
+                i.remove();
+                if (message.getOptionValues(name).size() >= MAX_OPTION_VALUES) {
+                    messages.add(new InvalidationMessage(this, entity));
+                } else {
+                    messages.add(new InvalidationMessage(this, entity, message.getOptions() + "," + option));
+                }
+                return;
+            }
+        }
+        messages.add(new InvalidationMessage(this, entity, option));
+    }
+
+    /**
+     * Remove the messages of option values for an entity.
+     */
+    private void removeOptionValues(IAMEEEntityReference entity) {
+        for (Iterator<InvalidationMessage> i = invalidationMessages.get().iterator(); i.hasNext(); ) {
+            InvalidationMessage message = i.next();
+            if (isFor(message, entity) && isOptionValues(message)) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the message is for the entity
+     */
+    private static boolean isFor(InvalidationMessage message, IAMEEEntityReference entity) {
+        return message.getObjectType().equals(entity.getObjectType()) &&
+                message.getEntityUid().equals(entity.getEntityUid());
+    }
+
+    /**
+     * @return true if the message has options and all are in the form name:value
+     */
+    private static boolean isOptionValues(InvalidationMessage message) {
+        if (message.getOptions().isEmpty()) {
+            return false;
+        }
+        for (String option : message.getOptions().split(",")) {
+            if (option.indexOf(':') < 1) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
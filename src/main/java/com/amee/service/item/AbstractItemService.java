@@ -3,7 +3,6 @@ package com.amee.service.item;
 import com.amee.base.transaction.TransactionEvent;
 import com.amee.domain.DataItemService;
 import com.amee.domain.IAMEEEntityReference;
-import com.amee.domain.ItemService;
 import com.amee.domain.LocaleService;
 import com.amee.domain.data.ItemValueDefinition;
 import com.amee.domain.data.ItemValueMap;
@@ -11,7 +10,6 @@ import com.amee.domain.item.BaseItem;
 import com.amee.domain.item.BaseItemValue;
 import com.amee.domain.item.data.BaseDataItemValue;
 import com.amee.domain.item.profile.BaseProfileItemValue;
-import com.amee.persist.BaseEntity;
 import com.amee.platform.science.ExternalHistoryValue;
 import com.amee.platform.science.StartEndDate;
 
@@ -24,15 +22,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 
-public abstract class AbstractItemService implements ItemService, ApplicationListener {
+public abstract class AbstractItemService implements IndexedItemService, ApplicationListener {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -48,6 +44,15 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
                 }
             };
 
+    // A thread bound Map of ItemValueIndexes keyed by BaseItem entity identity.
+    private final ThreadLocal<Map<String, ItemValueIndex>> ITEM_VALUE_INDEXES =
+            new ThreadLocal<Map<String, ItemValueIndex>>() {
+                @Override
+                protected Map<String, ItemValueIndex> initialValue() {
+                    return new HashMap<String, ItemValueIndex>();
+                }
+            };
+
     @Override
     public void onApplicationEvent(ApplicationEvent e) {
         if (e instanceof TransactionEvent) {
@@ -81,7 +86,7 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
     @Override
     public Set<ItemValueDefinition> getItemValueDefinitionsInUse(BaseItem item) {
         Set<ItemValueDefinition> itemValueDefinitions = new HashSet<ItemValueDefinition>();
-        for (BaseItemValue itemValue : getActiveItemValues(item)) {
+        for (BaseItemValue itemValue : getItemValueIndex(item).getActiveItemValues()) {
             itemValueDefinitions.add(itemValue.getItemValueDefinition());
         }
         return itemValueDefinitions;
@@ -109,15 +114,47 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
         return Collections.unmodifiableList(getItemValuesMap(item).getAll(itemValuePath));
     }
 
+    /**
+     * Get an {@link ItemValueSeries} of ALL {@link com.amee.domain.item.BaseItemValue}s owned by this Item for a
+     * particular {@link com.amee.domain.data.ItemValueDefinition}. The series is created once and shared for the
+     * rest of the transaction.
+     *
+     * @param item          the BaseItem
+     * @param itemValuePath the {@link com.amee.domain.data.ItemValueDefinition} path
+     * @return the ItemValueSeries, which will be empty if there are no matching values
+     */
     @Override
-    public Set<BaseItemValue> getActiveItemValues(BaseItem item) {
-        Set<BaseItemValue> activeItemValues = new HashSet<BaseItemValue>();
-        for (BaseItemValue iv : getAllItemValues(item)) {
-            if (!iv.isTrash()) {
-                activeItemValues.add(iv);
-            }
+    public ItemValueSeries getItemValueSeries(BaseItem item, String itemValuePath) {
+        return getItemValueIndex(item).getSeries(itemValuePath);
+    }
+
+    /**
+     * Get the {@link ItemValueIndex} of the active {@link com.amee.domain.item.BaseItemValue}s owned by this Item.
+     * The index is created on first use and shared for the rest of the transaction, or until the Item's values
+     * change.
+     *
+     * @param item the BaseItem
+     * @return the ItemValueIndex
+     */
+    @Override
+    public ItemValueIndex getItemValueIndex(BaseItem item) {
+        ItemValueIndex index = ITEM_VALUE_INDEXES.get().get(item.toString());
+        if (index == null) {
+            index = ItemValueIndex.create(getAllItemValues(item));
+            ITEM_VALUE_INDEXES.get().put(item.toString(), index);
         }
-        return activeItemValues;
+        return index;
+    }
+
+    /**
+     * Get the active BaseItemValues owned by this Item.
+     *
+     * @param item the BaseItem
+     * @return a new Set of BaseItemValues that are not trashed
+     */
+    @Override
+    public Set<BaseItemValue> getActiveItemValues(BaseItem item) {
+        return new HashSet<BaseItemValue>(getItemValueIndex(item).getActiveItemValues());
     }
 
     @Override
@@ -156,31 +193,22 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
      * @return the {@link com.amee.domain.item.BaseItemValue} if found or NULL
      */
     @Override
-    public BaseItemValue getByUid(BaseItem item, final String uid) {
-        return (BaseItemValue) CollectionUtils.find(getActiveItemValues(item), new Predicate() {
-            @Override
-            public boolean evaluate(Object o) {
-                BaseEntity iv = (BaseEntity) o;
-                return iv.getUid().equals(uid);
-            }
-        });
+    public BaseItemValue getByUid(BaseItem item, String uid) {
+        return getItemValueIndex(item).getByUid(uid);
     }
 
     /**
      * Return an {@link com.amee.domain.data.ItemValueMap} of {@link com.amee.domain.item.BaseItemValue}s belonging
      * to the supplied item.
-     * The key is the value returned by {@link BaseItemValue#getDisplayPath()}.
+     * The key is the value returned by {@link BaseItemValue#getDisplayPath()}. The map is shared for the rest of
+     * the transaction and must not be modified.
      *
      * @param item
      * @return {@link com.amee.domain.data.ItemValueMap}
      */
     @Override
     public ItemValueMap getItemValuesMap(BaseItem item) {
-        ItemValueMap itemValuesMap = new ItemValueMap();
-        for (BaseItemValue itemValue : getActiveItemValues(item)) {
-            itemValuesMap.put(itemValue.getDisplayPath(), itemValue);
-        }
-        return itemValuesMap;
+        return getItemValueIndex(item).getItemValuesMap();
     }
 
     /**
@@ -194,7 +222,7 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
     @Override
     public boolean isItemValueUnique(BaseItem item, ItemValueDefinition itemValueDefinition, StartEndDate startDate) {
         String uniqueId = itemValueDefinition.getUid() + startDate.getTime();
-        for (BaseItemValue iv : getActiveItemValues(item)) {
+        for (BaseItemValue iv : getItemValueIndex(item).getActiveItemValues()) {
             long time = ExternalHistoryValue.class.isAssignableFrom(iv.getClass()) ?
                     ((ExternalHistoryValue) iv).getStartDate().getTime() :
                     DataItemService.EPOCH.getTime();
@@ -213,22 +241,27 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
      */
     @Override
     public void loadItemValuesForItems(Collection<BaseItem> items) {
+        Map<String, Set<BaseItemValue>> itemValuesByItem = ITEM_VALUES.get();
+        Map<String, ItemValueIndex> itemValueIndexes = ITEM_VALUE_INDEXES.get();
         // A null entry for when there are no BaseItemValues for the entity.
         // Ensure a null entry exists for all BaseItemValues.
         for (IAMEEEntityReference item : items) {
-            if (!ITEM_VALUES.get().containsKey(item.toString())) {
-                ITEM_VALUES.get().put(item.toString(), null);
+            String key = item.toString();
+            if (!itemValuesByItem.containsKey(key)) {
+                itemValuesByItem.put(key, null);
             }
+            itemValueIndexes.remove(key);
         }
-        // Store BaseItemValues against BaseItems.
+        // Store BaseItemValues against BaseItems, straight from the batched query results.
         // If there are no BaseItemValues for a BaseItem the entry will remain null.
         for (BaseItemValue itemValue : getDao().getItemValuesForItems(items)) {
-            Set<BaseItemValue> itemValues = ITEM_VALUES.get().get(itemValue.getItem().toString());
+            String key = itemValue.getItem().toString();
+            Set<BaseItemValue> itemValues = itemValuesByItem.get(key);
             if (itemValues == null) {
                 itemValues = new HashSet<BaseItemValue>();
+                itemValuesByItem.put(key, itemValues);
             }
             itemValues.add(itemValue);
-            ITEM_VALUES.get().put(itemValue.getItem().toString(), itemValues);
         }
     }
 
@@ -241,6 +274,17 @@ public abstract class AbstractItemService implements ItemService, ApplicationLis
     @Override
     public void clearItemValues() {
         ITEM_VALUES.get().clear();
+        ITEM_VALUE_INDEXES.get().clear();
+    }
+
+    /**
+     * Discard the {@link ItemValueIndex} of a single BaseItem, after one of its BaseItemValues has changed.
+     *
+     * @param item the BaseItem
+     */
+    @Override
+    public void clearItemValueIndex(IAMEEEntityReference item) {
+        ITEM_VALUE_INDEXES.get().remove(item.toString());
     }
 
     @Override
@@ -0,0 +1,114 @@
+package com.amee.service.item;
+
+import com.amee.domain.item.data.DataItem;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded record of the DataItems that have passed {@link DataItemServiceImpl#checkDataItem(DataItem)}, with the
+ * versions of the DataItem and its ItemDefinition they were checked at. A DataItem only needs to be checked again
+ * when either has been modified since, or when the record has been evicted.
+ * <p/>
+ * Records are also removed when the DataItem or its DataCategory are invalidated, as another instance may have
+ * changed the DataItem values without the modified timestamps this instance holds changing.
+ */
+class CheckedDataItems {
+
+    public static final int DEFAULT_MAX_SIZE = 50000;
+
+    private final int maxSize;
+
+    // Least recently used map of DataItem UID to the version checked.
+    private final Map<String, Version> versions = new LinkedHashMap<String, Version>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Version> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    CheckedDataItems(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param dataItem the DataItem
+     * @return true if the DataItem has been checked at its current version
+     */
+    boolean isChecked(DataItem dataItem) {
+        Version version;
+        synchronized (versions) {
+            version = versions.get(dataItem.getUid());
+        }
+        return (version != null) && version.isCurrent(dataItem);
+    }
+
+    /**
+     * Record that the DataItem has been checked at its current version.
+     *
+     * @param dataItem the DataItem
+     */
+    void setChecked(DataItem dataItem) {
+        Version version = new Version(dataItem);
+        synchronized (versions) {
+            versions.put(dataItem.getUid(), version);
+        }
+    }
+
+    /**
+     * Forget the DataItem, so that it will be checked again.
+     *
+     * @param uid the DataItem UID
+     */
+    void remove(String uid) {
+        synchronized (versions) {
+            versions.remove(uid);
+        }
+    }
+
+    /**
+     * Forget the DataItems of a DataCategory, so that they will be checked again.
+     *
+     * @param dataCategoryUid the DataCategory UID
+     */
+    void removeDataCategory(String dataCategoryUid) {
+        synchronized (versions) {
+            Iterator<Version> iterator = versions.values().iterator();
+            while (iterator.hasNext()) {
+                if (dataCategoryUid.equals(iterator.next().dataCategoryUid)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    int size() {
+        synchronized (versions) {
+            return versions.size();
+        }
+    }
+
+    private static class Version {
+
+        private final long modified;
+        private final long itemDefinitionModified;
+        private final String dataCategoryUid;
+
+        private Version(DataItem dataItem) {
+            dataCategoryUid = dataItem.getDataCategory().getUid();
+            modified = getTime(dataItem.getModified());
+            itemDefinitionModified = getTime(dataItem.getItemDefinition().getModifiedDeep());
+        }
+
+        private boolean isCurrent(DataItem dataItem) {
+            return (modified == getTime(dataItem.getModified())) &&
+                    (itemDefinitionModified == getTime(dataItem.getItemDefinition().getModifiedDeep()));
+        }
+
+        private static long getTime(Date date) {
+            return date != null ? date.getTime() : -1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.amee.service.item;
+
+import com.amee.domain.DataItemService;
+import com.amee.domain.data.ItemDefinition;
+import com.amee.domain.data.ItemValueMap;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.sheet.Choice;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds DataItem labels for an {@link ItemDefinition}. A label is the drill down values of the DataItem, joined by
+ * ", ", skipping empty and "-" values. The display path is used if there are no such values.
+ * <p/>
+ * The drill down paths are resolved once, so labelling many DataItems of the same ItemDefinition only costs a lookup
+ * in each DataItem's shared {@link ItemValueMap} per path.
+ */
+public class DataItemLabels {
+
+    private static final String SEPARATOR = ", ";
+
+    private final String[] paths;
+
+    public DataItemLabels(ItemDefinition itemDefinition) {
+        List<Choice> drillDownChoices = itemDefinition.getDrillDownChoices();
+        paths = new String[drillDownChoices.size()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = drillDownChoices.get(i).getName();
+        }
+    }
+
+    /**
+     * Get the labels for a collection of DataItems. The values of the DataItems should already have been loaded
+     * in bulk, for example by {@link DataItemService#getDataItems(com.amee.domain.IDataCategoryReference)}.
+     *
+     * @param dataItemService the DataItemService
+     * @param dataItems       the DataItems
+     * @return the labels keyed by DataItem UID, in the order of the DataItems
+     */
+    public static Map<String, String> getLabels(DataItemService dataItemService, Collection<DataItem> dataItems) {
+        Map<String, String> labels = new LinkedHashMap<String, String>(dataItems.size() * 2);
+        Map<ItemDefinition, DataItemLabels> labelsByItemDefinition = new HashMap<ItemDefinition, DataItemLabels>();
+        for (DataItem dataItem : dataItems) {
+            DataItemLabels dataItemLabels = labelsByItemDefinition.get(dataItem.getItemDefinition());
+            if (dataItemLabels == null) {
+                dataItemLabels = new DataItemLabels(dataItem.getItemDefinition());
+                labelsByItemDefinition.put(dataItem.getItemDefinition(), dataItemLabels);
+            }
+            labels.put(dataItem.getUid(), dataItemLabels.getLabel(dataItemService, dataItem));
+        }
+        return labels;
+    }
+
+    /**
+     * Get the label for a DataItem of this ItemDefinition.
+     *
+     * @param dataItemService the DataItemService
+     * @param dataItem        the DataItem
+     * @return the label
+     */
+    public String getLabel(DataItemService dataItemService, DataItem dataItem) {
+        ItemValueMap itemValues = dataItemService.getItemValuesMap(dataItem);
+        Date startDate = dataItem.getEffectiveStartDate();
+        StringBuilder label = null;
+        for (String path : paths) {
+            // Same lookup as DataItemService.getItemValue(item, identifier).
+            BaseItemValue itemValue = itemValues.get(path, startDate);
+            if (itemValue == null) {
+                itemValue = dataItemService.getByUid(dataItem, path);
+            }
+            if (itemValue != null) {
+                String value = itemValue.getValueAsString();
+                if ((value.length() > 0) && !value.equals("-")) {
+                    if (label == null) {
+                        label = new StringBuilder(paths.length * 16);
+                    } else {
+                        label.append(SEPARATOR);
+                    }
+                    label.append(value);
+                }
+            }
+        }
+        return label != null ? label.toString() : dataItem.getDisplayPath();
+    }
+}
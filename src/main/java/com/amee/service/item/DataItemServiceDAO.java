@@ -2,7 +2,9 @@ package com.amee.service.item;
 
 import com.amee.domain.IDataCategoryReference;
 import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.ItemValueDefinition;
 import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.BaseDataItemValue;
 import com.amee.domain.item.data.DataItem;
 import com.amee.domain.item.data.DataItemNumberValue;
 import com.amee.domain.item.data.DataItemTextValue;
@@ -28,6 +30,12 @@ public interface DataItemServiceDAO extends ItemServiceDAO {
 
     List<DataItemTextValue> getDataItemTextValues(DataItem dataItem);
 
+    BaseDataItemValue getDataItemValue(DataItem dataItem, ItemValueDefinition itemValueDefinition);
+
+    List<BaseDataItemValue> getDataItemValueHistories(
+            DataItem dataItem, ItemValueDefinition itemValueDefinition, Date startDate, Date endDate,
+            int firstResult, int maxResults);
+
     void persist(DataItem dataItem);
 
     DataItem getDataItemByPath(IDataCategoryReference parent, String path);
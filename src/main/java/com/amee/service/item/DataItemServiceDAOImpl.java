@@ -3,6 +3,7 @@ package com.amee.service.item;
 import com.amee.domain.AMEEStatus;
 import com.amee.domain.IDataCategoryReference;
 import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.ItemValueDefinition;
 import com.amee.domain.item.BaseItem;
 import com.amee.domain.item.BaseItemValue;
 import com.amee.domain.item.data.*;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
 import org.hibernate.FlushMode;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
@@ -19,11 +21,47 @@ import org.springframework.stereotype.Repository;
 
 import java.util.*;
 
+import static org.hibernate.type.StandardBasicTypes.LONG;
+import static org.hibernate.type.StandardBasicTypes.TIMESTAMP;
+
 @Repository
 public class DataItemServiceDAOImpl extends ItemServiceDAOImpl implements DataItemServiceDAO {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private static final String NUMBER_VALUE_TABLE = "DATA_ITEM_NUMBER_VALUE";
+    private static final String TEXT_VALUE_TABLE = "DATA_ITEM_TEXT_VALUE";
+    private static final String NUMBER_VALUE_HISTORY_TABLE = "DATA_ITEM_NUMBER_VALUE_HISTORY";
+    private static final String TEXT_VALUE_HISTORY_TABLE = "DATA_ITEM_TEXT_VALUE_HISTORY";
+
+    // The table and entity class of each concrete kind of BaseDataItemValue.
+    private static final List<ValueTable> VALUE_TABLES = Collections.unmodifiableList(Arrays.asList(
+            new ValueTable(NUMBER_VALUE_TABLE, DataItemNumberValue.class),
+            new ValueTable(TEXT_VALUE_TABLE, DataItemTextValue.class),
+            new ValueTable(NUMBER_VALUE_HISTORY_TABLE, DataItemNumberValueHistory.class),
+            new ValueTable(TEXT_VALUE_HISTORY_TABLE, DataItemTextValueHistory.class)));
+
+    // The index of each kind of value in valueTables.
+    private static final int NUMBER_VALUES = 0;
+    private static final int TEXT_VALUES = 1;
+    private static final int NUMBER_VALUE_HISTORIES = 2;
+    private static final int TEXT_VALUE_HISTORIES = 3;
+
+    private final List<ValueTable> valueTables;
+
+    public DataItemServiceDAOImpl() {
+        this(VALUE_TABLES);
+    }
+
+    /**
+     * @param valueTables the number value, text value, number history and text history tables, in that order, to
+     *                    load values from in place of the DataItem value tables
+     */
+    DataItemServiceDAOImpl(List<ValueTable> valueTables) {
+        super();
+        this.valueTables = Collections.unmodifiableList(new ArrayList<ValueTable>(valueTables));
+    }
+
     @Override
     public Class getEntityClass() {
         return DataItem.class;
@@ -148,29 +186,70 @@ public class DataItemServiceDAOImpl extends ItemServiceDAOImpl implements DataIt
         return getDataItemValues((DataItem) item);
     }
 
+    /**
+     * Returns all non-trashed values of the supplied DataItem, of every kind.
+     * <p/>
+     * The number, text and history values are loaded together by a single statement, see
+     * {@link #getDataItemValuesForIds(Collection)}.
+     *
+     * @param dataItem to get values for
+     * @return Set of BaseItemValues
+     */
     @Override
     public Set<BaseItemValue> getDataItemValues(DataItem dataItem) {
-        Set<BaseItemValue> rawItemValues = new HashSet<BaseItemValue>();
-        rawItemValues.addAll(getDataItemNumberValues(dataItem));
-        rawItemValues.addAll(getDataItemNumberValueHistories(dataItem));
-        rawItemValues.addAll(getDataItemTextValues(dataItem));
-        rawItemValues.addAll(getDataItemTextValueHistories(dataItem));
-        return rawItemValues;
+        return new HashSet<BaseItemValue>(getDataItemValuesForIds(Collections.singleton(dataItem.getId())));
     }
 
     /**
-     * TODO: Would caching here be useful?
+     * Returns all non-trashed values of every kind for the supplied DataItem IDs, with a single statement.
+     * <p/>
+     * BaseDataItemValue is not a mapped entity, so a Criteria query over it is run as one query per value table.
+     * Instead the IDs of the matching values are selected from each value table with a UNION, tagged with the
+     * index of the table, and each table is outer joined on its own tag. Each row then holds exactly one value.
      *
-     * @param dataItem
-     * @return
+     * @param dataItemIds the DataItem IDs
+     * @return the values, in no particular order
      */
     @SuppressWarnings(value = "unchecked")
-    private List<DataItemNumberValueHistory> getDataItemNumberValueHistories(DataItem dataItem) {
+    List<BaseItemValue> getDataItemValuesForIds(Collection<Long> dataItemIds) {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder keys = new StringBuilder();
+        StringBuilder joins = new StringBuilder();
+        for (int i = 0; i < valueTables.size(); i++) {
+            String table = valueTables.get(i).table;
+            if (i > 0) {
+                columns.append(", ");
+                keys.append(" UNION ALL ");
+            }
+            columns.append("{v").append(i).append(".*}");
+            keys.append("SELECT ").append(i).append(" AS KIND, ID FROM ").append(table).append(" ")
+                    .append("WHERE DATA_ITEM_ID IN (:dataItemIds) AND STATUS != :trash");
+            joins.append(" LEFT JOIN ").append(table).append(" v").append(i)
+                    .append(" ON k.KIND = ").append(i).append(" AND v").append(i).append(".ID = k.ID");
+        }
         Session session = (Session) entityManager.getDelegate();
-        Criteria criteria = session.createCriteria(DataItemNumberValueHistory.class);
-        criteria.add(Restrictions.eq("dataItem.id", dataItem.getId()));
-        criteria.add(Restrictions.ne("status", AMEEStatus.TRASH));
-        return criteria.list();
+        SQLQuery query = session.createSQLQuery(
+                "SELECT " + columns + " FROM (" + keys + ") k" + joins);
+        for (int i = 0; i < valueTables.size(); i++) {
+            query.addEntity("v" + i, valueTables.get(i).entityClass);
+        }
+        query.setParameterList("dataItemIds", dataItemIds);
+        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
+
+        // Each row has one value, the other columns are null.
+        List itemValues = new ArrayList();
+        for (Object result : query.list()) {
+            if (result instanceof Object[]) {
+                for (Object itemValue : (Object[]) result) {
+                    if (itemValue != null) {
+                        itemValues.add(itemValue);
+                    }
+                }
+            } else if (result != null) {
+                itemValues.add(result);
+            }
+        }
+        return itemValues;
     }
 
     /**
@@ -179,10 +258,11 @@ public class DataItemServiceDAOImpl extends ItemServiceDAOImpl implements DataIt
      * @param dataItem
      * @return
      */
+    @Override
     @SuppressWarnings(value = "unchecked")
-    private List<DataItemTextValueHistory> getDataItemTextValueHistories(DataItem dataItem) {
+    public List<DataItemNumberValue> getDataItemNumberValues(DataItem dataItem) {
         Session session = (Session) entityManager.getDelegate();
-        Criteria criteria = session.createCriteria(DataItemTextValueHistory.class);
+        Criteria criteria = session.createCriteria(DataItemNumberValue.class);
         criteria.add(Restrictions.eq("dataItem.id", dataItem.getId()));
         criteria.add(Restrictions.ne("status", AMEEStatus.TRASH));
         return criteria.list();
@@ -196,37 +276,253 @@ public class DataItemServiceDAOImpl extends ItemServiceDAOImpl implements DataIt
      */
     @Override
     @SuppressWarnings(value = "unchecked")
-    public List<DataItemNumberValue> getDataItemNumberValues(DataItem dataItem) {
+    public List<DataItemTextValue> getDataItemTextValues(DataItem dataItem) {
         Session session = (Session) entityManager.getDelegate();
-        Criteria criteria = session.createCriteria(DataItemNumberValue.class);
+        Criteria criteria = session.createCriteria(DataItemTextValue.class);
         criteria.add(Restrictions.eq("dataItem.id", dataItem.getId()));
         criteria.add(Restrictions.ne("status", AMEEStatus.TRASH));
         return criteria.list();
     }
 
+    @Override
+    public Collection<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items) {
+        return getItemValuesForItems(items, BaseDataItemValue.class);
+    }
+
     /**
-     * TODO: Would caching here be useful?
+     * Loads each chunk of DataItem values with a single statement, see {@link #getDataItemValuesForIds(Collection)}.
+     */
+    @Override
+    List<BaseItemValue> getItemValuesForIds(Class kls, String propertyName, Collection<Long> entityIds) {
+        if (BaseDataItemValue.class.equals(kls)) {
+            return getDataItemValuesForIds(entityIds);
+        }
+        return super.getItemValuesForIds(kls, propertyName, entityIds);
+    }
+
+    // ItemValue history.
+
+    /**
+     * Returns the non-historical value of a DataItem for an ItemValueDefinition. This is the value in force from the
+     * epoch until the first historical value.
      *
-     * @param dataItem
-     * @return
+     * @param dataItem            the DataItem
+     * @param itemValueDefinition the ItemValueDefinition
+     * @return the non-historical value, or null if there is none
+     */
+    @Override
+    public BaseDataItemValue getDataItemValue(DataItem dataItem, ItemValueDefinition itemValueDefinition) {
+        List<BaseDataItemValue> itemValues =
+                getDataItemValues(getValueKeys(dataItem.getId(), itemValueDefinition.getId()));
+        return itemValues.isEmpty() ? null : itemValues.get(0);
+    }
+
+    /**
+     * Returns a page of the historical values of a DataItem for an ItemValueDefinition, ordered by start date.
+     * <p/>
+     * The page is selected by the IDs and start dates alone, which an index on (DATA_ITEM_ID,
+     * ITEM_VALUE_DEFINITION_ID, START_DATE, STATUS) answers without reading the value rows. Only the values on the
+     * page are then loaded.
+     *
+     * @param dataItem            the DataItem
+     * @param itemValueDefinition the ItemValueDefinition
+     * @param startDate           values starting on or after this date are included
+     * @param endDate             values starting before this date are included
+     * @param firstResult         the index of the first value on the page
+     * @param maxResults          the maximum number of values on the page
+     * @return the values on the page
      */
     @Override
+    public List<BaseDataItemValue> getDataItemValueHistories(
+            DataItem dataItem, ItemValueDefinition itemValueDefinition, Date startDate, Date endDate,
+            int firstResult, int maxResults) {
+        return getDataItemValues(getHistoryKeys(
+                dataItem.getId(), itemValueDefinition.getId(), startDate, endDate, firstResult, maxResults));
+    }
+
+    /**
+     * Returns the keys of a page of historical values. Number and text histories are each read up to the end of the
+     * page and then merged, as either may hold the values for an ItemValueDefinition.
+     */
+    List<ValueKey> getHistoryKeys(
+            long dataItemId, long itemValueDefinitionId, Date startDate, Date endDate, int firstResult, int maxResults) {
+        int lastResult = firstResult + maxResults;
+        List<ValueKey> keys = new ArrayList<ValueKey>();
+        keys.addAll(getHistoryKeys(valueTables.get(NUMBER_VALUE_HISTORIES),
+                dataItemId, itemValueDefinitionId, startDate, endDate, lastResult));
+        keys.addAll(getHistoryKeys(valueTables.get(TEXT_VALUE_HISTORIES),
+                dataItemId, itemValueDefinitionId, startDate, endDate, lastResult));
+        Collections.sort(keys);
+        return new ArrayList<ValueKey>(
+                keys.subList(Math.min(firstResult, keys.size()), Math.min(lastResult, keys.size())));
+    }
+
     @SuppressWarnings(value = "unchecked")
-    public List<DataItemTextValue> getDataItemTextValues(DataItem dataItem) {
+    private List<ValueKey> getHistoryKeys(
+            ValueTable valueTable, long dataItemId, long itemValueDefinitionId, Date startDate, Date endDate,
+            int maxResults) {
+        List<ValueKey> keys = new ArrayList<ValueKey>();
+        if (maxResults > 0) {
+            Session session = (Session) entityManager.getDelegate();
+            SQLQuery query = session.createSQLQuery(
+                    "SELECT ID, START_DATE FROM " + valueTable.table + " " +
+                            "WHERE DATA_ITEM_ID = :dataItemId " +
+                            "AND ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId " +
+                            "AND START_DATE >= :startDate " +
+                            "AND START_DATE < :endDate " +
+                            "AND STATUS != :trash " +
+                            "ORDER BY START_DATE, ID");
+            query.addScalar("ID", LONG);
+            query.addScalar("START_DATE", TIMESTAMP);
+            query.addSynchronizedQuerySpace(valueTable.table);
+            query.setLong("dataItemId", dataItemId);
+            query.setLong("itemValueDefinitionId", itemValueDefinitionId);
+            query.setTimestamp("startDate", startDate);
+            query.setTimestamp("endDate", endDate);
+            query.setInteger("trash", AMEEStatus.TRASH.ordinal());
+            query.setMaxResults(maxResults);
+            for (Object[] row : (List<Object[]>) query.list()) {
+                keys.add(new ValueKey(valueTable.entityClass, (Long) row[0], ((Date) row[1]).getTime()));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the key of the non-historical value. A number value is preferred to a text value, and the value with
+     * the lowest ID to later values.
+     */
+    List<ValueKey> getValueKeys(long dataItemId, long itemValueDefinitionId) {
+        List<ValueKey> keys = new ArrayList<ValueKey>();
+        keys.addAll(getValueKeys(valueTables.get(NUMBER_VALUES), dataItemId, itemValueDefinitionId));
+        keys.addAll(getValueKeys(valueTables.get(TEXT_VALUES), dataItemId, itemValueDefinitionId));
+        return keys.isEmpty() ? keys : new ArrayList<ValueKey>(keys.subList(0, 1));
+    }
+
+    @SuppressWarnings(value = "unchecked")
+    private List<ValueKey> getValueKeys(ValueTable valueTable, long dataItemId, long itemValueDefinitionId) {
         Session session = (Session) entityManager.getDelegate();
-        Criteria criteria = session.createCriteria(DataItemTextValue.class);
-        criteria.add(Restrictions.eq("dataItem.id", dataItem.getId()));
-        criteria.add(Restrictions.ne("status", AMEEStatus.TRASH));
-        return criteria.list();
+        SQLQuery query = session.createSQLQuery(
+                "SELECT ID FROM " + valueTable.table + " " +
+                        "WHERE DATA_ITEM_ID = :dataItemId " +
+                        "AND ITEM_VALUE_DEFINITION_ID = :itemValueDefinitionId " +
+                        "AND STATUS != :trash " +
+                        "ORDER BY ID");
+        query.addScalar("ID", LONG);
+        query.addSynchronizedQuerySpace(valueTable.table);
+        query.setLong("dataItemId", dataItemId);
+        query.setLong("itemValueDefinitionId", itemValueDefinitionId);
+        query.setInteger("trash", AMEEStatus.TRASH.ordinal());
+        query.setMaxResults(1);
+        List<ValueKey> keys = new ArrayList<ValueKey>();
+        for (Long id : (List<Long>) query.list()) {
+            keys.add(new ValueKey(valueTable.entityClass, id, 0));
+        }
+        return keys;
     }
 
-    @Override
-    public Set<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items) {
-        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
-        itemValues.addAll(getItemValuesForItems(items, DataItemNumberValue.class));
-        itemValues.addAll(getItemValuesForItems(items, DataItemNumberValueHistory.class));
-        itemValues.addAll(getItemValuesForItems(items, DataItemTextValue.class));
-        itemValues.addAll(getItemValuesForItems(items, DataItemTextValueHistory.class));
-        return itemValues;
+    /**
+     * Loads the values identified by the supplied keys with one query per entity class. Values are matched to their
+     * keys by the identifiers the Session holds for them.
+     *
+     * @param keys ValueKeys
+     * @return the values, in the order of the keys
+     */
+    @SuppressWarnings(value = "unchecked")
+    private List<BaseDataItemValue> getDataItemValues(List<ValueKey> keys) {
+        Map<Class, Set<Long>> idsByClass = new HashMap<Class, Set<Long>>();
+        for (ValueKey key : keys) {
+            Set<Long> ids = idsByClass.get(key.entityClass);
+            if (ids == null) {
+                ids = new HashSet<Long>();
+                idsByClass.put(key.entityClass, ids);
+            }
+            ids.add(key.id);
+        }
+        Map<ValueKey, Object> itemValues = new HashMap<ValueKey, Object>();
+        Session session = (Session) entityManager.getDelegate();
+        for (Map.Entry<Class, Set<Long>> entry : idsByClass.entrySet()) {
+            Criteria criteria = session.createCriteria(entry.getKey());
+            criteria.add(Restrictions.in("id", entry.getValue()));
+            for (Object itemValue : criteria.list()) {
+                itemValues.put(new ValueKey(entry.getKey(), (Long) session.getIdentifier(itemValue), 0), itemValue);
+            }
+        }
+        List results = new ArrayList(keys.size());
+        for (ValueKey key : keys) {
+            Object itemValue = itemValues.get(key);
+            if (itemValue != null) {
+                results.add(itemValue);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * A table holding one concrete kind of BaseDataItemValue.
+     */
+    static class ValueTable {
+
+        private final String table;
+        private final Class entityClass;
+
+        ValueTable(String table, Class entityClass) {
+            this.table = table;
+            this.entityClass = entityClass;
+        }
+    }
+
+    /**
+     * Identifies a value by entity class and ID, ordered by start time.
+     */
+    static class ValueKey implements Comparable<ValueKey> {
+
+        private final Class entityClass;
+        private final long id;
+        private final long startTime;
+
+        ValueKey(Class entityClass, long id, long startTime) {
+            this.entityClass = entityClass;
+            this.id = id;
+            this.startTime = startTime;
+        }
+
+        Class getEntityClass() {
+            return entityClass;
+        }
+
+        long getId() {
+            return id;
+        }
+
+        @Override
+        public int compareTo(ValueKey other) {
+            if (startTime != other.startTime) {
+                return startTime < other.startTime ? -1 : 1;
+            }
+            int result = entityClass.getName().compareTo(other.entityClass.getName());
+            if (result != 0) {
+                return result;
+            }
+            return id < other.id ? -1 : (id == other.id ? 0 : 1);
+        }
+
+        // Equality is by entity class and ID only.
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ValueKey)) {
+                return false;
+            }
+            ValueKey other = (ValueKey) o;
+            return entityClass.equals(other.entityClass) && (id == other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * entityClass.hashCode() + (int) (id ^ (id >>> 32));
+        }
     }
 }
@@ -8,8 +8,8 @@ import com.amee.domain.APIVersion;
 import com.amee.domain.DataItemService;
 import com.amee.domain.DataItemValuesFilter;
 import com.amee.domain.IDataCategoryReference;
+import com.amee.domain.ObjectType;
 import com.amee.domain.ValueType;
-import com.amee.domain.data.BaseItemValueStartDateComparator;
 import com.amee.domain.data.DataCategory;
 import com.amee.domain.data.ItemDefinition;
 import com.amee.domain.data.ItemValueDefinition;
@@ -23,17 +23,15 @@ import com.amee.domain.item.data.DataItemNumberValue;
 import com.amee.domain.item.data.DataItemTextValue;
 import com.amee.domain.sheet.Choice;
 import com.amee.domain.sheet.Choices;
-import com.amee.platform.science.ExternalHistoryValue;
 import com.amee.platform.science.ExternalNumberValue;
 import com.amee.platform.science.StartEndDate;
 import com.amee.service.data.DrillDownService;
+import com.amee.service.invalidation.InvalidationMessage;
 import com.amee.service.invalidation.InvalidationService;
 
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,12 +43,13 @@ import org.apache.commons.lang3.StringUtils;
 import org.perf4j.slf4j.Slf4JStopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Service;
 
 @Service
-public class DataItemServiceImpl extends AbstractItemService implements DataItemService {
+public class DataItemServiceImpl extends AbstractItemService
+        implements IndexedDataItemService, ApplicationListener<InvalidationMessage> {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -66,6 +65,37 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     @Autowired
     private DataItemServiceDAO dao;
 
+    @Autowired
+    private DataItemValuesCache dataItemValuesCache;
+
+    // DataItems that have passed checkDataItem, so reads can skip the check until they change.
+    private final CheckedDataItems checkedDataItems = new CheckedDataItems(CheckedDataItems.DEFAULT_MAX_SIZE);
+
+    /**
+     * Forget the checked DataItems of invalidated DataItems and DataCategories, so that changes made by other
+     * instances are checked again.
+     *
+     * @param invalidationMessage the InvalidationMessage
+     */
+    @Override
+    public void onApplicationEvent(InvalidationMessage invalidationMessage) {
+        if (invalidationMessage.isLocal() || invalidationMessage.isFromOtherInstance()) {
+            ObjectType objectType = invalidationMessage.getObjectType();
+            if (objectType.equals(ObjectType.DI)) {
+                checkedDataItems.remove(invalidationMessage.getEntityUid());
+            } else if (objectType.equals(ObjectType.DC)) {
+                List<String> dataItemUids = invalidationMessage.getOptionValues("dataItem");
+                if (!dataItemUids.isEmpty()) {
+                    for (String dataItemUid : dataItemUids) {
+                        checkedDataItems.remove(dataItemUid);
+                    }
+                } else {
+                    checkedDataItems.removeDataCategory(invalidationMessage.getEntityUid());
+                }
+            }
+        }
+    }
+
     @Override
     public long getDataItemCount(IDataCategoryReference dataCategory) {
         return dao.getDataItemCount(dataCategory);
@@ -107,16 +137,23 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
 
     private List<DataItem> activeDataItems(List<DataItem> dataItems, boolean checkDataItems, boolean loadValues) {
         List<DataItem> activeDataItems = new ArrayList<DataItem>();
+        List<DataItem> uncheckedDataItems = new ArrayList<DataItem>();
         for (DataItem dataItem : dataItems) {
             if (!dataItem.isTrash()) {
-                if (checkDataItems) {
-                    checkDataItem(dataItem);
+                if (checkDataItems && !checkedDataItems.isChecked(dataItem)) {
+                    uncheckedDataItems.add(dataItem);
                 }
                 activeDataItems.add(dataItem);
             }
         }
         if (loadValues) {
             loadItemValuesForItems((List) activeDataItems);
+        } else if (!uncheckedDataItems.isEmpty()) {
+            loadItemValuesForItems((List) uncheckedDataItems);
+        }
+        // Check in bulk, with the values of the unchecked DataItems already loaded.
+        for (DataItem dataItem : uncheckedDataItems) {
+            checkDataItem(dataItem);
         }
         localeService.loadLocaleNamesForDataItems(activeDataItems);
         return activeDataItems;
@@ -165,7 +202,7 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     public DataItem getItemByUid(String uid) {
         DataItem dataItem = dao.getItemByUid(uid);
         if ((dataItem != null) && (!dataItem.isTrash())) {
-            checkDataItem(dataItem);
+            checkDataItemIfModified(dataItem);
             return dataItem;
         } else {
             return null;
@@ -176,7 +213,7 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     public DataItem getDataItemByPath(DataCategory parent, String path) {
         DataItem dataItem = dao.getDataItemByPath(parent, path);
         if ((dataItem != null) && !dataItem.isTrash()) {
-            checkDataItem(dataItem);
+            checkDataItemIfModified(dataItem);
             return dataItem;
         } else {
             return null;
@@ -185,24 +222,7 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
 
     @Override
     public String getLabel(DataItem dataItem) {
-        String label = "";
-        BaseItemValue itemValue;
-        ItemDefinition itemDefinition = dataItem.getItemDefinition();
-        for (Choice choice : itemDefinition.getDrillDownChoices()) {
-            itemValue = getItemValue(dataItem, choice.getName());
-            if ((itemValue != null) &&
-                    (itemValue.getValueAsString().length() > 0) &&
-                    !itemValue.getValueAsString().equals("-")) {
-                if (label.length() > 0) {
-                    label = label.concat(", ");
-                }
-                label = label.concat(itemValue.getValueAsString());
-            }
-        }
-        if (label.length() == 0) {
-            label = dataItem.getDisplayPath();
-        }
-        return label;
+        return new DataItemLabels(dataItem.getItemDefinition()).getLabel(this, dataItem);
     }
 
     /**
@@ -289,7 +309,26 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
 
             // clear caches
             clearItemValues();
+            dataItemValuesCache.onWrite(dataItem);
             invalidationService.add(dataItem.getDataCategory());
+
+            // The new values may yet be rolled back, so check again next time.
+            checkedDataItems.remove(dataItem.getUid());
+        } else {
+            checkedDataItems.setChecked(dataItem);
+        }
+    }
+
+    /**
+     * Calls {@link #checkDataItem(DataItem)} unless the DataItem has already been checked and neither it nor its
+     * {@link ItemDefinition} has been modified since. This keeps the cost of loading all values of a DataItem off the
+     * read path.
+     *
+     * @param dataItem - the DataItem to check
+     */
+    private void checkDataItemIfModified(DataItem dataItem) {
+        if (!checkedDataItems.isChecked(dataItem)) {
+            checkDataItem(dataItem);
         }
     }
 
@@ -384,7 +423,7 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     public boolean isDataItemValueUniqueByStartDate(BaseDataItemValue itemValue) {
         if (HistoryValue.class.isAssignableFrom(itemValue.getClass())) {
             HistoryValue historyValue = (HistoryValue) itemValue;
-            for (BaseItemValue existingItemValue : getActiveItemValues(itemValue.getDataItem())) {
+            for (BaseItemValue existingItemValue : getItemValueIndex(itemValue.getDataItem()).getActiveItemValues()) {
                 if (existingItemValue.getItemValueDefinition().equals(itemValue.getItemValueDefinition()) &&
                     HistoryValue.class.isAssignableFrom(existingItemValue.getClass())) {
                     HistoryValue existingHistoryValue = (HistoryValue) existingItemValue;
@@ -402,6 +441,8 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     @Override
     public void remove(DataItem dataItem) {
         dataItem.setStatus(AMEEStatus.TRASH);
+        dataItemValuesCache.onWrite(dataItem);
+        invalidate(dataItem);
     }
 
     @Override
@@ -412,18 +453,36 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     @Override
     public void persist(DataItem dataItem, boolean checkDataItem) {
         dao.persist(dataItem);
+        invalidate(dataItem);
         if (checkDataItem) {
             checkDataItem(dataItem);
         }
     }
 
+    /**
+     * Invalidate the DataCategory of a changed DataItem, naming the DataItem in a 'dataItem:UID' option. Listeners
+     * may then update only what depends on the DataItem, see {@link com.amee.service.data.DataSheetServiceImpl}.
+     *
+     * @param dataItem the changed DataItem
+     */
+    private void invalidate(DataItem dataItem) {
+        invalidationService.addOptionValue(dataItem.getDataCategory(), "dataItem", dataItem.getUid());
+    }
+
+    private void invalidate(BaseItem item) {
+        if (item instanceof DataItem) {
+            invalidate((DataItem) item);
+        }
+    }
+
     // ItemValues.
 
     /**
      * Gets a {@link ResultsWrapper} of {@link BaseDataItemValue}s matching the supplied {@link DataItemValuesFilter}.
      * <p/>
-     * TODO: This method is not designed for large amounts of DIVHs.
-     * TODO: See https://jira.amee.com/browse/PL-2685.
+     * The non-historical value comes first and counts towards the result start, even when the filter start date
+     * excludes it. Historical values follow, ordered by start date. Only the requested page of historical values is
+     * loaded, see {@link DataItemServiceDAO#getDataItemValueHistories}.
      *
      * @param filter a {@link DataItemValuesFilter} to match {@link BaseDataItemValue}s against
      * @return a a {@link ResultsWrapper} of {@link BaseDataItemValue}s
@@ -431,69 +490,29 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
     @Override
     public ResultsWrapper<BaseDataItemValue> getAllItemValues(DataItemValuesFilter filter) {
 
-        boolean handledFirst = false;
-        boolean truncated = false;
         int count = 0;
-
-        // Get *all* item value for the current DataItem and ItemValueDefinition.
-        List<BaseItemValue> itemValues =
-                new ArrayList<BaseItemValue>(
-                        getAllItemValues(filter.getDataItem(), filter.getItemValueDefinition().getPath()));
-
-        // Sort so earliest item value comes first, based on the startDate.
-        Collections.sort(itemValues, new BaseItemValueStartDateComparator());
-
-        // Create and populate a ResultsWrapper.
         List<BaseDataItemValue> results = new ArrayList<BaseDataItemValue>();
-        for (BaseItemValue biv : itemValues) {
-            BaseDataItemValue bdiv = (BaseDataItemValue) biv;
-            if (BaseItemValueStartDateComparator.isHistoricValue(bdiv)) {
-                ExternalHistoryValue ehv = (ExternalHistoryValue) bdiv;
-                // At or beyond the start date?
-                if (ehv.getStartDate().compareTo(filter.getStartDate()) >= 0) {
-                    // Before the end date?
-                    if (ehv.getStartDate().before(filter.getEndDate())) {
-                        // On or after the resultStart?
-                        if (count >= filter.getResultStart()) {
-                            // Before the resultLimit?
-                            if (results.size() < filter.getResultLimit()) {
-                                // Safe to add this item value.
-                                results.add(bdiv);
-                            } else {
-                                // Gone beyond the resultLimit.
-                                // The results are truncated and we can ignore the other item values.
-                                truncated = true;
-                                break;
-                            }
-                        }
-                        // Increment count of eligible item values.
-                        count++;
-                    } else {
-                        // Gone beyond the end date and we can ignore the other item values.
-                        break;
-                    }
-                } else {
-                    // Before the start date.
-                }
-            } else {
-                // We should only execute this section once.
-                if (handledFirst) {
-                    // Should never get here. Implies that the list contains a non-historical item value
-                    // is in the wrong place in the list.
-                    throw new IllegalStateException("Unexpected non-historical item value: " + biv);
-                }
-                // On or after the resultStart? Filter at the min date?
-                if ((count >= filter.getResultStart()) && filter.getStartDate().equals(DataItemService.EPOCH)) {
-                    // This *must* be the first item value.
-                    results.add(bdiv);
-                }
-                // Increment count of eligible item values.
-                count++;
-                // We only work in this section once.
-                handledFirst = true;
+
+        // The non-historical item value, which is first in the series.
+        BaseDataItemValue first = dao.getDataItemValue(filter.getDataItem(), filter.getItemValueDefinition());
+        if (first != null) {
+            // On or after the resultStart? Filter at the min date?
+            if ((count >= filter.getResultStart()) && filter.getStartDate().equals(DataItemService.EPOCH)) {
+                results.add(first);
             }
+            // Increment count of eligible item values.
+            count++;
         }
 
+        // Get the page of historical item values, plus one to tell if the results are truncated.
+        int firstResult = Math.max(0, filter.getResultStart() - count);
+        int maxResults = Math.max(0, filter.getResultLimit() - results.size());
+        List<BaseDataItemValue> histories = dao.getDataItemValueHistories(
+                filter.getDataItem(), filter.getItemValueDefinition(),
+                filter.getStartDate(), filter.getEndDate(), firstResult, maxResults + 1);
+        boolean truncated = histories.size() > maxResults;
+        results.addAll(histories.subList(0, Math.min(maxResults, histories.size())));
+
         // Create the ResultsWrapper and return.
         return new ResultsWrapper<BaseDataItemValue>(results, truncated);
     }
@@ -530,14 +549,16 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
         Object values = dataItem.getValues();
         Object units = dataItem.getUnits();
         Object perUnits = dataItem.getPerUnits();
+        PropertyReaders valueReaders = PropertyReaders.forBean(values);
+        PropertyReaders unitReaders = PropertyReaders.forBean(units);
+        PropertyReaders perUnitReaders = PropertyReaders.forBean(perUnits);
         ItemValueMap itemValues = getItemValuesMap(dataItem);
         for (String key : itemValues.keySet()) {
             BaseItemValue value = itemValues.get(key);
 
             // Values
-            PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(values.getClass(), key);
-            if (pd != null) {
-                Method readMethod = pd.getReadMethod();
+            if (valueReaders.hasProperty(key)) {
+                Method readMethod = valueReaders.getReadMethod(key);
                 if (readMethod != null) {
                     try {
                         Object v = readMethod.invoke(values);
@@ -561,9 +582,8 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
             if (ExternalNumberValue.class.isAssignableFrom(value.getClass())) {
 
                 // Unit
-                pd = BeanUtils.getPropertyDescriptor(units.getClass(), key);
-                if (pd != null) {
-                    Method readMethod = pd.getReadMethod();
+                if (unitReaders.hasProperty(key)) {
+                    Method readMethod = unitReaders.getReadMethod(key);
                     if (readMethod != null) {
                         try {
                             Object v = readMethod.invoke(units);
@@ -584,9 +604,8 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
                 }
 
                 // Per Unit
-                pd = BeanUtils.getPropertyDescriptor(perUnits.getClass(), key);
-                if (pd != null) {
-                    Method readMethod = pd.getReadMethod();
+                if (perUnitReaders.hasProperty(key)) {
+                    Method readMethod = perUnitReaders.getReadMethod(key);
                     if (readMethod != null) {
                         try {
                             Object v = readMethod.invoke(perUnits);
@@ -608,20 +627,35 @@ public class DataItemServiceImpl extends AbstractItemService implements DataItem
             }
         }
 
-        // Mark the DataItem as modified.
+        // Mark the DataItem as modified. The values were changed in place so the index is discarded.
         if (modified) {
             dataItem.onModify();
+            clearItemValueIndex(dataItem);
+            dataItemValuesCache.onWrite(dataItem);
+            invalidate(dataItem);
         }
     }
 
+    @Override
+    public void addItemValue(BaseItemValue itemValue) {
+        dataItemValuesCache.onWrite(itemValue.getItem());
+        super.addItemValue(itemValue);
+    }
+
     @Override
     public void persist(BaseItemValue itemValue) {
         dao.persist(itemValue);
+        dataItemValuesCache.onWrite(itemValue.getItem());
+        invalidate(itemValue.getItem());
     }
 
     @Override
     public void remove(BaseItemValue itemValue) {
         itemValue.setStatus(AMEEStatus.TRASH);
+        clearItemValueIndex(itemValue.getItem());
+        dataItemValuesCache.onWrite(itemValue.getItem());
+        checkedDataItems.remove(itemValue.getItem().getUid());
+        invalidate(itemValue.getItem());
     }
 
     @Override
@@ -0,0 +1,238 @@
+package com.amee.service.item;
+
+import com.amee.base.transaction.TransactionEvent;
+import com.amee.domain.ObjectType;
+import com.amee.domain.item.BaseItem;
+import com.amee.domain.item.data.DataItem;
+import com.amee.service.invalidation.InvalidationMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in, bounded cache of {@link DataItemValuesSnapshot}s shared between transactions, so that popular DataItems
+ * read by algorithms through the DataFinder are not reloaded for every calculation.
+ * <p/>
+ * Snapshots are keyed by DataItem UID and evicted when the DataItem or its DataCategory are invalidated, when a
+ * DataItem value is written locally and when the DataItem modified timestamp no longer matches. A transaction that
+ * writes to a DataItem never caches a snapshot of it, as the writes may yet be rolled back.
+ * <p/>
+ * Each eviction also bumps a generation for the DataItem or DataCategory. A snapshot is only published if the
+ * generations it was loaded under are unchanged, so a load that races with a write or invalidation can not put a
+ * stale snapshot back in the cache.
+ * <p/>
+ * The cache is disabled unless the 'amee.dataItemValuesCache' system property is true.
+ */
+@Service
+public class DataItemValuesCache implements ApplicationListener {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    @Autowired
+    private IndexedDataItemService dataItemService;
+
+    private boolean enabled = false;
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Least recently used map of DataItem UID to snapshot.
+    private final Map<String, DataItemValuesSnapshot> snapshots =
+            new LinkedHashMap<String, DataItemValuesSnapshot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, DataItemValuesSnapshot> eldest) {
+                    return size() > maxSize;
+                }
+            };
+
+    // Source of generations. Each bump takes the next value so generations only ever increase.
+    private final AtomicLong generation = new AtomicLong();
+
+    // The generation of a UID that is not in generations. Raised to the generation of each entry dropped from
+    // generations so that the generation of a UID can never go back to an earlier value.
+    private long generationFloor = 0;
+
+    // Least recently used map of DataItem or DataCategory UID to the generation of its last eviction.
+    private final Map<String, Long> generations =
+            new LinkedHashMap<String, Long>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    if (size() > maxSize) {
+                        generationFloor = Math.max(generationFloor, eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // A thread bound Set of the UIDs of DataItems written in the current transaction.
+    private final ThreadLocal<Set<String>> WRITTEN = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new HashSet<String>();
+        }
+    };
+
+    // Events
+
+    @Override
+    public void onApplicationEvent(ApplicationEvent e) {
+        if (e instanceof TransactionEvent) {
+            TransactionEvent te = (TransactionEvent) e;
+            switch (te.getType()) {
+                case BEFORE_BEGIN:
+                case END:
+                    // Reset thread bound data.
+                    WRITTEN.get().clear();
+                    break;
+                default:
+                    // Do nothing!
+            }
+        } else if (enabled && (e instanceof InvalidationMessage)) {
+            InvalidationMessage invalidationMessage = (InvalidationMessage) e;
+            if (invalidationMessage.isLocal() || invalidationMessage.isFromOtherInstance()) {
+                ObjectType objectType = invalidationMessage.getObjectType();
+                if (objectType.equals(ObjectType.DC) && invalidationMessage.hasOnlyOptionValues("dataItem")) {
+                    log.trace("onApplicationEvent() Handling InvalidationMessage.");
+                    for (String dataItemUid : invalidationMessage.getOptionValues("dataItem")) {
+                        remove(ObjectType.DI, dataItemUid);
+                    }
+                } else if (objectType.equals(ObjectType.DI) || objectType.equals(ObjectType.DC)) {
+                    log.trace("onApplicationEvent() Handling InvalidationMessage.");
+                    remove(objectType, invalidationMessage.getEntityUid());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the values of a DataItem, creating and caching it if not present.
+     *
+     * @param dataItem the DataItem
+     * @return the DataItemValuesSnapshot, or null if the cache is disabled
+     */
+    public DataItemValuesSnapshot get(DataItem dataItem) {
+        if (!enabled) {
+            return null;
+        }
+        DataItemValuesSnapshot snapshot;
+        long loadGeneration;
+        synchronized (snapshots) {
+            snapshot = snapshots.get(dataItem.getUid());
+            loadGeneration = getGeneration(dataItem);
+        }
+        if ((snapshot != null) && snapshot.isCurrent(dataItem)) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+        misses.incrementAndGet();
+        snapshot = DataItemValuesSnapshot.create(dataItem, dataItemService.getItemValueIndex(dataItem));
+        if (!WRITTEN.get().contains(dataItem.getUid())) {
+            synchronized (snapshots) {
+                // Only publish if nothing was evicted for the DataItem while loading.
+                if (getGeneration(dataItem) == loadGeneration) {
+                    snapshots.put(dataItem.getUid(), snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    // Must be called while holding the snapshots lock.
+    private long getGeneration(DataItem dataItem) {
+        return Math.max(
+                getGeneration(dataItem.getUid()),
+                getGeneration(dataItem.getDataCategory().getUid()));
+    }
+
+    // Must be called while holding the snapshots lock.
+    private long getGeneration(String uid) {
+        Long uidGeneration = generations.get(uid);
+        return Math.max(generationFloor, uidGeneration != null ? uidGeneration : 0);
+    }
+
+    /**
+     * Evict the snapshot of a DataItem that is being written in the current transaction. No snapshot of the
+     * DataItem will be cached for the rest of the transaction.
+     *
+     * @param item the DataItem
+     */
+    public void onWrite(BaseItem item) {
+        if (enabled) {
+            WRITTEN.get().add(item.getUid());
+            remove(ObjectType.DI, item.getUid());
+        }
+    }
+
+    /**
+     * Remove the snapshots related to the identified entity. Snapshots of the entity being loaded concurrently will
+     * not be cached.
+     *
+     * @param objectType the entity type, DI or DC
+     * @param uid        the entity UID
+     */
+    public void remove(ObjectType objectType, String uid) {
+        int removed = 0;
+        synchronized (snapshots) {
+            generations.put(uid, generation.incrementAndGet());
+            if (objectType.equals(ObjectType.DI)) {
+                removed = snapshots.remove(uid) != null ? 1 : 0;
+            } else if (objectType.equals(ObjectType.DC)) {
+                Iterator<DataItemValuesSnapshot> iterator = snapshots.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().getDataCategoryUid().equals(uid)) {
+                        iterator.remove();
+                        removed++;
+                    }
+                }
+            }
+        }
+        log.debug("remove() - removed {} snapshots for {} {}", new Object[]{removed, objectType, uid});
+    }
+
+    public void clear() {
+        synchronized (snapshots) {
+            generationFloor = generation.incrementAndGet();
+            generations.clear();
+            snapshots.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (snapshots) {
+            return snapshots.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Value("#{ systemProperties['amee.dataItemValuesCache'] }")
+    public void setEnabled(Boolean enabled) {
+        this.enabled = (enabled != null) && enabled;
+    }
+
+    @Value("#{ systemProperties['amee.dataItemValuesCacheSize'] }")
+    public void setMaxSize(Integer maxSize) {
+        this.maxSize = (maxSize != null) && (maxSize > 0) ? maxSize : DEFAULT_MAX_SIZE;
+    }
+}
@@ -0,0 +1,167 @@
+package com.amee.service.item;
+
+import com.amee.domain.item.data.DataItem;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable copy of the values of a DataItem, held by the {@link DataItemValuesCache} and shared between
+ * transactions. No Hibernate entities are referenced, only the value strings, numbers and start times of each item
+ * value path in time order.
+ */
+public class DataItemValuesSnapshot {
+
+    private final String dataItemUid;
+    private final String dataCategoryUid;
+    private final long modified;
+    private final Map<String, Series> series;
+
+    private DataItemValuesSnapshot(String dataItemUid, String dataCategoryUid, long modified, Map<String, Series> series) {
+        this.dataItemUid = dataItemUid;
+        this.dataCategoryUid = dataCategoryUid;
+        this.modified = modified;
+        this.series = Collections.unmodifiableMap(series);
+    }
+
+    /**
+     * Create a snapshot of the active values of a DataItem.
+     *
+     * @param dataItem the DataItem
+     * @param index    the ItemValueIndex of the DataItem
+     * @return a new DataItemValuesSnapshot
+     */
+    public static DataItemValuesSnapshot create(DataItem dataItem, ItemValueIndex index) {
+        Map<String, Series> series = new HashMap<String, Series>();
+        for (Object path : index.getItemValuesMap().keySet()) {
+            series.put((String) path, new Series(index.getSeries((String) path)));
+        }
+        return new DataItemValuesSnapshot(
+                dataItem.getUid(),
+                dataItem.getDataCategory().getUid(),
+                getTime(dataItem.getModified()),
+                series);
+    }
+
+    public String getDataItemUid() {
+        return dataItemUid;
+    }
+
+    public String getDataCategoryUid() {
+        return dataCategoryUid;
+    }
+
+    /**
+     * Is this snapshot of the supplied state of the DataItem? DataItems are marked as modified when their values are
+     * updated.
+     *
+     * @param dataItem the DataItem
+     * @return true if the DataItem has not been modified since the snapshot was taken
+     */
+    public boolean isCurrent(DataItem dataItem) {
+        return modified == getTime(dataItem.getModified());
+    }
+
+    /**
+     * @param path item value path
+     * @return the Series for the path, which will be empty if there are no values
+     */
+    public Series getSeries(String path) {
+        Series pathSeries = series.get(path);
+        return pathSeries != null ? pathSeries : Series.EMPTY;
+    }
+
+    private static long getTime(Date date) {
+        return date != null ? date.getTime() : -1;
+    }
+
+    /**
+     * The values for a single item value path, ordered by start date.
+     */
+    public static class Series {
+
+        private static final Series EMPTY = new Series(new long[0], new boolean[0], new double[0], new String[0]);
+
+        private final long[] startTimes;
+        private final boolean[] history;
+        private final double[] values;
+        private final String[] valuesAsString;
+
+        private Series(long[] startTimes, boolean[] history, double[] values, String[] valuesAsString) {
+            this.startTimes = startTimes;
+            this.history = history;
+            this.values = values;
+            this.valuesAsString = valuesAsString;
+        }
+
+        private Series(ItemValueSeries itemValues) {
+            this(new long[itemValues.size()], new boolean[itemValues.size()], new double[itemValues.size()],
+                    new String[itemValues.size()]);
+            for (int i = 0; i < itemValues.size(); i++) {
+                startTimes[i] = itemValues.getStartTime(i);
+                history[i] = itemValues.isHistory(i);
+                values[i] = itemValues.getValue(i);
+                valuesAsString[i] = itemValues.getItemValue(i).getValueAsString();
+            }
+        }
+
+        /**
+         * Get the value in force at the supplied date, or the first value if none start on or before it.
+         *
+         * @param date the date, may be null for the first value
+         * @return the value, or null if there are no values
+         */
+        public String getValueAsStringAt(Date date) {
+            if (startTimes.length == 0) {
+                return null;
+            }
+            if (date == null) {
+                return valuesAsString[0];
+            }
+            int index = Arrays.binarySearch(startTimes, date.getTime());
+            if (index >= 0) {
+                // Move to the last value with this start time.
+                while ((index + 1 < startTimes.length) && (startTimes[index + 1] == startTimes[index])) {
+                    index++;
+                }
+            } else {
+                // Insertion point less one is the last value starting before the date.
+                index = Math.max(0, -index - 2);
+            }
+            return valuesAsString[index];
+        }
+
+        public int size() {
+            return startTimes.length;
+        }
+
+        public boolean isEmpty() {
+            return startTimes.length == 0;
+        }
+
+        public long getStartTime(int index) {
+            return startTimes[index];
+        }
+
+        /**
+         * Is the value at the index a historical value, that is one with its own start date?
+         */
+        public boolean isHistory(int index) {
+            return history[index];
+        }
+
+        /**
+         * @return the numeric value at the index, or NaN if the value is not numeric
+         */
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        public String getValueAsString(int index) {
+            return valuesAsString[index];
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.amee.service.item;
+
+import com.amee.domain.DataItemService;
+
+/**
+ * A {@link DataItemService} which is also an {@link IndexedItemService}.
+ */
+public interface IndexedDataItemService extends DataItemService, IndexedItemService {
+}
@@ -0,0 +1,36 @@
+package com.amee.service.item;
+
+import com.amee.domain.IAMEEEntityReference;
+import com.amee.domain.ItemService;
+import com.amee.domain.item.BaseItem;
+
+/**
+ * An {@link ItemService} which keeps a per-transaction {@link ItemValueIndex} of the values of each Item.
+ */
+public interface IndexedItemService extends ItemService {
+
+    /**
+     * Get the {@link ItemValueIndex} of the active {@link com.amee.domain.item.BaseItemValue}s owned by this Item.
+     *
+     * @param item the BaseItem
+     * @return the ItemValueIndex
+     */
+    ItemValueIndex getItemValueIndex(BaseItem item);
+
+    /**
+     * Get the {@link ItemValueSeries} of the active {@link com.amee.domain.item.BaseItemValue}s owned by this Item
+     * for a particular {@link com.amee.domain.data.ItemValueDefinition} path.
+     *
+     * @param item          the BaseItem
+     * @param itemValuePath the {@link com.amee.domain.data.ItemValueDefinition} path
+     * @return the ItemValueSeries, which will be empty if there are no matching values
+     */
+    ItemValueSeries getItemValueSeries(BaseItem item, String itemValuePath);
+
+    /**
+     * Discard the {@link ItemValueIndex} of a single Item, after one of its values has been changed in place.
+     *
+     * @param item the Item
+     */
+    void clearItemValueIndex(IAMEEEntityReference item);
+}
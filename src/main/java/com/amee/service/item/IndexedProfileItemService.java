@@ -0,0 +1,9 @@
+package com.amee.service.item;
+
+import com.amee.domain.ProfileItemService;
+
+/**
+ * A {@link ProfileItemService} which is also an {@link IndexedItemService}.
+ */
+public interface IndexedProfileItemService extends ProfileItemService, IndexedItemService {
+}
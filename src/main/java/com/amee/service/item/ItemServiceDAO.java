@@ -12,7 +12,7 @@ public interface ItemServiceDAO {
 
     public Set<BaseItemValue> getAllItemValues(BaseItem item);
 
-    public Set<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items);
+    public Collection<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items);
 
     public void persist(BaseItemValue itemValue);
 }
@@ -1,11 +1,9 @@
 package com.amee.service.item;
 
 import com.amee.domain.AMEEStatus;
-import com.amee.domain.IAMEEEntityReference;
 import com.amee.domain.item.BaseItem;
 import com.amee.domain.item.BaseItemValue;
 import com.amee.domain.item.data.BaseDataItemValue;
-import com.amee.domain.item.data.DataItemTextValue;
 import com.amee.domain.item.profile.BaseProfileItemValue;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -16,10 +14,11 @@ import org.hibernate.criterion.Restrictions;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public abstract class ItemServiceDAOImpl implements ItemServiceDAO {
 
@@ -27,6 +26,11 @@ public abstract class ItemServiceDAOImpl implements ItemServiceDAO {
 
     protected static final String CACHE_REGION = "query.itemService";
 
+    /**
+     * The most item IDs in the IN list of a single item value query.
+     */
+    static final int IN_LIST_SIZE = 1000;
+
     @PersistenceContext
     protected EntityManager entityManager;
 
@@ -70,20 +74,16 @@ public abstract class ItemServiceDAOImpl implements ItemServiceDAO {
     }
 
     /**
-     * TODO: Would caching here be useful?
+     * Returns the active item values of the supplied class for a batch of items.
+     * <p/>
+     * Only items of the class of this DAO, see {@link #getEntityClass()}, are considered. Their IDs are sorted and
+     * queried in chunks of {@link #IN_LIST_SIZE}, so that large batches do not produce a single unbounded IN list.
      *
-     * @param items
-     * @param kls
-     * @return
+     * @param items the items to load values for
+     * @param kls   a subclass of BaseDataItemValue or BaseProfileItemValue
+     * @return the item values, in no particular order
      */
-    @SuppressWarnings(value = "unchecked")
-    public List<DataItemTextValue> getItemValuesForItems(Collection<BaseItem> items, Class kls) {
-        Set<Long> entityIds = new HashSet<Long>();
-        entityIds.add(0L);
-        for (IAMEEEntityReference entity : items) {
-            // TODO: Could optimise here by excluding entities that don't match the supplied class.
-            entityIds.add(entity.getEntityId());
-        }
+    public List<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items, Class kls) {
         String propertyName;
         if (BaseDataItemValue.class.isAssignableFrom(kls)) {
             propertyName = "dataItem.id";
@@ -92,6 +92,38 @@ public abstract class ItemServiceDAOImpl implements ItemServiceDAO {
         } else {
             throw new IllegalStateException("Instancs of BaseDataItemValue or BaseProfileItemValue were expected.");
         }
+        // Values of other item classes can not match, so exclude those items.
+        SortedSet<Long> entityIds = new TreeSet<Long>();
+        for (BaseItem item : items) {
+            if (getEntityClass().isInstance(item)) {
+                entityIds.add(item.getEntityId());
+            }
+        }
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        List<Long> chunk = new ArrayList<Long>(Math.min(entityIds.size(), IN_LIST_SIZE));
+        for (Long entityId : entityIds) {
+            chunk.add(entityId);
+            if (chunk.size() == IN_LIST_SIZE) {
+                itemValues.addAll(getItemValuesForIds(kls, propertyName, chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            itemValues.addAll(getItemValuesForIds(kls, propertyName, chunk));
+        }
+        return itemValues;
+    }
+
+    /**
+     * Returns the active item values of the supplied class for a chunk of item IDs, with a single query.
+     *
+     * @param kls          the item value class
+     * @param propertyName the property of the item ID
+     * @param entityIds    the item IDs, at most {@link #IN_LIST_SIZE}
+     * @return the item values
+     */
+    @SuppressWarnings(value = "unchecked")
+    List<BaseItemValue> getItemValuesForIds(Class kls, String propertyName, Collection<Long> entityIds) {
         Session session = (Session) entityManager.getDelegate();
         Criteria criteria = session.createCriteria(kls);
         criteria.add(Restrictions.in(propertyName, entityIds));
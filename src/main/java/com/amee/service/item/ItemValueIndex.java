@@ -0,0 +1,93 @@
+package com.amee.service.item;
+
+import com.amee.domain.data.ItemValueMap;
+import com.amee.domain.item.BaseItemValue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index over the active {@link BaseItemValue}s of a single item. It holds the active values, an
+ * {@link ItemValueMap} keyed by display path, a map keyed by UID and a time ordered {@link ItemValueSeries} for each
+ * path.
+ * <p/>
+ * Instances are built once per item per transaction and shared until the item's values change, see
+ * {@link AbstractItemService#getItemValueIndex(com.amee.domain.item.BaseItem)}. The index and the collections it
+ * returns must not be modified.
+ */
+public class ItemValueIndex {
+
+    private final Set<BaseItemValue> activeItemValues;
+    private final ItemValueMap itemValuesMap;
+    private final Map<String, BaseItemValue> itemValuesByUid;
+
+    // Time ordered series keyed by path, created on demand.
+    private final Map<String, ItemValueSeries> series = new HashMap<String, ItemValueSeries>();
+
+    private ItemValueIndex(Set<BaseItemValue> activeItemValues) {
+        this.activeItemValues = Collections.unmodifiableSet(activeItemValues);
+        itemValuesMap = new ItemValueMap();
+        itemValuesByUid = new HashMap<String, BaseItemValue>(activeItemValues.size() * 2);
+        for (BaseItemValue itemValue : activeItemValues) {
+            itemValuesMap.put(itemValue.getDisplayPath(), itemValue);
+            itemValuesByUid.put(itemValue.getUid(), itemValue);
+        }
+    }
+
+    /**
+     * Create an ItemValueIndex over the BaseItemValues of an item which are not trashed.
+     *
+     * @param itemValues all BaseItemValues of the item, may be null if there are none
+     * @return a new ItemValueIndex
+     */
+    public static ItemValueIndex create(Collection<BaseItemValue> itemValues) {
+        Set<BaseItemValue> activeItemValues = new HashSet<BaseItemValue>();
+        if (itemValues != null) {
+            for (BaseItemValue itemValue : itemValues) {
+                if (!itemValue.isTrash()) {
+                    activeItemValues.add(itemValue);
+                }
+            }
+        }
+        return new ItemValueIndex(activeItemValues);
+    }
+
+    /**
+     * @return an unmodifiable Set of the active BaseItemValues
+     */
+    public Set<BaseItemValue> getActiveItemValues() {
+        return activeItemValues;
+    }
+
+    /**
+     * @return the shared ItemValueMap of active BaseItemValues keyed by display path
+     */
+    public ItemValueMap getItemValuesMap() {
+        return itemValuesMap;
+    }
+
+    /**
+     * @param uid BaseItemValue UID
+     * @return the active BaseItemValue with the UID, or null if there is none
+     */
+    public BaseItemValue getByUid(String uid) {
+        return itemValuesByUid.get(uid);
+    }
+
+    /**
+     * @param path item value path
+     * @return the time ordered ItemValueSeries for the path, which will be empty if there are no matching values
+     */
+    public ItemValueSeries getSeries(String path) {
+        ItemValueSeries pathSeries = series.get(path);
+        if (pathSeries == null) {
+            pathSeries = ItemValueSeries.create(itemValuesMap.getAll(path));
+            series.put(path, pathSeries);
+        }
+        return pathSeries;
+    }
+}
@@ -0,0 +1,265 @@
+package com.amee.service.item;
+
+import com.amee.domain.DataItemService;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.UsableValuePredicate;
+import com.amee.platform.science.ExternalHistoryValue;
+import org.apache.commons.collections.Predicate;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable, time ordered series of the {@link BaseItemValue}s for a single item value path.
+ * <p/>
+ * Start dates and numeric values are held in parallel primitive arrays so that callers needing plain
+ * numbers do not have to re-parse each value.
+ * <p/>
+ * Instances are built once per item and path per transaction, see
+ * {@link IndexedItemService#getItemValueSeries(com.amee.domain.item.BaseItem, String)}.
+ */
+public class ItemValueSeries {
+
+    private static final Predicate USABLE_VALUE_PREDICATE = new UsableValuePredicate();
+
+    private static final Comparator<BaseItemValue> START_DATE_COMPARATOR = new Comparator<BaseItemValue>() {
+        @Override
+        public int compare(BaseItemValue iv1, BaseItemValue iv2) {
+            long t1 = getStartTime(iv1);
+            long t2 = getStartTime(iv2);
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
+    private final BaseItemValue[] itemValues;
+    private final long[] startTimes;
+    private final boolean[] history;
+    private final double[] values;
+
+    // The usable subset of this series, created on demand.
+    private ItemValueSeries usable;
+
+    private ItemValueSeries(BaseItemValue[] itemValues) {
+        this.itemValues = itemValues;
+        startTimes = new long[itemValues.length];
+        history = new boolean[itemValues.length];
+        values = new double[itemValues.length];
+        for (int i = 0; i < itemValues.length; i++) {
+            BaseItemValue itemValue = itemValues[i];
+            history[i] = ExternalHistoryValue.class.isAssignableFrom(itemValue.getClass());
+            startTimes[i] = getStartTime(itemValue);
+            values[i] = parseValue(itemValue);
+        }
+    }
+
+    /**
+     * Create an ItemValueSeries from the supplied BaseItemValues, which should all share the same path.
+     *
+     * @param itemValues BaseItemValues in any order
+     * @return a new ItemValueSeries ordered by start date
+     */
+    public static ItemValueSeries create(List<BaseItemValue> itemValues) {
+        BaseItemValue[] sorted = itemValues.toArray(new BaseItemValue[itemValues.size()]);
+        // Stable sort, so values sharing a start date keep their original order.
+        Arrays.sort(sorted, START_DATE_COMPARATOR);
+        return new ItemValueSeries(sorted);
+    }
+
+    /**
+     * Get the series of values that are usable in calculations.
+     *
+     * @return an ItemValueSeries containing only usable values, which may be this instance
+     */
+    public synchronized ItemValueSeries getUsable() {
+        if (usable == null) {
+            int count = 0;
+            for (BaseItemValue itemValue : itemValues) {
+                if (USABLE_VALUE_PREDICATE.evaluate(itemValue)) {
+                    count++;
+                }
+            }
+            if (count == itemValues.length) {
+                usable = this;
+            } else {
+                BaseItemValue[] usableValues = new BaseItemValue[count];
+                count = 0;
+                for (BaseItemValue itemValue : itemValues) {
+                    if (USABLE_VALUE_PREDICATE.evaluate(itemValue)) {
+                        usableValues[count++] = itemValue;
+                    }
+                }
+                usable = new ItemValueSeries(usableValues);
+            }
+        }
+        return usable;
+    }
+
+    /**
+     * Get the index of the first value of a window starting at the supplied date. This is the value in force at the
+     * date, or the first value if none starts on or before the date. Values sharing that start time are all included.
+     *
+     * @param startDate the window start, or null for an open window
+     * @return the first index of the window
+     */
+    public int getWindowStart(Date startDate) {
+        if ((startDate == null) || (startTimes.length == 0)) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(startTimes, startDate.getTime());
+        if (index < 0) {
+            // Insertion point less one is the last value starting before the date.
+            index = -index - 2;
+            if (index < 0) {
+                return 0;
+            }
+        }
+        // Move to the first value with this start time.
+        while ((index > 0) && (startTimes[index - 1] == startTimes[index])) {
+            index--;
+        }
+        return index;
+    }
+
+    /**
+     * Get the index after the last value of a window ending at the supplied date. The window includes the first value
+     * starting on or after the date.
+     *
+     * @param endDate the window end, or null for an open window
+     * @return the last index of the window (exclusive)
+     */
+    public int getWindowEnd(Date endDate) {
+        if (endDate == null) {
+            return startTimes.length;
+        }
+        int index = Arrays.binarySearch(startTimes, endDate.getTime());
+        if (index >= 0) {
+            // Move to the first value with this start time.
+            while ((index > 0) && (startTimes[index - 1] == startTimes[index])) {
+                index--;
+            }
+        } else {
+            index = -index - 1;
+        }
+        return Math.min(startTimes.length, index + 1);
+    }
+
+    /**
+     * Get a List view of the BaseItemValues in the supplied index range. The view shares this series until it is
+     * modified, when it copies the range first, so the series itself is never changed.
+     *
+     * @param from first index (inclusive)
+     * @param to   last index (exclusive)
+     * @return a modifiable List view
+     */
+    public List<BaseItemValue> getItemValues(int from, int to) {
+        return new Range(itemValues, from, to);
+    }
+
+    public int size() {
+        return itemValues.length;
+    }
+
+    public boolean isEmpty() {
+        return itemValues.length == 0;
+    }
+
+    public BaseItemValue getItemValue(int index) {
+        return itemValues[index];
+    }
+
+    public long getStartTime(int index) {
+        return startTimes[index];
+    }
+
+    /**
+     * Is the value at the index a historical value, that is one with its own start date?
+     */
+    public boolean isHistory(int index) {
+        return history[index];
+    }
+
+    /**
+     * Get the numeric value at the index.
+     *
+     * @return the value, or NaN if the value is not numeric
+     */
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * A view of an index range of the values, copied on the first modification.
+     */
+    private static class Range extends AbstractList<BaseItemValue> implements RandomAccess {
+
+        private BaseItemValue[] itemValues;
+        private int from;
+        private final int size;
+        private boolean copied = false;
+
+        private Range(BaseItemValue[] itemValues, int from, int to) {
+            if ((from < 0) || (to > itemValues.length) || (from > to)) {
+                throw new IndexOutOfBoundsException("from: " + from + ", to: " + to);
+            }
+            this.itemValues = itemValues;
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        public BaseItemValue get(int index) {
+            checkIndex(index);
+            return itemValues[from + index];
+        }
+
+        @Override
+        public BaseItemValue set(int index, BaseItemValue itemValue) {
+            checkIndex(index);
+            if (!copied) {
+                BaseItemValue[] copy = new BaseItemValue[size];
+                System.arraycopy(itemValues, from, copy, 0, size);
+                itemValues = copy;
+                from = 0;
+                copied = true;
+            }
+            BaseItemValue previous = itemValues[index];
+            itemValues[index] = itemValue;
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private void checkIndex(int index) {
+            if ((index < 0) || (index >= size)) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+        }
+    }
+
+    private static long getStartTime(BaseItemValue itemValue) {
+        if (ExternalHistoryValue.class.isAssignableFrom(itemValue.getClass())) {
+            return ((ExternalHistoryValue) itemValue).getStartDate().getTime();
+        } else {
+            return DataItemService.EPOCH.getTime();
+        }
+    }
+
+    private static double parseValue(BaseItemValue itemValue) {
+        String value = itemValue.getValueAsString();
+        if ((value == null) || value.isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
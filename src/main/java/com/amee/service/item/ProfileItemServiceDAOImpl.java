@@ -101,9 +101,8 @@ public class ProfileItemServiceDAOImpl extends ItemServiceDAOImpl implements Pro
     }
 
     @Override
-    public Set<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items) {
-        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
-        itemValues.addAll(getItemValuesForItems(items, ProfileItemNumberValue.class));
+    public Collection<BaseItemValue> getItemValuesForItems(Collection<BaseItem> items) {
+        List<BaseItemValue> itemValues = getItemValuesForItems(items, ProfileItemNumberValue.class);
         itemValues.addAll(getItemValuesForItems(items, ProfileItemTextValue.class));
         return itemValues;
     }
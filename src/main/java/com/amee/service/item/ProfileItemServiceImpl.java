@@ -8,7 +8,6 @@ import com.amee.domain.AMEEStatus;
 import com.amee.domain.APIVersion;
 import com.amee.domain.DataItemService;
 import com.amee.domain.IDataCategoryReference;
-import com.amee.domain.ProfileItemService;
 import com.amee.domain.ProfileItemsFilter;
 import com.amee.domain.ValueType;
 import com.amee.domain.data.DataCategory;
@@ -27,7 +26,6 @@ import com.amee.platform.science.ReturnValue;
 import com.amee.platform.science.StartEndDate;
 import com.amee.service.profile.OnlyActiveProfileService;
 
-import java.beans.PropertyDescriptor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -40,21 +38,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.measure.Measure;
 import javax.measure.quantity.Duration;
-import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.joda.time.DateTime;
-import org.joda.time.Interval;
-import org.springframework.beans.BeanUtils;
+import org.joda.time.DateTimeUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 @Service
-public class ProfileItemServiceImpl extends AbstractItemService implements ProfileItemService {
+public class ProfileItemServiceImpl extends AbstractItemService implements IndexedProfileItemService {
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -364,6 +358,7 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
     @Override
     public void remove(BaseItemValue itemValue) {
         itemValue.setStatus(AMEEStatus.TRASH);
+        clearItemValueIndex(itemValue.getItem());
     }
 
     @Override
@@ -386,14 +381,16 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
         Object values = profileItem.getValues();
         Object units = profileItem.getUnits();
         Object perUnits = profileItem.getPerUnits();
+        PropertyReaders valueReaders = PropertyReaders.forBean(values);
+        PropertyReaders unitReaders = PropertyReaders.forBean(units);
+        PropertyReaders perUnitReaders = PropertyReaders.forBean(perUnits);
         ItemValueMap itemValues = getItemValuesMap(profileItem);
         for (String key : itemValues.keySet()) {
             BaseItemValue value = itemValues.get(key);
 
             // Values
-            PropertyDescriptor pd = BeanUtils.getPropertyDescriptor(values.getClass(), key);
-            if (pd != null) {
-                Method readMethod = pd.getReadMethod();
+            if (valueReaders.hasProperty(key)) {
+                Method readMethod = valueReaders.getReadMethod(key);
                 if (readMethod != null) {
                     try {
                         Object v = readMethod.invoke(values);
@@ -417,9 +414,8 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
             if (ExternalNumberValue.class.isAssignableFrom(value.getClass())) {
 
                 // Unit
-                pd = BeanUtils.getPropertyDescriptor(units.getClass(), key);
-                if (pd != null) {
-                    Method readMethod = pd.getReadMethod();
+                if (unitReaders.hasProperty(key)) {
+                    Method readMethod = unitReaders.getReadMethod(key);
                     if (readMethod != null) {
                         try {
                             Object v = readMethod.invoke(units);
@@ -440,9 +436,8 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
                 }
 
                 // Per Unit
-                pd = BeanUtils.getPropertyDescriptor(perUnits.getClass(), key);
-                if (pd != null) {
-                    Method readMethod = pd.getReadMethod();
+                if (perUnitReaders.hasProperty(key)) {
+                    Method readMethod = perUnitReaders.getReadMethod(key);
                     if (readMethod != null) {
                         try {
                             Object v = readMethod.invoke(perUnits);
@@ -464,9 +459,11 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
             }
         }
 
-        // Mark the profile item as modified if values were modified.
+        // Mark the profile item as modified if values were modified. The values were changed in place so the
+        // index is discarded.
         if (modified) {
             profileItem.onModify();
+            clearItemValueIndex(profileItem);
         }
     }
     
@@ -477,26 +474,31 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
         List<ProfileItem> requestedItems = new ArrayList<ProfileItem>();
 
         // The requested interval to prorata the values over.
-        Interval requestInterval = getInterval(startDate, endDate);
+        // endDate may be null. See: com.amee.service.BaseBrowser.getQueryEndDate().
+        long requestStart = startDate.getTime();
+        long requestEnd = (endDate != null) ? endDate.getTime() : DateTimeUtils.currentTimeMillis();
+        ProrataEngine engine = new ProrataEngine(requestStart, requestEnd);
+
+        // Find the intersection of each profile item with the requested window.
+        long[] starts = new long[profileItems.size()];
+        long[] ends = new long[profileItems.size()];
+        for (int i = 0; i < profileItems.size(); i++) {
+            ProfileItem pi = profileItems.get(i);
+            starts[i] = pi.getStartDate().getTime();
+            ends[i] = (pi.getEndDate() != null) ? pi.getEndDate().getTime() : ProrataEngine.UNBOUNDED;
+        }
+        long[] intersectDurations = engine.getIntersectDurations(starts, ends);
+        double[] intersectRatios = engine.getIntersectRatios(intersectDurations, engine.getItemDurations(starts, ends));
 
-        for (ProfileItem pi : profileItems) {
+        for (int i = 0; i < profileItems.size(); i++) {
+            ProfileItem pi = profileItems.get(i);
 
             // Update ProfileItem with start and end dates.
             pi.setEffectiveStartDate(startDate);
             pi.setEffectiveEndDate(endDate);
 
             log.debug("prorataProfileItems() - ProfileItem: {} has un-prorated Amounts: {}", pi.getName(), pi.getAmounts());
-
-            // Find the intersection of the profile item with the requested window.
-            Interval intersect = requestInterval;
-            if (intersect.getStart().toDate().before(pi.getStartDate())) {
-                intersect = intersect.withStartMillis(pi.getStartDate().getTime());
-            }
-            if ((pi.getEndDate() != null) && pi.getEndDate().before(intersect.getEnd().toDate())) {
-                intersect = intersect.withEndMillis(pi.getEndDate().getTime());
-            }
-
-            log.debug("prorataProfileItems() - request interval: {}, intersect: {}", intersect);
+            log.debug("prorataProfileItems() - ProfileItem: {} intersects request for {}ms", pi.getName(), intersectDurations[i]);
 
             if (hasNonZeroPerTimeValues(pi)) {
 
@@ -511,7 +513,7 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
                     if (ProfileItemNumberValue.class.isAssignableFrom(iv.getClass()) &&
                         isNonZeroPerTimeValue((ProfileItemNumberValue) iv) &&
                         iv.getItemValueDefinition().isFromProfile()) {
-                        double proratedItemValue = getProRatedItemValue(intersect, (ProfileItemNumberValue)iv);
+                        double proratedItemValue = getProRatedItemValue(engine, intersectDurations[i], (ProfileItemNumberValue) iv);
                         log.debug("prorataProfileItems() - ProfileItem: {}. ItemValue: {} = {} has PerUnit: {}. Pro-rated ItemValue = {}",
                             new Object[] {pi.getName(), iv.getName(), iv.getValueAsString(), ((ProfileItemNumberValue) iv).getPerUnit(), proratedItemValue});
 
@@ -522,6 +524,9 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
                     }
                 }
 
+                // The override values are not in the index.
+                clearItemValueIndex(pi);
+
                 // Perform the calculation using the prorated values.
                 calculationService.calculate(pi);
 
@@ -536,19 +541,24 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
                 // TODO - make Item a deep copy (and so inc. ItemValues). Will need to implement equals() in ItemValue
                 // TODO - such that overwriting in the ItemValue collection is handled correctly.
 
-                long itemDurationInMillis = getInterval(pi.getStartDate(), pi.getEndDate()).toDurationMillis();
-                double eventIntersectRatio = intersect.toDurationMillis() / (double) itemDurationInMillis;
+                double eventIntersectRatio = intersectRatios[i];
 
-                // Iterate over the return values and for each amount, store the prorated value
-                for (Map.Entry<String, ReturnValue> entry : pi.getAmounts().getReturnValues().entrySet()) {
-                    String type = entry.getKey();
-                    ReturnValue value = entry.getValue();
-                    double proRatedValue = value.getValue() * eventIntersectRatio;
-                    pi.getAmounts().putValue(type, value.getUnit(), value.getPerUnit(), proRatedValue);
+                // Prorate all the return values together and store the prorated values.
+                List<Map.Entry<String, ReturnValue>> entries =
+                    new ArrayList<Map.Entry<String, ReturnValue>>(pi.getAmounts().getReturnValues().entrySet());
+                double[] amounts = new double[entries.size()];
+                for (int j = 0; j < entries.size(); j++) {
+                    amounts[j] = entries.get(j).getValue().getValue();
+                }
+                double[] proRatedValues = engine.prorate(amounts, eventIntersectRatio);
+                for (int j = 0; j < entries.size(); j++) {
+                    String type = entries.get(j).getKey();
+                    ReturnValue value = entries.get(j).getValue();
+                    pi.getAmounts().putValue(type, value.getUnit(), value.getPerUnit(), proRatedValues[j]);
                 }
 
-                log.debug("prorataProfileItems() - ProfileItem: {} is bounded ({}) and has no PerTime ItemValues.",
-                    pi.getName(), getInterval(pi.getStartDate(), pi.getEndDate()));
+                log.debug("prorataProfileItems() - ProfileItem: {} is bounded ({} - {}) and has no PerTime ItemValues.",
+                    new Object[] {pi.getName(), pi.getStartDate(), pi.getEndDate()});
                 log.debug("prorataProfileItems() - Adding pro-rated Amounts: {}", pi.getAmounts());
                 requestedItems.add(pi);
             } else {
@@ -566,26 +576,11 @@ public class ProfileItemServiceImpl extends AbstractItemService implements Profi
         return requestedItems;
     }
 
-    // endDate may be null. See: com.amee.service.BaseBrowser.getQueryEndDate().
-    private Interval getInterval(Date startDate, Date endDate) {
-        DateTime start = new DateTime(startDate.getTime());
-        DateTime end;
-        if (endDate != null) {
-            end = new DateTime(endDate.getTime());
-        } else {
-            end = DateTime.now();
-        }
-        return new Interval(start, end);
-    }
-
-    private double getProRatedItemValue(Interval interval, NumberValue itemValue) {
+    private double getProRatedItemValue(ProrataEngine engine, long intersectDuration, NumberValue itemValue) {
 
         // The ProfileItemNumberValue will always have a time based per unit.
         @SuppressWarnings(value = "unchecked")
-        Measure<Integer, Duration> measure = Measure.valueOf(1, ((Unit<Duration>)itemValue.getPerUnit().toUnit()));
-
-        double perTime = measure.doubleValue(SI.MILLI(SI.SECOND));
-        double intersectPerTimeRatio = (interval.toDurationMillis()) / perTime;
-        return itemValue.getValueAsDouble() * intersectPerTimeRatio;
+        Unit<Duration> perUnit = (Unit<Duration>) itemValue.getPerUnit().toUnit();
+        return engine.prorate(itemValue.getValueAsDouble(), perUnit, intersectDuration);
     }
 }
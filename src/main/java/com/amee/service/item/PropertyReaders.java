@@ -0,0 +1,79 @@
+package com.amee.service.item;
+
+import org.springframework.beans.BeanUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable table of the JavaBean property read methods of a class, such as the generated values, units and
+ * perUnits beans of an item. Tables are resolved once per class so that updating item values from these beans is a
+ * hash lookup and a call for each property, rather than a PropertyDescriptor lookup.
+ * <p/>
+ * Generated bean classes may be unloaded, so the tables are held by weak keys and soft values.
+ */
+class PropertyReaders {
+
+    private static final PropertyReaders EMPTY = new PropertyReaders(new HashMap<String, Method>());
+
+    private static final Map<Class, SoftReference<PropertyReaders>> READERS =
+            Collections.synchronizedMap(new WeakHashMap<Class, SoftReference<PropertyReaders>>());
+
+    // Read methods keyed by property name. The value is null for properties without a read method.
+    private final Map<String, Method> readMethods;
+
+    private PropertyReaders(Map<String, Method> readMethods) {
+        this.readMethods = readMethods;
+    }
+
+    /**
+     * Get the PropertyReaders for the class of the supplied bean.
+     *
+     * @param bean the bean, may be null
+     * @return the PropertyReaders, which will have no properties if the bean is null
+     */
+    static PropertyReaders forBean(Object bean) {
+        return bean != null ? forClass(bean.getClass()) : EMPTY;
+    }
+
+    /**
+     * Get the PropertyReaders for a class, creating them on first use.
+     *
+     * @param beanClass the bean class
+     * @return the PropertyReaders
+     */
+    static PropertyReaders forClass(Class beanClass) {
+        SoftReference<PropertyReaders> reference = READERS.get(beanClass);
+        PropertyReaders readers = reference != null ? reference.get() : null;
+        if (readers == null) {
+            Map<String, Method> readMethods = new HashMap<String, Method>();
+            for (PropertyDescriptor pd : BeanUtils.getPropertyDescriptors(beanClass)) {
+                readMethods.put(pd.getName(), pd.getReadMethod());
+            }
+            readers = new PropertyReaders(readMethods);
+            READERS.put(beanClass, new SoftReference<PropertyReaders>(readers));
+        }
+        return readers;
+    }
+
+    /**
+     * @param name property name
+     * @return true if the class has a property of this name
+     */
+    boolean hasProperty(String name) {
+        return readMethods.containsKey(name);
+    }
+
+    /**
+     * @param name property name
+     * @return the read method of the property, or null if the property is not readable or does not exist
+     */
+    Method getReadMethod(String name) {
+        return readMethods.get(name);
+    }
+}
@@ -0,0 +1,157 @@
+package com.amee.service.item;
+
+import javax.measure.Measure;
+import javax.measure.quantity.Duration;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prorates amounts over a requested time window using primitive arithmetic.
+ * <p/>
+ * Item intervals are supplied as parallel arrays of start and end times in milliseconds. An unbounded item has an
+ * end time of {@link #UNBOUNDED}. The number of milliseconds in each perUnit is worked out once per unit and then
+ * re-used for every value with that perUnit.
+ * <p/>
+ * The results are the same as building a Joda {@link org.joda.time.Interval} for each item, intersecting it with
+ * the request interval and converting each perUnit with a JScience {@link Measure}. This includes throwing an
+ * IllegalArgumentException where Joda would reject an interval that ends before it starts.
+ */
+class ProrataEngine {
+
+    /**
+     * The end time of an item without an end date.
+     */
+    static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private final long requestStart;
+    private final long requestEnd;
+
+    // Milliseconds per perUnit, keyed by perUnit.
+    private final Map<Unit<Duration>, Double> perTimeMillis = new HashMap<Unit<Duration>, Double>();
+
+    /**
+     * @param requestStart start of the requested window in milliseconds
+     * @param requestEnd   end of the requested window in milliseconds
+     * @throws IllegalArgumentException if the window ends before it starts
+     */
+    ProrataEngine(long requestStart, long requestEnd) {
+        checkInterval(requestStart, requestEnd);
+        this.requestStart = requestStart;
+        this.requestEnd = requestEnd;
+    }
+
+    /**
+     * Get the duration of the intersection of each item interval with the requested window.
+     * <p/>
+     * Where an item starts after the requested window ends (or ends before it starts) the intersection would be
+     * negative and an IllegalArgumentException is thrown, as for Joda Intervals.
+     *
+     * @param starts item start times in milliseconds
+     * @param ends   item end times in milliseconds, {@link #UNBOUNDED} if the item has no end
+     * @return the intersection durations in milliseconds
+     */
+    long[] getIntersectDurations(long[] starts, long[] ends) {
+        long[] durations = new long[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            long start = requestStart;
+            long end = requestEnd;
+            if (start < starts[i]) {
+                start = starts[i];
+                checkInterval(start, end);
+            }
+            if ((ends[i] != UNBOUNDED) && (ends[i] < end)) {
+                end = ends[i];
+                checkInterval(start, end);
+            }
+            durations[i] = end - start;
+        }
+        return durations;
+    }
+
+    /**
+     * Get the duration of each bounded item interval.
+     *
+     * @param starts item start times in milliseconds
+     * @param ends   item end times in milliseconds, {@link #UNBOUNDED} if the item has no end
+     * @return item durations in milliseconds, or -1 for unbounded items
+     */
+    long[] getItemDurations(long[] starts, long[] ends) {
+        long[] durations = new long[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            if (ends[i] != UNBOUNDED) {
+                checkInterval(starts[i], ends[i]);
+                durations[i] = ends[i] - starts[i];
+            } else {
+                durations[i] = -1;
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Get the ratio of each intersection duration to each item duration, used to prorate the amounts of bounded
+     * items without perTime values.
+     *
+     * @param intersectDurations from {@link #getIntersectDurations(long[], long[])}
+     * @param itemDurations      from {@link #getItemDurations(long[], long[])}
+     * @return the ratios, NaN for unbounded items
+     */
+    double[] getIntersectRatios(long[] intersectDurations, long[] itemDurations) {
+        double[] ratios = new double[intersectDurations.length];
+        for (int i = 0; i < intersectDurations.length; i++) {
+            ratios[i] = itemDurations[i] >= 0 ? intersectDurations[i] / (double) itemDurations[i] : Double.NaN;
+        }
+        return ratios;
+    }
+
+    /**
+     * Prorate amounts by a single ratio.
+     *
+     * @param amounts amounts to prorate
+     * @param ratio   from {@link #getIntersectRatios(long[], long[])}
+     * @return the prorated amounts
+     */
+    double[] prorate(double[] amounts, double ratio) {
+        double[] prorated = new double[amounts.length];
+        for (int i = 0; i < amounts.length; i++) {
+            prorated[i] = amounts[i] * ratio;
+        }
+        return prorated;
+    }
+
+    /**
+     * Prorate a perTime value (eg kWh per year) over an intersection duration.
+     *
+     * @param value             the value
+     * @param perUnit           the time based perUnit of the value
+     * @param intersectDuration intersection duration in milliseconds
+     * @return the prorated value
+     */
+    double prorate(double value, Unit<Duration> perUnit, long intersectDuration) {
+        double intersectPerTimeRatio = intersectDuration / getPerTimeMillis(perUnit);
+        return value * intersectPerTimeRatio;
+    }
+
+    /**
+     * Get the number of milliseconds in one perUnit.
+     *
+     * @param perUnit a time based unit
+     * @return milliseconds in one perUnit
+     */
+    double getPerTimeMillis(Unit<Duration> perUnit) {
+        Double millis = perTimeMillis.get(perUnit);
+        if (millis == null) {
+            millis = Measure.valueOf(1, perUnit).doubleValue(SI.MILLI(SI.SECOND));
+            perTimeMillis.put(perUnit, millis);
+        }
+        return millis;
+    }
+
+    private static void checkInterval(long start, long end) {
+        if (end < start) {
+            throw new IllegalArgumentException("The end instant must be greater or equal to the start");
+        }
+    }
+}
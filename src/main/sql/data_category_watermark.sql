@@ -0,0 +1,139 @@
+-- Modification watermarks per DataCategory, used by DataCategoryWatermarkDAO when amee.dataCategoryWatermark=true.
+--
+-- CATEGORY_MODIFIED is the latest modification of the DataCategory row. ITEMS_MODIFIED is the latest modification
+-- of its DataItems and their values, current and history. Both are maintained by the triggers below, in the same
+-- transaction as the write. Apply this script, including the back fill, before enabling the property.
+--
+-- MySQL before 5.7 allows a single trigger per table, event and timing. Merge these into any existing triggers.
+
+CREATE TABLE DATA_CATEGORY_WATERMARK (
+    DATA_CATEGORY_ID BIGINT NOT NULL,
+    CATEGORY_MODIFIED DATETIME NOT NULL,
+    ITEMS_MODIFIED DATETIME NOT NULL,
+    PRIMARY KEY (DATA_CATEGORY_ID)
+) ENGINE=InnoDB;
+
+CREATE INDEX DCW_CATEGORY_MODIFIED ON DATA_CATEGORY_WATERMARK (CATEGORY_MODIFIED, DATA_CATEGORY_ID);
+CREATE INDEX DCW_ITEMS_MODIFIED ON DATA_CATEGORY_WATERMARK (ITEMS_MODIFIED, DATA_CATEGORY_ID);
+
+-- Back fill from the existing rows: the DataItems first, then each of the value tables, so that ITEMS_MODIFIED
+-- matches what the triggers would have recorded.
+
+INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+SELECT dc.ID, dc.MODIFIED, COALESCE((SELECT MAX(di.MODIFIED) FROM DATA_ITEM di WHERE di.DATA_CATEGORY_ID = dc.ID), '1970-01-01')
+FROM DATA_CATEGORY dc;
+
+UPDATE DATA_CATEGORY_WATERMARK w
+JOIN (SELECT di.DATA_CATEGORY_ID, MAX(v.MODIFIED) AS MODIFIED
+      FROM DATA_ITEM_NUMBER_VALUE v JOIN DATA_ITEM di ON di.ID = v.DATA_ITEM_ID
+      GROUP BY di.DATA_CATEGORY_ID) m ON m.DATA_CATEGORY_ID = w.DATA_CATEGORY_ID
+SET w.ITEMS_MODIFIED = GREATEST(w.ITEMS_MODIFIED, m.MODIFIED);
+
+UPDATE DATA_CATEGORY_WATERMARK w
+JOIN (SELECT di.DATA_CATEGORY_ID, MAX(v.MODIFIED) AS MODIFIED
+      FROM DATA_ITEM_TEXT_VALUE v JOIN DATA_ITEM di ON di.ID = v.DATA_ITEM_ID
+      GROUP BY di.DATA_CATEGORY_ID) m ON m.DATA_CATEGORY_ID = w.DATA_CATEGORY_ID
+SET w.ITEMS_MODIFIED = GREATEST(w.ITEMS_MODIFIED, m.MODIFIED);
+
+UPDATE DATA_CATEGORY_WATERMARK w
+JOIN (SELECT di.DATA_CATEGORY_ID, MAX(v.MODIFIED) AS MODIFIED
+      FROM DATA_ITEM_NUMBER_VALUE_HISTORY v JOIN DATA_ITEM di ON di.ID = v.DATA_ITEM_ID
+      GROUP BY di.DATA_CATEGORY_ID) m ON m.DATA_CATEGORY_ID = w.DATA_CATEGORY_ID
+SET w.ITEMS_MODIFIED = GREATEST(w.ITEMS_MODIFIED, m.MODIFIED);
+
+UPDATE DATA_CATEGORY_WATERMARK w
+JOIN (SELECT di.DATA_CATEGORY_ID, MAX(v.MODIFIED) AS MODIFIED
+      FROM DATA_ITEM_TEXT_VALUE_HISTORY v JOIN DATA_ITEM di ON di.ID = v.DATA_ITEM_ID
+      GROUP BY di.DATA_CATEGORY_ID) m ON m.DATA_CATEGORY_ID = w.DATA_CATEGORY_ID
+SET w.ITEMS_MODIFIED = GREATEST(w.ITEMS_MODIFIED, m.MODIFIED);
+
+DELIMITER //
+
+CREATE TRIGGER DCW_DATA_CATEGORY_INSERT AFTER INSERT ON DATA_CATEGORY FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    VALUES (NEW.ID, NEW.MODIFIED, '1970-01-01')
+    ON DUPLICATE KEY UPDATE CATEGORY_MODIFIED = GREATEST(CATEGORY_MODIFIED, VALUES(CATEGORY_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DATA_CATEGORY_UPDATE AFTER UPDATE ON DATA_CATEGORY FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    VALUES (NEW.ID, NEW.MODIFIED, '1970-01-01')
+    ON DUPLICATE KEY UPDATE CATEGORY_MODIFIED = GREATEST(CATEGORY_MODIFIED, VALUES(CATEGORY_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DATA_ITEM_INSERT AFTER INSERT ON DATA_ITEM FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    VALUES (NEW.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED)
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DATA_ITEM_UPDATE AFTER UPDATE ON DATA_ITEM FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    VALUES (NEW.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED)
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+-- Value tables. The same pair of triggers for each of DATA_ITEM_NUMBER_VALUE, DATA_ITEM_TEXT_VALUE,
+-- DATA_ITEM_NUMBER_VALUE_HISTORY and DATA_ITEM_TEXT_VALUE_HISTORY.
+
+CREATE TRIGGER DCW_DINV_INSERT AFTER INSERT ON DATA_ITEM_NUMBER_VALUE FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DINV_UPDATE AFTER UPDATE ON DATA_ITEM_NUMBER_VALUE FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DITV_INSERT AFTER INSERT ON DATA_ITEM_TEXT_VALUE FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DITV_UPDATE AFTER UPDATE ON DATA_ITEM_TEXT_VALUE FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DINVH_INSERT AFTER INSERT ON DATA_ITEM_NUMBER_VALUE_HISTORY FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DINVH_UPDATE AFTER UPDATE ON DATA_ITEM_NUMBER_VALUE_HISTORY FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DITVH_INSERT AFTER INSERT ON DATA_ITEM_TEXT_VALUE_HISTORY FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+CREATE TRIGGER DCW_DITVH_UPDATE AFTER UPDATE ON DATA_ITEM_TEXT_VALUE_HISTORY FOR EACH ROW
+BEGIN
+    INSERT INTO DATA_CATEGORY_WATERMARK (DATA_CATEGORY_ID, CATEGORY_MODIFIED, ITEMS_MODIFIED)
+    SELECT di.DATA_CATEGORY_ID, '1970-01-01', NEW.MODIFIED FROM DATA_ITEM di WHERE di.ID = NEW.DATA_ITEM_ID
+    ON DUPLICATE KEY UPDATE ITEMS_MODIFIED = GREATEST(ITEMS_MODIFIED, VALUES(ITEMS_MODIFIED));
+END//
+
+DELIMITER ;
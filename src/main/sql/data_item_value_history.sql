@@ -0,0 +1,13 @@
+-- Indexes for paging DataItem value history, used by DataItemServiceDAOImpl.getDataItemValueHistories.
+--
+-- A page of history is selected by DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID and a START_DATE range, ordered by
+-- START_DATE and ID. With STATUS in the index, and ID implicit in InnoDB secondary indexes, the selection is read
+-- from the index alone. Only the value rows on the requested page are then read.
+
+CREATE INDEX DINVH_DI_IVD_START_DATE ON DATA_ITEM_NUMBER_VALUE_HISTORY (DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID, START_DATE, STATUS);
+CREATE INDEX DITVH_DI_IVD_START_DATE ON DATA_ITEM_TEXT_VALUE_HISTORY (DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID, START_DATE, STATUS);
+
+-- The non-historical value is selected by DATA_ITEM_ID and ITEM_VALUE_DEFINITION_ID.
+
+CREATE INDEX DINV_DI_IVD ON DATA_ITEM_NUMBER_VALUE (DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID, STATUS);
+CREATE INDEX DITV_DI_IVD ON DATA_ITEM_TEXT_VALUE (DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID, STATUS);
@@ -0,0 +1,183 @@
+package com.amee.calculation.service;
+
+import com.amee.domain.APIVersion;
+import com.amee.domain.DataItemService;
+import com.amee.domain.ObjectType;
+import com.amee.domain.algorithm.Algorithm;
+import com.amee.domain.algorithm.AlgorithmContext;
+import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.ItemDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.sheet.Choice;
+import com.amee.domain.sheet.Choices;
+import com.amee.platform.science.ReturnValues;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CalculationResultCacheTest {
+
+    private CalculationResultCache cache;
+    private DataItem dataItem;
+    private Algorithm algorithm;
+    private APIVersion version;
+
+    @Before
+    public void setUp() {
+        DataItemService dataItemService = mock(DataItemService.class);
+        cache = new CalculationResultCache();
+        cache.setEnabled(true);
+        cache.setMaxSize(2);
+        ReflectionTestUtils.setField(cache, "dataItemService", dataItemService);
+
+        ItemDefinition itemDefinition = mock(ItemDefinition.class);
+        when(itemDefinition.getUid()).thenReturn("ID0000000001");
+        when(itemDefinition.getModifiedDeep()).thenReturn(new Date(1000));
+
+        DataCategory dataCategory = mock(DataCategory.class);
+        when(dataCategory.getUid()).thenReturn("DC0000000001");
+
+        dataItem = mock(DataItem.class);
+        when(dataItem.getUid()).thenReturn("DI0000000001");
+        when(dataItem.getModified()).thenReturn(new Date(1000));
+        when(dataItem.getItemDefinition()).thenReturn(itemDefinition);
+        when(dataItem.getDataCategory()).thenReturn(dataCategory);
+        when(dataItemService.getActiveItemValues(dataItem)).thenReturn(new HashSet<BaseItemValue>());
+
+        version = mock(APIVersion.class);
+        when(version.getVersion()).thenReturn("2.0");
+
+        algorithm = mock(Algorithm.class);
+        when(algorithm.getUid()).thenReturn("AL0000000001");
+        when(algorithm.getModified()).thenReturn(new Date(1000));
+        when(algorithm.getContent()).thenReturn("distance * factor");
+    }
+
+    @Test
+    public void disabledCacheHasNoKeys() {
+        cache.setEnabled(false);
+        assertNull(cache.getKey(dataItem, algorithm, choices("distance", "10"), version));
+    }
+
+    @Test
+    public void algorithmsUsingFindersAreNotCached() {
+        when(algorithm.getContent()).thenReturn("dataFinder.getDataItemValue('a', 'b', 'c')");
+        assertNull(cache.getKey(dataItem, algorithm, choices("distance", "10"), version));
+        when(algorithm.getContent()).thenReturn("profileFinder.getProfileItemValue('a')");
+        assertNull(cache.getKey(dataItem, algorithm, choices("distance", "10"), version));
+    }
+
+    @Test
+    public void algorithmContextsUsingFindersAreNotCached() {
+        AlgorithmContext algorithmContext = algorithmContext();
+        when(algorithmContext.getContent()).thenReturn("function f() { return serviceFinder.getService('x'); }");
+        assertNull(cache.getKey(dataItem, algorithm, choices("distance", "10"), version));
+    }
+
+    @Test
+    public void keysDependOnAlgorithmContext() {
+        AlgorithmContext algorithmContext = algorithmContext();
+        String key = cache.getKey(dataItem, algorithm, choices("distance", "10"), version);
+        assertNotNull(key);
+        when(algorithmContext.getModified()).thenReturn(new Date(2000));
+        assertFalse(key.equals(cache.getKey(dataItem, algorithm, choices("distance", "10"), version)));
+    }
+
+    @Test
+    public void keysDependOnInputs() {
+        String key = cache.getKey(dataItem, algorithm, choices("distance", "10"), version);
+        assertNotNull(key);
+        assertEquals(key, cache.getKey(dataItem, algorithm, choices("distance", "10"), version));
+        assertFalse(key.equals(cache.getKey(dataItem, algorithm, choices("distance", "11"), version)));
+        when(algorithm.getModified()).thenReturn(new Date(2000));
+        assertFalse(key.equals(cache.getKey(dataItem, algorithm, choices("distance", "10"), version)));
+    }
+
+    @Test
+    public void resultsAreEvictedOnInvalidation() {
+        String key = cache.getKey(dataItem, algorithm, choices("distance", "10"), version);
+        cache.put(key, dataItem, algorithm, new ReturnValues());
+        assertNotNull(cache.get(key));
+
+        // Unrelated entities do not evict.
+        cache.remove(ObjectType.DI, "DI0000000002");
+        cache.remove(ObjectType.AL, "DI0000000001");
+        assertNotNull(cache.get(key));
+
+        cache.remove(ObjectType.AL, "AL0000000001");
+        assertNull(cache.get(key));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void resultsAreCopied() {
+        String key = cache.getKey(dataItem, algorithm, choices("distance", "10"), version);
+        ReturnValues returnValues = new ReturnValues();
+        returnValues.putValue("CO2", "kg", null, 1.5);
+        cache.put(key, dataItem, algorithm, returnValues);
+
+        // Changes to the original or to a cached copy are not seen by later callers.
+        returnValues.putValue("CH4", "kg", null, 2.5);
+        ReturnValues cached = cache.get(key);
+        assertNotSame(returnValues, cached);
+        assertEquals(1, cached.getReturnValues().size());
+        cached.putValue("N2O", "kg", null, 3.5);
+        assertEquals(1, cache.get(key).getReturnValues().size());
+        assertEquals(1.5, cache.get(key).getReturnValues().get("CO2").getValue(), 0.0);
+    }
+
+    @Test
+    public void errorResultsAreNotCached() {
+        String key = cache.getKey(dataItem, algorithm, choices("distance", "10"), version);
+        ReturnValues returnValues = new ReturnValues();
+        returnValues.addNote("error", "Algorithm error.");
+        cache.put(key, dataItem, algorithm, returnValues);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        for (int i = 0; i < 5; i++) {
+            String key = cache.getKey(dataItem, algorithm, choices("distance", String.valueOf(i)), version);
+            cache.put(key, dataItem, algorithm, new ReturnValues());
+        }
+        assertEquals(2, cache.size());
+
+        // Evicted results are no longer indexed, the remaining ones still are.
+        Map<?, ?> keysByEntity = (Map<?, ?>) ReflectionTestUtils.getField(cache, "keysByEntity");
+        assertEquals(2, ((Set<?>) keysByEntity.get(ObjectType.DI.getName() + ":DI0000000001")).size());
+        cache.remove(ObjectType.DC, "DC0000000001");
+        assertEquals(0, cache.size());
+        assertTrue(keysByEntity.isEmpty());
+    }
+
+    private AlgorithmContext algorithmContext() {
+        AlgorithmContext algorithmContext = mock(AlgorithmContext.class);
+        when(algorithmContext.getUid()).thenReturn("AC0000000001");
+        when(algorithmContext.getModified()).thenReturn(new Date(1000));
+        when(algorithmContext.getContent()).thenReturn("var factor = 2;");
+        when(algorithm.getAlgorithmContext()).thenReturn(algorithmContext);
+        return algorithmContext;
+    }
+
+    private Choices choices(String name, String value) {
+        return new Choices("userValueChoices", Choice.parseChoices(name + "=" + value));
+    }
+}
@@ -0,0 +1,166 @@
+package com.amee.calculation.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TrainRouteFinderServiceTest {
+
+    private TrainRouteFinderStub stub;
+    private TrainRouteFinderClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new TrainRouteFinderStub();
+        stub.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.shutdown();
+        }
+        stub.stop();
+    }
+
+    @Test
+    public void blankStationsReturnZero() {
+        TrainRouteFinderService service = newService(new CircuitBreaker(5, 60000));
+        assertEquals("0.0", invoke(service, "", "Leeds"));
+        assertEquals(0, stub.getRequestCount());
+    }
+
+    @Test
+    public void validRoutesAreCached() {
+        stub.addRoute("London", "Leeds", "297000");
+        TrainRouteFinderService service = newService(new CircuitBreaker(5, 60000));
+        assertEquals("297000", invoke(service, "London", "Leeds"));
+        assertEquals("297000", invoke(service, "London", "Leeds"));
+        assertEquals(1, stub.getRequestCount());
+    }
+
+    @Test
+    public void invalidRoutesAreCached() {
+        stub.addInvalidRoute("London", "Nowhere");
+        TrainRouteFinderService service = newService(new CircuitBreaker(5, 60000));
+        for (int i = 0; i < 2; i++) {
+            try {
+                invoke(service, "London", "Nowhere");
+                fail("Should have thrown an IllegalArgumentException.");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+        assertEquals(1, stub.getRequestCount());
+    }
+
+    @Test
+    public void circuitOpensAfterRepeatedFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(3, 60000);
+        TrainRouteFinderService service = newService(circuitBreaker);
+
+        // Unknown routes produce an upstream error.
+        for (int i = 0; i < 4; i++) {
+            try {
+                invoke(service, "London", "Station " + i);
+                fail("Should have thrown a CalculationException.");
+            } catch (CalculationException e) {
+                // Expected.
+            }
+        }
+
+        // The fourth call should have been rejected without reaching the API.
+        assertTrue(circuitBreaker.isOpen());
+        assertEquals(3, stub.getRequestCount());
+    }
+
+    @Test
+    public void circuitClosesAfterSuccessfulTrial() {
+        stub.addRoute("London", "Leeds", "297000");
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        TrainRouteFinderService service = newService(circuitBreaker);
+        try {
+            invoke(service, "London", "York");
+            fail("Should have thrown a CalculationException.");
+        } catch (CalculationException e) {
+            // Expected.
+        }
+        assertTrue(circuitBreaker.isOpen());
+
+        // The open period has elapsed so a trial call is allowed.
+        assertEquals("297000", invoke(service, "London", "Leeds"));
+        assertTrue(!circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void unexpectedTrialFailureDoesNotLeaveCircuitOpen() {
+        stub.addEmptyRoute("London", "Leeds");
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        TrainRouteFinderService service = newService(circuitBreaker);
+        try {
+            invoke(service, "London", "York");
+            fail("Should have thrown a CalculationException.");
+        } catch (CalculationException e) {
+            // Expected.
+        }
+
+        // The trial call fails with an unexpected exception, which must still resolve the trial.
+        try {
+            invoke(service, "London", "Leeds");
+            fail("Should have thrown an exception.");
+        } catch (CalculationException e) {
+            fail("Should not have been rejected by the circuit breaker.");
+        } catch (RuntimeException e) {
+            // Expected.
+        }
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(2, stub.getRequestCount());
+    }
+
+    @Test
+    public void malformedEndPointIsNotCachedOrCountedAsFailure() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 60000);
+        client = new TrainRouteFinderClient(new RouteDistanceCache(100, 60000), circuitBreaker);
+        TrainRouteFinderService service = new TrainRouteFinderService(stub.getEndPoint() + "a path", client);
+        for (int i = 0; i < 2; i++) {
+            try {
+                invoke(service, "London", "Leeds");
+                fail("Should have thrown a CalculationException.");
+            } catch (CalculationException e) {
+                // Expected.
+            }
+        }
+        assertTrue(!circuitBreaker.isOpen());
+        assertEquals(0, client.getRouteCache().size());
+        assertEquals(0, stub.getRequestCount());
+    }
+
+    @Test
+    public void servicesShareTheClient() {
+        stub.addRoute("London", "Leeds", "297000");
+        client = new TrainRouteFinderClient(new RouteDistanceCache(100, 60000), new CircuitBreaker(5, 60000));
+        assertEquals("297000", invoke(new TrainRouteFinderService(stub.getEndPoint(), client), "London", "Leeds"));
+        assertEquals("297000", invoke(new TrainRouteFinderService(stub.getEndPoint(), client), "London", "Leeds"));
+        assertEquals(1, stub.getRequestCount());
+    }
+
+    private TrainRouteFinderService newService(CircuitBreaker circuitBreaker) {
+        client = new TrainRouteFinderClient(new RouteDistanceCache(100, 60000), circuitBreaker);
+        return new TrainRouteFinderService(stub.getEndPoint(), client);
+    }
+
+    private String invoke(TrainRouteFinderService service, String station1, String station2) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("station1", station1);
+        values.put("station2", station2);
+        service.setValues(values);
+        return service.invoke();
+    }
+}
@@ -0,0 +1,108 @@
+package com.amee.calculation.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for the Train Route-finder API so that {@link TrainRouteFinderService} can be
+ * exercised without network access.
+ * <p/>
+ * Routes are registered against the query the service sends (eg "London to Leeds"). Queries that have not
+ * been registered receive an upstream error response.
+ */
+public class TrainRouteFinderStub {
+
+    private HttpServer server;
+    private final Map<String, String> responses = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requestCount.incrementAndGet();
+                String response = responses.get(getQuery(exchange.getRequestURI().getRawQuery()));
+                if (response == null) {
+                    response = getErrorResponse(500, "Internal error");
+                }
+                if (response.length() == 0) {
+                    exchange.sendResponseHeaders(204, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = response.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "text/javascript; charset=UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    public String getEndPoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Respond to a query for a route between two stations with the given distance.
+     */
+    public void addRoute(String station1, String station2, String meters) {
+        responses.put(station1 + " to " + station2,
+                "callback({\"error\":200,\"error_str\":\"\",\"Routes\":[{\"Distance\":{\"meters\":\"" + meters + "\"}}]});");
+    }
+
+    /**
+     * Respond to a query for a route between two stations with an invalid route error.
+     */
+    public void addInvalidRoute(String station1, String station2) {
+        responses.put(station1 + " to " + station2, getErrorResponse(602, "Unknown station"));
+    }
+
+    /**
+     * Respond to a query for a route between two stations with no content.
+     */
+    public void addEmptyRoute(String station1, String station2) {
+        responses.put(station1 + " to " + station2, "");
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    private String getErrorResponse(int error, String errorString) {
+        return "callback({\"error\":" + error + ",\"error_str\":\"" + errorString + "\"});";
+    }
+
+    private String getQuery(String rawQuery) throws UnsupportedEncodingException {
+        if (rawQuery != null) {
+            for (String param : rawQuery.split("&")) {
+                if (param.startsWith("q=")) {
+                    return URLDecoder.decode(param.substring(2), "UTF-8");
+                }
+            }
+        }
+        return "";
+    }
+}
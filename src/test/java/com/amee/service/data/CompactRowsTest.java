@@ -0,0 +1,71 @@
+package com.amee.service.data;
+
+import com.amee.domain.ValueType;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CompactRowsTest {
+
+    @Test
+    public void valuesAreDecodedAsEncoded() {
+        List<DataSheetTable.Row> rows = new ArrayList<DataSheetTable.Row>();
+        for (int i = 0; i < 1000; i++) {
+            Timestamp created = new Timestamp(1000000L * i);
+            rows.add(new DataSheetTable.Row(String.format("%012X", i), new DataSheetTable.Value[]{
+                    new DataSheetTable.Value("type" + (i % 10), String.format("A%011X", i), ValueType.TEXT),
+                    new DataSheetTable.Value("path" + i, null, ValueType.TEXT),
+                    new DataSheetTable.Value(created, null, ValueType.DATE),
+                    new DataSheetTable.Value(new Date(2000L * i), null, ValueType.DATE),
+                    i % 2 == 0 ? DataSheetTable.Value.EMPTY : new DataSheetTable.Value(null, null, ValueType.DATE)}));
+        }
+        CompactRows compactRows = CompactRows.encode(rows, 5);
+        assertEquals(1000, compactRows.size());
+        for (int i = 0; i < 1000; i++) {
+            DataSheetTable.Row row = compactRows.getRow(i);
+            assertEquals(String.format("%012X", i), row.getUid());
+            DataSheetTable.Value[] values = row.getValues();
+            assertEquals("type" + (i % 10), values[0].getValue());
+            assertEquals(String.format("A%011X", i), values[0].getUid());
+            assertEquals(ValueType.TEXT, values[0].getValueType());
+            assertEquals("path" + i, values[1].getValue());
+            assertNull(values[1].getUid());
+            assertEquals(new Timestamp(1000000L * i), values[2].getValue());
+            assertEquals(Timestamp.class, values[2].getValue().getClass());
+            assertEquals(new Date(2000L * i), values[3].getValue());
+            assertEquals(Date.class, values[3].getValue().getClass());
+            if (i % 2 == 0) {
+                assertSame(DataSheetTable.Value.EMPTY, values[4]);
+            } else {
+                assertNull(values[4].getValue());
+                assertEquals(ValueType.DATE, values[4].getValueType());
+            }
+        }
+    }
+
+    @Test
+    public void otherValuesAreHeldAsTheyAre() {
+        Timestamp precise = new Timestamp(1000L);
+        precise.setNanos(123456789);
+        List<DataSheetTable.Row> rows = new ArrayList<DataSheetTable.Row>();
+        rows.add(new DataSheetTable.Row("not a uid", new DataSheetTable.Value[]{
+                new DataSheetTable.Value(precise, null, ValueType.DATE),
+                new DataSheetTable.Value("text", null, ValueType.TEXT)}));
+        rows.add(new DataSheetTable.Row("DI0000000001", new DataSheetTable.Value[]{
+                new DataSheetTable.Value(new Timestamp(2000L), null, ValueType.DATE),
+                new DataSheetTable.Value(new Date(3000L), null, ValueType.DATE)}));
+        List<DataSheetTable.Row> decoded = CompactRows.encode(rows, 2).decode();
+        assertEquals("not a uid", decoded.get(0).getUid());
+        assertEquals("DI0000000001", decoded.get(1).getUid());
+        assertSame(precise, decoded.get(0).getValues()[0].getValue());
+        assertEquals("text", decoded.get(0).getValues()[1].getValue());
+        assertEquals(new Date(3000L), decoded.get(1).getValues()[1].getValue());
+    }
+}
@@ -0,0 +1,177 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataCategoryTreeTest {
+
+    private static final long ROOT = 1L;
+    private static final long TRANSPORT = 2L;
+    private static final long CAR = 3L;
+    private static final long GENERIC = 4L;
+    private static final long HOME = 5L;
+
+    private DataCategoryTree tree;
+    private IDataCategoryReference transport;
+    private IDataCategoryReference car;
+    private IDataCategoryReference generic;
+    private IDataCategoryReference home;
+
+    @Before
+    public void setUp() {
+        transport = reference(TRANSPORT);
+        car = reference(CAR);
+        generic = reference(GENERIC);
+        home = reference(HOME);
+        tree = new DataCategoryTree.Builder()
+                .add(GENERIC, "GENERIC", CAR, "generic", new Date(400), generic)
+                .add(ROOT, "ROOT", null, "", new Date(100), reference(ROOT))
+                .add(TRANSPORT, "TRANSPORT", ROOT, "transport", new Date(300), transport)
+                .add(CAR, "CAR", TRANSPORT, "car", new Date(200), car)
+                .add(HOME, "HOME", ROOT, "home", new Date(100), home)
+                .build();
+    }
+
+    @Test
+    public void pathsMatchIgnoringCase() {
+        assertSame(transport, tree.getDataCategory(segments("transport")));
+        assertSame(generic, tree.getDataCategory(segments("transport", "car", "generic")));
+        assertSame(generic, tree.getDataCategory(segments("Transport", "CAR", "Generic")));
+        assertNull(tree.getDataCategory(segments("transport", "bus")));
+        assertNull(tree.getDataCategory(segments("", "transport")));
+    }
+
+    @Test
+    public void childrenAreSortedByPath() {
+        assertEquals(Arrays.asList("home", "transport"), Arrays.asList(tree.getChildren(ROOT).keySet().toArray()));
+        assertSame(car, tree.getChildren(TRANSPORT).get("CAR"));
+        assertTrue(tree.getChildren(GENERIC).isEmpty());
+        assertNull(tree.getChildren(99L));
+    }
+
+    @Test
+    public void ancestorsAreFoundWithoutTheDatabase() {
+        Set<Long> unknownIds = new HashSet<Long>();
+        assertEquals(set(ROOT, TRANSPORT, CAR), tree.getAncestorIds(set(GENERIC, HOME), unknownIds));
+        assertTrue(unknownIds.isEmpty());
+        assertEquals(set(), tree.getAncestorIds(set(99L), unknownIds));
+        assertEquals(set(99L), unknownIds);
+    }
+
+    @Test
+    public void modifiedDeepIsTheLatestOfTheSubtree() {
+        assertEquals(new Date(400), tree.getModifiedDeep(ROOT));
+        assertEquals(new Date(400), tree.getModifiedDeep(CAR));
+        assertEquals(new Date(100), tree.getModifiedDeep(HOME));
+    }
+
+    @Test
+    public void updatesAreCopyOnWrite() {
+        IDataCategoryReference updated = reference(CAR);
+        DataCategoryTree next = tree.put(CAR, "CAR", TRANSPORT, "car", new Date(500), updated);
+        assertSame(updated, next.getDataCategory(segments("transport", "car")));
+        assertSame(generic, next.getDataCategory(segments("transport", "car", "generic")));
+        assertEquals(new Date(500), next.getModifiedDeep(ROOT));
+
+        // The original snapshot is unchanged.
+        assertSame(car, tree.getDataCategory(segments("transport", "car")));
+        assertEquals(new Date(400), tree.getModifiedDeep(ROOT));
+    }
+
+    @Test
+    public void newDataCategoriesAreAddedUnderTheirParent() {
+        IDataCategoryReference bus = reference(6L);
+        DataCategoryTree next = tree.put(6L, "BUS", TRANSPORT, "bus", new Date(600), bus);
+        assertSame(bus, next.getDataCategory(segments("transport", "bus")));
+        assertEquals(new Date(600), next.getModifiedDeep(ROOT));
+        assertEquals(set(ROOT, TRANSPORT), next.getAncestorIds(set(6L), new HashSet<Long>()));
+    }
+
+    @Test
+    public void movedDataCategoriesAreRejected() {
+        assertNull(tree.put(CAR, "CAR", TRANSPORT, "automobile", new Date(200), car));
+        assertNull(tree.put(GENERIC, "GENERIC", TRANSPORT, "generic", new Date(400), generic));
+    }
+
+    @Test
+    public void removedDataCategoriesCanBeRestored() {
+        DataCategoryTree next = tree.remove("CAR");
+        assertNull(next.getDataCategory(segments("transport", "car")));
+        assertNull(next.getDataCategory(segments("transport", "car", "generic")));
+        assertEquals(new Date(300), next.getModifiedDeep(TRANSPORT));
+
+        // The children of a restored DataCategory are linked again.
+        next = next.put(CAR, "CAR", TRANSPORT, "car", new Date(200), car);
+        assertSame(generic, next.getDataCategory(segments("transport", "car", "generic")));
+        assertEquals(new Date(400), next.getModifiedDeep(ROOT));
+    }
+
+    @Test
+    public void childrenAddedWhileRemovedAreLinkedOnRestore() {
+        IDataCategoryReference electric = reference(7L);
+        DataCategoryTree next = tree.remove("CAR")
+                .put(7L, "ELECTRIC", CAR, "electric", new Date(700), electric)
+                .put(CAR, "CAR", TRANSPORT, "car", new Date(200), car);
+        assertSame(generic, next.getDataCategory(segments("transport", "car", "generic")));
+        assertSame(electric, next.getDataCategory(segments("transport", "car", "electric")));
+        assertEquals(new Date(700), next.getModifiedDeep(ROOT));
+    }
+
+    @Test
+    public void segmentedMapsAreCopyOnWrite() {
+        Map<Long, String> values = new HashMap<Long, String>();
+        for (long i = 0; i < 1000; i++) {
+            values.put(i, "v" + i);
+        }
+        DataCategoryTree.SegmentedMap<Long, String> map = new DataCategoryTree.SegmentedMap<Long, String>(values);
+        DataCategoryTree.SegmentedMap.Editor<Long, String> editor = map.edit();
+        editor.put(1L, "updated");
+        editor.put(1000L, "added");
+        assertEquals("v2", editor.remove(2L));
+        assertNull(editor.remove(2L));
+        DataCategoryTree.SegmentedMap<Long, String> next = editor.build();
+
+        // Further edits do not change the built map.
+        editor.put(3L, "later");
+        assertEquals("v3", next.get(3L));
+
+        assertEquals(1000, next.size());
+        assertEquals("updated", next.get(1L));
+        assertEquals("added", next.get(1000L));
+        assertNull(next.get(2L));
+        assertEquals(1000, map.size());
+        assertEquals("v1", map.get(1L));
+        assertEquals("v2", map.get(2L));
+        assertNull(map.get(1000L));
+    }
+
+    private IDataCategoryReference reference(long id) {
+        IDataCategoryReference reference = mock(IDataCategoryReference.class);
+        when(reference.getEntityId()).thenReturn(id);
+        return reference;
+    }
+
+    private List<String> segments(String... segments) {
+        return Arrays.asList(segments);
+    }
+
+    private Set<Long> set(Long... ids) {
+        return new HashSet<Long>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,90 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataCategoryWatermarkDAOTest {
+
+    private DrillDownDatabase database;
+    private DataCategoryWatermarkDAO watermarkDao;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new DrillDownDatabase("dataCategoryWatermarkDaoTest", 0);
+        database.getSession().createSQLQuery(
+                "CREATE TABLE DATA_CATEGORY_WATERMARK (" +
+                        "DATA_CATEGORY_ID BIGINT NOT NULL PRIMARY KEY, " +
+                        "CATEGORY_MODIFIED TIMESTAMP NOT NULL, " +
+                        "ITEMS_MODIFIED TIMESTAMP NOT NULL)").executeUpdate();
+        insert(1L, 1000L, 5000L);
+        insert(2L, 2000L, 1000L);
+        insert(3L, 3000L, 3000L);
+
+        EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.getDelegate()).thenReturn(database.getSession());
+        watermarkDao = new DataCategoryWatermarkDAO();
+        ReflectionTestUtils.setField(watermarkDao, "entityManager", entityManager);
+        watermarkDao.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Test
+    public void categoriesModifiedWithinRange() {
+        assertEquals(Arrays.asList(2L), watermarkDao.getDataCategoryIdsModifiedWithin(new Date(2000L), new Date(3000L)));
+        assertTrue(watermarkDao.getDataCategoryIdsModifiedWithin(new Date(4000L), new Date(5000L)).isEmpty());
+    }
+
+    @Test
+    public void categoriesWithDataItemsModifiedWithinRange() {
+        assertEquals(Arrays.asList(3L, 1L), watermarkDao.getDataCategoryIdsForDataItemsModifiedWithin(
+                new Date(2000L), new Date(6000L)));
+    }
+
+    @Test
+    public void categoriesModifiedAgainAfterARangeAreOnlyFoundWithNoEnd() {
+        // DataCategory 1 may also have been modified within the range, but only its latest modification is held.
+        assertEquals(Arrays.asList(3L), watermarkDao.getDataCategoryIdsForDataItemsModifiedWithin(
+                new Date(2000L), new Date(4000L)));
+        assertEquals(Arrays.asList(3L, 1L), watermarkDao.getDataCategoryIdsForDataItemsModifiedWithin(
+                new Date(2000L), null));
+        assertEquals(Arrays.asList(2L, 3L), watermarkDao.getDataCategoryIdsModifiedWithin(new Date(2000L), null));
+    }
+
+    @Test
+    public void dataItemsModified() {
+        assertEquals(5000L, watermarkDao.getDataItemsModified(reference(1L)).getTime());
+        assertNull(watermarkDao.getDataItemsModified(reference(4L)));
+    }
+
+    private void insert(long dataCategoryId, long categoryModified, long itemsModified) {
+        database.getSession().createSQLQuery(
+                "INSERT INTO DATA_CATEGORY_WATERMARK VALUES (:id, :categoryModified, :itemsModified)")
+                .setLong("id", dataCategoryId)
+                .setTimestamp("categoryModified", new Date(categoryModified))
+                .setTimestamp("itemsModified", new Date(itemsModified))
+                .executeUpdate();
+    }
+
+    private static IDataCategoryReference reference(long id) {
+        IDataCategoryReference dataCategory = mock(IDataCategoryReference.class);
+        when(dataCategory.getEntityId()).thenReturn(id);
+        return dataCategory;
+    }
+}
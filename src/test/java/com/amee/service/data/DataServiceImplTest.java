@@ -0,0 +1,139 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import com.amee.domain.cache.CacheHelper;
+import com.amee.domain.data.DataCategory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataServiceImplTest {
+
+    private DataServiceImpl dataService;
+
+    // A simple stand-in for the DataCategoryChildren cache.
+    private final Map<String, Object> cache = new HashMap<String, Object>();
+
+    private DataCategory root;
+    private DataCategory transport;
+    private DataCategory home;
+    private DataCategory car;
+
+    @Before
+    public void setUp() {
+        dataService = new DataServiceImpl();
+        ReflectionTestUtils.setField(dataService, "cacheHelper", mockCacheHelper());
+        ReflectionTestUtils.setField(dataService, "drillDownService", mock(DrillDownService.class));
+        ReflectionTestUtils.setField(dataService, "dao", mock(DataServiceDAOImpl.class));
+
+        root = dataCategory(1L, "DC0000000001", null, "");
+        transport = dataCategory(2L, "DC0000000002", root, "transport");
+        home = dataCategory(3L, "DC0000000003", root, "home");
+        car = dataCategory(4L, "DC0000000004", transport, "car");
+        DataCategoryTree.Builder builder = new DataCategoryTree.Builder();
+        for (DataCategory dataCategory : new DataCategory[]{root, transport, home, car}) {
+            builder.add(dataCategory.getId(), dataCategory.getUid(),
+                    dataCategory.getDataCategory() != null ? dataCategory.getDataCategory().getId() : null,
+                    dataCategory.getPath(), dataCategory.getModified(), reference(dataCategory));
+        }
+        DataCategoryTree snapshot = builder.build();
+        getTreeReference().set(snapshot);
+
+        // Cache the children of every DataCategory.
+        for (DataCategory dataCategory : new DataCategory[]{root, transport, home, car}) {
+            cache.put(dataCategory.getUid(), new HashMap<String, IDataCategoryReference>());
+        }
+    }
+
+    @Test
+    public void changesKeepUnrelatedChildrenCached() {
+        dataService.clearCaches(car);
+        assertEquals(keys(root, home), cache.keySet());
+    }
+
+    @Test
+    public void movesClearTheOldAndNewParents() {
+        DataCategory moved = dataCategory(4L, "DC0000000004", home, "car");
+        dataService.clearCaches(moved);
+        assertEquals(keys(root), cache.keySet());
+    }
+
+    @Test
+    public void changesWithoutASnapshotClearAllChildren() {
+        getTreeReference().set(null);
+        dataService.clearCaches(car);
+        assertEquals(0, cache.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicReference<DataCategoryTree> getTreeReference() {
+        return (AtomicReference<DataCategoryTree>) ReflectionTestUtils.getField(dataService, "tree");
+    }
+
+    private static DataCategory dataCategory(Long id, String uid, DataCategory parent, String path) {
+        DataCategory dataCategory = mock(DataCategory.class);
+        when(dataCategory.getId()).thenReturn(id);
+        when(dataCategory.getUid()).thenReturn(uid);
+        when(dataCategory.getDataCategory()).thenReturn(parent);
+        when(dataCategory.getPath()).thenReturn(path);
+        when(dataCategory.getModified()).thenReturn(new Date(0));
+        return dataCategory;
+    }
+
+    private static IDataCategoryReference reference(DataCategory dataCategory) {
+        Long id = dataCategory.getId();
+        String uid = dataCategory.getUid();
+        IDataCategoryReference reference = mock(IDataCategoryReference.class);
+        when(reference.getEntityId()).thenReturn(id);
+        when(reference.getEntityUid()).thenReturn(uid);
+        return reference;
+    }
+
+    private static HashSet<String> keys(DataCategory... dataCategories) {
+        HashSet<String> keys = new HashSet<String>();
+        for (DataCategory dataCategory : dataCategories) {
+            keys.add(dataCategory.getUid());
+        }
+        return keys;
+    }
+
+    private CacheHelper mockCacheHelper() {
+        CacheHelper cacheHelper = mock(CacheHelper.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                cache.clear();
+                return null;
+            }
+        }).when(cacheHelper).clearCache(anyString());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                String prefix = (String) invocation.getArguments()[1];
+                Iterator<String> keys = cache.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (keys.next().startsWith(prefix)) {
+                        keys.remove();
+                    }
+                }
+                return null;
+            }
+        }).when(cacheHelper).clearCache(anyString(), anyString());
+        return cacheHelper;
+    }
+}
@@ -0,0 +1,221 @@
+package com.amee.service.data;
+
+import com.amee.domain.DataItemService;
+import com.amee.domain.ValueDefinition;
+import com.amee.domain.ValueType;
+import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.ItemDefinition;
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.data.ItemValueMap;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.sheet.Cell;
+import com.amee.domain.sheet.Choice;
+import com.amee.domain.sheet.Column;
+import com.amee.domain.sheet.Row;
+import com.amee.domain.sheet.Sheet;
+import com.amee.platform.science.StartEndDate;
+import com.amee.service.item.DataItemLabels;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataSheetFactoryTest {
+
+    private DataItemService dataItemService;
+    private DataBrowser dataBrowser;
+    private ItemDefinition itemDefinition;
+    private ValueDefinition text;
+    private ValueDefinition integer;
+    private ValueDefinition decimal;
+    private StartEndDate startDate;
+    private List<DataItem> dataItems;
+
+    @Before
+    public void setUp() {
+        text = valueDefinition(ValueType.TEXT);
+        integer = valueDefinition(ValueType.INTEGER);
+        decimal = valueDefinition(ValueType.DOUBLE);
+        Set<ItemValueDefinition> itemValueDefinitions = new LinkedHashSet<ItemValueDefinition>();
+        itemValueDefinitions.add(itemValueDefinition("size", "Size", text));
+        itemValueDefinitions.add(itemValueDefinition("type", "Type", text));
+        itemValueDefinitions.add(itemValueDefinition("seats", "Seats", integer));
+        itemValueDefinitions.add(itemValueDefinition("engine", "Engine", decimal));
+        itemValueDefinitions.add(itemValueDefinition("kgCO2PerKm", "kgCO2 per km", decimal));
+        itemDefinition = mock(ItemDefinition.class);
+        when(itemDefinition.getItemValueDefinitions()).thenReturn(itemValueDefinitions);
+        when(itemDefinition.getDrillDown()).thenReturn("type,size,seats,engine");
+        when(itemDefinition.getDrillDownChoices()).thenReturn(Arrays.asList(
+                new Choice("type", "type"), new Choice("size", "size"),
+                new Choice("seats", "seats"), new Choice("engine", "engine")));
+        DataCategory dataCategory = mock(DataCategory.class);
+        when(dataCategory.getUid()).thenReturn("DC0000000001");
+        when(dataCategory.getItemDefinition()).thenReturn(itemDefinition);
+        startDate = new StartEndDate(new Date(0));
+        dataBrowser = mock(DataBrowser.class);
+        when(dataBrowser.getDataCategory()).thenReturn(dataCategory);
+        when(dataBrowser.getQueryStartDate()).thenReturn(startDate);
+
+        // Sort keys differing in case, numbers held as text and as numbers whose text order differs, blank, missing
+        // and equal values.
+        dataItemService = mock(DataItemService.class);
+        dataItems = new ArrayList<DataItem>();
+        dataItem("DI01", "Car", "small", "10", "1.6", "0.2");
+        dataItem("DI02", "bus", null, "50", null, "0.1");
+        dataItem("DI03", "car", "Large", "5", "10.5", "0.3");
+        dataItem("DI04", null, "10", null, null, null);
+        dataItem("DI05", "Bus", "9", "9", "9.5", "0.15");
+        dataItem("DI06", "car", "large", "5", "9.5", "0.35");
+        dataItem("DI07", "", "2", "", "", "");
+        dataItem("DI08", "van", "-", "2", "2.0", "0.4");
+        dataItem("DI09", "Car", "Small", "9", "1.6", "0.25");
+        dataItem("DI10", null, null, null, null, null);
+        dataItem("DI11", "Bus", "9", "10", "12", "0.12");
+        when(dataItemService.getDataItems(dataCategory)).thenReturn(dataItems);
+    }
+
+    @Test
+    public void sheetsMatchThePreviousImplementation() {
+        DataSheetTable table = (DataSheetTable) new DataSheetFactory(dataItemService, dataBrowser, "DataSheets").create();
+        Sheet sheet = table.getSheet();
+        Sheet previous = previousSheet();
+        assertEquals(names(previous.getColumns()), names(sheet.getColumns()));
+        assertEquals(uids(previous.getRows()), uids(sheet.getRows()));
+        for (int row = 0; row < previous.getRows().size(); row++) {
+            assertEquals(values(previous.getRows().get(row)), values(sheet.getRows().get(row)));
+        }
+    }
+
+    // The implementation of DataSheetFactory.create before rows were ordered by the factory.
+    private Sheet previousSheet() {
+        Sheet sheet = new Sheet();
+        sheet.setLabel("DataItems");
+        for (ItemValueDefinition itemValueDefinition : itemDefinition.getItemValueDefinitions()) {
+            if (itemValueDefinition.isFromData()) {
+                new Column(sheet, itemValueDefinition.getPath(), itemValueDefinition.getName());
+            }
+        }
+        new Column(sheet, "label");
+        new Column(sheet, "path");
+        new Column(sheet, "uid", true);
+        new Column(sheet, "created", true);
+        new Column(sheet, "modified", true);
+        new Column(sheet, "startDate");
+        new Column(sheet, "endDate");
+        DataItemLabels labels = new DataItemLabels(itemDefinition);
+        for (DataItem dataItem : dataItems) {
+            Row row = new Row(sheet, dataItem.getUid());
+            row.setLabel("DataItem");
+            for (Column column : sheet.getColumns()) {
+                BaseItemValue itemValue = dataItemService.getItemValuesMap(dataItem).get(column.getName(), startDate);
+                if (itemValue != null) {
+                    new Cell(column, row, itemValue.getValueAsString(), itemValue.getUid(),
+                            itemValue.getItemValueDefinition().getValueDefinition().getValueType());
+                } else if ("label".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, labels.getLabel(dataItemService, dataItem), ValueType.TEXT);
+                } else if ("path".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, dataItem.getDisplayPath(), ValueType.TEXT);
+                } else if ("uid".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, dataItem.getUid(), ValueType.TEXT);
+                } else if ("created".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, dataItem.getCreated(), ValueType.DATE);
+                } else if ("modified".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, dataItem.getModified(), ValueType.DATE);
+                } else if ("startDate".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, dataItemService.getStartDate(dataItem), ValueType.DATE);
+                } else if ("endDate".equalsIgnoreCase(column.getName())) {
+                    new Cell(column, row, dataItemService.getEndDate(dataItem), ValueType.DATE);
+                } else {
+                    new Cell(column, row);
+                }
+            }
+        }
+        sheet.setDisplayBy(itemDefinition.getDrillDown());
+        sheet.sortColumns();
+        sheet.setSortBy(itemDefinition.getDrillDown());
+        sheet.sortRows();
+        return sheet;
+    }
+
+    private static ValueDefinition valueDefinition(ValueType valueType) {
+        ValueDefinition valueDefinition = mock(ValueDefinition.class);
+        when(valueDefinition.getValueType()).thenReturn(valueType);
+        return valueDefinition;
+    }
+
+    private static ItemValueDefinition itemValueDefinition(String path, String name, ValueDefinition valueDefinition) {
+        ItemValueDefinition itemValueDefinition = mock(ItemValueDefinition.class);
+        when(itemValueDefinition.isFromData()).thenReturn(true);
+        when(itemValueDefinition.getPath()).thenReturn(path);
+        when(itemValueDefinition.getName()).thenReturn(name);
+        when(itemValueDefinition.getValueDefinition()).thenReturn(valueDefinition);
+        return itemValueDefinition;
+    }
+
+    private void dataItem(String uid, String type, String size, String seats, String engine, String kgCO2PerKm) {
+        DataItem dataItem = mock(DataItem.class);
+        when(dataItem.getUid()).thenReturn(uid);
+        when(dataItem.getDisplayPath()).thenReturn(uid.toLowerCase());
+        when(dataItem.getItemDefinition()).thenReturn(itemDefinition);
+        when(dataItem.getCreated()).thenReturn(new Date(1000));
+        when(dataItem.getModified()).thenReturn(new Date(2000));
+        when(dataItem.getEffectiveStartDate()).thenReturn(new Date(0));
+        ItemValueMap itemValues = mock(ItemValueMap.class);
+        stubValue(itemValues, uid, "type", type, text);
+        stubValue(itemValues, uid, "size", size, text);
+        stubValue(itemValues, uid, "seats", seats, integer);
+        stubValue(itemValues, uid, "engine", engine, decimal);
+        stubValue(itemValues, uid, "kgCO2PerKm", kgCO2PerKm, decimal);
+        when(dataItemService.getItemValuesMap(dataItem)).thenReturn(itemValues);
+        when(dataItemService.getStartDate(dataItem)).thenReturn(new StartEndDate(new Date(0)));
+        dataItems.add(dataItem);
+    }
+
+    private void stubValue(ItemValueMap itemValues, String uid, String path, String value,
+                           ValueDefinition valueDefinition) {
+        if (value != null) {
+            ItemValueDefinition itemValueDefinition = itemValueDefinition(path, path, valueDefinition);
+            BaseItemValue itemValue = mock(BaseItemValue.class);
+            when(itemValue.getUid()).thenReturn(uid + "_" + path);
+            when(itemValue.getValueAsString()).thenReturn(value);
+            when(itemValue.getItemValueDefinition()).thenReturn(itemValueDefinition);
+            when(itemValues.get(eq(path), any(Date.class))).thenReturn(itemValue);
+        }
+    }
+
+    private static List<String> names(List<Column> columns) {
+        List<String> names = new ArrayList<String>();
+        for (Column column : columns) {
+            names.add(column.getName());
+        }
+        return names;
+    }
+
+    private static List<String> uids(List<Row> rows) {
+        List<String> uids = new ArrayList<String>();
+        for (Row row : rows) {
+            uids.add(row.getUid());
+        }
+        return uids;
+    }
+
+    private static List<String> values(Row row) {
+        List<String> values = new ArrayList<String>();
+        for (Cell cell : row.getCells()) {
+            values.add(cell.getColumn().getName() + "=" + cell.getValueAsString());
+        }
+        return values;
+    }
+}
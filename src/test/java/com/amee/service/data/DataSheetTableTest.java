@@ -0,0 +1,129 @@
+package com.amee.service.data;
+
+import com.amee.domain.ValueType;
+import com.amee.domain.sheet.Sheet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class DataSheetTableTest {
+
+    private DataSheetTable table;
+
+    @Before
+    public void setUp() {
+        List<DataSheetTable.Column> columns = Arrays.asList(
+                new DataSheetTable.Column("type", "Type", false),
+                new DataSheetTable.Column("size", "Size", false),
+                new DataSheetTable.Column("uid", null, true));
+        List<DataSheetTable.Row> rows = Arrays.asList(
+                row("DI1", "bus", "large"),
+                row("DI2", "car", "large"),
+                row("DI3", "car", "small"));
+        table = new DataSheetTable("DataSheet_DC", "DataSheets", "DC", "en_GB", null, "type,size",
+                columns, new int[]{0, 1}, rows);
+    }
+
+    @Test
+    public void changedRowsAreReplacedInOrder() {
+        table.update("DI1", row("DI1", "Tram", "large"));
+        assertEquals(Arrays.asList("DI2", "DI3", "DI1"), uids(table.getRows()));
+        table.update("DI3", row("DI3", "car", "medium"));
+        assertEquals(Arrays.asList("DI2", "DI3", "DI1"), uids(table.getRows()));
+    }
+
+    @Test
+    public void newRowsAreAddedAfterEqualRows() {
+        table.update("DI4", row("DI4", "car", "large"));
+        assertEquals(Arrays.asList("DI1", "DI2", "DI4", "DI3"), uids(table.getRows()));
+    }
+
+    @Test
+    public void removedRowsAreDropped() {
+        table.update("DI2", null);
+        table.update("DI5", null);
+        assertEquals(Arrays.asList("DI1", "DI3"), uids(table.getRows()));
+    }
+
+    @Test
+    public void sheetsAreSharedUntilTheRowsChange() {
+        Sheet sheet = table.getSheet();
+        assertSame(sheet, table.getSheet());
+        table.update("DI2", null);
+        Sheet updated = table.getSheet();
+        assertNotSame(sheet, updated);
+        assertEquals(3, sheet.getRows().size());
+        assertEquals(2, updated.getRows().size());
+        assertSame(updated, table.getSheet());
+    }
+
+    @Test
+    public void updatesAreCopyOnWrite() {
+        List<DataSheetTable.Row> rows = table.getRows();
+        table.update("DI2", null);
+        assertEquals(Arrays.asList("DI1", "DI2", "DI3"), uids(rows));
+    }
+
+    @Test
+    public void rowsStayInOrderWhenEncodedAgain() {
+        String[] types = {"bus", "car", "Tram", "van"};
+        String[] sizes = {"large", "medium", "small"};
+        List<DataSheetTable.Row> expected = new ArrayList<DataSheetTable.Row>(table.getRows());
+        Random random = new Random(1);
+        for (int i = 0; i < DataSheetTable.MIN_CHANGES * 4; i++) {
+            String uid = "DI" + random.nextInt(40);
+            DataSheetTable.Row row = random.nextInt(5) == 0 ? null :
+                    row(uid, types[random.nextInt(types.length)], sizes[random.nextInt(sizes.length)]);
+            table.update(uid, row);
+
+            // Apply the update to the whole list, placing the Row after the Rows ordered before or with it.
+            for (int j = 0; j < expected.size(); j++) {
+                if (expected.get(j).getUid().equals(uid)) {
+                    expected.remove(j);
+                    break;
+                }
+            }
+            if (row != null) {
+                int index = 0;
+                while ((index < expected.size()) && (compare(expected.get(index), row) <= 0)) {
+                    index++;
+                }
+                expected.add(index, row);
+            }
+            assertEquals(uids(expected), uids(table.getRows()));
+        }
+    }
+
+    private static int compare(DataSheetTable.Row a, DataSheetTable.Row b) {
+        for (int column = 0; column < 2; column++) {
+            int result = a.getValues()[column].compareTo(b.getValues()[column]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static DataSheetTable.Row row(String uid, String type, String size) {
+        return new DataSheetTable.Row(uid, new DataSheetTable.Value[]{
+                new DataSheetTable.Value(type, uid + "_type", ValueType.TEXT),
+                new DataSheetTable.Value(size, uid + "_size", ValueType.TEXT),
+                new DataSheetTable.Value(uid, null, ValueType.TEXT)});
+    }
+
+    private static List<String> uids(List<DataSheetTable.Row> rows) {
+        List<String> uids = new ArrayList<String>();
+        for (DataSheetTable.Row row : rows) {
+            uids.add(row.getUid());
+        }
+        return uids;
+    }
+}
@@ -0,0 +1,112 @@
+package com.amee.service.data;
+
+import com.amee.domain.sheet.Choice;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class DrillDownDAOTest {
+
+    private static final int ITEM_COUNT = 2000;
+
+    private DrillDownDatabase database;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new DrillDownDatabase("drillDownDaoTest", ITEM_COUNT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Test
+    public void topLevelChoices() {
+        List<Choice> choices = database.getDrillDownDao().getDataItemValueChoices(
+                database.getDataCategory(), "type", new ArrayList<Choice>());
+        assertEquals(10, choices.size());
+        assertEquals("type0", choices.get(0).getValue());
+    }
+
+    @Test
+    public void refinedChoices() {
+        List<Choice> choices = database.getDrillDownDao().getDataItemValueChoices(
+                database.getDataCategory(), "size", DrillDownDatabase.getSelections(123, 1));
+        assertEquals(5, choices.size());
+    }
+
+    @Test
+    public void fullSelectionsGiveMatchingUids() {
+        List<Choice> selections = DrillDownDatabase.getSelections(123, 3);
+        List<Choice> choices = database.getDrillDownDao().getDataItemUIDChoices(database.getDataCategory(), selections);
+
+        // Work out the expected UIDs from the generated data.
+        Set<String> expected = new HashSet<String>();
+        for (int item = 0; item < ITEM_COUNT; item++) {
+            if (!DrillDownDatabase.isTrash(item) &&
+                    DrillDownDatabase.getType(item).equals(DrillDownDatabase.getType(123)) &&
+                    DrillDownDatabase.getSize(item).equals(DrillDownDatabase.getSize(123)) &&
+                    (DrillDownDatabase.getYear(item) == DrillDownDatabase.getYear(123))) {
+                expected.add(DrillDownDatabase.getUid(item));
+            }
+        }
+        Set<String> actual = new HashSet<String>();
+        for (Choice choice : choices) {
+            actual.add(choice.getValue());
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void largeCategoriesUseBoundedStatements() throws Exception {
+        int itemCount = 50000;
+        DrillDownDatabase large = new DrillDownDatabase("drillDownDaoLargeTest", itemCount);
+        try {
+            DrillDownDAO drillDownDao = large.getDrillDownDao();
+            for (int depth = 0; depth < DrillDownDatabase.DRILL_DOWNS.length; depth++) {
+                long statements = large.getStatementCount();
+                List<Choice> choices = drillDownDao.getDataItemValueChoices(
+                        large.getDataCategory(), DrillDownDatabase.DRILL_DOWNS[depth], DrillDownDatabase.getSelections(4321, depth));
+                assertEquals(1, large.getStatementCount() - statements);
+                assertEquals(depth == 0 ? 10 : depth == 1 ? 5 : 20, choices.size());
+            }
+
+            // All the DataItems for a full selection, in one statement.
+            long statements = large.getStatementCount();
+            List<Choice> choices = large.getDrillDownDao().getDataItemUIDChoices(
+                    large.getDataCategory(), DrillDownDatabase.getSelections(4321, 3));
+            assertEquals(1, large.getStatementCount() - statements);
+            Set<String> expected = new HashSet<String>();
+            for (int item = 0; item < itemCount; item++) {
+                if (!DrillDownDatabase.isTrash(item) &&
+                        DrillDownDatabase.getType(item).equals(DrillDownDatabase.getType(4321)) &&
+                        DrillDownDatabase.getSize(item).equals(DrillDownDatabase.getSize(4321)) &&
+                        (DrillDownDatabase.getYear(item) == DrillDownDatabase.getYear(4321))) {
+                    expected.add(DrillDownDatabase.getUid(item));
+                }
+            }
+            Set<String> actual = new HashSet<String>();
+            for (Choice choice : choices) {
+                actual.add(choice.getValue());
+            }
+            assertEquals(expected, actual);
+        } finally {
+            large.close();
+        }
+    }
+
+    @Test
+    public void unknownValueGivesNoUids() {
+        List<Choice> selections = Arrays.asList(new Choice("type", "unknown"), new Choice("year", "1900"));
+        assertEquals(0, database.getDrillDownDao().getDataItemUIDChoices(database.getDataCategory(), selections).size());
+    }
+}
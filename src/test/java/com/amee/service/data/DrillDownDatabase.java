@@ -0,0 +1,262 @@
+package com.amee.service.data;
+
+import com.amee.domain.AMEEStatus;
+import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.ItemDefinition;
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.sheet.Choice;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.EntityManager;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An in-memory H2 database holding a single drill down DataCategory with generated DataItems, wired to a real
+ * {@link DrillDownDAO}. Used by tests and benchmarks of the drill down SQL.
+ * <p/>
+ * Only the DATA_ITEM, DATA_ITEM_NUMBER_VALUE, DATA_ITEM_TEXT_VALUE and LOCALE_NAME columns used by the drill down
+ * queries are created. DataItems have three drill downs, 'type' (text, 10 values), 'size' (text, 5 values) and
+ * 'year' (number, 20 values), plus a numeric 'factor'. Every 100th DataItem is trashed.
+ */
+class DrillDownDatabase {
+
+    static final long DATA_CATEGORY_ID = 1L;
+    static final long ITEM_DEFINITION_ID = 1L;
+
+    static final String[] DRILL_DOWNS = {"type", "size", "year"};
+
+    private static final long TYPE_IVD_ID = 1L;
+    private static final long SIZE_IVD_ID = 2L;
+    private static final long YEAR_IVD_ID = 3L;
+    private static final long FACTOR_IVD_ID = 4L;
+
+    private final String url;
+    private final Connection connection;
+    private final SessionFactory sessionFactory;
+    private final Session session;
+    private final DataCategory dataCategory;
+    private final DrillDownDAO drillDownDao;
+
+    /**
+     * @param name      the name of the in-memory database
+     * @param itemCount the number of DataItems to generate
+     * @throws SQLException if the database cannot be created
+     */
+    DrillDownDatabase(String name, int itemCount) throws SQLException {
+        url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+
+        // Keep the database open until close() is called.
+        connection = DriverManager.getConnection(url, "sa", "");
+        createSchema();
+        insertDataItems(itemCount);
+
+        // A Hibernate Session without any mappings is enough for native SQL.
+        sessionFactory = new Configuration()
+                .setProperty(Environment.DRIVER, "org.h2.Driver")
+                .setProperty(Environment.URL, url)
+                .setProperty(Environment.USER, "sa")
+                .setProperty(Environment.PASS, "")
+                .setProperty(Environment.DIALECT, H2Dialect.class.getName())
+                .setProperty(Environment.GENERATE_STATISTICS, "true")
+                .buildSessionFactory();
+        session = sessionFactory.openSession();
+
+        // The DataCategory and ItemDefinition.
+        ItemDefinition itemDefinition = mock(ItemDefinition.class);
+        when(itemDefinition.getId()).thenReturn(ITEM_DEFINITION_ID);
+        addItemValueDefinition(itemDefinition, "type", TYPE_IVD_ID);
+        addItemValueDefinition(itemDefinition, "size", SIZE_IVD_ID);
+        addItemValueDefinition(itemDefinition, "year", YEAR_IVD_ID);
+        addItemValueDefinition(itemDefinition, "factor", FACTOR_IVD_ID);
+        when(itemDefinition.getDrillDownChoices()).thenAnswer(new Answer<List<Choice>>() {
+            @Override
+            public List<Choice> answer(InvocationOnMock invocation) {
+                // A new List each time as callers modify it.
+                List<Choice> drillDownChoices = new ArrayList<Choice>();
+                for (String drillDown : DRILL_DOWNS) {
+                    drillDownChoices.add(new Choice(drillDown, drillDown));
+                }
+                return drillDownChoices;
+            }
+        });
+        dataCategory = mock(DataCategory.class);
+        when(dataCategory.getId()).thenReturn(DATA_CATEGORY_ID);
+        when(dataCategory.getEntityId()).thenReturn(DATA_CATEGORY_ID);
+        when(dataCategory.getEntityUid()).thenReturn("DC0000000001");
+        when(dataCategory.isItemDefinitionPresent()).thenReturn(true);
+        when(dataCategory.getItemDefinition()).thenReturn(itemDefinition);
+
+        // The DrillDownDAO.
+        EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.getDelegate()).thenReturn(session);
+        DataServiceDAO dataServiceDao = mock(DataServiceDAO.class);
+        when(dataServiceDao.getDataCategory(dataCategory)).thenReturn(dataCategory);
+        drillDownDao = new DrillDownDAO();
+        ReflectionTestUtils.setField(drillDownDao, "entityManager", entityManager);
+        ReflectionTestUtils.setField(drillDownDao, "dataServiceDao", dataServiceDao);
+    }
+
+    DrillDownDAO getDrillDownDao() {
+        return drillDownDao;
+    }
+
+    DataCategory getDataCategory() {
+        return dataCategory;
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return the number of JDBC statements prepared through Hibernate so far
+     */
+    long getStatementCount() {
+        return sessionFactory.getStatistics().getPrepareStatementCount();
+    }
+
+    /**
+     * Get the drill down selections that lead to the given DataItem.
+     *
+     * @param item  the index of a generated DataItem
+     * @param depth the number of drill downs to select, from 0 to 3
+     * @return the selections
+     */
+    static List<Choice> getSelections(int item, int depth) {
+        List<Choice> selections = new ArrayList<Choice>();
+        String[] values = {getType(item), getSize(item), String.valueOf(getYear(item))};
+        for (int i = 0; i < depth; i++) {
+            selections.add(new Choice(DRILL_DOWNS[i], values[i]));
+        }
+        return selections;
+    }
+
+    static String getUid(int item) {
+        return String.format("DI%010d", item);
+    }
+
+    static boolean isTrash(int item) {
+        return item % 100 == 99;
+    }
+
+    static String getType(int item) {
+        return "type" + (item % 10);
+    }
+
+    static String getSize(int item) {
+        return "size" + ((item / 10) % 5);
+    }
+
+    static int getYear(int item) {
+        return 2000 + ((item / 50) % 20);
+    }
+
+    void close() throws SQLException {
+        session.close();
+        sessionFactory.close();
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("DROP ALL OBJECTS");
+        } finally {
+            statement.close();
+            connection.close();
+        }
+    }
+
+    private void addItemValueDefinition(ItemDefinition itemDefinition, String path, long id) {
+        ItemValueDefinition itemValueDefinition = mock(ItemValueDefinition.class);
+        when(itemValueDefinition.getId()).thenReturn(id);
+        when(itemValueDefinition.getPath()).thenReturn(path);
+        when(itemDefinition.getItemValueDefinition(path)).thenReturn(itemValueDefinition);
+    }
+
+    private void createSchema() throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("CREATE TABLE DATA_ITEM (" +
+                    "ID BIGINT PRIMARY KEY, UID VARCHAR(12) NOT NULL, STATUS INT NOT NULL, " +
+                    "DATA_CATEGORY_ID BIGINT NOT NULL, ITEM_DEFINITION_ID BIGINT NOT NULL)");
+            statement.execute("CREATE INDEX DI_DC_ID ON DATA_ITEM (DATA_CATEGORY_ID, ITEM_DEFINITION_ID)");
+            statement.execute("CREATE TABLE DATA_ITEM_NUMBER_VALUE (" +
+                    "ID BIGINT PRIMARY KEY, STATUS INT NOT NULL, VALUE DOUBLE, " +
+                    "DATA_ITEM_ID BIGINT NOT NULL, ITEM_VALUE_DEFINITION_ID BIGINT NOT NULL)");
+            statement.execute("CREATE INDEX DINV_DI ON DATA_ITEM_NUMBER_VALUE (DATA_ITEM_ID)");
+            statement.execute("CREATE INDEX DINV_IVD_VALUE ON DATA_ITEM_NUMBER_VALUE (ITEM_VALUE_DEFINITION_ID, VALUE)");
+            statement.execute("CREATE TABLE DATA_ITEM_TEXT_VALUE (" +
+                    "ID BIGINT PRIMARY KEY, STATUS INT NOT NULL, VALUE VARCHAR(255), " +
+                    "DATA_ITEM_ID BIGINT NOT NULL, ITEM_VALUE_DEFINITION_ID BIGINT NOT NULL)");
+            statement.execute("CREATE INDEX DITV_DI ON DATA_ITEM_TEXT_VALUE (DATA_ITEM_ID)");
+            statement.execute("CREATE INDEX DITV_IVD_VALUE ON DATA_ITEM_TEXT_VALUE (ITEM_VALUE_DEFINITION_ID, VALUE)");
+            statement.execute("CREATE TABLE LOCALE_NAME (" +
+                    "ID BIGINT PRIMARY KEY, ENTITY_TYPE VARCHAR(5) NOT NULL, ENTITY_ID BIGINT NOT NULL, " +
+                    "LOCALE VARCHAR(10) NOT NULL, NAME VARCHAR(255))");
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void insertDataItems(int itemCount) throws SQLException {
+        int active = AMEEStatus.ACTIVE.ordinal();
+        int trash = AMEEStatus.TRASH.ordinal();
+        PreparedStatement dataItems = connection.prepareStatement(
+                "INSERT INTO DATA_ITEM (ID, UID, STATUS, DATA_CATEGORY_ID, ITEM_DEFINITION_ID) VALUES (?, ?, ?, ?, ?)");
+        PreparedStatement numberValues = connection.prepareStatement(
+                "INSERT INTO DATA_ITEM_NUMBER_VALUE (ID, STATUS, VALUE, DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID) VALUES (?, ?, ?, ?, ?)");
+        PreparedStatement textValues = connection.prepareStatement(
+                "INSERT INTO DATA_ITEM_TEXT_VALUE (ID, STATUS, VALUE, DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID) VALUES (?, ?, ?, ?, ?)");
+        try {
+            long valueId = 1;
+            for (int item = 0; item < itemCount; item++) {
+                long dataItemId = item + 1;
+                dataItems.setLong(1, dataItemId);
+                dataItems.setString(2, getUid(item));
+                dataItems.setInt(3, isTrash(item) ? trash : active);
+                dataItems.setLong(4, DATA_CATEGORY_ID);
+                dataItems.setLong(5, ITEM_DEFINITION_ID);
+                dataItems.addBatch();
+                addValue(textValues, valueId++, dataItemId, TYPE_IVD_ID, getType(item), active);
+                addValue(textValues, valueId++, dataItemId, SIZE_IVD_ID, getSize(item), active);
+                addValue(numberValues, valueId++, dataItemId, YEAR_IVD_ID, (double) getYear(item), active);
+                addValue(numberValues, valueId++, dataItemId, FACTOR_IVD_ID, item * 0.001, active);
+                if (item % 1000 == 999) {
+                    dataItems.executeBatch();
+                    textValues.executeBatch();
+                    numberValues.executeBatch();
+                }
+            }
+            dataItems.executeBatch();
+            textValues.executeBatch();
+            numberValues.executeBatch();
+        } finally {
+            dataItems.close();
+            numberValues.close();
+            textValues.close();
+        }
+    }
+
+    private void addValue(PreparedStatement statement, long id, long dataItemId, long itemValueDefinitionId, Object value, int status)
+            throws SQLException {
+        statement.setLong(1, id);
+        statement.setInt(2, status);
+        statement.setObject(3, value);
+        statement.setLong(4, dataItemId);
+        statement.setLong(5, itemValueDefinitionId);
+        statement.addBatch();
+    }
+}
@@ -0,0 +1,140 @@
+package com.amee.service.data;
+
+import com.amee.domain.sheet.Choice;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DrillDownIndexTest {
+
+    @Test
+    public void textMatchesIgnoreCaseAndTrailingSpaces() {
+        DrillDownIndex index = new DrillDownIndex.Builder()
+                .addColumn("fuel")
+                .addDataItem(1, "DI1")
+                .addDataItem(2, "DI2")
+                .addTextValue(1, "fuel", "Petrol")
+                .addTextValue(2, "fuel", "diesel ")
+                .build();
+        assertEquals(uids("DI1"), uids(index, index.getRows(selections("fuel", "petrol"))));
+        assertEquals(uids("DI2"), uids(index, index.getRows(selections("fuel", "Diesel"))));
+        assertEquals(uids(), uids(index, index.getRows(selections("fuel", "lpg"))));
+    }
+
+    @Test
+    public void numbersMatchParsedSelections() {
+        DrillDownIndex index = new DrillDownIndex.Builder()
+                .addColumn("year")
+                .addDataItem(1, "DI1")
+                .addDataItem(2, "DI2")
+                .addNumberValue(1, "year", 2010.0, "2010")
+                .addNumberValue(2, "year", 2011.0, "2011")
+                .build();
+        assertEquals(uids("DI1"), uids(index, index.getRows(selections("year", "2010"))));
+        assertEquals(uids("DI1"), uids(index, index.getRows(selections("year", "2010.0"))));
+        assertEquals(uids(), uids(index, index.getRows(selections("year", "abc"))));
+    }
+
+    @Test
+    public void valuesOfUnknownDataItemsAreIgnored() {
+        DrillDownIndex index = new DrillDownIndex.Builder()
+                .addColumn("fuel")
+                .addDataItem(1, "DI1")
+                .addTextValue(1, "fuel", "petrol")
+                .addTextValue(2, "fuel", "diesel")
+                .build();
+        List<Choice> choices = index.getValueChoices("fuel", index.getRows(new ArrayList<Choice>()));
+        assertEquals(1, choices.size());
+        assertEquals("petrol", choices.get(0).getValue());
+    }
+
+    @Test
+    public void choicesAreDistinctAndSorted() {
+        DrillDownIndex.Builder builder = new DrillDownIndex.Builder().addColumn("fuel").addColumn("size");
+        for (int i = 0; i < 200; i++) {
+            builder.addDataItem(i, "DI" + i);
+            // A common value held as a bitmap and rare values held as row arrays.
+            builder.addTextValue(i, "fuel", i % 100 == 0 ? "Rare" + i : "common");
+            builder.addTextValue(i, "size", i % 2 == 0 ? "small" : "large");
+        }
+        DrillDownIndex index = builder.build();
+        List<Choice> choices = index.getValueChoices("fuel", index.getRows(new ArrayList<Choice>()));
+        assertEquals(Arrays.asList("common", "Rare0", "Rare100"), values(choices));
+        choices = index.getValueChoices("fuel", index.getRows(selections("size", "large")));
+        assertEquals(Arrays.asList("common"), values(choices));
+        choices = index.getValueChoices("size", index.getRows(selections("fuel", "rare100")));
+        assertEquals(Arrays.asList("small"), values(choices));
+    }
+
+    @Test
+    public void unknownSelectionIsRejected() {
+        DrillDownIndex index = new DrillDownIndex.Builder().addColumn("fuel").build();
+        try {
+            index.getRows(selections("size", "large"));
+            fail("Should have thrown an IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void indexMatchesDrillDownDAO() throws Exception {
+        DrillDownDatabase database = new DrillDownDatabase("drillDownIndexTest", 3000);
+        try {
+            DrillDownDAO drillDownDao = database.getDrillDownDao();
+            DrillDownIndex index = drillDownDao.getDrillDownIndex(database.getDataCategory());
+            for (int item = 0; item < 3000; item += 37) {
+                for (int depth = 0; depth < DrillDownDatabase.DRILL_DOWNS.length; depth++) {
+                    String path = DrillDownDatabase.DRILL_DOWNS[depth];
+                    List<Choice> selections = DrillDownDatabase.getSelections(item, depth);
+                    BitSet rows = index.getRows(selections);
+
+                    // Numbers are formatted by the database so just compare the number of choices.
+                    List<Choice> expected = drillDownDao.getDataItemValueChoices(
+                            database.getDataCategory(), path, new ArrayList<Choice>(selections));
+                    List<Choice> actual = index.getValueChoices(path, rows);
+                    assertEquals(expected.size(), actual.size());
+                    if (!path.equals("year")) {
+                        assertEquals(values(expected), values(actual));
+                    }
+                }
+                List<Choice> selections = DrillDownDatabase.getSelections(item, DrillDownDatabase.DRILL_DOWNS.length);
+                assertEquals(
+                        new HashSet<String>(values(drillDownDao.getDataItemUIDChoices(database.getDataCategory(), new ArrayList<Choice>(selections)))),
+                        new HashSet<String>(values(index.getUidChoices(index.getRows(selections)))));
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    private List<Choice> selections(String name, String value) {
+        List<Choice> selections = new ArrayList<Choice>();
+        selections.add(new Choice(name, value));
+        return selections;
+    }
+
+    private Set<String> uids(String... uids) {
+        return new HashSet<String>(Arrays.asList(uids));
+    }
+
+    private Set<String> uids(DrillDownIndex index, BitSet rows) {
+        return new HashSet<String>(values(index.getUidChoices(rows)));
+    }
+
+    private List<String> values(List<Choice> choices) {
+        List<String> values = new ArrayList<String>();
+        for (Choice choice : choices) {
+            values.add(choice.getValue());
+        }
+        return values;
+    }
+}
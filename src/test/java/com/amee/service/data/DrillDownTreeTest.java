@@ -0,0 +1,120 @@
+package com.amee.service.data;
+
+import com.amee.domain.sheet.Choice;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DrillDownTreeTest {
+
+    @Test
+    public void choicesFollowSelections() {
+        DrillDownTree tree = DrillDownTree.build(getIndex(), DrillDownTree.DEFAULT_MAX_NODES);
+        assertTrue(tree.isPrecomputed());
+        assertEquals(new HashSet<String>(Arrays.asList("petrol", "Diesel")),
+                new HashSet<String>(values(tree.getDataItemChoices(selections(), drillDowns("fuel", "size")))));
+        assertEquals(Arrays.asList("large", "small"),
+                values(tree.getDataItemChoices(selections("fuel", "PETROL"), drillDowns("size"))));
+        assertEquals(Arrays.asList("DI3"),
+                values(tree.getDataItemChoices(selections("fuel", "diesel ", "size", "large"), drillDowns())));
+    }
+
+    @Test
+    public void unknownTextSelectionHasNoChoices() {
+        DrillDownTree tree = DrillDownTree.build(getIndex(), DrillDownTree.DEFAULT_MAX_NODES);
+        assertEquals(0, tree.getDataItemChoices(selections("fuel", "lpg"), drillDowns("size")).size());
+        assertEquals(0, tree.getDataItemChoices(selections("fuel", ""), drillDowns("size")).size());
+    }
+
+    @Test
+    public void unsupportedLookupsReturnNull() {
+        DrillDownTree tree = DrillDownTree.build(getIndex(), DrillDownTree.DEFAULT_MAX_NODES);
+        // Out of order.
+        assertNull(tree.getDataItemChoices(selections("size", "large"), drillDowns("fuel")));
+        // Numbers may be formatted differently.
+        assertNull(tree.getDataItemChoices(selections("fuel", "1.0"), drillDowns("size")));
+        // Not the next drill down.
+        assertNull(tree.getDataItemChoices(selections(), drillDowns("size")));
+    }
+
+    @Test
+    public void largeTreesAreNotPrecomputed() {
+        DrillDownTree tree = DrillDownTree.build(getIndex(), 3);
+        assertFalse(tree.isPrecomputed());
+        assertNull(tree.getDataItemChoices(selections(), drillDowns("fuel", "size")));
+    }
+
+    @Test
+    public void treeMatchesDrillDownIndex() throws Exception {
+        DrillDownDatabase database = new DrillDownDatabase("drillDownTreeTest", 3000);
+        try {
+            DrillDownIndex index = database.getDrillDownDao().getDrillDownIndex(database.getDataCategory());
+            DrillDownTree tree = DrillDownTree.build(index, DrillDownTree.DEFAULT_MAX_NODES);
+            assertTrue(tree.isPrecomputed());
+            String[] drillDowns = DrillDownDatabase.DRILL_DOWNS;
+            for (int item = 0; item < 3000; item += 37) {
+                for (int depth = 0; depth <= drillDowns.length; depth++) {
+                    List<Choice> selections = DrillDownDatabase.getSelections(item, depth);
+                    List<Choice> remaining = drillDowns(Arrays.copyOfRange(drillDowns, depth, drillDowns.length));
+                    BitSet rows = index.getRows(selections);
+                    List<Choice> expected = depth < drillDowns.length ?
+                            index.getValueChoices(drillDowns[depth], rows) :
+                            index.getUidChoices(rows);
+                    assertEquals(new HashSet<String>(values(expected)),
+                            new HashSet<String>(values(tree.getDataItemChoices(selections, remaining))));
+                }
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    private DrillDownIndex getIndex() {
+        return new DrillDownIndex.Builder()
+                .addColumn("fuel")
+                .addColumn("size")
+                .addDataItem(1, "DI1")
+                .addDataItem(2, "DI2")
+                .addDataItem(3, "DI3")
+                .addTextValue(1, "fuel", "petrol")
+                .addTextValue(2, "fuel", "Petrol ")
+                .addTextValue(3, "fuel", "Diesel")
+                .addTextValue(1, "size", "small")
+                .addTextValue(2, "size", "large")
+                .addTextValue(3, "size", "large")
+                .build();
+    }
+
+    private List<Choice> selections(String... namesAndValues) {
+        List<Choice> selections = new ArrayList<Choice>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            selections.add(new Choice(namesAndValues[i], namesAndValues[i + 1]));
+        }
+        return selections;
+    }
+
+    private List<Choice> drillDowns(String... names) {
+        List<Choice> drillDowns = new ArrayList<Choice>();
+        for (String name : names) {
+            drillDowns.add(new Choice(name, name));
+        }
+        return drillDowns;
+    }
+
+    private List<String> values(List<Choice> choices) {
+        List<String> values = new ArrayList<String>();
+        for (Choice choice : choices) {
+            values.add(choice.getValue());
+        }
+        return values;
+    }
+}
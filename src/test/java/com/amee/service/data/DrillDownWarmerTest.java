@@ -0,0 +1,332 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import com.amee.domain.cache.CacheHelper;
+import com.amee.domain.cache.CacheableFactory;
+import com.amee.domain.sheet.Choice;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DrillDownWarmerTest {
+
+    private DrillDownWarmer drillDownWarmer;
+    private DrillDownDAO drillDownDao;
+    private DrillDownLoader drillDownLoader;
+    private CacheHelper cacheHelper;
+    private IDataCategoryReference small;
+    private IDataCategoryReference large;
+
+    // Background tasks, run when the test chooses.
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    // A simple stand-in for the DrillDownChoices cache.
+    private final Map<String, Object> cache = new HashMap<String, Object>();
+
+    // Run by the next background load, if set.
+    private Runnable duringLoad;
+
+    // If set, computations wait for release.
+    private CountDownLatch release;
+    private final CountDownLatch computing = new CountDownLatch(1);
+
+    // If set, background tasks are rejected.
+    private boolean rejecting = false;
+
+    // Incremented to give each computation a different result.
+    private int version = 0;
+
+    @Before
+    public void setUp() {
+        small = mock(IDataCategoryReference.class);
+        when(small.getEntityUid()).thenReturn("DC0000000001");
+        large = mock(IDataCategoryReference.class);
+        when(large.getEntityUid()).thenReturn("DC0000000002");
+
+        drillDownDao = mock(DrillDownDAO.class);
+        when(drillDownDao.getDataItemUIDChoices(any(IDataCategoryReference.class), anyListOf(Choice.class)))
+                .thenAnswer(new Answer<List<Choice>>() {
+                    @Override
+                    public List<Choice> answer(InvocationOnMock invocation) throws Exception {
+                        if (release != null) {
+                            computing.countDown();
+                            assertTrue(release.await(10, TimeUnit.SECONDS));
+                        }
+                        return choices("DI" + (++version));
+                    }
+                });
+        cacheHelper = mockCacheHelper();
+
+        // Loads through the cache, as DrillDownLoader does.
+        drillDownLoader = mock(DrillDownLoader.class);
+        when(drillDownLoader.loadDataItemChoices(anyString(), anyListOf(Choice.class), anyListOf(Choice.class)))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object answer(InvocationOnMock invocation) {
+                        if (duringLoad != null) {
+                            Runnable runnable = duringLoad;
+                            duringLoad = null;
+                            runnable.run();
+                        }
+                        Object[] args = invocation.getArguments();
+                        IDataCategoryReference dataCategory = args[0].equals("DC0000000001") ? small : large;
+                        return cacheHelper.getCacheable(new DrillDownFactory(
+                                drillDownDao, dataCategory, (List<Choice>) args[1], (List<Choice>) args[2]));
+                    }
+                });
+
+        drillDownWarmer = newDrillDownWarmer();
+        ReflectionTestUtils.setField(drillDownWarmer, "drillDownDao", drillDownDao);
+        drillDownWarmer.setMaxKeys(1);
+    }
+
+    @Test
+    public void oldChoicesAreServedUntilWarmed() {
+        assertEquals("DI1", getChoice(small, "a"));
+        assertEquals("DI1", getChoice(small, "a"));
+
+        // The hot key keeps its old Choices until the background task has run.
+        drillDownWarmer.invalidate(small);
+        assertEquals(1, tasks.size());
+        assertEquals("DI1", getChoice(small, "a"));
+        runTasks();
+        assertEquals("DI2", getChoice(small, "a"));
+
+        // Only the background task loaded the new Choices.
+        verify(drillDownDao, times(2)).getDataItemUIDChoices(eq(small), anyListOf(Choice.class));
+    }
+
+    @Test
+    public void warmsInvalidatedWhileLoadingAreNotPublished() {
+        assertEquals("DI1", getChoice(small, "a"));
+        drillDownWarmer.invalidate(small);
+        duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                drillDownWarmer.invalidate(small);
+            }
+        };
+
+        // The first warm loads data from before the second invalidation, so the old Choices are still served.
+        runTasks();
+        assertEquals(1, tasks.size());
+        assertEquals("DI1", getChoice(small, "a"));
+        runTasks();
+        assertEquals("DI2", getChoice(small, "a"));
+    }
+
+    @Test
+    public void coldKeysAreDropped() {
+        getChoice(small, "a");
+        getChoice(small, "a");
+        getChoice(small, "b");
+        getChoice(large, "a");
+
+        // Only the hot key is warmed. The cold key of the same category is computed again on request.
+        drillDownWarmer.invalidate(small);
+        assertEquals(1, tasks.size());
+        getChoice(small, "b");
+        getChoice(large, "a");
+        verify(drillDownDao, times(3)).getDataItemUIDChoices(eq(small), anyListOf(Choice.class));
+        verify(drillDownDao, times(1)).getDataItemUIDChoices(eq(large), anyListOf(Choice.class));
+    }
+
+    @Test
+    public void pendingWarmsAreDeduplicated() {
+        getChoice(small, "a");
+        drillDownWarmer.invalidate(small);
+        drillDownWarmer.invalidate(small);
+        drillDownWarmer.invalidateAll();
+        assertEquals(1, tasks.size());
+        runTasks();
+
+        // Invalidations after the task has started need another task.
+        drillDownWarmer.invalidate(small);
+        assertEquals(1, tasks.size());
+    }
+
+    @Test
+    public void failedWarmsServeFromTheCache() {
+        assertEquals("DI1", getChoice(small, "a"));
+        drillDownWarmer.invalidate(small);
+        duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Database unavailable.");
+            }
+        };
+
+        // The old Choices are no longer served once the warm has failed.
+        runTasks();
+        assertEquals("DI2", getChoice(small, "a"));
+    }
+
+    @Test
+    public void rejectedWarmsServeFromTheCache() {
+        assertEquals("DI1", getChoice(small, "a"));
+        rejecting = true;
+        drillDownWarmer.invalidate(small);
+        assertEquals(0, tasks.size());
+        assertEquals("DI2", getChoice(small, "a"));
+    }
+
+    @Test
+    public void concurrentColdMissesShareOneComputation() throws Exception {
+        release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return getChoice(small, "a");
+                    }
+                }));
+            }
+            assertTrue(computing.await(10, TimeUnit.SECONDS));
+
+            // Give the other requests time to find the computation in progress.
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertEquals("DI1", result.get(10, TimeUnit.SECONDS));
+            }
+            verify(drillDownDao, times(1)).getDataItemUIDChoices(eq(small), anyListOf(Choice.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void hotKeysAreWarmedOnStartup() throws Exception {
+        File file = File.createTempFile("drillDownWarmer", ".txt");
+        try {
+            drillDownWarmer.setFile(file.getAbsolutePath());
+            getChoice(small, "a b&c=d");
+            drillDownWarmer.save();
+
+            // A new warmer loads the keys and warms them in the background.
+            DrillDownWarmer restarted = newDrillDownWarmer();
+            restarted.setFile(file.getAbsolutePath());
+            restarted.start();
+            assertEquals(1, tasks.size());
+            runTasks();
+            List<Choice> selections = new ArrayList<Choice>();
+            selections.add(new Choice("type", "a b&c=d"));
+            verify(drillDownLoader).loadDataItemChoices(
+                    eq("DC0000000001"), eq(selections), eq(new ArrayList<Choice>()));
+            assertEquals(1, restarted.getHotEntries().size());
+            assertEquals(drillDownWarmer.getHotEntries().get(0).getKey(), restarted.getHotEntries().get(0).getKey());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private DrillDownWarmer newDrillDownWarmer() {
+        DrillDownTasks drillDownTasks = new DrillDownTasks();
+        drillDownTasks.setTaskExecutor(new TaskExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                if (rejecting) {
+                    throw new TaskRejectedException("Rejected.");
+                }
+                tasks.add(task);
+            }
+        });
+        DrillDownWarmer warmer = new DrillDownWarmer();
+        ReflectionTestUtils.setField(warmer, "drillDownLoader", drillDownLoader);
+        ReflectionTestUtils.setField(warmer, "drillDownTasks", drillDownTasks);
+        ReflectionTestUtils.setField(warmer, "cacheHelper", cacheHelper);
+        warmer.setEnabled(true);
+        return warmer;
+    }
+
+    private String getChoice(IDataCategoryReference dataCategory, String value) {
+        List<Choice> selections = new ArrayList<Choice>();
+        selections.add(new Choice("type", value));
+        return drillDownWarmer.getDataItemChoices(dataCategory, selections, new ArrayList<Choice>()).get(0).getValue();
+    }
+
+    private void runTasks() {
+        List<Runnable> running = new ArrayList<Runnable>(tasks);
+        tasks.clear();
+        for (Runnable task : running) {
+            task.run();
+        }
+    }
+
+    private CacheHelper mockCacheHelper() {
+        CacheHelper cacheHelper = mock(CacheHelper.class);
+        when(cacheHelper.getCacheable(any(CacheableFactory.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                CacheableFactory factory = (CacheableFactory) invocation.getArguments()[0];
+                Object value = cache.get(factory.getKey());
+                if (value == null) {
+                    value = factory.create();
+                    cache.put(factory.getKey(), value);
+                }
+                return value;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                cache.clear();
+                return null;
+            }
+        }).when(cacheHelper).clearCache(anyString());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                String prefix = (String) invocation.getArguments()[1];
+                Iterator<String> keys = cache.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (keys.next().startsWith(prefix)) {
+                        keys.remove();
+                    }
+                }
+                return null;
+            }
+        }).when(cacheHelper).clearCache(anyString(), anyString());
+        return cacheHelper;
+    }
+
+    private static List<Choice> choices(String value) {
+        List<Choice> choices = new ArrayList<Choice>();
+        choices.add(new Choice(value));
+        return choices;
+    }
+}
@@ -0,0 +1,111 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IndexedDrillDownServiceTest {
+
+    private static final int THREADS = 8;
+
+    private IndexedDrillDownService drillDownService;
+    private IDataCategoryReference dataCategory;
+    private final AtomicInteger loadCount = new AtomicInteger();
+    private final CountDownLatch loading = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        dataCategory = mock(IDataCategoryReference.class);
+        when(dataCategory.getEntityUid()).thenReturn("DC0000000001");
+
+        // Each load blocks until released, so that other requests arrive whilst it runs.
+        DrillDownDAO drillDownDao = mock(DrillDownDAO.class);
+        when(drillDownDao.getDrillDownIndex(dataCategory)).thenAnswer(new Answer<DrillDownIndex>() {
+            @Override
+            public DrillDownIndex answer(InvocationOnMock invocation) throws Exception {
+                loadCount.incrementAndGet();
+                loading.countDown();
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+                return new DrillDownIndex.Builder().addColumn("fuel").addDataItem(1, "DI1").build();
+            }
+        });
+        drillDownService = new IndexedDrillDownService();
+        ReflectionTestUtils.setField(drillDownService, "drillDownDao", drillDownDao);
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<DrillDownIndex>> results = new ArrayList<Future<DrillDownIndex>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<DrillDownIndex>() {
+                    @Override
+                    public DrillDownIndex call() {
+                        return drillDownService.getIndex(dataCategory);
+                    }
+                }));
+            }
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+            // Give the other requests time to find the load in progress.
+            Thread.sleep(200);
+            release.countDown();
+
+            DrillDownIndex index = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<DrillDownIndex> result : results) {
+                assertSame(index, result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loadCount.get());
+
+            // The loaded index is kept.
+            assertSame(index, drillDownService.getIndex(dataCategory));
+            assertEquals(1, loadCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void invalidationDuringALoadStartsANewLoad() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<DrillDownIndex> first = executor.submit(new Callable<DrillDownIndex>() {
+                @Override
+                public DrillDownIndex call() {
+                    return drillDownService.getIndex(dataCategory);
+                }
+            });
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            drillDownService.remove("DC0000000001");
+            release.countDown();
+            first.get(10, TimeUnit.SECONDS);
+
+            // The index loaded before the invalidation is not kept.
+            drillDownService.getIndex(dataCategory);
+            assertEquals(2, loadCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
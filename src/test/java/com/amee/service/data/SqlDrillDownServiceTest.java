@@ -0,0 +1,148 @@
+package com.amee.service.data;
+
+import com.amee.domain.IDataCategoryReference;
+import com.amee.domain.cache.CacheHelper;
+import com.amee.domain.cache.CacheableFactory;
+import com.amee.domain.sheet.Choice;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SqlDrillDownServiceTest {
+
+    private SqlDrillDownService drillDownService;
+    private DrillDownDAO drillDownDao;
+    private IDataCategoryReference small;
+    private IDataCategoryReference large;
+
+    // A simple stand-in for the DrillDownChoices cache with hit and miss counts.
+    private final Map<String, Object> cache = new HashMap<String, Object>();
+    private int hits;
+    private int misses;
+
+    @Before
+    public void setUp() {
+        drillDownDao = mock(DrillDownDAO.class);
+        when(drillDownDao.getDataItemUIDChoices(any(IDataCategoryReference.class), anyListOf(Choice.class)))
+                .thenAnswer(new Answer<List<Choice>>() {
+                    @Override
+                    public List<Choice> answer(InvocationOnMock invocation) {
+                        List<Choice> choices = new ArrayList<Choice>();
+                        choices.add(new Choice("DI0000000001"));
+                        return choices;
+                    }
+                });
+
+        CacheHelper cacheHelper = mockCacheHelper();
+        DrillDownWarmer drillDownWarmer = new DrillDownWarmer();
+        ReflectionTestUtils.setField(drillDownWarmer, "drillDownDao", drillDownDao);
+        ReflectionTestUtils.setField(drillDownWarmer, "cacheHelper", cacheHelper);
+        drillDownService = new SqlDrillDownService();
+        ReflectionTestUtils.setField(drillDownService, "drillDownWarmer", drillDownWarmer);
+        ReflectionTestUtils.setField(drillDownService, "cacheHelper", cacheHelper);
+
+        small = mock(IDataCategoryReference.class);
+        when(small.getEntityUid()).thenReturn("DC0000000001");
+        large = mock(IDataCategoryReference.class);
+        when(large.getEntityUid()).thenReturn("DC0000000002");
+    }
+
+    @Test
+    public void clearingOneCategoryKeepsOthers() {
+        // Setup the cache.
+        getChoices(small, "a");
+        getChoices(small, "b");
+        getChoices(large, "a");
+        assertEquals(3, misses);
+        assertEquals(3, cache.size());
+
+        // Clear the small category.
+        drillDownService.clearDrillDownCache(small);
+        assertEquals(1, cache.size());
+
+        // The large category is still cached.
+        getChoices(large, "a");
+        assertEquals(1, hits);
+        getChoices(small, "a");
+        assertEquals(4, misses);
+        verify(drillDownDao, times(1)).getDataItemUIDChoices(eq(large), anyListOf(Choice.class));
+        verify(drillDownDao, times(3)).getDataItemUIDChoices(eq(small), anyListOf(Choice.class));
+    }
+
+    @Test
+    public void clearingAllCategories() {
+        getChoices(small, "a");
+        getChoices(large, "a");
+        drillDownService.clearDrillDownCache();
+        assertEquals(0, cache.size());
+    }
+
+    private List<Choice> getChoices(IDataCategoryReference dataCategory, String value) {
+        return drillDownService.getDataItemChoices(dataCategory, selections(value), new ArrayList<Choice>());
+    }
+
+    private List<Choice> selections(String value) {
+        List<Choice> selections = new ArrayList<Choice>();
+        selections.add(new Choice("type", value));
+        return selections;
+    }
+
+    private CacheHelper mockCacheHelper() {
+        CacheHelper cacheHelper = mock(CacheHelper.class);
+        when(cacheHelper.getCacheable(any(CacheableFactory.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                CacheableFactory factory = (CacheableFactory) invocation.getArguments()[0];
+                Object value = cache.get(factory.getKey());
+                if (value != null) {
+                    hits++;
+                } else {
+                    misses++;
+                    value = factory.create();
+                    cache.put(factory.getKey(), value);
+                }
+                return value;
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                cache.clear();
+                return null;
+            }
+        }).when(cacheHelper).clearCache(anyString());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                String prefix = (String) invocation.getArguments()[1];
+                Iterator<String> keys = cache.keySet().iterator();
+                while (keys.hasNext()) {
+                    if (keys.next().startsWith(prefix)) {
+                        keys.remove();
+                    }
+                }
+                return null;
+            }
+        }).when(cacheHelper).clearCache(anyString(), anyString());
+        return cacheHelper;
+    }
+}
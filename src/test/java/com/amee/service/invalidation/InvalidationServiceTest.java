@@ -0,0 +1,113 @@
+package com.amee.service.invalidation;
+
+import com.amee.domain.ObjectType;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InvalidationServiceTest {
+
+    private InvalidationService invalidationService;
+    private InvalidationMessage dataCategory;
+    private InvalidationMessage otherDataCategory;
+
+    @Before
+    public void setUp() {
+        invalidationService = new InvalidationService();
+        invalidationService.onBeforeBegin();
+        dataCategory = new InvalidationMessage(this, ObjectType.DC, 1L, "DC0000000001");
+        otherDataCategory = new InvalidationMessage(this, ObjectType.DC, 2L, "DC0000000002");
+    }
+
+    @Test
+    public void optionValuesAreSentInOneMessagePerEntity() {
+        invalidationService.addOptionValue(dataCategory, "dataItem", "A");
+        invalidationService.addOptionValue(otherDataCategory, "dataItem", "C");
+        invalidationService.addOptionValue(dataCategory, "dataItem", "B");
+        invalidationService.addOptionValue(dataCategory, "dataItem", "A");
+        assertEquals(2, getMessages().size());
+        assertEquals(Arrays.asList("A", "B"), getMessage(dataCategory).getOptionValues("dataItem"));
+        assertEquals(Arrays.asList("C"), getMessage(otherDataCategory).getOptionValues("dataItem"));
+    }
+
+    @Test
+    public void optionValuesAreNotAddedWhenTheEntityIsInvalidatedWithOtherOptions() {
+        invalidationService.add(dataCategory, "indexDataItems");
+        invalidationService.addOptionValue(dataCategory, "dataItem", "A");
+        assertEquals(1, getMessages().size());
+        assertEquals("indexDataItems", getMessage(dataCategory).getOptions());
+    }
+
+    @Test
+    public void invalidatingTheEntityDropsItsOptionValues() {
+        invalidationService.addOptionValue(dataCategory, "dataItem", "A");
+        invalidationService.addOptionValue(otherDataCategory, "dataItem", "C");
+        invalidationService.addOptionValue(dataCategory, "dataItem", "B");
+        invalidationService.add(dataCategory);
+        Set<InvalidationMessage> expected = new HashSet<InvalidationMessage>();
+        expected.add(new InvalidationMessage(this, ObjectType.DC, 1L, "DC0000000001"));
+        expected.add(new InvalidationMessage(this, otherDataCategory, "dataItem:C"));
+        assertEquals(expected, getMessages());
+    }
+
+    @Test
+    public void invalidatingTheEntityWithOtherOptionsDropsItsOptionValues() {
+        invalidationService.addOptionValue(dataCategory, "dataItem", "A");
+        invalidationService.add(dataCategory, "indexDataItems");
+        invalidationService.add(otherDataCategory, "dataItem:C");
+        invalidationService.addOptionValue(otherDataCategory, "dataItem", "D");
+        Set<InvalidationMessage> expected = new HashSet<InvalidationMessage>();
+        expected.add(new InvalidationMessage(this, dataCategory, "indexDataItems"));
+        expected.add(new InvalidationMessage(this, otherDataCategory, "dataItem:C,dataItem:D"));
+        assertEquals(expected, getMessages());
+    }
+
+    @Test
+    public void messagesWithOnlyOptionValuesAreRecognised() {
+        assertTrue(new InvalidationMessage(this, dataCategory, "dataItem:A,dataItem:B")
+                .hasOnlyOptionValues("dataItem"));
+        assertFalse(new InvalidationMessage(this, dataCategory, "dataItem:A,indexDataItems")
+                .hasOnlyOptionValues("dataItem"));
+        assertFalse(new InvalidationMessage(this, dataCategory, "").hasOnlyOptionValues("dataItem"));
+    }
+
+    @Test
+    public void optionValuesAreNotAddedWhenTheEntityIsInvalidated() {
+        invalidationService.add(dataCategory);
+        invalidationService.addOptionValue(dataCategory, "dataItem", "A");
+        assertEquals(1, getMessages().size());
+        assertEquals("", getMessage(dataCategory).getOptions());
+    }
+
+    @Test
+    public void manyOptionValuesAreSentAsAMessageWithoutOptions() {
+        for (int i = 0; i <= InvalidationService.MAX_OPTION_VALUES; i++) {
+            invalidationService.addOptionValue(dataCategory, "dataItem", String.valueOf(i));
+        }
+        assertEquals(1, getMessages().size());
+        assertEquals("", getMessage(dataCategory).getOptions());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<InvalidationMessage> getMessages() {
+        return ((ThreadLocal<Set<InvalidationMessage>>) ReflectionTestUtils.getField(
+                invalidationService, "invalidationMessages")).get();
+    }
+
+    private InvalidationMessage getMessage(InvalidationMessage entity) {
+        for (InvalidationMessage message : getMessages()) {
+            if (message.getEntityUid().equals(entity.getEntityUid())) {
+                return message;
+            }
+        }
+        return null;
+    }
+}
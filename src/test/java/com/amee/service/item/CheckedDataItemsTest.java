@@ -0,0 +1,144 @@
+package com.amee.service.item;
+
+import com.amee.domain.ObjectType;
+import com.amee.domain.data.DataCategory;
+import com.amee.domain.data.ItemDefinition;
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.service.invalidation.InvalidationMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CheckedDataItemsTest {
+
+    private DataItem dataItem;
+    private ItemDefinition itemDefinition;
+    private DataCategory dataCategory;
+
+    @Before
+    public void setUp() {
+        itemDefinition = mock(ItemDefinition.class);
+        when(itemDefinition.getModifiedDeep()).thenReturn(new Date(1000));
+        when(itemDefinition.getItemValueDefinitions()).thenReturn(new HashSet<ItemValueDefinition>());
+        dataCategory = mock(DataCategory.class);
+        when(dataCategory.getUid()).thenReturn("DC0000000001");
+        dataItem = dataItem("DI0000000001");
+    }
+
+    @Test
+    public void checkedUntilModified() {
+        CheckedDataItems checkedDataItems = new CheckedDataItems(10);
+        assertFalse(checkedDataItems.isChecked(dataItem));
+        checkedDataItems.setChecked(dataItem);
+        assertTrue(checkedDataItems.isChecked(dataItem));
+        when(dataItem.getModified()).thenReturn(new Date(3000));
+        assertFalse(checkedDataItems.isChecked(dataItem));
+    }
+
+    @Test
+    public void checkedUntilItemDefinitionModified() {
+        CheckedDataItems checkedDataItems = new CheckedDataItems(10);
+        checkedDataItems.setChecked(dataItem);
+        when(itemDefinition.getModifiedDeep()).thenReturn(new Date(4000));
+        assertFalse(checkedDataItems.isChecked(dataItem));
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvicted() {
+        CheckedDataItems checkedDataItems = new CheckedDataItems(2);
+        DataItem second = dataItem("DI0000000002");
+        DataItem third = dataItem("DI0000000003");
+        checkedDataItems.setChecked(dataItem);
+        checkedDataItems.setChecked(second);
+        assertTrue(checkedDataItems.isChecked(dataItem));
+        checkedDataItems.setChecked(third);
+        assertEquals(2, checkedDataItems.size());
+        assertTrue(checkedDataItems.isChecked(dataItem));
+        assertFalse(checkedDataItems.isChecked(second));
+        checkedDataItems.remove("DI0000000001");
+        assertFalse(checkedDataItems.isChecked(dataItem));
+    }
+
+    @Test
+    public void dataCategoriesAreRemoved() {
+        CheckedDataItems checkedDataItems = new CheckedDataItems(10);
+        checkedDataItems.setChecked(dataItem);
+        checkedDataItems.removeDataCategory("DC0000000002");
+        assertTrue(checkedDataItems.isChecked(dataItem));
+        checkedDataItems.removeDataCategory("DC0000000001");
+        assertFalse(checkedDataItems.isChecked(dataItem));
+    }
+
+    @Test
+    public void invalidationRequiresANewCheck() {
+        DataItemServiceDAO dao = mock(DataItemServiceDAO.class);
+        when(dao.getItemByUid("DI0000000001")).thenReturn(dataItem);
+        when(dao.getAllItemValues(dataItem)).thenReturn(new HashSet<BaseItemValue>());
+        DataItemServiceImpl dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+        ReflectionTestUtils.setField(dataItemService, "dataItemValuesCache", new DataItemValuesCache());
+
+        dataItemService.getItemByUid("DI0000000001");
+        dataItemService.onApplicationEvent(invalidationMessage(ObjectType.DI, "DI0000000001"));
+        dataItemService.clearItemValues();
+        dataItemService.getItemByUid("DI0000000001");
+        verify(dao, times(2)).getAllItemValues(dataItem);
+
+        dataItemService.onApplicationEvent(invalidationMessage(ObjectType.DC, "DC0000000001"));
+        dataItemService.clearItemValues();
+        dataItemService.getItemByUid("DI0000000001");
+        verify(dao, times(3)).getAllItemValues(dataItem);
+    }
+
+    @Test
+    public void readsSkipTheCheckOnceChecked() {
+        DataItemServiceDAO dao = mock(DataItemServiceDAO.class);
+        when(dao.getItemByUid("DI0000000001")).thenReturn(dataItem);
+        when(dao.getAllItemValues(dataItem)).thenReturn(new HashSet<BaseItemValue>());
+        DataItemServiceImpl dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+        ReflectionTestUtils.setField(dataItemService, "dataItemValuesCache", new DataItemValuesCache());
+
+        assertSame(dataItem, dataItemService.getItemByUid("DI0000000001"));
+        dataItemService.clearItemValues();
+        assertSame(dataItem, dataItemService.getItemByUid("DI0000000001"));
+        verify(dao, times(1)).getAllItemValues(dataItem);
+
+        // Modifying the DataItem requires a new check.
+        when(dataItem.getModified()).thenReturn(new Date(3000));
+        dataItemService.clearItemValues();
+        dataItemService.getItemByUid("DI0000000001");
+        verify(dao, times(2)).getAllItemValues(dataItem);
+    }
+
+    private DataItem dataItem(String uid) {
+        DataItem dataItem = mock(DataItem.class);
+        when(dataItem.getUid()).thenReturn(uid);
+        when(dataItem.getModified()).thenReturn(new Date(2000));
+        when(dataItem.getItemDefinition()).thenReturn(itemDefinition);
+        when(dataItem.getDataCategory()).thenReturn(dataCategory);
+        return dataItem;
+    }
+
+    private static InvalidationMessage invalidationMessage(ObjectType objectType, String uid) {
+        InvalidationMessage invalidationMessage = mock(InvalidationMessage.class);
+        when(invalidationMessage.isLocal()).thenReturn(true);
+        when(invalidationMessage.getObjectType()).thenReturn(objectType);
+        when(invalidationMessage.getEntityUid()).thenReturn(uid);
+        return invalidationMessage;
+    }
+}
@@ -0,0 +1,118 @@
+package com.amee.service.item;
+
+import com.amee.domain.data.ItemDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.data.DataItemTextValue;
+import com.amee.domain.sheet.Choice;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataItemLabelsTest {
+
+    private ItemDefinition itemDefinition;
+    private DataItemServiceDAO dao;
+    private DataItemServiceImpl dataItemService;
+    private List<DataItem> dataItems;
+
+    @Before
+    public void setUp() {
+        itemDefinition = mock(ItemDefinition.class);
+        when(itemDefinition.getDrillDownChoices()).thenReturn(Arrays.asList(
+                new Choice("type", "type"), new Choice("fuel", "fuel"), new Choice("size", "size")));
+        dao = mock(DataItemServiceDAO.class);
+        dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+        ReflectionTestUtils.setField(dataItemService, "dataItemValuesCache", new DataItemValuesCache());
+
+        dataItems = new ArrayList<DataItem>();
+        dataItem("car_diesel_large", "Car", "Diesel", "Large");
+        dataItem("car_petrol", "Car", "Petrol", "");
+        dataItem("van_dash", "Van", "-", "Small");
+        dataItem("no_values", "", "-", "");
+        dataItem("missing_values", "Bus", null, null);
+    }
+
+    @Test
+    public void labelsMatchThePreviousImplementation() {
+        for (DataItem dataItem : dataItems) {
+            assertEquals(previousLabel(dataItem), dataItemService.getLabel(dataItem));
+        }
+        assertEquals("Car, Diesel, Large", dataItemService.getLabel(dataItems.get(0)));
+        assertEquals("Van, Small", dataItemService.getLabel(dataItems.get(2)));
+        assertEquals("no_values", dataItemService.getLabel(dataItems.get(3)));
+    }
+
+    @Test
+    public void batchedLabelsMatchThePreviousImplementation() {
+        Map<String, String> labels = DataItemLabels.getLabels(dataItemService, dataItems);
+        assertEquals(dataItems.size(), labels.size());
+        int i = 0;
+        for (Map.Entry<String, String> entry : labels.entrySet()) {
+            DataItem dataItem = dataItems.get(i++);
+            assertEquals(dataItem.getUid(), entry.getKey());
+            assertEquals(previousLabel(dataItem), entry.getValue());
+        }
+    }
+
+    // The implementation of DataItemServiceImpl.getLabel before labels were batched.
+    private String previousLabel(DataItem dataItem) {
+        String label = "";
+        BaseItemValue itemValue;
+        for (Choice choice : dataItem.getItemDefinition().getDrillDownChoices()) {
+            itemValue = dataItemService.getItemValue(dataItem, choice.getName());
+            if ((itemValue != null) &&
+                    (itemValue.getValueAsString().length() > 0) &&
+                    !itemValue.getValueAsString().equals("-")) {
+                if (label.length() > 0) {
+                    label = label.concat(", ");
+                }
+                label = label.concat(itemValue.getValueAsString());
+            }
+        }
+        if (label.length() == 0) {
+            label = dataItem.getDisplayPath();
+        }
+        return label;
+    }
+
+    private void dataItem(String path, String type, String fuel, String size) {
+        String uid = "DI" + dataItems.size();
+        DataItem dataItem = mock(DataItem.class);
+        when(dataItem.getUid()).thenReturn(uid);
+        when(dataItem.getDisplayPath()).thenReturn(path);
+        when(dataItem.getItemDefinition()).thenReturn(itemDefinition);
+        when(dataItem.getEffectiveStartDate()).thenReturn(new Date(0));
+        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
+        addValue(itemValues, dataItem, uid, "type", type);
+        addValue(itemValues, dataItem, uid, "fuel", fuel);
+        addValue(itemValues, dataItem, uid, "size", size);
+        when(dao.getAllItemValues(dataItem)).thenReturn(itemValues);
+        dataItems.add(dataItem);
+    }
+
+    private void addValue(Set<BaseItemValue> itemValues, DataItem dataItem, String uid, String path, String value) {
+        if (value != null) {
+            DataItemTextValue itemValue = mock(DataItemTextValue.class);
+            when(itemValue.getUid()).thenReturn(uid + path);
+            when(itemValue.getPath()).thenReturn(path);
+            when(itemValue.getDisplayPath()).thenReturn(path);
+            when(itemValue.getValueAsString()).thenReturn(value);
+            when(itemValue.getItem()).thenReturn(dataItem);
+            itemValues.add(itemValue);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.amee.service.item;
+
+import com.amee.domain.AMEEStatus;
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataItemServiceDAOImplTest {
+
+    private static final long DATA_ITEM_ID = 1L;
+    private static final long NUMBER_IVD_ID = 1L;
+    private static final long TEXT_IVD_ID = 2L;
+    private static final int HISTORY_LENGTH = 100000;
+
+    private Connection connection;
+    private SessionFactory sessionFactory;
+    private Session session;
+    private DataItemServiceDAOImpl dao;
+    private DataItem dataItem;
+    private ItemValueDefinition numberValueDefinition;
+
+    @Before
+    public void setUp() throws Exception {
+        String url = "jdbc:h2:mem:dataItemServiceDaoTest;DB_CLOSE_DELAY=-1";
+        connection = DriverManager.getConnection(url, "sa", "");
+        Statement statement = connection.createStatement();
+        try {
+            for (String table : new String[]{"DATA_ITEM_NUMBER_VALUE", "DATA_ITEM_TEXT_VALUE",
+                    "DATA_ITEM_NUMBER_VALUE_HISTORY", "DATA_ITEM_TEXT_VALUE_HISTORY"}) {
+                statement.execute("CREATE TABLE " + table + " (" +
+                        "ID BIGINT PRIMARY KEY, STATUS INT NOT NULL, START_DATE TIMESTAMP NOT NULL, VALUE VARCHAR(255), " +
+                        "DATA_ITEM_ID BIGINT NOT NULL, ITEM_VALUE_DEFINITION_ID BIGINT NOT NULL)");
+                statement.execute("CREATE INDEX " + table + "_DI_IVD ON " + table +
+                        " (DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID, START_DATE, STATUS)");
+            }
+        } finally {
+            statement.close();
+        }
+
+        // A trashed number value before the active one, and a text value for another ItemValueDefinition.
+        insert("DATA_ITEM_NUMBER_VALUE", NUMBER_IVD_ID, AMEEStatus.TRASH, AMEEStatus.ACTIVE);
+        insert("DATA_ITEM_TEXT_VALUE", TEXT_IVD_ID, AMEEStatus.ACTIVE);
+        // A long number history, one value a day, with every tenth value trashed.
+        insert("DATA_ITEM_NUMBER_VALUE_HISTORY", NUMBER_IVD_ID, HISTORY_LENGTH, 10);
+        // A short text history for another ItemValueDefinition.
+        insert("DATA_ITEM_TEXT_VALUE_HISTORY", TEXT_IVD_ID, 10, 0);
+
+        sessionFactory = DataItemValueDatabase.getConfiguration(url).buildSessionFactory();
+        session = sessionFactory.openSession();
+        dao = DataItemValueDatabase.getDao(session);
+
+        dataItem = mock(DataItem.class);
+        when(dataItem.getId()).thenReturn(DATA_ITEM_ID);
+        numberValueDefinition = mock(ItemValueDefinition.class);
+        when(numberValueDefinition.getId()).thenReturn(NUMBER_IVD_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        session.close();
+        sessionFactory.close();
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("DROP ALL OBJECTS");
+        } finally {
+            statement.close();
+            connection.close();
+        }
+    }
+
+    @Test
+    public void firstPageOfALongHistory() {
+        List<DataItemServiceDAOImpl.ValueKey> keys =
+                dao.getHistoryKeys(DATA_ITEM_ID, NUMBER_IVD_ID, new Date(0), day(HISTORY_LENGTH + 1), 0, 5);
+        assertEquals(5, keys.size());
+        long[] expected = {1, 2, 3, 4, 5};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], keys.get(i).getId());
+            assertSame(DataItemValueDatabase.NumberValueHistory.class, keys.get(i).getEntityClass());
+        }
+    }
+
+    @Test
+    public void pagesSkipTrashedValues() {
+        List<DataItemServiceDAOImpl.ValueKey> keys =
+                dao.getHistoryKeys(DATA_ITEM_ID, NUMBER_IVD_ID, new Date(0), day(HISTORY_LENGTH + 1), 8, 3);
+        assertEquals(3, keys.size());
+        // ID 10 is trashed.
+        assertEquals(9, keys.get(0).getId());
+        assertEquals(11, keys.get(1).getId());
+        assertEquals(12, keys.get(2).getId());
+    }
+
+    @Test
+    public void pagesAreWithinTheDateWindow() {
+        // Values 50 to 59 start within the window, 50 is trashed.
+        List<DataItemServiceDAOImpl.ValueKey> keys =
+                dao.getHistoryKeys(DATA_ITEM_ID, NUMBER_IVD_ID, day(50), day(60), 0, 100);
+        assertEquals(9, keys.size());
+        assertEquals(51, keys.get(0).getId());
+        assertEquals(59, keys.get(8).getId());
+    }
+
+    @Test
+    public void textHistoriesArePaged() {
+        List<DataItemServiceDAOImpl.ValueKey> keys =
+                dao.getHistoryKeys(DATA_ITEM_ID, TEXT_IVD_ID, new Date(0), day(HISTORY_LENGTH + 1), 8, 5);
+        assertEquals(2, keys.size());
+        assertSame(DataItemValueDatabase.TextValueHistory.class, keys.get(0).getEntityClass());
+        assertEquals(9, keys.get(0).getId());
+        assertTrue(dao.getHistoryKeys(DATA_ITEM_ID, TEXT_IVD_ID, new Date(0), day(1), 0, 0).isEmpty());
+    }
+
+    @Test
+    public void historiesAreLoadedFromAKey() {
+        assertEquals(Arrays.asList(25L, 26L), getHistoryIds(day(25), 0, 2));
+    }
+
+    @Test
+    public void historiesAreLoadedFromBetweenKeys() {
+        assertEquals(Arrays.asList(25L, 26L), getHistoryIds(new Date(day(24).getTime() + 3600000L), 0, 2));
+    }
+
+    @Test
+    public void historiesFromATrashedKeyStartWithTheNextValue() {
+        // ID 20 is trashed.
+        assertEquals(Arrays.asList(21L, 22L), getHistoryIds(day(20), 0, 2));
+        assertEquals(Arrays.asList(21L, 22L), getHistoryIds(new Date(day(19).getTime() + 3600000L), 0, 2));
+    }
+
+    @Test
+    public void pagesOfHistoriesAreLoadedInOrder() {
+        List<?> values = dao.getDataItemValueHistories(
+                dataItem, numberValueDefinition, new Date(0), day(HISTORY_LENGTH + 1), 8, 3);
+        // ID 10 is trashed.
+        long[] expected = {9, 11, 12};
+        assertEquals(expected.length, values.size());
+        for (int i = 0; i < expected.length; i++) {
+            DataItemValueDatabase.Value value = (DataItemValueDatabase.Value) values.get(i);
+            assertEquals(expected[i], value.getId());
+            assertEquals(day((int) expected[i]).getTime(), value.getStartDate().getTime());
+        }
+    }
+
+    @Test
+    public void nonHistoricalValuesSkipTrash() {
+        List<DataItemServiceDAOImpl.ValueKey> keys = dao.getValueKeys(DATA_ITEM_ID, NUMBER_IVD_ID);
+        assertEquals(1, keys.size());
+        assertEquals(2, keys.get(0).getId());
+        assertSame(DataItemValueDatabase.NumberValue.class, keys.get(0).getEntityClass());
+
+        keys = dao.getValueKeys(DATA_ITEM_ID, TEXT_IVD_ID);
+        assertEquals(1, keys.size());
+        assertEquals(1, keys.get(0).getId());
+        assertSame(DataItemValueDatabase.TextValue.class, keys.get(0).getEntityClass());
+
+        assertTrue(dao.getValueKeys(DATA_ITEM_ID, 3L).isEmpty());
+    }
+
+    @Test
+    public void allValuesOfADataItemAreLoadedWithOneStatement() throws Exception {
+        DataItemValueDatabase database = new DataItemValueDatabase("dataItemValuesTest", 20);
+        try {
+            DataItem dataItem = mock(DataItem.class);
+            when(dataItem.getId()).thenReturn(10L);
+            database.resetStatementCount();
+            Set<BaseItemValue> itemValues = database.getDao().getDataItemValues(dataItem);
+            assertEquals(1, database.getStatementCount());
+
+            // The number, text and history values of just this DataItem, without the trashed text value.
+            List<Object> values = new ArrayList<Object>(itemValues);
+            assertEquals(DataItemValueDatabase.VALUES_PER_ITEM, values.size());
+            for (Object value : values) {
+                DataItemValueDatabase.Value row = (DataItemValueDatabase.Value) value;
+                assertEquals(10L, row.getDataItemId());
+                assertFalse(row.isTrash());
+            }
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Returns the IDs of a page of the number history loaded from the start date.
+     */
+    private List<Long> getHistoryIds(Date startDate, int firstResult, int maxResults) {
+        List<?> values = dao.getDataItemValueHistories(
+                dataItem, numberValueDefinition, startDate, day(HISTORY_LENGTH + 1), firstResult, maxResults);
+        List<Long> ids = new ArrayList<Long>();
+        for (Object value : values) {
+            ids.add(((DataItemValueDatabase.Value) value).getId());
+        }
+        return ids;
+    }
+
+    private void insert(String table, long itemValueDefinitionId, int count, int trashEvery) throws Exception {
+        AMEEStatus[] statuses = new AMEEStatus[count];
+        for (int i = 1; i <= count; i++) {
+            boolean trash = (trashEvery > 0) && (i % trashEvery == 0);
+            statuses[i - 1] = trash ? AMEEStatus.TRASH : AMEEStatus.ACTIVE;
+        }
+        insert(table, itemValueDefinitionId, statuses);
+    }
+
+    /**
+     * Inserts values with IDs from 1, one a day, with the supplied statuses.
+     */
+    private void insert(String table, long itemValueDefinitionId, AMEEStatus... statuses) throws Exception {
+        PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table +
+                " (ID, STATUS, START_DATE, DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID) VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (int i = 1; i <= statuses.length; i++) {
+                statement.setLong(1, i);
+                statement.setInt(2, statuses[i - 1].ordinal());
+                statement.setTimestamp(3, new Timestamp(day(i).getTime()));
+                statement.setLong(4, DATA_ITEM_ID);
+                statement.setLong(5, itemValueDefinitionId);
+                statement.addBatch();
+                if (i % 1000 == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static Date day(int day) {
+        return new Date(1262304000000L + day * 86400000L);
+    }
+}
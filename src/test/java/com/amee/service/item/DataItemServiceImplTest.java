@@ -0,0 +1,140 @@
+package com.amee.service.item;
+
+import com.amee.base.domain.ResultsWrapper;
+import com.amee.domain.DataItemService;
+import com.amee.domain.DataItemValuesFilter;
+import com.amee.domain.data.ItemValueDefinition;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.BaseDataItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.data.DataItemNumberValue;
+import com.amee.domain.item.data.DataItemNumberValueHistory;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataItemServiceImplTest {
+
+    private static final Date END = new Date(Long.MAX_VALUE);
+
+    private DataItemServiceDAO dao;
+    private DataItemServiceImpl dataItemService;
+    private DataItem dataItem;
+    private ItemValueDefinition itemValueDefinition;
+    private BaseDataItemValue first;
+    private List<BaseDataItemValue> histories;
+
+    @Before
+    public void setUp() {
+        dataItem = mock(DataItem.class);
+        itemValueDefinition = mock(ItemValueDefinition.class);
+        first = mock(DataItemNumberValue.class);
+        histories = new ArrayList<BaseDataItemValue>();
+        for (int i = 0; i < 10; i++) {
+            histories.add(mock(DataItemNumberValueHistory.class));
+        }
+        dao = mock(DataItemServiceDAO.class);
+        dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+    }
+
+    @Test
+    public void firstPageStartsWithTheNonHistoricalValue() {
+        when(dao.getDataItemValue(dataItem, itemValueDefinition)).thenReturn(first);
+        page(0, 3);
+        ResultsWrapper<BaseDataItemValue> results = dataItemService.getAllItemValues(filter(DataItemService.EPOCH, 0, 3));
+        assertEquals(Arrays.asList(first, histories.get(0), histories.get(1)), results.getResults());
+        assertTrue(results.isTruncated());
+    }
+
+    @Test
+    public void nonHistoricalValueCountsTowardsTheResultStart() {
+        when(dao.getDataItemValue(dataItem, itemValueDefinition)).thenReturn(first);
+        page(2, 3);
+        Date startDate = new Date(1000);
+        ResultsWrapper<BaseDataItemValue> results = dataItemService.getAllItemValues(filter(startDate, 3, 3));
+        assertEquals(histories.subList(2, 5), results.getResults());
+        assertTrue(results.isTruncated());
+    }
+
+    @Test
+    public void lastPageIsNotTruncated() {
+        page(8, 5);
+        ResultsWrapper<BaseDataItemValue> results = dataItemService.getAllItemValues(filter(DataItemService.EPOCH, 8, 5));
+        assertEquals(histories.subList(8, 10), results.getResults());
+        assertFalse(results.isTruncated());
+    }
+
+    @Test
+    public void updatedValuesAreVisibleInTheSameTransaction() {
+        ReflectionTestUtils.setField(dataItemService, "dataItemValuesCache", new DataItemValuesCache());
+        final String[] value = {"1.5"};
+        DataItemNumberValue itemValue = mock(DataItemNumberValue.class);
+        when(itemValue.getUid()).thenReturn("IV0000000001");
+        when(itemValue.getPath()).thenReturn("distance");
+        when(itemValue.getDisplayPath()).thenReturn("distance");
+        when(itemValue.getValueAsString()).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) {
+                return value[0];
+            }
+        });
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocation) {
+                value[0] = (String) invocation.getArguments()[0];
+                return null;
+            }
+        }).when(itemValue).setValue(anyString());
+        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
+        itemValues.add(itemValue);
+        when(dao.getAllItemValues(dataItem)).thenReturn(itemValues);
+        when(dataItem.getUid()).thenReturn("DI0000000001");
+        when(dataItem.getValues()).thenReturn(new PropertyReadersTest.Values());
+
+        assertEquals(1.5, dataItemService.getItemValueSeries(dataItem, "distance").getValue(0), 0.0);
+        dataItemService.updateDataItemValues(dataItem);
+        assertEquals(12.5, dataItemService.getItemValueSeries(dataItem, "distance").getValue(0), 0.0);
+
+        // Callers may modify the active values without affecting the index.
+        dataItemService.getActiveItemValues(dataItem).clear();
+        assertEquals(1, dataItemService.getItemValueIndex(dataItem).getActiveItemValues().size());
+    }
+
+    // Stub the DAO to return a page of histories, plus the extra value fetched to detect truncation.
+    private void page(int firstResult, int maxResults) {
+        List<BaseDataItemValue> page = histories.subList(
+                Math.min(firstResult, histories.size()), Math.min(firstResult + maxResults + 1, histories.size()));
+        when(dao.getDataItemValueHistories(eq(dataItem), eq(itemValueDefinition), any(Date.class), any(Date.class),
+                eq(firstResult), anyInt())).thenReturn(page);
+    }
+
+    private DataItemValuesFilter filter(Date startDate, int resultStart, int resultLimit) {
+        DataItemValuesFilter filter = mock(DataItemValuesFilter.class);
+        when(filter.getDataItem()).thenReturn(dataItem);
+        when(filter.getItemValueDefinition()).thenReturn(itemValueDefinition);
+        when(filter.getStartDate()).thenReturn(startDate);
+        when(filter.getEndDate()).thenReturn(END);
+        when(filter.getResultStart()).thenReturn(resultStart);
+        when(filter.getResultLimit()).thenReturn(resultLimit);
+        return filter;
+    }
+}
@@ -0,0 +1,270 @@
+package com.amee.service.item;
+
+import com.amee.domain.AMEEStatus;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.dialect.H2Dialect;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Id;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.Table;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * An in-memory H2 database holding the four DataItem value tables, wired to a real {@link DataItemServiceDAOImpl}.
+ * <p/>
+ * The domain value entities can not be mapped without the rest of the domain model, so each table is mapped by a
+ * minimal test entity of the ID, STATUS, START_DATE, DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID and VALUE columns. Hibernate statistics are enabled so that
+ * tests can count the statements the DAO prepares.
+ * <p/>
+ * Each DataItem has a number value, a text value and two number and two text history values. Every tenth DataItem
+ * also has a trashed text value. Number values are for ItemValueDefinition 1 and text values for 2.
+ */
+class DataItemValueDatabase {
+
+    static final int VALUES_PER_ITEM = 6;
+    static final long NUMBER_IVD_ID = 1L;
+    static final long TEXT_IVD_ID = 2L;
+
+    private static final String[] TABLES = {
+            "DATA_ITEM_NUMBER_VALUE", "DATA_ITEM_TEXT_VALUE",
+            "DATA_ITEM_NUMBER_VALUE_HISTORY", "DATA_ITEM_TEXT_VALUE_HISTORY"};
+
+    private final Connection connection;
+    private final SessionFactory sessionFactory;
+    private final Session session;
+    private final DataItemServiceDAOImpl dao;
+
+    /**
+     * @param name      the name of the in-memory database
+     * @param itemCount the number of DataItems to generate, with IDs from 1
+     * @throws SQLException if the database cannot be created
+     */
+    DataItemValueDatabase(String name, int itemCount) throws SQLException {
+        String url = "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+
+        // Keep the database open until close() is called.
+        connection = DriverManager.getConnection(url, "sa", "");
+        createSchema();
+        insertValues(itemCount);
+
+        sessionFactory = getConfiguration(url)
+                .setProperty(Environment.GENERATE_STATISTICS, "true")
+                .buildSessionFactory();
+        session = sessionFactory.openSession();
+        dao = getDao(session);
+    }
+
+    /**
+     * @param url the URL of a database holding the four value tables
+     * @return a Configuration mapping the test entities
+     */
+    static Configuration getConfiguration(String url) {
+        return new Configuration()
+                .addAnnotatedClass(NumberValue.class)
+                .addAnnotatedClass(TextValue.class)
+                .addAnnotatedClass(NumberValueHistory.class)
+                .addAnnotatedClass(TextValueHistory.class)
+                .setProperty(Environment.DRIVER, "org.h2.Driver")
+                .setProperty(Environment.URL, url)
+                .setProperty(Environment.USER, "sa")
+                .setProperty(Environment.PASS, "")
+                .setProperty(Environment.DIALECT, H2Dialect.class.getName());
+    }
+
+    /**
+     * @param session a Session of a SessionFactory built from {@link #getConfiguration(String)}
+     * @return a DataItemServiceDAOImpl loading the test entities through the session
+     */
+    static DataItemServiceDAOImpl getDao(Session session) {
+        EntityManager entityManager = mock(EntityManager.class);
+        when(entityManager.getDelegate()).thenReturn(session);
+        List<DataItemServiceDAOImpl.ValueTable> valueTables = Arrays.asList(
+                new DataItemServiceDAOImpl.ValueTable(TABLES[0], NumberValue.class),
+                new DataItemServiceDAOImpl.ValueTable(TABLES[1], TextValue.class),
+                new DataItemServiceDAOImpl.ValueTable(TABLES[2], NumberValueHistory.class),
+                new DataItemServiceDAOImpl.ValueTable(TABLES[3], TextValueHistory.class));
+        DataItemServiceDAOImpl dao = new DataItemServiceDAOImpl(valueTables);
+        ReflectionTestUtils.setField(dao, "entityManager", entityManager);
+        return dao;
+    }
+
+    DataItemServiceDAOImpl getDao() {
+        return dao;
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return the number of JDBC statements prepared through Hibernate since the last reset
+     */
+    long getStatementCount() {
+        return sessionFactory.getStatistics().getPrepareStatementCount();
+    }
+
+    void resetStatementCount() {
+        sessionFactory.getStatistics().clear();
+    }
+
+    static boolean hasTrash(long dataItemId) {
+        return dataItemId % 10 == 0;
+    }
+
+    void close() throws SQLException {
+        session.close();
+        sessionFactory.close();
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("DROP ALL OBJECTS");
+        } finally {
+            statement.close();
+            connection.close();
+        }
+    }
+
+    private void createSchema() throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for (String table : TABLES) {
+                statement.execute("CREATE TABLE " + table + " (" +
+                        "ID BIGINT PRIMARY KEY, STATUS INT NOT NULL, START_DATE TIMESTAMP NOT NULL, " +
+                        "VALUE VARCHAR(255), DATA_ITEM_ID BIGINT NOT NULL, ITEM_VALUE_DEFINITION_ID BIGINT NOT NULL)");
+                statement.execute("CREATE INDEX " + table + "_DI ON " + table + " (DATA_ITEM_ID, STATUS)");
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void insertValues(int itemCount) throws SQLException {
+        PreparedStatement[] inserts = new PreparedStatement[TABLES.length];
+        for (int i = 0; i < TABLES.length; i++) {
+            inserts[i] = connection.prepareStatement("INSERT INTO " + TABLES[i] +
+                    " (ID, STATUS, START_DATE, VALUE, DATA_ITEM_ID, ITEM_VALUE_DEFINITION_ID) VALUES (?, ?, ?, ?, ?, ?)");
+        }
+        try {
+            int active = AMEEStatus.ACTIVE.ordinal();
+            long valueId = 1;
+            for (long dataItemId = 1; dataItemId <= itemCount; dataItemId++) {
+                addValue(inserts[0], valueId++, active, 0, "1.5", dataItemId, NUMBER_IVD_ID);
+                addValue(inserts[1], valueId++, active, 0, "text", dataItemId, TEXT_IVD_ID);
+                for (int j = 1; j <= 2; j++) {
+                    addValue(inserts[2], valueId++, active, j, String.valueOf(j), dataItemId, NUMBER_IVD_ID);
+                    addValue(inserts[3], valueId++, active, j, "history" + j, dataItemId, TEXT_IVD_ID);
+                }
+                if (hasTrash(dataItemId)) {
+                    addValue(inserts[1], valueId++, AMEEStatus.TRASH.ordinal(), 0, "trash", dataItemId, TEXT_IVD_ID);
+                }
+                if (dataItemId % 1000 == 0) {
+                    for (PreparedStatement insert : inserts) {
+                        insert.executeBatch();
+                    }
+                }
+            }
+            for (PreparedStatement insert : inserts) {
+                insert.executeBatch();
+            }
+        } finally {
+            for (PreparedStatement insert : inserts) {
+                insert.close();
+            }
+        }
+    }
+
+    /**
+     * Adds a value to the batch of an insert.
+     *
+     * @param day the day the value starts, counted from the epoch
+     */
+    private void addValue(PreparedStatement statement, long id, int status, int day, String value, long dataItemId,
+                          long itemValueDefinitionId) throws SQLException {
+        statement.setLong(1, id);
+        statement.setInt(2, status);
+        statement.setTimestamp(3, new Timestamp(day * 86400000L));
+        statement.setString(4, value);
+        statement.setLong(5, dataItemId);
+        statement.setLong(6, itemValueDefinitionId);
+        statement.addBatch();
+    }
+
+    /**
+     * A value row of one of the tables.
+     */
+    @MappedSuperclass
+    abstract static class Value {
+
+        @Id
+        @Column(name = "ID")
+        private Long id;
+
+        @Column(name = "STATUS")
+        private int status;
+
+        @Column(name = "START_DATE")
+        private Date startDate;
+
+        @Column(name = "VALUE")
+        private String value;
+
+        @Column(name = "DATA_ITEM_ID")
+        private long dataItemId;
+
+        @Column(name = "ITEM_VALUE_DEFINITION_ID")
+        private long itemValueDefinitionId;
+
+        long getId() {
+            return id;
+        }
+
+        Date getStartDate() {
+            return startDate;
+        }
+
+        long getDataItemId() {
+            return dataItemId;
+        }
+
+        boolean isTrash() {
+            return status == AMEEStatus.TRASH.ordinal();
+        }
+    }
+
+    @Entity
+    @Table(name = "DATA_ITEM_NUMBER_VALUE")
+    static class NumberValue extends Value {
+    }
+
+    @Entity
+    @Table(name = "DATA_ITEM_TEXT_VALUE")
+    static class TextValue extends Value {
+    }
+
+    @Entity
+    @Table(name = "DATA_ITEM_NUMBER_VALUE_HISTORY")
+    static class NumberValueHistory extends Value {
+    }
+
+    @Entity
+    @Table(name = "DATA_ITEM_TEXT_VALUE_HISTORY")
+    static class TextValueHistory extends Value {
+    }
+}
@@ -0,0 +1,190 @@
+package com.amee.service.item;
+
+import com.amee.domain.ObjectType;
+import com.amee.domain.data.DataCategory;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.data.DataItemNumberValue;
+import com.amee.domain.item.data.DataItemNumberValueHistory;
+import com.amee.platform.science.StartEndDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DataItemValuesCacheTest {
+
+    private DataItemValuesCache cache;
+    private DataItemServiceImpl dataItemService;
+    private DataItem dataItem;
+    private DataItemServiceDAO dao;
+    private Set<BaseItemValue> itemValues;
+
+    @Before
+    public void setUp() {
+        DataCategory dataCategory = mock(DataCategory.class);
+        when(dataCategory.getUid()).thenReturn("DC0000000001");
+        dataItem = mock(DataItem.class);
+        when(dataItem.getUid()).thenReturn("DI0000000001");
+        when(dataItem.getModified()).thenReturn(new Date(1000));
+        when(dataItem.getDataCategory()).thenReturn(dataCategory);
+
+        itemValues = new HashSet<BaseItemValue>();
+        itemValues.add(value("mass", "12.5"));
+        itemValues.add(historyValue("kgCO2PerKWh", "0.5", 1000L));
+        itemValues.add(historyValue("kgCO2PerKWh", "0.4", 3000L));
+        itemValues.add(historyValue("kgCO2PerKWh", "n/a", 5000L));
+        dao = mock(DataItemServiceDAO.class);
+        when(dao.getAllItemValues(dataItem)).thenReturn(itemValues);
+
+        cache = new DataItemValuesCache();
+        cache.setEnabled(true);
+        cache.setMaxSize(2);
+        dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+        ReflectionTestUtils.setField(dataItemService, "dataItemValuesCache", cache);
+        ReflectionTestUtils.setField(cache, "dataItemService", dataItemService);
+    }
+
+    @Test
+    public void disabledCacheHasNoSnapshots() {
+        cache.setEnabled(false);
+        assertNull(cache.get(dataItem));
+    }
+
+    @Test
+    public void snapshotsAreSharedBetweenTransactions() {
+        DataItemValuesSnapshot snapshot = cache.get(dataItem);
+        dataItemService.clearItemValues();
+        assertSame(snapshot, cache.get(dataItem));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void snapshotsHoldValuesInTimeOrder() {
+        DataItemValuesSnapshot.Series series = cache.get(dataItem).getSeries("kgCO2PerKWh");
+        assertEquals(3, series.size());
+        assertEquals(1000L, series.getStartTime(0));
+        assertEquals(0.4, series.getValue(1), 0.0);
+        assertTrue(Double.isNaN(series.getValue(2)));
+        assertEquals("n/a", series.getValueAsString(2));
+        assertTrue(series.isHistory(0));
+        assertEquals("0.5", series.getValueAsStringAt(new Date(500)));
+        assertEquals("0.5", series.getValueAsStringAt(new Date(2999)));
+        assertEquals("0.4", series.getValueAsStringAt(new Date(3000)));
+        assertEquals("n/a", series.getValueAsStringAt(new Date(9000)));
+        assertEquals("12.5", cache.get(dataItem).getSeries("mass").getValueAsStringAt(new Date()));
+        assertTrue(cache.get(dataItem).getSeries("unknown").isEmpty());
+    }
+
+    @Test
+    public void modifiedDataItemsAreReloaded() {
+        DataItemValuesSnapshot snapshot = cache.get(dataItem);
+        when(dataItem.getModified()).thenReturn(new Date(2000));
+        assertNotSame(snapshot, cache.get(dataItem));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void invalidationEvictsSnapshots() {
+        cache.get(dataItem);
+        cache.remove(ObjectType.DC, "DC0000000002");
+        assertEquals(1, cache.size());
+        cache.remove(ObjectType.DC, "DC0000000001");
+        assertEquals(0, cache.size());
+        cache.get(dataItem);
+        cache.remove(ObjectType.DI, "DI0000000001");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void writingTransactionsDoNotCacheSnapshots() {
+        cache.get(dataItem);
+        dataItemService.remove(dataItem);
+        assertEquals(0, cache.size());
+        cache.get(dataItem);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void snapshotsLoadedDuringInvalidationAreNotCached() {
+        invalidateWhileLoading(ObjectType.DI, "DI0000000001");
+        cache.get(dataItem);
+        assertEquals(0, cache.size());
+        invalidateWhileLoading(ObjectType.DC, "DC0000000001");
+        cache.get(dataItem);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictedGenerationsDoNotAllowStaleSnapshots() {
+        // Invalidate more entities than the cache holds so the generation of the DataItem is dropped.
+        when(dao.getAllItemValues(dataItem)).thenAnswer(new Answer<Set<BaseItemValue>>() {
+            @Override
+            public Set<BaseItemValue> answer(InvocationOnMock invocation) {
+                cache.remove(ObjectType.DI, "DI0000000001");
+                cache.remove(ObjectType.DI, "DI0000000002");
+                cache.remove(ObjectType.DI, "DI0000000003");
+                return itemValues;
+            }
+        });
+        cache.get(dataItem);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void snapshotsAreCachedAfterInvalidation() {
+        cache.get(dataItem);
+        cache.remove(ObjectType.DI, "DI0000000001");
+        dataItemService.clearItemValues();
+        cache.get(dataItem);
+        assertEquals(1, cache.size());
+    }
+
+    private void invalidateWhileLoading(final ObjectType objectType, final String uid) {
+        dataItemService.clearItemValues();
+        when(dao.getAllItemValues(dataItem)).thenAnswer(new Answer<Set<BaseItemValue>>() {
+            @Override
+            public Set<BaseItemValue> answer(InvocationOnMock invocation) {
+                cache.remove(objectType, uid);
+                return itemValues;
+            }
+        });
+    }
+
+    private BaseItemValue value(String path, String value) {
+        DataItemNumberValue itemValue = mock(DataItemNumberValue.class);
+        stubValue(itemValue, path, value);
+        return itemValue;
+    }
+
+    private BaseItemValue historyValue(String path, String value, long startTime) {
+        DataItemNumberValueHistory itemValue = mock(DataItemNumberValueHistory.class);
+        stubValue(itemValue, path, value);
+        when(itemValue.getStartDate()).thenReturn(new StartEndDate(new Date(startTime)));
+        return itemValue;
+    }
+
+    private void stubValue(BaseItemValue itemValue, String path, String value) {
+        when(itemValue.getUid()).thenReturn(path + value);
+        when(itemValue.getPath()).thenReturn(path);
+        when(itemValue.getDisplayPath()).thenReturn(path);
+        when(itemValue.getValueAsString()).thenReturn(value);
+        when(itemValue.getItem()).thenReturn(dataItem);
+    }
+}
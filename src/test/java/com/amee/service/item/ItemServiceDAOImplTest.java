@@ -0,0 +1,84 @@
+package com.amee.service.item;
+
+import com.amee.domain.item.BaseItem;
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.profile.ProfileItem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemServiceDAOImplTest {
+
+    private static final int ITEM_COUNT = 100000;
+
+    private DataItemValueDatabase database;
+    private List<BaseItem> items;
+
+    @Before
+    public void setUp() throws Exception {
+        database = new DataItemValueDatabase("itemServiceDaoTest", ITEM_COUNT);
+
+        // A mixed batch of DataItems and ProfileItems.
+        items = new ArrayList<BaseItem>(ITEM_COUNT + 100);
+        for (long i = ITEM_COUNT; i > 0; i--) {
+            items.add(item(DataItem.class, i));
+        }
+        for (long i = 1; i <= 100; i++) {
+            items.add(item(ProfileItem.class, i));
+        }
+        database.resetStatementCount();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        database.close();
+    }
+
+    @Test
+    public void largeBatchesAreLoadedWithOneStatementPerChunk() {
+        Collection<BaseItemValue> itemValues = database.getDao().getItemValuesForItems(items);
+        assertEquals(ITEM_COUNT / ItemServiceDAOImpl.IN_LIST_SIZE, database.getStatementCount());
+        // ProfileItems are excluded and trashed values are skipped.
+        assertEquals(ITEM_COUNT * DataItemValueDatabase.VALUES_PER_ITEM, itemValues.size());
+        Set<Long> dataItemIds = new HashSet<Long>();
+        for (Object itemValue : itemValues) {
+            DataItemValueDatabase.Value row = (DataItemValueDatabase.Value) itemValue;
+            assertFalse(row.isTrash());
+            dataItemIds.add(row.getDataItemId());
+        }
+        assertEquals(ITEM_COUNT, dataItemIds.size());
+    }
+
+    @Test
+    public void smallBatchesAreLoadedWithOneStatement() {
+        Collection<BaseItemValue> itemValues =
+                database.getDao().getItemValuesForItems(items.subList(ITEM_COUNT - 10, ITEM_COUNT + 10));
+        assertEquals(1, database.getStatementCount());
+        assertEquals(10 * DataItemValueDatabase.VALUES_PER_ITEM, itemValues.size());
+    }
+
+    @Test
+    public void batchesWithoutMatchingItemsAreNotQueried() {
+        assertTrue(database.getDao().getItemValuesForItems(items.subList(ITEM_COUNT, ITEM_COUNT + 100)).isEmpty());
+        assertEquals(0, database.getStatementCount());
+    }
+
+    private static BaseItem item(Class<? extends BaseItem> itemClass, long id) {
+        BaseItem item = mock(itemClass);
+        when(item.getEntityId()).thenReturn(id);
+        return item;
+    }
+}
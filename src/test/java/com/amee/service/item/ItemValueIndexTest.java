@@ -0,0 +1,133 @@
+package com.amee.service.item;
+
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItem;
+import com.amee.domain.item.data.DataItemNumberValue;
+import com.amee.domain.item.data.DataItemNumberValueHistory;
+import com.amee.platform.science.StartEndDate;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ItemValueIndexTest {
+
+    private DataItem dataItem;
+    private DataItemServiceDAO dao;
+    private DataItemServiceImpl dataItemService;
+    private BaseItemValue mass;
+    private BaseItemValue trashed;
+    private BaseItemValue first;
+    private BaseItemValue second;
+
+    @Before
+    public void setUp() {
+        dataItem = mock(DataItem.class);
+        mass = value("IV0000000001", "mass", false);
+        trashed = value("IV0000000002", "volume", true);
+        second = historyValue("IV0000000003", "kgCO2PerKm", 2000L);
+        first = historyValue("IV0000000004", "kgCO2PerKm", 1000L);
+        Set<BaseItemValue> itemValues = new HashSet<BaseItemValue>();
+        itemValues.add(mass);
+        itemValues.add(trashed);
+        itemValues.add(second);
+        itemValues.add(first);
+
+        dao = mock(DataItemServiceDAO.class);
+        when(dao.getAllItemValues(dataItem)).thenReturn(itemValues);
+        dataItemService = new DataItemServiceImpl();
+        ReflectionTestUtils.setField(dataItemService, "dao", dao);
+        ReflectionTestUtils.setField(dataItemService, "dataItemValuesCache", new DataItemValuesCache());
+    }
+
+    @Test
+    public void indexHoldsActiveValues() {
+        ItemValueIndex index = ItemValueIndex.create(dao.getAllItemValues(dataItem));
+        assertEquals(3, index.getActiveItemValues().size());
+        assertFalse(index.getActiveItemValues().contains(trashed));
+        assertSame(mass, index.getByUid("IV0000000001"));
+        assertNull(index.getByUid("IV0000000002"));
+        assertTrue(index.getItemValuesMap().containsKey("mass"));
+        assertFalse(index.getItemValuesMap().containsKey("volume"));
+    }
+
+    @Test
+    public void seriesAreTimeOrderedAndShared() {
+        ItemValueIndex index = ItemValueIndex.create(dao.getAllItemValues(dataItem));
+        ItemValueSeries series = index.getSeries("kgCO2PerKm");
+        assertEquals(2, series.size());
+        assertSame(first, series.getItemValue(0));
+        assertSame(second, series.getItemValue(1));
+        assertSame(series, index.getSeries("kgCO2PerKm"));
+        assertEquals(0, index.getSeries("unknown").size());
+    }
+
+    @Test
+    public void emptyIndexForNoValues() {
+        ItemValueIndex index = ItemValueIndex.create(null);
+        assertTrue(index.getActiveItemValues().isEmpty());
+        assertNull(index.getByUid("IV0000000001"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void activeValuesAreUnmodifiable() {
+        ItemValueIndex.create(dao.getAllItemValues(dataItem)).getActiveItemValues().clear();
+    }
+
+    @Test
+    public void indexIsSharedWithinTheTransaction() {
+        ItemValueIndex index = dataItemService.getItemValueIndex(dataItem);
+        assertSame(index, dataItemService.getItemValueIndex(dataItem));
+        assertSame(index.getItemValuesMap(), dataItemService.getItemValuesMap(dataItem));
+        assertSame(index.getActiveItemValues(), dataItemService.getActiveItemValues(dataItem));
+        assertSame(mass, dataItemService.getByUid(dataItem, "IV0000000001"));
+        verify(dao, times(1)).getAllItemValues(dataItem);
+
+        dataItemService.clearItemValues();
+        assertFalse(index == dataItemService.getItemValueIndex(dataItem));
+    }
+
+    @Test
+    public void removingAValueRebuildsTheIndex() {
+        assertSame(mass, dataItemService.getByUid(dataItem, "IV0000000001"));
+        when(mass.isTrash()).thenReturn(true);
+        dataItemService.remove(mass);
+        assertNull(dataItemService.getByUid(dataItem, "IV0000000001"));
+        assertEquals(2, dataItemService.getActiveItemValues(dataItem).size());
+    }
+
+    private BaseItemValue value(String uid, String path, boolean trash) {
+        DataItemNumberValue itemValue = mock(DataItemNumberValue.class);
+        stubValue(itemValue, uid, path);
+        when(itemValue.isTrash()).thenReturn(trash);
+        return itemValue;
+    }
+
+    private BaseItemValue historyValue(String uid, String path, long startTime) {
+        DataItemNumberValueHistory itemValue = mock(DataItemNumberValueHistory.class);
+        stubValue(itemValue, uid, path);
+        when(itemValue.getStartDate()).thenReturn(new StartEndDate(new Date(startTime)));
+        return itemValue;
+    }
+
+    private void stubValue(BaseItemValue itemValue, String uid, String path) {
+        when(itemValue.getUid()).thenReturn(uid);
+        when(itemValue.getPath()).thenReturn(path);
+        when(itemValue.getDisplayPath()).thenReturn(path);
+        when(itemValue.getValueAsString()).thenReturn("1");
+        when(itemValue.getItem()).thenReturn(dataItem);
+    }
+}
@@ -0,0 +1,141 @@
+package com.amee.service.item;
+
+import com.amee.domain.item.BaseItemValue;
+import com.amee.domain.item.data.DataItemNumberValueHistory;
+import com.amee.platform.science.StartEndDate;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemValueSeriesTest {
+
+    @Test
+    public void valuesAreOrderedByStartDate() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        itemValues.add(historyValue(3000, "3", true));
+        itemValues.add(historyValue(1000, "1", true));
+        itemValues.add(historyValue(2000, "2", true));
+
+        ItemValueSeries series = ItemValueSeries.create(itemValues);
+        assertEquals(3, series.size());
+        assertEquals(1000, series.getStartTime(0));
+        assertEquals(2000, series.getStartTime(1));
+        assertEquals(3000, series.getStartTime(2));
+        assertEquals(1.0, series.getValue(0), 0.0);
+        assertTrue(series.isHistory(0));
+    }
+
+    @Test
+    public void nonNumericValuesAreNaN() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        itemValues.add(historyValue(1000, "abc", true));
+        itemValues.add(historyValue(2000, "", true));
+
+        ItemValueSeries series = ItemValueSeries.create(itemValues);
+        assertTrue(Double.isNaN(series.getValue(0)));
+        assertTrue(Double.isNaN(series.getValue(1)));
+    }
+
+    @Test
+    public void usableSeriesExcludesUnusableValues() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        BaseItemValue first = historyValue(1000, "1", true);
+        BaseItemValue third = historyValue(3000, "3", true);
+        itemValues.add(first);
+        itemValues.add(historyValue(2000, "", false));
+        itemValues.add(third);
+
+        ItemValueSeries usable = ItemValueSeries.create(itemValues).getUsable();
+        assertEquals(2, usable.size());
+        assertSame(first, usable.getItemValue(0));
+        assertSame(third, usable.getItemValue(1));
+    }
+
+    @Test
+    public void usableSeriesIsSharedWhenAllValuesAreUsable() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        itemValues.add(historyValue(1000, "1", true));
+        itemValues.add(historyValue(2000, "2", true));
+
+        ItemValueSeries series = ItemValueSeries.create(itemValues);
+        assertSame(series, series.getUsable());
+    }
+
+    @Test
+    public void windowCoversValuesInForce() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        for (int i = 1; i <= 10; i++) {
+            itemValues.add(historyValue(i * 1000, String.valueOf(i), true));
+        }
+        ItemValueSeries series = ItemValueSeries.create(itemValues);
+
+        // Open window.
+        assertEquals(0, series.getWindowStart(null));
+        assertEquals(10, series.getWindowEnd(null));
+
+        // Window starting between values begins with the value in force.
+        assertEquals(2, series.getWindowStart(new Date(3500)));
+
+        // Window starting exactly on a value begins with that value.
+        assertEquals(2, series.getWindowStart(new Date(3000)));
+
+        // Window starting before all values begins with the first.
+        assertEquals(0, series.getWindowStart(new Date(10)));
+
+        // Window end includes the first value starting on or after the end.
+        assertEquals(6, series.getWindowEnd(new Date(5500)));
+        assertEquals(5, series.getWindowEnd(new Date(5000)));
+        assertEquals(10, series.getWindowEnd(new Date(50000)));
+    }
+
+    @Test
+    public void windowIncludesValuesSharingTheStartTime() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        itemValues.add(historyValue(1000, "1", true));
+        itemValues.add(historyValue(2000, "2a", true));
+        itemValues.add(historyValue(2000, "2b", true));
+        itemValues.add(historyValue(3000, "3", true));
+        ItemValueSeries series = ItemValueSeries.create(itemValues);
+
+        assertEquals(1, series.getWindowStart(new Date(2000)));
+        assertEquals(1, series.getWindowStart(new Date(2500)));
+    }
+
+    @Test
+    public void rangesAreViewsCopiedWhenModified() {
+        List<BaseItemValue> itemValues = new ArrayList<BaseItemValue>();
+        for (int i = 1; i <= 10; i++) {
+            itemValues.add(historyValue(i * 1000, String.valueOf(i), true));
+        }
+        ItemValueSeries series = ItemValueSeries.create(itemValues);
+
+        List<BaseItemValue> range = series.getItemValues(2, 6);
+        assertEquals(4, range.size());
+        assertSame(series.getItemValue(2), range.get(0));
+        assertSame(series.getItemValue(5), range.get(3));
+
+        // Sorting the range in reverse leaves the series in order.
+        Collections.reverse(range);
+        assertSame(series.getItemValue(5), range.get(0));
+        assertSame(series.getItemValue(2), range.get(3));
+        assertEquals(3000, series.getStartTime(2));
+        assertEquals(3000, ((DataItemNumberValueHistory) series.getItemValue(2)).getStartDate().getTime());
+    }
+
+    private BaseItemValue historyValue(long startTime, String value, boolean usable) {
+        DataItemNumberValueHistory itemValue = mock(DataItemNumberValueHistory.class);
+        when(itemValue.getStartDate()).thenReturn(new StartEndDate(new Date(startTime)));
+        when(itemValue.getValueAsString()).thenReturn(value);
+        when(itemValue.isUsableValue()).thenReturn(usable);
+        return itemValue;
+    }
+}
@@ -0,0 +1,53 @@
+package com.amee.service.item;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PropertyReadersTest {
+
+    @Test
+    public void readablePropertiesHaveReadMethods() throws Exception {
+        PropertyReaders readers = PropertyReaders.forBean(new Values());
+        assertTrue(readers.hasProperty("distance"));
+        assertEquals("12.5", readers.getReadMethod("distance").invoke(new Values()));
+    }
+
+    @Test
+    public void writeOnlyPropertiesHaveNoReadMethod() {
+        PropertyReaders readers = PropertyReaders.forClass(Values.class);
+        assertTrue(readers.hasProperty("fuel"));
+        assertNull(readers.getReadMethod("fuel"));
+    }
+
+    @Test
+    public void unknownPropertiesAreNotFound() {
+        PropertyReaders readers = PropertyReaders.forClass(Values.class);
+        assertFalse(readers.hasProperty("unknown"));
+        assertFalse(PropertyReaders.forBean(null).hasProperty("distance"));
+    }
+
+    @Test
+    public void readersAreSharedPerClass() {
+        assertSame(PropertyReaders.forClass(Values.class), PropertyReaders.forBean(new Values()));
+    }
+
+    public static class Values {
+
+        public String getDistance() {
+            return "12.5";
+        }
+
+        public void setDistance(String distance) {
+            // Ignored.
+        }
+
+        public void setFuel(String fuel) {
+            // Ignored.
+        }
+    }
+}
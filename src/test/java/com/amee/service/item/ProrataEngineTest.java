@@ -0,0 +1,148 @@
+package com.amee.service.item;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.junit.Test;
+
+import javax.measure.Measure;
+import javax.measure.quantity.Duration;
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link ProrataEngine} gives exactly the same results as the Joda Interval and JScience Measure
+ * based prorata it replaced, over randomised intervals.
+ */
+public class ProrataEngineTest {
+
+    private static final long YEAR = 365L * 24 * 60 * 60 * 1000;
+
+    @SuppressWarnings("unchecked")
+    private static final Unit<Duration>[] PER_UNITS = new Unit[]{
+            SI.SECOND, NonSI.MINUTE, NonSI.HOUR, NonSI.DAY, NonSI.WEEK, NonSI.MONTH, NonSI.YEAR};
+
+    private final Random random = new Random(20121018L);
+
+    @Test
+    public void intersectDurationsMatchJoda() {
+        for (int run = 0; run < 1000; run++) {
+            long requestStart = randomTime();
+            long requestEnd = requestStart + randomDuration();
+            ProrataEngine engine = new ProrataEngine(requestStart, requestEnd);
+            Interval requestInterval = new Interval(new DateTime(requestStart), new DateTime(requestEnd));
+
+            long[] starts = new long[1];
+            long[] ends = new long[1];
+            starts[0] = randomTime();
+            ends[0] = random.nextBoolean() ? ProrataEngine.UNBOUNDED : starts[0] + randomDuration();
+
+            Long expected = null;
+            try {
+                expected = getLegacyIntersect(requestInterval, starts[0], ends[0]).toDurationMillis();
+            } catch (IllegalArgumentException e) {
+                // Joda rejected the intersection.
+            }
+
+            try {
+                long actual = engine.getIntersectDurations(starts, ends)[0];
+                assertTrue("Joda rejected an intersection the engine accepted.", expected != null);
+                assertEquals(expected.longValue(), actual);
+            } catch (IllegalArgumentException e) {
+                assertTrue("The engine rejected an intersection Joda accepted.", expected == null);
+            }
+        }
+    }
+
+    @Test
+    public void intersectRatiosMatchLegacy() {
+        for (int run = 0; run < 1000; run++) {
+            long requestStart = randomTime();
+            long requestEnd = requestStart + randomDuration();
+            ProrataEngine engine = new ProrataEngine(requestStart, requestEnd);
+            Interval requestInterval = new Interval(new DateTime(requestStart), new DateTime(requestEnd));
+
+            // Items overlapping the request so that the intersections are valid.
+            long[] starts = new long[]{requestStart - (long) (random.nextDouble() * YEAR) + (long) (random.nextDouble() * (requestEnd - requestStart))};
+            long[] ends = new long[]{Math.max(starts[0], requestStart) + randomDuration()};
+
+            long[] intersectDurations = engine.getIntersectDurations(starts, ends);
+            double ratio = engine.getIntersectRatios(intersectDurations, engine.getItemDurations(starts, ends))[0];
+            double[] amounts = new double[]{random.nextDouble() * 1000, -random.nextDouble(), 0.0};
+            double[] prorated = engine.prorate(amounts, ratio);
+
+            // Legacy calculation.
+            Interval intersect = getLegacyIntersect(requestInterval, starts[0], ends[0]);
+            long itemDurationInMillis = new Interval(new DateTime(starts[0]), new DateTime(ends[0])).toDurationMillis();
+            double eventIntersectRatio = intersect.toDurationMillis() / (double) itemDurationInMillis;
+            for (int i = 0; i < amounts.length; i++) {
+                assertEquals(Double.doubleToLongBits(amounts[i] * eventIntersectRatio), Double.doubleToLongBits(prorated[i]));
+            }
+        }
+    }
+
+    @Test
+    public void perTimeValuesMatchMeasure() {
+        ProrataEngine engine = new ProrataEngine(0, YEAR);
+        for (int run = 0; run < 1000; run++) {
+            Unit<Duration> perUnit = PER_UNITS[random.nextInt(PER_UNITS.length)];
+            double value = random.nextDouble() * 10000;
+            long intersectDuration = randomDuration();
+
+            // Legacy calculation.
+            Measure<Integer, Duration> measure = Measure.valueOf(1, perUnit);
+            double perTime = measure.doubleValue(SI.MILLI(SI.SECOND));
+            double intersectPerTimeRatio = intersectDuration / perTime;
+            double expected = value * intersectPerTimeRatio;
+
+            assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(engine.prorate(value, perUnit, intersectDuration)));
+        }
+    }
+
+    @Test
+    public void unboundedItemsHaveNoRatio() {
+        ProrataEngine engine = new ProrataEngine(0, YEAR);
+        long[] starts = new long[]{0};
+        long[] ends = new long[]{ProrataEngine.UNBOUNDED};
+        long[] itemDurations = engine.getItemDurations(starts, ends);
+        assertEquals(-1, itemDurations[0]);
+        assertTrue(Double.isNaN(engine.getIntersectRatios(engine.getIntersectDurations(starts, ends), itemDurations)[0]));
+    }
+
+    @Test
+    public void negativeRequestIsRejected() {
+        try {
+            new ProrataEngine(YEAR, 0);
+            fail("Should have thrown an IllegalArgumentException.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    // The intersection logic as previously implemented in ProfileItemServiceImpl.
+    private Interval getLegacyIntersect(Interval requestInterval, long start, long end) {
+        Interval intersect = requestInterval;
+        if (intersect.getStart().toDate().getTime() < start) {
+            intersect = intersect.withStartMillis(start);
+        }
+        if ((end != ProrataEngine.UNBOUNDED) && (end < intersect.getEnd().toDate().getTime())) {
+            intersect = intersect.withEndMillis(end);
+        }
+        return intersect;
+    }
+
+    private long randomTime() {
+        // Somewhere within ten years of 2010.
+        return 1262304000000L + (long) ((random.nextDouble() - 0.5) * 10 * YEAR);
+    }
+
+    private long randomDuration() {
+        // Include zero length durations.
+        return random.nextInt(10) == 0 ? 0 : (long) (random.nextDouble() * 2 * YEAR);
+    }
+}